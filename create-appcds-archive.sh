@@ -0,0 +1,16 @@
+set -e # stop script in case of error at any step.
+
+# Builds an application class data sharing (AppCDS) archive for the standalone jar from a scripted warm up run.
+# The archive must be created with the same JDK and the same jar path that are used at runtime:
+#   java -XX:SharedArchiveFile=<archive> -jar <jar>
+
+JAR=${1:-target/twilio-wait-and-continue-standalone.jar}
+ARCHIVE=${2:-target/app-cds.jsa}
+CLASS_LIST=${ARCHIVE%.jsa}.classlist
+
+java -Xshare:off -XX:DumpLoadedClassList="$CLASS_LIST" -cp "$JAR" \
+  com.amazonaws.lex.twilio.sample.standalone.ClassDataSharingWarmUp
+
+java -Xshare:dump -XX:SharedClassListFile="$CLASS_LIST" -XX:SharedArchiveFile="$ARCHIVE" -cp "$JAR"
+
+echo "created $ARCHIVE"
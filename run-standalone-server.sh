@@ -0,0 +1,7 @@
+set -e # stop script in case of error at any step.
+
+mvn -B -Pstandalone package
+
+docker build -f Dockerfile.standalone -t twilio:lex-streaming-sample-standalone .
+
+docker run -p 8889:8080 twilio:lex-streaming-sample-standalone
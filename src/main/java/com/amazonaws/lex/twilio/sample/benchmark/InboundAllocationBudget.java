@@ -0,0 +1,352 @@
+package com.amazonaws.lex.twilio.sample.benchmark;
+
+import com.amazonaws.lex.twilio.sample.conversation.BotConversation;
+import com.amazonaws.lex.twilio.sample.conversation.CallActor;
+import com.amazonaws.lex.twilio.sample.conversation.CallShards;
+import com.amazonaws.lex.twilio.sample.conversation.CallSupervisor;
+import com.amazonaws.lex.twilio.sample.conversation.CallWatch;
+import com.amazonaws.lex.twilio.sample.cost.CallCosts;
+import com.amazonaws.lex.twilio.sample.jfr.WebSocketMessageEvent;
+import com.amazonaws.lex.twilio.sample.server.AudioStream;
+import com.amazonaws.lex.twilio.sample.server.media.AudioQualityAnalyzer;
+import com.amazonaws.lex.twilio.sample.server.media.DecompressInputStream;
+import com.amazonaws.lex.twilio.sample.server.media.InboundAudio;
+import com.amazonaws.lex.twilio.sample.server.media.JitterBuffer;
+import com.amazonaws.lex.twilio.sample.server.messages.Message;
+import com.amazonaws.lex.twilio.sample.server.messages.MessageDecoder;
+import com.amazonaws.lex.twilio.sample.server.messages.MessageType;
+import com.amazonaws.lex.twilio.sample.streaming.EventsPublisher;
+import com.amazonaws.lex.twilio.sample.streaming.UplinkCodec;
+import com.amazonaws.lex.twilio.sample.timeline.CallTimeline;
+import com.amazonaws.lex.twilio.sample.timeline.CallTimelines;
+import org.apache.log4j.Logger;
+
+import java.lang.management.ManagementFactory;
+import java.util.Base64;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.TimeUnit;
+
+/*
+ * Copyright Amazon.com, Inc. or its affiliates. All Rights Reserved.
+ * SPDX-License-Identifier: MIT-0
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this
+ * software and associated documentation files (the "Software"), to deal in the Software
+ * without restriction, including without limitation the rights to use, copy, modify,
+ * merge, publish, distribute, sublicense, and/or sell copies of the Software, and to
+ * permit persons to whom the Software is furnished to do so.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED,
+ * INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A
+ * PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT
+ * HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION
+ * OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE
+ * SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+/**
+ * Measures the bytes allocated per inbound media frame, from the WebSocket text Twilio sends to the Lex audio event,
+ * with {@code ThreadMXBean.getThreadAllocatedBytes}, and exits with status 1 when a frame allocates more than the
+ * budget. Run by {@code mvn -Pallocation-budget verify}, which fails the build in that case.
+ * <p>
+ * The whole path is measured the way {@link AudioStream} runs it: the WebSocket thread tells the call's
+ * {@link CallActor}, which records the message in flight recorder events and the call's cost, and hands it to
+ * {@link InboundAudio} for the payload, the transcoding, the {@link AudioQualityAnalyzer} and the {@link JitterBuffer},
+ * whose frames go to the call's timeline and the {@link BotConversation}. Allocations of both the harness thread and
+ * the call's shard thread count. The media messages lose and reorder frames now and then, so that concealment runs.
+ * <p>
+ * Each stage is also measured on its own. Everything runs after a warm up, so that the numbers reflect JIT compiled
+ * steady state code. A sink keeps results reachable, so that escape analysis cannot remove allocations the real path
+ * would make.
+ * <p>
+ * System properties:
+ * <ul>
+ *     <li>{@code allocation.budget.bytes-per-frame}: budget for the whole path, default 1024</li>
+ *     <li>{@code allocation.budget.<stage>}: optional budget for a single stage (decode, payload, transcode, analyze,
+ *     jitter, event)</li>
+ *     <li>{@code allocation.frames}: measured frames per stage, default 50000</li>
+ *     <li>{@code allocation.warmup-frames}: frames run before measuring, default 20000</li>
+ *     <li>{@code allocation.loss-every}: one in this many frames is lost, default 50, 0 for none</li>
+ *     <li>{@code allocation.reorder-every}: one in this many frames arrives after the next one, default 100, 0 for
+ *     none</li>
+ * </ul>
+ */
+public class InboundAllocationBudget {
+
+    private static final Logger LOG = Logger.getLogger(InboundAllocationBudget.class);
+
+    private static final int FRAME_SIZE = 160; // 20ms of 8kHz u-law, as sent by Twilio
+    private static final int FRAME_MILLIS = 20;
+    private static final int SINK_SIZE = 1024;
+    // events are queued until a conversation ends; a fresh call per batch keeps the heap from filling up.
+    private static final int FRAMES_PER_CALL = 10000;
+
+    private final com.sun.management.ThreadMXBean threadMXBean;
+    private final long threadId;
+    // the media messages of a call, in the order Twilio sends them.
+    private final String[] mediaJson;
+    private final long[] chunks;
+    private final long[] timestamps;
+    private final Object[] sink;
+    private int calls;
+
+    private InboundAllocationBudget(int lossEvery, int reorderEvery) {
+        this.threadMXBean = (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+        this.threadId = Thread.currentThread().getId();
+        this.sink = new Object[SINK_SIZE];
+
+        byte[] frame = new byte[FRAME_SIZE];
+        for (int i = 0; i < frame.length; i++) {
+            frame[i] = (byte) (i * 31);
+        }
+        String payload = Base64.getEncoder().encodeToString(frame);
+        this.mediaJson = new String[FRAMES_PER_CALL];
+        this.chunks = new long[FRAMES_PER_CALL];
+        this.timestamps = new long[FRAMES_PER_CALL];
+        long chunk = 1;
+        for (int i = 0; i < FRAMES_PER_CALL; i++, chunk++) {
+            if (lossEvery > 0 && chunk % lossEvery == 0) {
+                chunk++;
+            }
+            chunks[i] = chunk;
+            timestamps[i] = chunk * FRAME_MILLIS;
+        }
+        for (int i = reorderEvery - 1; reorderEvery > 0 && i + 1 < FRAMES_PER_CALL; i += reorderEvery) {
+            swap(chunks, i, i + 1);
+            swap(timestamps, i, i + 1);
+        }
+        for (int i = 0; i < FRAMES_PER_CALL; i++) {
+            mediaJson[i] = "{\"event\":\"media\",\"sequenceNumber\":\"" + (i + 2)
+                    + "\",\"streamSid\":\"MZ00000000000000000000000000000000\",\"media\":{\"track\":\"inbound\","
+                    + "\"chunk\":\"" + chunks[i] + "\",\"timestamp\":\"" + timestamps[i] + "\",\"payload\":\""
+                    + payload + "\"}}";
+        }
+    }
+
+    private static void swap(long[] values, int i, int j) {
+        long value = values[i];
+        values[i] = values[j];
+        values[j] = value;
+    }
+
+    public static void main(String[] args) throws Exception {
+        int frames = Integer.getInteger("allocation.frames", 50000);
+        int warmUpFrames = Integer.getInteger("allocation.warmup-frames", 20000);
+        long budget = Long.getLong("allocation.budget.bytes-per-frame", 1024);
+
+        InboundAllocationBudget harness = new InboundAllocationBudget(Integer.getInteger("allocation.loss-every", 50),
+                Integer.getInteger("allocation.reorder-every", 100));
+        if (!harness.threadMXBean.isThreadAllocatedMemorySupported()) {
+            LOG.error("this JVM does not report allocated bytes per thread");
+            System.exit(1);
+        }
+        harness.threadMXBean.setThreadAllocatedMemoryEnabled(true);
+
+        boolean withinBudget = true;
+        double total = 0;
+        for (Stage stage : Stage.values()) {
+            harness.run(stage, warmUpFrames);
+            double bytesPerFrame = harness.run(stage, frames);
+            total += bytesPerFrame;
+
+            Long stageBudget = Long.getLong("allocation.budget." + stage.name().toLowerCase());
+            boolean stageWithinBudget = stageBudget == null || bytesPerFrame <= stageBudget;
+            withinBudget &= stageWithinBudget;
+            LOG.info(String.format("%-10s %8.1f bytes/frame%s", stage.name().toLowerCase(), bytesPerFrame,
+                    stageBudget == null ? "" : " (budget " + stageBudget + ")" + (stageWithinBudget ? "" : " OVER BUDGET")));
+        }
+
+        harness.runCalls(warmUpFrames);
+        double endToEnd = harness.runCalls(frames);
+        withinBudget &= endToEnd <= budget;
+        LOG.info(String.format("%-10s %8.1f bytes/frame (sum of stages %.1f, budget %d)", "total", endToEnd, total, budget));
+
+        if (!withinBudget) {
+            LOG.error("the inbound media path allocates more than its budget");
+            System.exit(1);
+        }
+        System.exit(0);
+    }
+
+    /**
+     * Runs a single stage on this thread for the given number of frames.
+     *
+     * @return allocated bytes per frame
+     */
+    private double run(Stage stage, int frames) {
+        MessageDecoder decoder = new MessageDecoder();
+        Message message = decoder.decode(mediaJson[0]);
+        byte[] payload = new byte[message.maxMediaPayloadLength()];
+        int payloadLength = message.decodeMediaPayload(payload);
+        byte[] pcm = new byte[payloadLength * 2];
+        DecompressInputStream.decompressULaw(payload, payloadLength, pcm);
+
+        long allocated = 0;
+        int done = 0;
+        while (done < frames) {
+            int batch = Math.min(FRAMES_PER_CALL, frames - done);
+            EventsPublisher eventsPublisher = stage == Stage.EVENT ? new EventsPublisher() : null;
+            AudioQualityAnalyzer qualityAnalyzer = new AudioQualityAnalyzer();
+            JitterBuffer jitterBuffer = new JitterBuffer(frame -> sink[frame.length & (SINK_SIZE - 1)] = frame);
+
+            long before = threadMXBean.getThreadAllocatedBytes(threadId);
+            for (int i = 0; i < batch; i++) {
+                switch (stage) {
+                    case DECODE:
+                        Message decoded = decoder.decode(mediaJson[i]);
+                        decoded.eventType();
+                        sink[i & (SINK_SIZE - 1)] = decoded;
+                        break;
+                    case PAYLOAD:
+                        sink[i & (SINK_SIZE - 1)] = message.decodeMediaPayload(payload) == payloadLength ? payload : null;
+                        break;
+                    case TRANSCODE:
+                        byte[] transcoded = new byte[payloadLength * 2];
+                        DecompressInputStream.decompressULaw(payload, payloadLength, transcoded);
+                        sink[i & (SINK_SIZE - 1)] = transcoded;
+                        break;
+                    case ANALYZE:
+                        qualityAnalyzer.analyze(pcm);
+                        break;
+                    case JITTER:
+                        jitterBuffer.offer(chunks[i], timestamps[i], pcm);
+                        break;
+                    case EVENT:
+                        eventsPublisher.writeUserInputAudio(pcm);
+                        break;
+                    default:
+                        throw new IllegalArgumentException("unknown stage " + stage);
+                }
+            }
+            allocated += threadMXBean.getThreadAllocatedBytes(threadId) - before;
+            done += batch;
+            sink[0] = qualityAnalyzer.callEnded();
+            if (eventsPublisher != null) {
+                // never subscribed, so there is no writer to send a disconnection event.
+                eventsPublisher.abort();
+            }
+        }
+        return (double) allocated / frames;
+    }
+
+    /**
+     * Runs the whole path for the given number of frames, as calls of up to {@value #FRAMES_PER_CALL} frames.
+     *
+     * @return allocated bytes per frame, on this thread and the calls' shard threads
+     */
+    private double runCalls(int frames) throws Exception {
+        MessageDecoder decoder = new MessageDecoder();
+        long allocated = 0;
+        int done = 0;
+        while (done < frames) {
+            int batch = Math.min(FRAMES_PER_CALL, frames - done);
+            MediaCall call = new MediaCall(String.format("CA%032d", calls++));
+            long shardThreadId = call.onActor(() -> Thread.currentThread().getId());
+
+            long before = threadMXBean.getThreadAllocatedBytes(threadId);
+            long shardBefore = threadMXBean.getThreadAllocatedBytes(shardThreadId);
+            for (int i = 0; i < batch; i++) {
+                // what the WebSocket container does for every message, then AudioStream.onMessage.
+                Message message = decoder.decode(mediaJson[i]);
+                MessageType messageType = message.eventType();
+                call.actor.tell(() -> call.process(message, messageType));
+            }
+            call.onActor(() -> null);
+            allocated += threadMXBean.getThreadAllocatedBytes(threadId) - before
+                    + threadMXBean.getThreadAllocatedBytes(shardThreadId) - shardBefore;
+            done += batch;
+            call.end();
+        }
+        return (double) allocated / frames;
+    }
+
+    /**
+     * A call as {@link AudioStream} sets it up on the start message, with a conversation that is never connected.
+     */
+    private static final class MediaCall {
+        private final String callSid;
+        private final CallActor actor;
+        private final CallTimeline timeline;
+        private final CallWatch watch;
+        private final EventsPublisher eventsPublisher;
+        private final BotConversation botConversation;
+        private final InboundAudio inboundAudio;
+
+        private MediaCall(String callSid) {
+            this.callSid = callSid;
+            this.actor = CallShards.getInstance().newActor(callSid);
+            this.timeline = CallTimelines.callStarted(callSid, System.nanoTime());
+            this.watch = CallSupervisor.getInstance().watch(callSid, actor, cause -> {
+            });
+            this.eventsPublisher = new EventsPublisher(callSid, UplinkCodec.PCM, actor.getCost(),
+                    ForkJoinPool.commonPool());
+            this.botConversation = new BotConversation(eventsPublisher, actor.getCost());
+            this.inboundAudio = new InboundAudio(actor, this::forwardUserAudio);
+        }
+
+        // as AudioStream.process for a media message.
+        private void process(Message message, MessageType messageType) {
+            WebSocketMessageEvent messageEvent = new WebSocketMessageEvent();
+            messageEvent.begin();
+
+            watch.mediaReceived();
+            inboundAudio.media(message);
+
+            int messageSize = message.getJson().length();
+            messageEvent.finish(callSid, messageType.name(), messageSize);
+            actor.getCost().twilioReceived(messageSize);
+        }
+
+        // as AudioStream.forwardUserAudio.
+        private void forwardUserAudio(byte[] pcm) {
+            timeline.userAudio(pcm);
+            botConversation.writeUserInputAudio(pcm);
+        }
+
+        /**
+         * Runs the task on the call's actor once everything told before has run, and waits for it.
+         */
+        private <T> T onActor(Callable<T> task) throws Exception {
+            CompletableFuture<T> result = new CompletableFuture<>();
+            actor.tell(() -> {
+                try {
+                    result.complete(task.call());
+                } catch (Exception e) {
+                    result.completeExceptionally(e);
+                }
+            });
+            return result.get(1, TimeUnit.MINUTES);
+        }
+
+        private void end() throws Exception {
+            onActor(() -> {
+                inboundAudio.flush();
+                inboundAudio.close();
+                inboundAudio.getQualityAnalyzer().callEnded();
+                // never subscribed, so there is no writer to send a disconnection event.
+                eventsPublisher.abort();
+                return null;
+            });
+            CallSupervisor.getInstance().release(watch, null);
+            CallTimelines.callEnded(timeline);
+            CallCosts.getInstance().close(actor.getCost());
+        }
+    }
+
+    private enum Stage {
+        // WebSocket text to message and event type
+        DECODE,
+        // base64 payload into the reused u-law buffer
+        PAYLOAD,
+        // u-law to the PCM array handed over to Lex
+        TRANSCODE,
+        // level, clipping and silence measures of the caller's audio
+        ANALYZE,
+        // back in order, with lost frames concealed
+        JITTER,
+        // Lex audio input event, queued for sending
+        EVENT
+    }
+}
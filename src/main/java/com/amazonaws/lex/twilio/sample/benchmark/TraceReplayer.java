@@ -0,0 +1,380 @@
+package com.amazonaws.lex.twilio.sample.benchmark;
+
+import com.amazonaws.lex.twilio.sample.metrics.LatencyHistogram;
+import com.amazonaws.lex.twilio.sample.server.media.DecompressInputStream;
+import com.amazonaws.lex.twilio.sample.server.messages.Message;
+import com.amazonaws.lex.twilio.sample.server.messages.MessageDecoder;
+import com.amazonaws.lex.twilio.sample.server.messages.MessageType;
+import com.amazonaws.lex.twilio.sample.streaming.EventsPublisher;
+import com.amazonaws.lex.twilio.sample.streaming.UplinkCodec;
+import com.amazonaws.lex.twilio.sample.trace.TraceReader;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import com.google.gson.JsonElement;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParser;
+import org.apache.log4j.Logger;
+import org.reactivestreams.Subscriber;
+import org.reactivestreams.Subscription;
+import software.amazon.awssdk.services.lexruntimev2.model.StartConversationRequestEventStream;
+
+import javax.websocket.ClientEndpointConfig;
+import javax.websocket.ContainerProvider;
+import javax.websocket.Endpoint;
+import javax.websocket.EndpointConfig;
+import javax.websocket.MessageHandler;
+import javax.websocket.Session;
+import javax.websocket.WebSocketContainer;
+import java.io.IOException;
+import java.net.URI;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Base64;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+/*
+ * Copyright Amazon.com, Inc. or its affiliates. All Rights Reserved.
+ * SPDX-License-Identifier: MIT-0
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this
+ * software and associated documentation files (the "Software"), to deal in the Software
+ * without restriction, including without limitation the rights to use, copy, modify,
+ * merge, publish, distribute, sublicense, and/or sell copies of the Software, and to
+ * permit persons to whom the Software is furnished to do so.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED,
+ * INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A
+ * PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT
+ * HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION
+ * OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE
+ * SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+/**
+ * Replays media stream traces captured with {@code trace-capture-enabled=true} (see
+ * {@link com.amazonaws.lex.twilio.sample.trace.TraceCapture}), so that a real call becomes a repeatable benchmark.
+ * Arguments are trace files or directories containing them. Every trace is replayed {@code replay.copies} times, all
+ * replays running in parallel, and the latency distribution of each stage is logged at the end.
+ * <p>
+ * Media messages are rebuilt from the captured u-law payload with the stream SID of the trace's start message, so
+ * the server sees the same JSON Twilio sends.
+ * <p>
+ * System properties:
+ * <ul>
+ *     <li>{@code replay.speed}: {@code 1} replays with the captured timing, {@code N} N times faster, {@code max}
+ *     without waiting between messages. Default 1</li>
+ *     <li>{@code replay.copies}: parallel replays of each trace, default 1</li>
+ *     <li>{@code replay.target}: {@code in-process} (default) runs the inbound media path of this process up to the
+ *     queued Lex event, which a draining subscriber consumes instead of Lex. A {@code ws://} URL, e.g.
+ *     {@code ws://localhost:8080/audiostream}, replays over a WebSocket to a running server; set
+ *     {@code http-client=stub} in its Twilio configuration so replayed calls do not reach the Twilio API</li>
+ * </ul>
+ * Stage latencies measured in process are reported in nanoseconds, everything else in microseconds.
+ */
+public class TraceReplayer {
+
+    private static final Logger LOG = Logger.getLogger(TraceReplayer.class);
+
+    private static final String IN_PROCESS = "in-process";
+    private static final long CLOSE_LINGER_MILLIS = 1000;
+
+    // time a message was handled after its captured offset, scaled by speed.
+    private final LatencyHistogram scheduleLag = new LatencyHistogram();
+    // in process stages, in nanoseconds.
+    private final LatencyHistogram decode = new LatencyHistogram();
+    private final LatencyHistogram payload = new LatencyHistogram();
+    private final LatencyHistogram transcode = new LatencyHistogram();
+    private final LatencyHistogram event = new LatencyHistogram();
+    private final LatencyHistogram message = new LatencyHistogram();
+    // WebSocket send of one message.
+    private final LatencyHistogram send = new LatencyHistogram();
+    private final LongAdder messagesReplayed = new LongAdder();
+    private final LongAdder eventsDelivered = new LongAdder();
+    private final LongAdder messagesReceived = new LongAdder();
+
+    private final double speed;
+    private final String target;
+
+    private TraceReplayer(double speed, String target) {
+        this.speed = speed;
+        this.target = target;
+    }
+
+    public static void main(String[] args) throws Exception {
+        String speedProperty = System.getProperty("replay.speed", "1");
+        double speed = "max".equalsIgnoreCase(speedProperty) ? Double.POSITIVE_INFINITY : Double.parseDouble(speedProperty);
+        int copies = Integer.getInteger("replay.copies", 1);
+        String target = System.getProperty("replay.target", IN_PROCESS);
+
+        List<Path> traces = new ArrayList<>();
+        for (String arg : args) {
+            traces.addAll(tracesIn(Paths.get(arg)));
+        }
+        if (traces.isEmpty() || speed <= 0 || copies < 1) {
+            LOG.error("usage: TraceReplayer [-Dreplay.speed=1|N|max] [-Dreplay.copies=N] "
+                    + "[-Dreplay.target=in-process|ws://...] <trace file or directory>...");
+            System.exit(1);
+        }
+
+        TraceReplayer replayer = new TraceReplayer(speed, target);
+        int replays = traces.size() * copies;
+        LOG.info("replaying " + traces.size() + " traces " + copies + " times each to " + target + " at speed " + speedProperty);
+
+        ExecutorService executor = Executors.newFixedThreadPool(replays,
+                new ThreadFactoryBuilder().setNameFormat("trace-replay-%d").setDaemon(true).build());
+        List<Future<?>> futures = new ArrayList<>();
+        long start = System.nanoTime();
+        for (Path trace : traces) {
+            for (int i = 0; i < copies; i++) {
+                futures.add(executor.submit(() -> {
+                    replayer.replay(trace);
+                    return null;
+                }));
+            }
+        }
+
+        int failed = 0;
+        for (Future<?> future : futures) {
+            try {
+                future.get();
+            } catch (Exception e) {
+                failed++;
+                LOG.error("replay failed", e);
+            }
+        }
+        executor.shutdown();
+
+        LOG.info(String.format("%d replays (%d failed) finished in %d ms", replays, failed,
+                TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start)));
+        replayer.report();
+        System.exit(failed == 0 ? 0 : 1);
+    }
+
+    private static List<Path> tracesIn(Path path) throws IOException {
+        if (!Files.isDirectory(path)) {
+            return Collections.singletonList(path);
+        }
+        try (Stream<Path> files = Files.list(path)) {
+            return files.filter(Files::isRegularFile).sorted().collect(Collectors.toList());
+        }
+    }
+
+    private void replay(Path trace) throws Exception {
+        Sink sink = IN_PROCESS.equals(target) ? new InProcessSink() : new WebSocketSink(URI.create(target));
+        try (TraceReader reader = new TraceReader(trace)) {
+            MediaMessageBuilder mediaMessages = new MediaMessageBuilder();
+            long start = System.nanoTime();
+            while (reader.next()) {
+                String json = reader.getMessageType() == MessageType.MEDIA
+                        ? mediaMessages.build(reader.getData(), reader.getLength(), reader.getOffsetMicros())
+                        : mediaMessages.observe(reader.getText());
+
+                if (!Double.isInfinite(speed)) {
+                    long due = start + (long) (TimeUnit.MICROSECONDS.toNanos(reader.getOffsetMicros()) / speed);
+                    long wait;
+                    while ((wait = due - System.nanoTime()) > 0) {
+                        LockSupport.parkNanos(wait);
+                    }
+                    scheduleLag.recordNanos(System.nanoTime() - due);
+                }
+                sink.deliver(json);
+                messagesReplayed.increment();
+            }
+        } finally {
+            sink.close();
+        }
+    }
+
+    private void report() {
+        LOG.info(String.format("messages replayed %d, Lex events delivered %d, messages received %d",
+                messagesReplayed.sum(), eventsDelivered.sum(), messagesReceived.sum()));
+        if (!Double.isInfinite(speed)) {
+            report("schedule lag", "us", scheduleLag);
+        }
+        if (IN_PROCESS.equals(target)) {
+            report("decode", "ns", decode);
+            report("payload", "ns", payload);
+            report("transcode", "ns", transcode);
+            report("event", "ns", event);
+            report("message", "ns", message);
+        } else {
+            report("send", "us", send);
+        }
+    }
+
+    private static void report(String name, String unit, LatencyHistogram histogram) {
+        LOG.info(String.format("%-13s count %8d  mean %8.0f %s  p50 %7d  p90 %7d  p99 %7d  p99.9 %7d  max %8d",
+                name, histogram.count(), histogram.meanMicros(), unit, histogram.percentileMicros(50),
+                histogram.percentileMicros(90), histogram.percentileMicros(99), histogram.percentileMicros(99.9),
+                histogram.maxMicros()));
+    }
+
+    private interface Sink {
+        void deliver(String json) throws Exception;
+
+        void close() throws Exception;
+    }
+
+    /**
+     * Runs each message through the same steps as {@link com.amazonaws.lex.twilio.sample.server.AudioStream}, up to
+     * the Lex event queue. Histograms are fed nanoseconds, as these stages mostly take well below a microsecond.
+     */
+    private class InProcessSink implements Sink {
+
+        private final MessageDecoder decoder = new MessageDecoder();
+        private byte[] uLawBuffer = new byte[160];
+        private EventsPublisher eventsPublisher;
+
+        @Override
+        public void deliver(String json) {
+            long begin = System.nanoTime();
+            Message decoded = decoder.decode(json);
+            MessageType messageType = decoded.eventType();
+            long decodedAt = System.nanoTime();
+            decode.record(decodedAt - begin);
+
+            if (messageType == MessageType.START) {
+                startConversation(decoded.asStartMessage().getCallIdentifier().getCallId());
+            } else if (messageType == MessageType.MEDIA) {
+                if (eventsPublisher == null) {
+                    startConversation(null);
+                }
+                int maxPayloadLength = decoded.maxMediaPayloadLength();
+                if (uLawBuffer.length < maxPayloadLength) {
+                    uLawBuffer = new byte[maxPayloadLength];
+                }
+                long payloadStart = System.nanoTime();
+                int uLawLength = decoded.decodeMediaPayload(uLawBuffer);
+                long payloadEnd = System.nanoTime();
+                byte[] pcm = new byte[uLawLength * 2];
+                DecompressInputStream.decompressULaw(uLawBuffer, uLawLength, pcm);
+                long transcodeEnd = System.nanoTime();
+                eventsPublisher.writeUserInputAudio(pcm);
+                long eventEnd = System.nanoTime();
+
+                payload.record(payloadEnd - payloadStart);
+                transcode.record(transcodeEnd - payloadEnd);
+                event.record(eventEnd - transcodeEnd);
+            } else if (messageType == MessageType.STOP) {
+                close();
+            }
+            message.record(System.nanoTime() - begin);
+        }
+
+        private void startConversation(String callSid) {
+            close();
+            eventsPublisher = new EventsPublisher(callSid, UplinkCodec.PCM);
+            eventsPublisher.subscribe(new DrainingSubscriber());
+        }
+
+        @Override
+        public void close() {
+            if (eventsPublisher != null) {
+                eventsPublisher.stop();
+                eventsPublisher = null;
+            }
+        }
+    }
+
+    /**
+     * Takes the place of the Lex client: consumes and counts every event the conversation sends.
+     */
+    private class DrainingSubscriber implements Subscriber<StartConversationRequestEventStream> {
+
+        @Override
+        public void onSubscribe(Subscription subscription) {
+            subscription.request(Long.MAX_VALUE);
+        }
+
+        @Override
+        public void onNext(StartConversationRequestEventStream event) {
+            eventsDelivered.increment();
+        }
+
+        @Override
+        public void onError(Throwable throwable) {
+            LOG.error("replayed conversation failed", throwable);
+        }
+
+        @Override
+        public void onComplete() {
+        }
+    }
+
+    private class WebSocketSink implements Sink {
+
+        private final Session session;
+
+        WebSocketSink(URI uri) throws Exception {
+            WebSocketContainer container = ContainerProvider.getWebSocketContainer();
+            this.session = container.connectToServer(new Endpoint() {
+                @Override
+                public void onOpen(Session session, EndpointConfig config) {
+                    session.addMessageHandler(String.class, (MessageHandler.Whole<String>) text -> messagesReceived.increment());
+                }
+            }, ClientEndpointConfig.Builder.create().build(), uri);
+        }
+
+        @Override
+        public void deliver(String json) throws IOException {
+            long begin = System.nanoTime();
+            session.getBasicRemote().sendText(json);
+            send.recordNanos(System.nanoTime() - begin);
+        }
+
+        @Override
+        public void close() throws Exception {
+            // give the server time to answer the last messages, e.g. with a hang up after the stop message.
+            TimeUnit.MILLISECONDS.sleep(CLOSE_LINGER_MILLIS);
+            session.close();
+        }
+    }
+
+    /**
+     * Rebuilds Twilio media messages from captured payloads, numbering them the way Twilio does.
+     */
+    private static class MediaMessageBuilder {
+
+        private final Base64.Encoder encoder = Base64.getEncoder();
+        private String streamSid = "";
+        private long sequenceNumber;
+        private long chunk;
+        private long startOffsetMicros = -1;
+
+        /**
+         * Remembers the stream SID of a start message and returns the message unchanged.
+         */
+        String observe(String json) {
+            sequenceNumber++;
+            JsonObject jsonObject = JsonParser.parseString(json).getAsJsonObject();
+            JsonElement sid = jsonObject.get("streamSid");
+            if (sid != null && sid.isJsonPrimitive()) {
+                streamSid = sid.getAsString();
+            }
+            return json;
+        }
+
+        String build(byte[] data, int length, long offsetMicros) {
+            if (startOffsetMicros < 0) {
+                startOffsetMicros = offsetMicros;
+            }
+            sequenceNumber++;
+            chunk++;
+            byte[] payload = Arrays.copyOf(data, length);
+            return "{\"event\":\"media\",\"sequenceNumber\":\"" + sequenceNumber + "\",\"media\":{\"track\":\"inbound\","
+                    + "\"chunk\":\"" + chunk + "\",\"timestamp\":\"" + (offsetMicros - startOffsetMicros) / 1000
+                    + "\",\"payload\":\"" + encoder.encodeToString(payload) + "\"},\"streamSid\":\"" + streamSid + "\"}";
+        }
+    }
+}
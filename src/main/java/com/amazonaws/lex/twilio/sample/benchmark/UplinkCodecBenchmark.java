@@ -0,0 +1,173 @@
+package com.amazonaws.lex.twilio.sample.benchmark;
+
+import com.amazonaws.lex.twilio.sample.server.media.DecompressInputStream;
+import com.amazonaws.lex.twilio.sample.server.messages.MessageType;
+import com.amazonaws.lex.twilio.sample.streaming.UplinkCodec;
+import com.amazonaws.lex.twilio.sample.streaming.UplinkEncoder;
+import com.amazonaws.lex.twilio.sample.trace.TraceReader;
+import org.apache.log4j.Logger;
+
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+/*
+ * Copyright Amazon.com, Inc. or its affiliates. All Rights Reserved.
+ * SPDX-License-Identifier: MIT-0
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this
+ * software and associated documentation files (the "Software"), to deal in the Software
+ * without restriction, including without limitation the rights to use, copy, modify,
+ * merge, publish, distribute, sublicense, and/or sell copies of the Software, and to
+ * permit persons to whom the Software is furnished to do so.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED,
+ * INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A
+ * PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT
+ * HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION
+ * OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE
+ * SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+/**
+ * Compares the uplink codecs (see {@link UplinkCodec}) by the bandwidth of the audio sent to Lex and the CPU time
+ * spent encoding it, so that the bandwidth saved by Opus can be weighed against its cost per call. Every codec encodes
+ * the same audio on one thread after a warm up; CPU time is the thread's, from {@code ThreadMXBean}.
+ * <p>
+ * Arguments are optional media stream traces (see {@link com.amazonaws.lex.twilio.sample.trace.TraceCapture}) whose
+ * inbound audio is encoded; without traces a synthetic voice like signal with pauses is used.
+ * <p>
+ * System properties:
+ * <ul>
+ *     <li>{@code uplink.codecs}: codecs to compare, {@code pcm} or {@code opus:<bit rate>}, default
+ *     {@code pcm,opus:24000,opus:16000,opus:12000,opus:8000}</li>
+ *     <li>{@code uplink.opus.frame-ms}: Opus frame duration, default 20</li>
+ *     <li>{@code uplink.opus.complexity}: Opus encoder complexity, default 5</li>
+ *     <li>{@code uplink.seconds}: seconds of audio measured per codec, default 600</li>
+ *     <li>{@code uplink.warmup-seconds}: seconds of audio encoded before measuring, default 300</li>
+ * </ul>
+ */
+public class UplinkCodecBenchmark {
+
+    private static final Logger LOG = Logger.getLogger(UplinkCodecBenchmark.class);
+
+    private static final int FRAME_SAMPLES = 160; // 20ms at 8kHz, as sent by Twilio
+    private static final int FRAMES_PER_SECOND = 50;
+
+    public static void main(String[] args) throws IOException {
+        int frameMillis = Integer.getInteger("uplink.opus.frame-ms", 20);
+        int complexity = Integer.getInteger("uplink.opus.complexity", 5);
+        int frames = Integer.getInteger("uplink.seconds", 600) * FRAMES_PER_SECOND;
+        int warmUpFrames = Integer.getInteger("uplink.warmup-seconds", 300) * FRAMES_PER_SECOND;
+
+        List<UplinkCodec> codecs = new ArrayList<>();
+        for (String codec : System.getProperty("uplink.codecs", "pcm,opus:24000,opus:16000,opus:12000,opus:8000").split(",")) {
+            codec = codec.trim();
+            codecs.add(codec.equals("pcm")
+                    ? UplinkCodec.PCM
+                    : UplinkCodec.opus(Integer.parseInt(codec.substring(codec.indexOf(':') + 1)), frameMillis, complexity));
+        }
+
+        List<byte[]> audio = args.length == 0 ? syntheticAudio() : traceAudio(args);
+        LOG.info(String.format("encoding %d s of %s audio per codec", frames / FRAMES_PER_SECOND,
+                args.length == 0 ? "synthetic" : "captured"));
+
+        ThreadMXBean threadMXBean = ManagementFactory.getThreadMXBean();
+        if (!threadMXBean.isCurrentThreadCpuTimeSupported()) {
+            LOG.error("this JVM does not report CPU time per thread");
+            System.exit(1);
+        }
+
+        double pcmBitRate = UplinkCodec.PCM.getBitRate();
+        LOG.info(String.format("%-50s %10s %10s %14s %12s %14s", "codec", "kbit/s", "reduction", "cpu us/s audio",
+                "cpu/call", "calls/core"));
+        for (UplinkCodec codec : codecs) {
+            encode(codec, audio, warmUpFrames);
+            long cpuBefore = threadMXBean.getCurrentThreadCpuTime();
+            long bytes = encode(codec, audio, frames);
+            long cpuNanos = threadMXBean.getCurrentThreadCpuTime() - cpuBefore;
+
+            double seconds = (double) frames / FRAMES_PER_SECOND;
+            double bitRate = bytes * 8 / seconds;
+            // CPU time per second of audio, i.e. the share of one core a call keeps busy encoding
+            double cpuShare = cpuNanos / seconds / 1e9;
+            LOG.info(String.format("%-50s %10.1f %9.1fx %14.1f %11.3f%% %14s", codec, bitRate / 1000, pcmBitRate / bitRate,
+                    cpuShare * 1e6, cpuShare * 100, cpuShare == 0 ? "-" : String.format("%.0f", 1 / cpuShare)));
+        }
+        LOG.info("kbit/s is the audio carried by the Lex audio events, without event stream framing and TLS");
+    }
+
+    /**
+     * Encodes the given number of 20ms frames, cycling through the audio, with a fresh encoder as a new call would.
+     *
+     * @return bytes of encoded audio
+     */
+    private static long encode(UplinkCodec codec, List<byte[]> audio, int frames) {
+        UplinkEncoder encoder = codec.newEncoder();
+        long bytes = 0;
+        for (int i = 0; i < frames; i++) {
+            byte[] encoded = encoder.encode(audio.get(i % audio.size()));
+            if (encoded != null) {
+                bytes += encoded.length;
+            }
+        }
+        return bytes;
+    }
+
+    /**
+     * Inbound media of the traces as 16 bit PCM, one array per media frame.
+     */
+    private static List<byte[]> traceAudio(String[] traces) throws IOException {
+        List<byte[]> audio = new ArrayList<>();
+        for (String trace : traces) {
+            try (TraceReader reader = new TraceReader(Paths.get(trace))) {
+                while (reader.next()) {
+                    if (reader.getMessageType() == MessageType.MEDIA) {
+                        byte[] pcm = new byte[reader.getLength() * 2];
+                        DecompressInputStream.decompressULaw(reader.getData(), reader.getLength(), pcm);
+                        audio.add(pcm);
+                    }
+                }
+            }
+        }
+        if (audio.isEmpty()) {
+            throw new IllegalArgumentException("the traces contain no media");
+        }
+        return audio;
+    }
+
+    /**
+     * A minute of 16 bit PCM that resembles speech more than a tone does: a harmonic rich source with a wandering
+     * pitch, syllable like amplitude modulation, pauses between phrases and a noise floor.
+     */
+    private static List<byte[]> syntheticAudio() {
+        Random random = new Random(42);
+        List<byte[]> audio = new ArrayList<>();
+        double phase = 0;
+        for (int frame = 0; frame < 60 * FRAMES_PER_SECOND; frame++) {
+            byte[] pcm = new byte[FRAME_SAMPLES * 2];
+            for (int i = 0; i < FRAME_SAMPLES; i++) {
+                double t = (frame * FRAME_SAMPLES + i) / 8000.0;
+                // 2.5 s phrases followed by 1 s pauses
+                boolean speaking = t % 3.5 < 2.5;
+                double pitch = 120 + 30 * Math.sin(2 * Math.PI * 0.7 * t);
+                phase += 2 * Math.PI * pitch / 8000;
+                double voice = 0;
+                for (int harmonic = 1; harmonic <= 20; harmonic++) {
+                    voice += Math.sin(harmonic * phase) / harmonic;
+                }
+                double syllables = 0.5 + 0.5 * Math.sin(2 * Math.PI * 4 * t);
+                double sample = (speaking ? 6000 * syllables * voice : 0) + random.nextGaussian() * 60;
+                int value = (int) Math.max(Short.MIN_VALUE, Math.min(Short.MAX_VALUE, sample));
+                pcm[2 * i] = (byte) value;
+                pcm[2 * i + 1] = (byte) (value >> 8);
+            }
+            audio.add(pcm);
+        }
+        return audio;
+    }
+}
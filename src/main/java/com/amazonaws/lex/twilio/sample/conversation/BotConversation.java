@@ -1,10 +1,15 @@
 package com.amazonaws.lex.twilio.sample.conversation;
 
+import com.amazonaws.lex.twilio.sample.cost.CallCost;
+import com.amazonaws.lex.twilio.sample.logging.CallLogger;
+import com.amazonaws.lex.twilio.sample.metrics.LatencyHistogram;
+import com.amazonaws.lex.twilio.sample.metrics.Metrics;
+import com.amazonaws.lex.twilio.sample.streaming.BoundedLatencyQueue;
 import com.amazonaws.lex.twilio.sample.streaming.EventsPublisher;
-import org.apache.log4j.Logger;
 
-import java.nio.ByteBuffer;
-import java.util.concurrent.locks.ReentrantLock;
+import java.io.ByteArrayOutputStream;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.atomic.LongAdder;
 
 /*
  * Copyright Amazon.com, Inc. or its affiliates. All Rights Reserved.
@@ -23,52 +28,69 @@ import java.util.concurrent.locks.ReentrantLock;
  * OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE
  * SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
  */
+/**
+ * The Lex side of a call. Confined to the call's {@link CallActor}, so it needs no locking.
+ * <p>
+ * When the Lex stream fails and is being reopened, the caller's audio is held in the {@code reconnect-audio} queue
+ * (bounded by size and age, see queue-configuration.properties) and replayed into the new stream once it is
+ * established, so the caller does not notice the gap beyond a short delay.
+ */
 public class BotConversation {
 
-    private static final Logger LOG = Logger.getLogger(BotConversation.class);
-    private final EventsPublisher eventsPublisher;
-    private final ReentrantLock lock;
+    private static final CallLogger LOG = CallLogger.getLogger(BotConversation.class);
+
+    private static final LatencyHistogram RECONNECT_GAP = Metrics.latency("lex.reconnect.gap");
+    private static final LongAdder REPLAYED_FRAMES = Metrics.counter("lex.reconnect.replayed_frames");
+    private static final LongAdder TRIMMED_FRAMES = Metrics.counter("lex.reconnect.trimmed_frames");
+    private static final int REPLAY_BATCH_FRAMES = 10;
+
+    private EventsPublisher eventsPublisher;
+    private final CallCost cost;
 
     private boolean conversationStopped;
+    // set when the call is gone and the conversation has been ended at once, read by the Lex SDK's threads.
+    private volatile boolean terminated;
+    // the current Lex stream, cancelled when the conversation is terminated.
+    private CompletableFuture<Void> stream;
+    // audio of the caller while the stream is reopened, null while the stream is up.
+    private BoundedLatencyQueue<byte[]> reconnectBuffer;
+    private long streamLostNanos;
+    private boolean playbackFinishedPending;
 
-    public BotConversation(EventsPublisher eventsPublisher) {
+    /**
+     * @param cost what the call costs, charged with the audio held while the Lex stream is reconnecting
+     */
+    public BotConversation(EventsPublisher eventsPublisher, CallCost cost) {
         this.eventsPublisher = eventsPublisher;
+        this.cost = cost;
         this.conversationStopped = false;
-        this.lock = new ReentrantLock();
     }
 
     public boolean isConversationStopped() {
-        lock.lock();
-        try {
-            return conversationStopped;
-        } finally {
-            lock.unlock();
-        }
+        return conversationStopped;
     }
 
-    public void writeUserInputAudio(ByteBuffer byteBuffer) {
-        lock.lock();
-        try {
-            if (!conversationStopped) {
-                eventsPublisher.writeUserInputAudio(byteBuffer);
-            } else {
-                LOG.debug("ignoring sending user input audio to server because conversation has stopped");
-            }
-        } finally {
-            lock.unlock();
+    /**
+     * Sends 16 bit PCM audio to the bot. The array is handed over to the Lex event as is, so callers must not modify
+     * it afterwards.
+     */
+    public void writeUserInputAudio(byte[] pcm) {
+        if (!conversationStopped && reconnectBuffer != null) {
+            reconnectBuffer.offer(pcm);
+        } else if (!conversationStopped) {
+            eventsPublisher.writeUserInputAudio(pcm);
+        } else {
+            LOG.debug("ignoring sending user input audio to server because conversation has stopped");
         }
     }
 
     public void informPlaybackFinished() {
-        lock.lock();
-        try {
-            if (!conversationStopped) {
-                eventsPublisher.playbackFinished();
-            } else {
-                LOG.warn("ignoring sending playback interruption to server because conversation has stopped");
-            }
-        } finally {
-            lock.unlock();
+        if (!conversationStopped && reconnectBuffer != null) {
+            playbackFinishedPending = true;
+        } else if (!conversationStopped) {
+            eventsPublisher.playbackFinished();
+        } else {
+            LOG.warn("ignoring sending playback interruption to server because conversation has stopped");
         }
     }
 
@@ -80,14 +102,108 @@ public class BotConversation {
      * a Disconnect event.
      */
     public void stopConversation() {
-        lock.lock();
-        try {
-            if (!conversationStopped) {
-                eventsPublisher.stop();
+        if (!conversationStopped && reconnectBuffer == null) {
+            eventsPublisher.stop();
+        }
+        closeReconnectBuffer();
+        conversationStopped = true;
+    }
+
+    /**
+     * A Lex stream has been opened for the conversation.
+     */
+    public void streamOpened(CompletableFuture<Void> openedStream) {
+        this.stream = openedStream;
+    }
+
+    /**
+     * Ends the conversation at once, after the call is gone: stops sending to Lex without waiting to send a
+     * disconnection event, drops held audio and cancels the Lex stream.
+     *
+     * @return whether a Lex stream was still open
+     */
+    public boolean terminate() {
+        terminated = true;
+        if (!conversationStopped && reconnectBuffer == null) {
+            eventsPublisher.abort();
+        }
+        closeReconnectBuffer();
+        conversationStopped = true;
+        boolean open = stream != null && !stream.isDone() && stream.cancel(true);
+        stream = null;
+        return open;
+    }
+
+    public boolean isTerminated() {
+        return terminated;
+    }
+
+    public boolean isReconnecting() {
+        return reconnectBuffer != null;
+    }
+
+    /**
+     * The Lex stream has failed and is about to be reopened: stops its publisher and starts holding the caller's
+     * audio.
+     */
+    public void streamLost() {
+        if (conversationStopped || reconnectBuffer != null) {
+            return;
+        }
+        eventsPublisher.abort();
+        reconnectBuffer = new BoundedLatencyQueue<>("reconnect-audio", pcm -> 1);
+        BoundedLatencyQueue<byte[]> heldAudio = reconnectBuffer;
+        cost.retain("reconnect_audio", () -> heldAudio.sumOf(pcm -> pcm.length));
+        streamLostNanos = System.nanoTime();
+    }
+
+    /**
+     * A new Lex stream is established: replays the audio held since the failure, except audio older than the
+     * queue's maximum age, and continues with the new stream.
+     */
+    public void streamRestored(EventsPublisher restoredPublisher) {
+        if (conversationStopped || reconnectBuffer == null) {
+            restoredPublisher.stop();
+            return;
+        }
+        eventsPublisher = restoredPublisher;
+        int replayed = 0;
+        // frames are replayed in batches, so that a long gap does not overrun the new stream's event queue.
+        ByteArrayOutputStream batch = new ByteArrayOutputStream();
+        int batchFrames = 0;
+        byte[] pcm;
+        while ((pcm = reconnectBuffer.poll()) != null) {
+            batch.write(pcm, 0, pcm.length);
+            replayed++;
+            if (++batchFrames == REPLAY_BATCH_FRAMES) {
+                eventsPublisher.writeUserInputAudio(batch.toByteArray());
+                batch.reset();
+                batchFrames = 0;
             }
-            conversationStopped = true;
-        } finally {
-            lock.unlock();
+        }
+        if (batchFrames > 0) {
+            eventsPublisher.writeUserInputAudio(batch.toByteArray());
+        }
+        long trimmed = reconnectBuffer.drainGap();
+        closeReconnectBuffer();
+        if (playbackFinishedPending) {
+            playbackFinishedPending = false;
+            eventsPublisher.playbackFinished();
+        }
+
+        long gapNanos = System.nanoTime() - streamLostNanos;
+        RECONNECT_GAP.recordNanos(gapNanos);
+        REPLAYED_FRAMES.add(replayed);
+        TRIMMED_FRAMES.add(trimmed);
+        LOG.info("Lex stream restored after {} ms, replayed {} audio frames, trimmed {}", gapNanos / 1_000_000, replayed,
+                trimmed);
+    }
+
+    private void closeReconnectBuffer() {
+        if (reconnectBuffer != null) {
+            reconnectBuffer.close();
+            reconnectBuffer = null;
+            cost.release("reconnect_audio");
         }
     }
 
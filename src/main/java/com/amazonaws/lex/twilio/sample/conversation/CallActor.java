@@ -0,0 +1,136 @@
+package com.amazonaws.lex.twilio.sample.conversation;
+
+import com.amazonaws.lex.twilio.sample.cost.CallCost;
+import com.amazonaws.lex.twilio.sample.cost.CallCosts;
+import com.amazonaws.lex.twilio.sample.logging.CallLogger;
+import org.apache.log4j.Level;
+
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/*
+ * Copyright Amazon.com, Inc. or its affiliates. All Rights Reserved.
+ * SPDX-License-Identifier: MIT-0
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this
+ * software and associated documentation files (the "Software"), to deal in the Software
+ * without restriction, including without limitation the rights to use, copy, modify,
+ * merge, publish, distribute, sublicense, and/or sell copies of the Software, and to
+ * permit persons to whom the Software is furnished to do so.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED,
+ * INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A
+ * PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT
+ * HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION
+ * OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE
+ * SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+/**
+ * The single threaded owner of a call's state. Twilio messages, Lex events and playback progress are delivered to the
+ * call as messages through {@link #tell(Runnable)} and run one at a time, in the order they were told, on the shard
+ * thread the call is assigned to (see {@link CallShards}). State that is only touched from messages needs no locking.
+ * <p>
+ * A call gives its shard back after {@value #MAX_MESSAGES_PER_TURN} messages, so a busy call cannot starve the other
+ * calls on the same shard. Once the shards have been stopped, messages told to the call are dropped.
+ */
+public final class CallActor {
+
+    private static final CallLogger LOG = CallLogger.getLogger(CallActor.class);
+
+    static final int MAX_MESSAGES_PER_TURN = 32;
+
+    private final String callSid;
+    private final Executor shard;
+    private final Queue<Runnable> mailbox;
+    private final AtomicBoolean scheduled;
+    private final CallCost cost;
+    // measures the turns; only used by the turn in progress.
+    private final CallCost.Meter meter;
+
+    CallActor(String callSid, Executor shard) {
+        this.callSid = callSid;
+        this.shard = shard;
+        this.mailbox = new ConcurrentLinkedQueue<>();
+        this.scheduled = new AtomicBoolean(false);
+        this.cost = CallCosts.getInstance().open(callSid);
+        this.meter = cost.newMeter();
+    }
+
+    public String getCallSid() {
+        return callSid;
+    }
+
+    /**
+     * What the call costs; the actor's own turns are measured into it.
+     */
+    public CallCost getCost() {
+        return cost;
+    }
+
+    /**
+     * Queues a message for the call. Safe to call from any thread; never blocks.
+     */
+    public void tell(Runnable message) {
+        mailbox.add(message);
+        CallShards.messageQueued();
+        schedule();
+    }
+
+    private void schedule() {
+        if (scheduled.compareAndSet(false, true)) {
+            try {
+                shard.execute(this::processMailbox);
+            } catch (RejectedExecutionException e) {
+                // the shards have been stopped, the node is shutting down.
+                dropMailbox();
+                scheduled.set(false);
+            }
+        }
+    }
+
+    private void dropMailbox() {
+        int dropped = 0;
+        while (mailbox.poll() != null) {
+            CallShards.messageProcessed();
+            dropped++;
+        }
+        LOG.limited(Level.INFO, "calls.stopped", "dropped {} messages for call {}, its shard has stopped",
+                dropped, callSid);
+    }
+
+    private void processMailbox() {
+        // lines logged by the call's messages are tagged with the call, whichever shard thread runs them.
+        CallLogger.enterCall(callSid);
+        meter.start();
+        try {
+            processMessages();
+        } finally {
+            meter.record();
+            CallLogger.exitCall();
+        }
+        scheduled.set(false);
+        if (!mailbox.isEmpty()) {
+            schedule();
+        }
+    }
+
+    private void processMessages() {
+        for (int processed = 0; processed < MAX_MESSAGES_PER_TURN; processed++) {
+            Runnable message = mailbox.poll();
+            if (message == null) {
+                break;
+            }
+            CallShards.messageProcessed();
+            try {
+                message.run();
+            } catch (RuntimeException e) {
+                // one failed message must not stop the call from processing the next ones.
+                LOG.error("message for call {} failed", callSid, e);
+            }
+        }
+    }
+}
@@ -0,0 +1,156 @@
+package com.amazonaws.lex.twilio.sample.conversation;
+
+import com.amazonaws.lex.twilio.sample.lifecycle.Configuration;
+import com.amazonaws.lex.twilio.sample.logging.CallLogger;
+import com.amazonaws.lex.twilio.sample.metrics.Metrics;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+
+import java.util.Properties;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.SynchronousQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/*
+ * Copyright Amazon.com, Inc. or its affiliates. All Rights Reserved.
+ * SPDX-License-Identifier: MIT-0
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this
+ * software and associated documentation files (the "Software"), to deal in the Software
+ * without restriction, including without limitation the rights to use, copy, modify,
+ * merge, publish, distribute, sublicense, and/or sell copies of the Software, and to
+ * permit persons to whom the Software is furnished to do so.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED,
+ * INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A
+ * PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT
+ * HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION
+ * OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE
+ * SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+/**
+ * A fixed set of single threaded executors that run the {@link CallActor}s of all calls, a call being assigned to a
+ * shard by the hash of its CallSid. A call's state therefore stays on one thread for its whole life, and Tomcat
+ * WebSocket threads and Lex SDK event loop threads only ever hand messages over.
+ * <p>
+ * Playback, which blocks while it waits for bot audio, runs on a separate pool and reports back to the actor. Timers
+ * of calls run on a single scheduler thread, which only tells actors that a timer has fired.
+ * <p>
+ * The number of shards is configured with {@code call-shards} in server-configuration.properties; 0 means one per
+ * available processor. The playback pool has at most {@code playback-threads} threads, with up to
+ * {@code playback-queue} responses waiting for one; playbacks beyond that are rejected and counted at /metrics as
+ * {@code calls.playback.rejected}.
+ */
+public class CallShards {
+
+    private static final CallLogger LOG = CallLogger.getLogger(CallShards.class);
+    private static final LongAdder PLAYBACK_REJECTED = Metrics.counter("calls.playback.rejected");
+
+    // messages told to actors and not processed yet, across all calls.
+    private static final LongAdder QUEUED_MESSAGES = new LongAdder();
+
+    private static volatile CallShards instance;
+
+    private final ExecutorService[] shards;
+    private final ThreadPoolExecutor playbackExecutor;
+    private final ScheduledExecutorService scheduler;
+
+    static {
+        Metrics.gauge("calls.mailbox.depth", QUEUED_MESSAGES::sum);
+    }
+
+    CallShards(int shardCount, int playbackThreads, int playbackQueue) {
+        this.shards = new ExecutorService[shardCount];
+        for (int i = 0; i < shardCount; i++) {
+            shards[i] = Executors.newSingleThreadExecutor(
+                    new ThreadFactoryBuilder().setNameFormat("call-shard-" + i).setDaemon(true).build());
+        }
+        BlockingQueue<Runnable> waitingPlaybacks = playbackQueue > 0
+                ? new ArrayBlockingQueue<>(playbackQueue) : new SynchronousQueue<>();
+        this.playbackExecutor = new ThreadPoolExecutor(playbackThreads, playbackThreads, 60, TimeUnit.SECONDS,
+                waitingPlaybacks,
+                new ThreadFactoryBuilder().setNameFormat("call-playback-%d").setDaemon(true).build(),
+                (playback, executor) -> {
+                    PLAYBACK_REJECTED.increment();
+                    throw new RejectedExecutionException("all " + playbackThreads + " playback threads are busy");
+                });
+        // idle playback threads end, the pool only holds threads while calls are being answered.
+        playbackExecutor.allowCoreThreadTimeOut(true);
+        Metrics.gauge("calls.playback.active", playbackExecutor::getActiveCount);
+        this.scheduler = Executors.newSingleThreadScheduledExecutor(
+                new ThreadFactoryBuilder().setNameFormat("call-timer").setDaemon(true).build());
+        LOG.info("running calls on {} shards, playback on up to {} threads", shardCount, playbackThreads);
+    }
+
+    public static CallShards getInstance() {
+        if (instance == null) {
+            synchronized (CallShards.class) {
+                if (instance == null) {
+                    Properties properties = Configuration.load(Configuration.SERVER);
+                    int shardCount = Integer.parseInt(properties.getProperty("call-shards", "0").trim());
+                    int playbackThreads = Integer.parseInt(properties.getProperty("playback-threads", "200").trim());
+                    int playbackQueue = Integer.parseInt(properties.getProperty("playback-queue", "50").trim());
+                    if (playbackThreads <= 0 || playbackQueue < 0) {
+                        throw new IllegalArgumentException("playback-threads must be positive and playback-queue "
+                                + "must not be negative, got " + playbackThreads + " and " + playbackQueue);
+                    }
+                    instance = new CallShards(shardCount > 0 ? shardCount : Runtime.getRuntime().availableProcessors(),
+                            playbackThreads, playbackQueue);
+                }
+            }
+        }
+        return instance;
+    }
+
+    /**
+     * Creates the actor of a call, on the shard its CallSid hashes to.
+     */
+    public CallActor newActor(String callSid) {
+        int hash = callSid.hashCode();
+        // spread the bits, CallSids only differ in their hex digits.
+        hash ^= hash >>> 16;
+        return new CallActor(callSid, shards[Math.floorMod(hash, shards.length)]);
+    }
+
+    /**
+     * Pool for work of a call that blocks, such as waiting for bot audio during playback. Rejects work with a
+     * {@link RejectedExecutionException} while all threads are busy and the queue is full.
+     */
+    public ExecutorService getPlaybackExecutor() {
+        return playbackExecutor;
+    }
+
+    /**
+     * Scheduler for timers of calls. Tasks must be short; anything touching call state is told to the call's actor.
+     */
+    public ScheduledExecutorService getScheduler() {
+        return scheduler;
+    }
+
+    /**
+     * Lets the turns of calls that are already scheduled run, then stops the shards; playbacks and timers are
+     * interrupted right away.
+     */
+    public void stop() {
+        for (ExecutorService shard : shards) {
+            shard.shutdown();
+        }
+        playbackExecutor.shutdownNow();
+        scheduler.shutdownNow();
+    }
+
+    static void messageQueued() {
+        QUEUED_MESSAGES.increment();
+    }
+
+    static void messageProcessed() {
+        QUEUED_MESSAGES.decrement();
+    }
+}
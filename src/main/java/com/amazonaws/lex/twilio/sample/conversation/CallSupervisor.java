@@ -0,0 +1,150 @@
+package com.amazonaws.lex.twilio.sample.conversation;
+
+import com.amazonaws.lex.twilio.sample.lifecycle.Configuration;
+import com.amazonaws.lex.twilio.sample.logging.CallLogger;
+import com.amazonaws.lex.twilio.sample.metrics.Metrics;
+
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Properties;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+
+/*
+ * Copyright Amazon.com, Inc. or its affiliates. All Rights Reserved.
+ * SPDX-License-Identifier: MIT-0
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this
+ * software and associated documentation files (the "Software"), to deal in the Software
+ * without restriction, including without limitation the rights to use, copy, modify,
+ * merge, publish, distribute, sublicense, and/or sell copies of the Software, and to
+ * permit persons to whom the Software is furnished to do so.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED,
+ * INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A
+ * PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT
+ * HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION
+ * OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE
+ * SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+/**
+ * Makes sure every resource of a call (Lex stream and event writer, playback, timers) is released even when the call
+ * does not end the regular way, with a Twilio stop message followed by the WebSocket closing. A call is torn down by
+ * its media stream when the WebSocket closes or fails, and by this supervisor when it has been inactive for too long,
+ * configured in server-configuration.properties:
+ * <ul>
+ *     <li>{@code reaper-no-media-ms}: no media from Twilio, default 10000</li>
+ *     <li>{@code reaper-mark-timeout-ms}: a mark sent after the bot's audio has not come back, default 60000</li>
+ *     <li>{@code reaper-lex-idle-ms}: no event from Lex since the last one, default 60000</li>
+ *     <li>{@code reaper-check-interval-ms}: how often calls are checked, default 1000</li>
+ * </ul>
+ * 0 disables a timeout. Twilio's call status callbacks (see {@code CallStatusServlet}) tear down calls that Twilio
+ * reports as ended. Torn down calls are counted by cause at /metrics as {@code calls.reaped.<cause>}.
+ */
+public final class CallSupervisor {
+
+    public static final String WEBSOCKET_CLOSE = "websocket_close";
+    public static final String WEBSOCKET_ERROR = "websocket_error";
+    public static final String CALL_STATUS = "call_status";
+    static final String NO_MEDIA = "no_media";
+    static final String MARK_TIMEOUT = "mark_timeout";
+    static final String LEX_IDLE = "lex_idle";
+
+    // https://www.twilio.com/docs/voice/api/call-resource#call-status-values
+    private static final Set<String> ENDED_STATUSES = new HashSet<>(
+            Arrays.asList("completed", "busy", "failed", "no-answer", "canceled"));
+
+    private static final CallLogger LOG = CallLogger.getLogger(CallSupervisor.class);
+
+    private static volatile CallSupervisor instance;
+
+    private final ConcurrentMap<String, CallWatch> watches;
+    private final long noMediaNanos;
+    private final long markTimeoutNanos;
+    private final long lexIdleNanos;
+
+    private CallSupervisor(Properties properties) {
+        this.watches = new ConcurrentHashMap<>();
+        this.noMediaNanos = millisProperty(properties, "reaper-no-media-ms", 10000);
+        this.markTimeoutNanos = millisProperty(properties, "reaper-mark-timeout-ms", 60000);
+        this.lexIdleNanos = millisProperty(properties, "reaper-lex-idle-ms", 60000);
+        long checkIntervalMillis = Long.parseLong(properties.getProperty("reaper-check-interval-ms", "1000").trim());
+
+        Metrics.gauge("calls.supervised", watches::size);
+        CallShards.getInstance().getScheduler().scheduleWithFixedDelay(this::sweep, checkIntervalMillis,
+                checkIntervalMillis, TimeUnit.MILLISECONDS);
+    }
+
+    public static CallSupervisor getInstance() {
+        if (instance == null) {
+            synchronized (CallSupervisor.class) {
+                if (instance == null) {
+                    instance = new CallSupervisor(Configuration.load(Configuration.SERVER));
+                }
+            }
+        }
+        return instance;
+    }
+
+    /**
+     * Starts supervising a call.
+     *
+     * @param reaper tears the call down, told to the call's actor with the cause
+     */
+    public CallWatch watch(String callSid, CallActor actor, Consumer<String> reaper) {
+        CallWatch watch = new CallWatch(callSid, actor, reaper);
+        watches.put(callSid, watch);
+        return watch;
+    }
+
+    /**
+     * Stops supervising a call that has been torn down.
+     *
+     * @param cause why the call was torn down, or null if it ended the regular way
+     */
+    public void release(CallWatch watch, String cause) {
+        watches.remove(watch.getCallSid(), watch);
+        if (cause != null) {
+            Metrics.increment("calls.reaped." + cause);
+        }
+    }
+
+    /**
+     * Twilio reported a new status of a call, tears the call down if it has ended.
+     *
+     * @return whether the call was supervised by this node
+     */
+    public boolean callStatus(String callSid, String status) {
+        CallWatch watch = watches.get(callSid);
+        if (watch == null) {
+            return false;
+        }
+        if (ENDED_STATUSES.contains(status) && watch.reap(CALL_STATUS)) {
+            LOG.info("twilio reports call {} as {}, tearing it down", callSid, status);
+        }
+        return true;
+    }
+
+    private void sweep() {
+        try {
+            long now = System.nanoTime();
+            for (CallWatch watch : watches.values()) {
+                String cause = watch.idleCause(now, noMediaNanos, markTimeoutNanos, lexIdleNanos);
+                if (cause != null && watch.reap(cause)) {
+                    LOG.warn("call {} is orphaned ({}), tearing it down", watch.getCallSid(), cause);
+                }
+            }
+        } catch (RuntimeException e) {
+            // an exception would end the periodic sweep.
+            LOG.error("supervising calls failed", e);
+        }
+    }
+
+    private static long millisProperty(Properties properties, String key, long defaultMillis) {
+        return TimeUnit.MILLISECONDS.toNanos(Long.parseLong(properties.getProperty(key, String.valueOf(defaultMillis)).trim()));
+    }
+}
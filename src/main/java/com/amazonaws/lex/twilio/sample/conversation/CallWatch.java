@@ -0,0 +1,101 @@
+package com.amazonaws.lex.twilio.sample.conversation;
+
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.Consumer;
+
+/*
+ * Copyright Amazon.com, Inc. or its affiliates. All Rights Reserved.
+ * SPDX-License-Identifier: MIT-0
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this
+ * software and associated documentation files (the "Software"), to deal in the Software
+ * without restriction, including without limitation the rights to use, copy, modify,
+ * merge, publish, distribute, sublicense, and/or sell copies of the Software, and to
+ * permit persons to whom the Software is furnished to do so.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED,
+ * INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A
+ * PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT
+ * HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION
+ * OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE
+ * SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+/**
+ * Activity of one call as seen by the {@link CallSupervisor}: when Twilio last sent media, since when a mark is
+ * awaited and when Lex last sent an event. Updated from the call's actor and the Lex SDK's threads, read by the
+ * supervisor's sweep.
+ */
+public final class CallWatch {
+
+    private final String callSid;
+    private final CallActor actor;
+    private final Consumer<String> reaper;
+
+    private volatile long lastMediaNanos;
+    // 0 while no mark is awaited.
+    private volatile long markSentNanos;
+    // 0 until the first Lex event.
+    private volatile long lastLexEventNanos;
+    private final AtomicBoolean reaping = new AtomicBoolean();
+
+    CallWatch(String callSid, CallActor actor, Consumer<String> reaper) {
+        this.callSid = callSid;
+        this.actor = actor;
+        this.reaper = reaper;
+        this.lastMediaNanos = System.nanoTime();
+    }
+
+    public String getCallSid() {
+        return callSid;
+    }
+
+    public void mediaReceived() {
+        lastMediaNanos = System.nanoTime();
+    }
+
+    public void markSent() {
+        if (markSentNanos == 0) {
+            markSentNanos = System.nanoTime();
+        }
+    }
+
+    public void markReturned() {
+        markSentNanos = 0;
+    }
+
+    public void lexEvent() {
+        lastLexEventNanos = System.nanoTime();
+    }
+
+    /**
+     * @return the inactivity that makes this call orphaned, or null while it is alive
+     */
+    String idleCause(long now, long noMediaNanos, long markTimeoutNanos, long lexIdleNanos) {
+        if (noMediaNanos > 0 && now - lastMediaNanos > noMediaNanos) {
+            return CallSupervisor.NO_MEDIA;
+        }
+        long markSent = markSentNanos;
+        if (markTimeoutNanos > 0 && markSent != 0 && now - markSent > markTimeoutNanos) {
+            return CallSupervisor.MARK_TIMEOUT;
+        }
+        long lastLexEvent = lastLexEventNanos;
+        if (lexIdleNanos > 0 && lastLexEvent != 0 && now - lastLexEvent > lexIdleNanos) {
+            return CallSupervisor.LEX_IDLE;
+        }
+        return null;
+    }
+
+    /**
+     * Tells the call's actor to tear the call down, once.
+     *
+     * @return false if the call is already being torn down
+     */
+    boolean reap(String cause) {
+        if (!reaping.compareAndSet(false, true)) {
+            return false;
+        }
+        actor.tell(() -> reaper.accept(cause));
+        return true;
+    }
+}
@@ -0,0 +1,223 @@
+package com.amazonaws.lex.twilio.sample.conversation;
+
+import com.amazonaws.lex.twilio.sample.metrics.Metrics;
+import com.amazonaws.lex.twilio.sample.prompts.PromptClip;
+import com.amazonaws.lex.twilio.sample.prompts.PromptLibrary;
+import com.amazonaws.lex.twilio.sample.server.media.CompressInputStream;
+import com.amazonaws.lex.twilio.sample.server.media.DecompressInputStream;
+
+import java.util.Arrays;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/*
+ * Copyright Amazon.com, Inc. or its affiliates. All Rights Reserved.
+ * SPDX-License-Identifier: MIT-0
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this
+ * software and associated documentation files (the "Software"), to deal in the Software
+ * without restriction, including without limitation the rights to use, copy, modify,
+ * merge, publish, distribute, sublicense, and/or sell copies of the Software, and to
+ * permit persons to whom the Software is furnished to do so.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED,
+ * INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A
+ * PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT
+ * HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION
+ * OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE
+ * SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+/**
+ * Fills the silence while a caller waits for the bot: once the caller's speech has been transcribed and no bot audio
+ * has arrived for {@code filler-silence-ms}, a filler clip from the {@link PromptLibrary} is played, followed by the
+ * looped hold clip if the wait goes on. When the bot's audio arrives the filler is faded out over 20ms, so it ends
+ * without a click.
+ * <p>
+ * The filler is sent at real time pace, one chunk ahead of what Twilio is playing, so little of it is left buffered
+ * at Twilio when it is stopped. Timers run on the {@link CallShards} scheduler and tell the call's actor, which owns
+ * all of this state.
+ * <p>
+ * While the call's Lex conversation waits for a free slot of the Lex quota, the hold clip is played right away and for
+ * as long as the wait takes, see {@link #hold()}.
+ */
+final class FillerPlayback {
+
+    private static final LongAdder STARTED = Metrics.counter("filler.started");
+    private static final LongAdder FADED = Metrics.counter("filler.faded");
+    private static final LongAdder COMPLETED = Metrics.counter("filler.completed");
+
+    private static final int SAMPLES_PER_MILLI = 8;
+    private static final int FADE_SAMPLES = 20 * SAMPLES_PER_MILLI;
+    private static final byte ULAW_SILENCE = (byte) 0xFF;
+
+    private final TwilioCallOperator operator;
+    private final PromptLibrary library;
+
+    // incremented whenever the filler is disarmed, so that timers already told to the actor are ignored.
+    private int generation;
+    private ScheduledFuture<?> timer;
+    private boolean playing;
+    private PromptClip clip;
+    private boolean looping;
+    // playing the hold clip while the conversation start is queued, not bounded by filler-max-ms.
+    private boolean holding;
+    private int position;
+    private long playedSamples;
+    private int turn;
+
+    FillerPlayback(TwilioCallOperator operator, PromptLibrary library) {
+        this.operator = operator;
+        this.library = library;
+    }
+
+    /**
+     * The caller has finished speaking; starts the filler unless bot audio arrives within the silence threshold.
+     */
+    void arm() {
+        if (!library.isFillerEnabled() || timer != null || playing) {
+            return;
+        }
+        int armed = generation;
+        timer = CallShards.getInstance().getScheduler().schedule(() -> operator.getActor().tell(() -> start(armed)),
+                library.getSilenceMillis(), TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * The call's Lex conversation is queued: plays the looped hold clip until {@link #stop()}.
+     */
+    void hold() {
+        PromptClip holdClip = library.getHoldClip();
+        if (holdClip == null || (playing && looping)) {
+            return;
+        }
+        disarm();
+        clip = holdClip;
+        looping = true;
+        holding = true;
+        play(generation);
+    }
+
+    /**
+     * Bot audio is about to be played: fades out a playing filler, or disarms a pending one.
+     */
+    void stop() {
+        boolean fade = playing;
+        disarm();
+        if (fade) {
+            fadeOut();
+            FADED.increment();
+        }
+    }
+
+    /**
+     * Stops without fading, when Twilio's buffer is cleared anyway or the call has ended.
+     */
+    void cancel() {
+        disarm();
+    }
+
+    private void start(int armed) {
+        if (armed != generation) {
+            return;
+        }
+        clip = library.filler(turn++);
+        looping = clip == null;
+        if (looping) {
+            clip = library.getHoldClip();
+        }
+        play(armed);
+    }
+
+    private void play(int armed) {
+        position = 0;
+        playedSamples = 0;
+        playing = true;
+        STARTED.increment();
+
+        // one chunk of lead, so that the scheduler's jitter does not starve Twilio's playback.
+        if (sendChunk() && sendChunk()) {
+            int chunkMillis = library.getChunkMillis();
+            timer = CallShards.getInstance().getScheduler().scheduleAtFixedRate(
+                    () -> operator.getActor().tell(() -> tick(armed)), chunkMillis, chunkMillis, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    private void tick(int armed) {
+        if (armed != generation || !playing) {
+            return;
+        }
+        if (!holding && playedSamples >= library.getMaxMillis() * SAMPLES_PER_MILLI) {
+            stop();
+            return;
+        }
+        sendChunk();
+    }
+
+    /**
+     * Sends the next chunk, continuing with the hold clip when the filler clip ends.
+     *
+     * @return false if the filler has ended
+     */
+    private boolean sendChunk() {
+        byte[] chunk = new byte[library.getChunkMillis() * SAMPLES_PER_MILLI];
+        int length = read(chunk);
+        if (length > 0) {
+            operator.sendFiller(length == chunk.length ? chunk : Arrays.copyOf(chunk, length));
+            playedSamples += length;
+        }
+        if (length < chunk.length) {
+            // the filler clip has ended and there is no hold clip to continue with.
+            disarm();
+            COMPLETED.increment();
+            return false;
+        }
+        return true;
+    }
+
+    private int read(byte[] target) {
+        int length = clip.read(position, target, 0, target.length, looping);
+        position += length;
+        if (length < target.length && !looping && library.getHoldClip() != null) {
+            clip = library.getHoldClip();
+            looping = true;
+            position = clip.read(0, target, length, target.length - length, true);
+            length = target.length;
+        }
+        if (looping && clip.length() > 0) {
+            position %= clip.length();
+        }
+        return length;
+    }
+
+    /**
+     * Sends the audio that would have followed, ramped down to silence.
+     */
+    private void fadeOut() {
+        byte[] uLaw = new byte[FADE_SAMPLES];
+        Arrays.fill(uLaw, ULAW_SILENCE);
+        clip.read(position, uLaw, 0, FADE_SAMPLES, looping);
+
+        byte[] pcm = new byte[FADE_SAMPLES * 2];
+        DecompressInputStream.decompressULaw(uLaw, FADE_SAMPLES, pcm);
+        for (int i = 0; i < FADE_SAMPLES; i++) {
+            int sample = (short) ((pcm[2 * i] & 0xFF) | (pcm[2 * i + 1] << 8));
+            sample = sample * (FADE_SAMPLES - i) / FADE_SAMPLES;
+            pcm[2 * i] = (byte) sample;
+            pcm[2 * i + 1] = (byte) (sample >> 8);
+        }
+        CompressInputStream.compressULaw(pcm, pcm.length, uLaw);
+        operator.sendFiller(uLaw);
+    }
+
+    private void disarm() {
+        generation++;
+        playing = false;
+        holding = false;
+        if (timer != null) {
+            timer.cancel(false);
+            timer = null;
+        }
+    }
+}
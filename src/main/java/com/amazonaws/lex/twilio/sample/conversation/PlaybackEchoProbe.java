@@ -0,0 +1,244 @@
+package com.amazonaws.lex.twilio.sample.conversation;
+
+import com.amazonaws.lex.twilio.sample.metrics.LatencyHistogram;
+import com.amazonaws.lex.twilio.sample.metrics.Metrics;
+
+import java.util.concurrent.TimeUnit;
+import java.util.function.LongSupplier;
+
+/*
+ * Copyright Amazon.com, Inc. or its affiliates. All Rights Reserved.
+ * SPDX-License-Identifier: MIT-0
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this
+ * software and associated documentation files (the "Software"), to deal in the Software
+ * without restriction, including without limitation the rights to use, copy, modify,
+ * merge, publish, distribute, sublicense, and/or sell copies of the Software, and to
+ * permit persons to whom the Software is furnished to do so.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED,
+ * INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A
+ * PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT
+ * HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION
+ * OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE
+ * SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+/**
+ * Measures when audio sent to Twilio is actually played to the caller, by recognizing it in the outbound track Twilio
+ * streams back (see {@link PlaybackEchoProbes}).
+ * <p>
+ * Both the sent and the echoed u-law bytes run through the same rolling hash over a window of 16 bytes, with the lowest
+ * two bits of each byte dropped so that small differences do not matter. Wherever the window holds sound and the hash
+ * hits 1 in 64 values, the position is a landmark; landmarks depend only on the audio, not on how it is cut into
+ * messages. Sent landmarks are remembered with the time their byte is due to play, assuming Twilio plays the audio
+ * right after what was sent before it, in a fixed size table. An echoed landmark found in the table gives the delay of
+ * the echo over that time.
+ * <p>
+ * The delay includes the echo's way back from Twilio, so it is an upper bound of the delay to the caller's phone.
+ * Confined to the call's actor.
+ */
+public final class PlaybackEchoProbe {
+
+    private static final LatencyHistogram ECHO_DELAY = Metrics.latency("playback.echo_delay");
+    private static final long NANOS_PER_SAMPLE = 125_000;
+    private static final int WINDOW = 16;
+    private static final long PRIME = 1_000_003;
+    private static final long PRIME_POW_WINDOW = pow(PRIME, WINDOW);
+    // landmarks are the windows whose hash has these top bits clear: 1 in 64.
+    private static final int LANDMARK_SHIFT = 58;
+    // u-law bytes are stored inverted; these exponents are too quiet to tell audio apart.
+    private static final int QUIET_EXPONENT = 1;
+    // 2048 landmarks, about 16 seconds of sound.
+    private static final int TABLE_SIZE = 2048;
+    private static final long MAX_DELAY_NANOS = TimeUnit.SECONDS.toNanos(10);
+
+    private final String callSid;
+    private final CallActor actor;
+    private final LongSupplier nanoClock;
+    private final long[] fingerprints;
+    private final long[] dueNanos;
+    private final Fingerprinter sent;
+    private final Fingerprinter echoed;
+    // when everything sent so far will have been played.
+    private long playedOutNanos;
+
+    private long matched;
+    private double delaySumMillis;
+    private double minDelayMillis;
+    private double maxDelayMillis;
+    private double lastDelayMillis;
+    private double jitterMillis;
+    private volatile Stats stats;
+
+    PlaybackEchoProbe(String callSid, CallActor actor) {
+        this(callSid, actor, System::nanoTime);
+    }
+
+    PlaybackEchoProbe(String callSid, CallActor actor, LongSupplier nanoClock) {
+        this.callSid = callSid;
+        this.actor = actor;
+        this.nanoClock = nanoClock;
+        this.fingerprints = new long[TABLE_SIZE];
+        this.dueNanos = new long[TABLE_SIZE];
+        this.sent = new Fingerprinter();
+        this.echoed = new Fingerprinter();
+        this.stats = snapshot();
+    }
+
+    public String getCallSid() {
+        return callSid;
+    }
+
+    public CallActor getActor() {
+        return actor;
+    }
+
+    /**
+     * Audio was sent to Twilio for the caller.
+     */
+    void sent(byte[] uLaw, int length) {
+        long now = nanoClock.getAsLong();
+        long startNanos = Math.max(now, playedOutNanos);
+        for (int i = 0; i < length; i++) {
+            long fingerprint = sent.next(uLaw[i]);
+            if (fingerprint != 0) {
+                int slot = (int) (fingerprint & (TABLE_SIZE - 1));
+                fingerprints[slot] = fingerprint;
+                dueNanos[slot] = startNanos + i * NANOS_PER_SAMPLE;
+            }
+        }
+        playedOutNanos = startNanos + length * NANOS_PER_SAMPLE;
+    }
+
+    /**
+     * Twilio dropped the audio it had not played yet.
+     */
+    void cleared() {
+        playedOutNanos = 0;
+    }
+
+    /**
+     * A frame of the outbound track arrived from Twilio.
+     *
+     * @param receivedNanos when the frame arrived, taken as the time its last byte was played
+     */
+    public void echoed(byte[] uLaw, int length, long receivedNanos) {
+        for (int i = 0; i < length; i++) {
+            long fingerprint = echoed.next(uLaw[i]);
+            if (fingerprint == 0) {
+                continue;
+            }
+            int slot = (int) (fingerprint & (TABLE_SIZE - 1));
+            if (fingerprints[slot] != fingerprint) {
+                continue;
+            }
+            // each sent landmark is matched once, repeated audio such as a looped hold clip is matched anew.
+            fingerprints[slot] = 0;
+            long delayNanos = receivedNanos - (length - 1 - i) * NANOS_PER_SAMPLE - dueNanos[slot];
+            if (Math.abs(delayNanos) <= MAX_DELAY_NANOS) {
+                record(delayNanos);
+            }
+        }
+    }
+
+    /**
+     * Delay of the echoes of this call so far.
+     */
+    public Stats getStats() {
+        return stats;
+    }
+
+    private void record(long delayNanos) {
+        ECHO_DELAY.recordNanos(Math.max(0, delayNanos));
+        double delayMillis = delayNanos / 1e6;
+        if (matched == 0) {
+            minDelayMillis = delayMillis;
+            maxDelayMillis = delayMillis;
+        } else {
+            minDelayMillis = Math.min(minDelayMillis, delayMillis);
+            maxDelayMillis = Math.max(maxDelayMillis, delayMillis);
+            // smoothed like RFC 3550 interarrival jitter.
+            jitterMillis += (Math.abs(delayMillis - lastDelayMillis) - jitterMillis) / 16;
+        }
+        lastDelayMillis = delayMillis;
+        delaySumMillis += delayMillis;
+        matched++;
+        stats = snapshot();
+    }
+
+    private Stats snapshot() {
+        return new Stats(matched, round(matched == 0 ? 0 : delaySumMillis / matched), round(minDelayMillis),
+                round(maxDelayMillis), round(jitterMillis));
+    }
+
+    private static double round(double value) {
+        return Math.round(value * 10) / 10.0;
+    }
+
+    private static long pow(long base, int exponent) {
+        long result = 1;
+        for (int i = 0; i < exponent; i++) {
+            result *= base;
+        }
+        return result;
+    }
+
+    /**
+     * Rolling hash over the last {@link #WINDOW} bytes of one direction of audio.
+     */
+    private static final class Fingerprinter {
+        private final byte[] window = new byte[WINDOW];
+        private int position;
+        private long hash;
+        // bytes in the window loud enough to tell audio apart.
+        private int sounding;
+        private long bytes;
+
+        /**
+         * @return the fingerprint of the window ending with this byte if it is a landmark, else 0
+         */
+        private long next(byte uLaw) {
+            byte masked = (byte) (uLaw & 0xFC);
+            byte oldest = window[position];
+            window[position] = masked;
+            position = (position + 1) & (WINDOW - 1);
+            hash = hash * PRIME + (masked & 0xFF) - (oldest & 0xFF) * PRIME_POW_WINDOW;
+            sounding += (isSounding(masked) ? 1 : 0) - (bytes >= WINDOW && isSounding(oldest) ? 1 : 0);
+            bytes++;
+            if (bytes < WINDOW || sounding < WINDOW / 2 || hash >>> LANDMARK_SHIFT != 0 || hash == 0) {
+                return 0;
+            }
+            return hash;
+        }
+
+        private static boolean isSounding(byte uLaw) {
+            return ((~uLaw >> 4) & 0x7) > QUIET_EXPONENT;
+        }
+    }
+
+    /**
+     * Playback delay of one call, serialized with Gson.
+     */
+    public static final class Stats {
+        private final long matched;
+        private final double meanDelayMs;
+        private final double minDelayMs;
+        private final double maxDelayMs;
+        private final double jitterMs;
+
+        private Stats(long matched, double meanDelayMs, double minDelayMs, double maxDelayMs, double jitterMs) {
+            this.matched = matched;
+            this.meanDelayMs = meanDelayMs;
+            this.minDelayMs = minDelayMs;
+            this.maxDelayMs = maxDelayMs;
+            this.jitterMs = jitterMs;
+        }
+
+        @Override
+        public String toString() {
+            return matched + " echoes, delay " + meanDelayMs + " ms (" + minDelayMs + " to " + maxDelayMs
+                    + "), jitter " + jitterMs + " ms";
+        }
+    }
+}
@@ -0,0 +1,86 @@
+package com.amazonaws.lex.twilio.sample.conversation;
+
+import com.amazonaws.lex.twilio.sample.lifecycle.Configuration;
+
+import java.util.Properties;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/*
+ * Copyright Amazon.com, Inc. or its affiliates. All Rights Reserved.
+ * SPDX-License-Identifier: MIT-0
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this
+ * software and associated documentation files (the "Software"), to deal in the Software
+ * without restriction, including without limitation the rights to use, copy, modify,
+ * merge, publish, distribute, sublicense, and/or sell copies of the Software, and to
+ * permit persons to whom the Software is furnished to do so.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED,
+ * INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A
+ * PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT
+ * HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION
+ * OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE
+ * SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+/**
+ * Measures the real playback delay of calls when {@code playback-echo-probe-enabled} is set in
+ * server-configuration.properties. Twilio only streams the caller's track on the bidirectional stream the bot talks
+ * on, so the TwiML then also forks the call's outbound track to the {@code /playbackecho} endpoint of the same node,
+ * where its frames are handed to the call's {@link PlaybackEchoProbe}.
+ */
+public final class PlaybackEchoProbes {
+
+    public static final String ENDPOINT = "playbackecho";
+
+    private static volatile PlaybackEchoProbes instance;
+
+    private final boolean enabled;
+    private final ConcurrentMap<String, PlaybackEchoProbe> probes;
+
+    private PlaybackEchoProbes(boolean enabled) {
+        this.enabled = enabled;
+        this.probes = new ConcurrentHashMap<>();
+    }
+
+    public static PlaybackEchoProbes getInstance() {
+        if (instance == null) {
+            synchronized (PlaybackEchoProbes.class) {
+                if (instance == null) {
+                    Properties properties = Configuration.load(Configuration.SERVER);
+                    instance = new PlaybackEchoProbes(Boolean.parseBoolean(
+                            properties.getProperty("playback-echo-probe-enabled", "false").trim()));
+                }
+            }
+        }
+        return instance;
+    }
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    /**
+     * @return the probe of a new call, or null when probing is disabled
+     */
+    PlaybackEchoProbe open(String callSid, CallActor actor) {
+        if (!enabled) {
+            return null;
+        }
+        PlaybackEchoProbe probe = new PlaybackEchoProbe(callSid, actor);
+        probes.put(callSid, probe);
+        return probe;
+    }
+
+    /**
+     * @return the probe of the call, or null if its media stream has not started yet or has ended
+     */
+    public PlaybackEchoProbe find(String callSid) {
+        return probes.get(callSid);
+    }
+
+    void close(PlaybackEchoProbe probe) {
+        probes.remove(probe.getCallSid(), probe);
+    }
+}
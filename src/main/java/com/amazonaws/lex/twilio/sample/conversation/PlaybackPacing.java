@@ -0,0 +1,109 @@
+package com.amazonaws.lex.twilio.sample.conversation;
+
+import com.amazonaws.lex.twilio.sample.lifecycle.Configuration;
+
+import java.util.Properties;
+import java.util.concurrent.TimeUnit;
+
+/*
+ * Copyright Amazon.com, Inc. or its affiliates. All Rights Reserved.
+ * SPDX-License-Identifier: MIT-0
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this
+ * software and associated documentation files (the "Software"), to deal in the Software
+ * without restriction, including without limitation the rights to use, copy, modify,
+ * merge, publish, distribute, sublicense, and/or sell copies of the Software, and to
+ * permit persons to whom the Software is furnished to do so.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED,
+ * INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A
+ * PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT
+ * HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION
+ * OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE
+ * SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+/**
+ * How bot audio is cut into media messages for Twilio, configured in server-configuration.properties:
+ * <ul>
+ *     <li>{@code playback-mode}: {@code incremental} (default) sends the first audio of a response as soon as it
+ *     arrives, {@code buffered} waits for every message to fill up to {@code playback-max-frame-ms}</li>
+ *     <li>{@code playback-first-frame-ms}: largest first message of a response in incremental mode, default 20. Each
+ *     further message may be twice as large as the previous one, up to {@code playback-max-frame-ms} (default
+ *     1250)</li>
+ *     <li>{@code playback-lead-ms}: in incremental mode, messages are filled up only while Twilio has more than this
+ *     much audio ahead of what the caller hears; below it, whatever has arrived is sent. Default 200</li>
+ * </ul>
+ */
+final class PlaybackPacing {
+
+    static final int PCM_BYTES_PER_MILLI = 16;
+
+    private static volatile PlaybackPacing instance;
+
+    private final boolean incremental;
+    private final int firstFrameBytes;
+    private final int maxFrameBytes;
+    private final long leadNanos;
+
+    private PlaybackPacing(boolean incremental, int firstFrameMillis, int maxFrameMillis, long leadMillis) {
+        this.incremental = incremental;
+        this.maxFrameBytes = maxFrameMillis * PCM_BYTES_PER_MILLI;
+        this.firstFrameBytes = Math.min(maxFrameBytes, firstFrameMillis * PCM_BYTES_PER_MILLI);
+        this.leadNanos = TimeUnit.MILLISECONDS.toNanos(leadMillis);
+    }
+
+    static PlaybackPacing getInstance() {
+        if (instance == null) {
+            synchronized (PlaybackPacing.class) {
+                if (instance == null) {
+                    instance = fromProperties(Configuration.load(Configuration.SERVER));
+                }
+            }
+        }
+        return instance;
+    }
+
+    static PlaybackPacing fromProperties(Properties properties) {
+        String mode = properties.getProperty("playback-mode", "incremental").trim();
+        if (!mode.equals("incremental") && !mode.equals("buffered")) {
+            throw new IllegalArgumentException("playback-mode must be incremental or buffered, not " + mode);
+        }
+        int firstFrameMillis = Integer.parseInt(properties.getProperty("playback-first-frame-ms", "20").trim());
+        int maxFrameMillis = Integer.parseInt(properties.getProperty("playback-max-frame-ms", "1250").trim());
+        if (firstFrameMillis <= 0 || maxFrameMillis <= 0) {
+            throw new IllegalArgumentException("playback frame sizes must be above 0 ms");
+        }
+        return new PlaybackPacing(mode.equals("incremental"), firstFrameMillis, maxFrameMillis,
+                Long.parseLong(properties.getProperty("playback-lead-ms", "200").trim()));
+    }
+
+    boolean isIncremental() {
+        return incremental;
+    }
+
+    /**
+     * Largest message of PCM bytes for the first message of a response.
+     */
+    int firstFrameBytes() {
+        return incremental ? firstFrameBytes : maxFrameBytes;
+    }
+
+    /**
+     * Largest message of PCM bytes after one of the given size.
+     */
+    int nextFrameBytes(int frameBytes) {
+        return Math.min(maxFrameBytes, frameBytes * 2);
+    }
+
+    int maxFrameBytes() {
+        return maxFrameBytes;
+    }
+
+    /**
+     * How long the next message may wait to fill up, given how far the audio sent is ahead of the caller's ear.
+     */
+    long fillNanos(long aheadNanos) {
+        return Math.max(0, aheadNanos - leadNanos);
+    }
+}
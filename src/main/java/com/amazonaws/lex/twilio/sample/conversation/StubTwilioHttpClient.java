@@ -0,0 +1,118 @@
+package com.amazonaws.lex.twilio.sample.conversation;
+
+import com.twilio.exception.ApiConnectionException;
+import com.twilio.http.HttpClient;
+import com.twilio.http.Request;
+import com.twilio.http.Response;
+import org.apache.http.Header;
+import org.apache.log4j.Logger;
+
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/*
+ * Copyright Amazon.com, Inc. or its affiliates. All Rights Reserved.
+ * SPDX-License-Identifier: MIT-0
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this
+ * software and associated documentation files (the "Software"), to deal in the Software
+ * without restriction, including without limitation the rights to use, copy, modify,
+ * merge, publish, distribute, sublicense, and/or sell copies of the Software, and to
+ * permit persons to whom the Software is furnished to do so.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED,
+ * INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A
+ * PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT
+ * HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION
+ * OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE
+ * SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+/**
+ * A local stand-in for the Twilio REST API. It never leaves the process: every request is recorded and answered with
+ * a canned "completed" call resource after a configurable delay, and a configurable fraction of requests fail with a
+ * 503 so that retries can be exercised without a Twilio account. Tests script the outcome of the next requests with
+ * {@link #failNext(int)} and {@link #dropNext()}.
+ * <p>
+ * Enable it by setting {@code http-client=stub} in twilio-configuration.properties.
+ */
+public class StubTwilioHttpClient extends HttpClient {
+
+    private static final Logger LOG = Logger.getLogger(StubTwilioHttpClient.class);
+    private static final String CALL_RESOURCE = "{\"sid\": \"%s\", \"status\": \"completed\"}";
+    // the REST client logs the response headers, and fails on none.
+    private static final Header[] NO_HEADERS = new Header[0];
+    private static final String ERROR = "{\"code\": 20%d, \"message\": \"stubbed failure\", \"status\": %d}";
+
+    private final long latencyMillis;
+    private final double failureRate;
+    private final Queue<Request> requests;
+    private final AtomicInteger failures;
+    // outcomes of the next requests, ahead of the random failures: a status code, or 0 for a connection failure.
+    private final Queue<Integer> scripted;
+
+    public StubTwilioHttpClient(long latencyMillis, double failureRate) {
+        this.latencyMillis = latencyMillis;
+        this.failureRate = failureRate;
+        this.requests = new ConcurrentLinkedQueue<>();
+        this.failures = new AtomicInteger(0);
+        this.scripted = new ConcurrentLinkedQueue<>();
+    }
+
+    /**
+     * Answers the next request that is not scripted yet with the given error status.
+     */
+    public void failNext(int statusCode) {
+        scripted.add(statusCode);
+    }
+
+    /**
+     * Fails the next request that is not scripted yet as if the connection to Twilio broke.
+     */
+    public void dropNext() {
+        scripted.add(0);
+    }
+
+    @Override
+    public Response makeRequest(Request request) {
+        requests.add(request);
+        LOG.info("stub twilio client got a request:" + request.getMethod() + " " + request.getUrl());
+
+        try {
+            TimeUnit.MILLISECONDS.sleep(latencyMillis);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+
+        Integer outcome = scripted.poll();
+        if (outcome != null) {
+            failures.incrementAndGet();
+            if (outcome == 0) {
+                throw new ApiConnectionException("stubbed connection failure");
+            }
+            return new Response(String.format(ERROR, outcome, outcome), outcome, NO_HEADERS);
+        }
+        if (ThreadLocalRandom.current().nextDouble() < failureRate) {
+            failures.incrementAndGet();
+            return new Response(String.format(ERROR, 503, 503), 503, NO_HEADERS);
+        }
+
+        String url = request.getUrl();
+        String callSid = url.substring(url.lastIndexOf('/') + 1).replace(".json", "");
+        return new Response(String.format(CALL_RESOURCE, callSid), 200, NO_HEADERS);
+    }
+
+    /**
+     * All requests seen so far, in arrival order.
+     */
+    public Queue<Request> getRequests() {
+        return requests;
+    }
+
+    public int getFailures() {
+        return failures.get();
+    }
+}
@@ -1,28 +1,29 @@
 package com.amazonaws.lex.twilio.sample.conversation;
 
+import com.amazonaws.lex.twilio.sample.cost.CallCost;
+import com.amazonaws.lex.twilio.sample.jfr.HangUpEvent;
+import com.amazonaws.lex.twilio.sample.jfr.PausePlaybackEvent;
+import com.amazonaws.lex.twilio.sample.jfr.PlaybackChunkEvent;
+import com.amazonaws.lex.twilio.sample.jfr.TranscodeEvent;
+import com.amazonaws.lex.twilio.sample.logging.CallLogger;
+import com.amazonaws.lex.twilio.sample.metrics.LatencyHistogram;
+import com.amazonaws.lex.twilio.sample.metrics.Metrics;
+import com.amazonaws.lex.twilio.sample.prompts.PromptLibrary;
 import com.amazonaws.lex.twilio.sample.server.CallIdentifier;
 import com.amazonaws.lex.twilio.sample.server.media.CompressInputStream;
 import com.amazonaws.lex.twilio.sample.server.messages.ClearMessage;
 import com.amazonaws.lex.twilio.sample.server.messages.MarkMessage;
 import com.amazonaws.lex.twilio.sample.server.messages.MediaMessage;
-import com.amazonaws.lex.twilio.sample.server.messages.Message;
 import com.amazonaws.lex.twilio.sample.streaming.AudioResponse;
-import com.amazonaws.lex.twilio.sample.streaming.LexBidirectionalStreamingClient;
+import com.amazonaws.lex.twilio.sample.timeline.CallTimeline;
 import com.google.gson.JsonObject;
-import com.twilio.Twilio;
-import com.twilio.rest.api.v2010.account.Call;
-import org.apache.log4j.Logger;
+import org.apache.log4j.Level;
 
-import javax.websocket.EncodeException;
 import javax.websocket.Session;
 import java.io.IOException;
-import java.io.InputStream;
-import java.io.UncheckedIOException;
-import java.util.Arrays;
 import java.util.Optional;
-import java.util.Properties;
 import java.util.UUID;
-import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.RejectedExecutionException;
 
 /*
  * Copyright Amazon.com, Inc. or its affiliates. All Rights Reserved.
@@ -41,84 +42,228 @@ import java.util.concurrent.atomic.AtomicBoolean;
  * OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE
  * SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
  */
+/**
+ * Talks to Twilio on behalf of one call: media, marks and clear messages over the call's WebSocket, hang ups over the
+ * REST API. Playback state is owned by the call's {@link CallActor}: everything except {@link #hangUp(boolean)} and
+ * the playback loop itself runs as a message of that actor, and the playback loop, which runs on its own thread,
+ * hands each chunk to the actor for sending. All writes to the WebSocket are therefore started by the actor, and none
+ * of them waits for the socket, see {@link TwilioStreamWriter}.
+ * <p>
+ * While the caller waits for the bot's answer, filler audio from the prompt library fills the silence, see
+ * {@link FillerPlayback}. Bot audio is forwarded as it arrives from Lex, in messages sized by {@link PlaybackPacing}.
+ */
 public class TwilioCallOperator {
-    private static final Logger LOG = Logger.getLogger(TwilioCallOperator.class);
-
-    public static final int MAX_BYTES_TO_READ = 10000; // better to read more
+    private static final CallLogger LOG = CallLogger.getLogger(TwilioCallOperator.class);
 
-    static {
-        Properties properties = readProperties();
+    private static final LatencyHistogram TIME_TO_FIRST_AUDIO = Metrics.latency("playback.time_to_first_audio");
+    private static final long NANOS_PER_SAMPLE = 125_000;
 
-        Twilio.init(properties.getProperty("account-sid"), properties.getProperty("auth-token"));
+    private final CallIdentifier callIdentifier;
+    private final CallActor actor;
+    private final TwilioStreamWriter writer;
+    private final CallTimeline timeline;
+    private final CallWatch watch;
+    // incremented by the actor on every barge-in; a playback only sends while its generation is current.
+    private volatile int playbackGeneration;
+    private Optional<String> currentPlaybackLabel;
+    // whether bot audio is being sent, from startPlayback until its mark or a barge-in.
+    private boolean botPlaybackRunning;
+    // the response being played, closed when the call ends so that its playback loop finishes.
+    private AudioResponse playingResponse;
+    private final FillerPlayback filler;
+    // null unless playback-echo-probe-enabled is set.
+    private final PlaybackEchoProbe echoProbe;
 
+    public TwilioCallOperator(CallIdentifier callIdentifier, Session session, CallActor actor, CallTimeline timeline,
+                              CallWatch watch) {
+        this.callIdentifier = callIdentifier;
+        this.actor = actor;
+        this.writer = new TwilioStreamWriter(session, actor);
+        this.timeline = timeline;
+        this.watch = watch;
+        this.currentPlaybackLabel = Optional.empty();
+        this.filler = new FillerPlayback(this, PromptLibrary.getInstance());
+        this.echoProbe = PlaybackEchoProbes.getInstance().open(callIdentifier.getCallId(), actor);
+        if (echoProbe != null) {
+            timeline.addStats("playback_echo", echoProbe::getStats);
+        }
     }
 
-    private static Properties readProperties() {
-        try (InputStream input = LexBidirectionalStreamingClient.class.getClassLoader().getResourceAsStream("twilio-configuration.properties")) {
-
-            Properties prop = new Properties();
-            // load a properties file
-            prop.load(input);
-
-            return prop;
-        } catch (IOException ex) {
-            throw new UncheckedIOException(ex);
-        }
+    public CallIdentifier getCallIdentifier() {
+        return callIdentifier;
     }
 
+    public CallActor getActor() {
+        return actor;
+    }
 
-    private final CallIdentifier callIdentifier;
-    private final Session session;
-    private final AtomicBoolean interruptSendingDataToTwilio;
-    private Optional<String> currentPlaybackLabel;
+    public CallTimeline getTimeline() {
+        return timeline;
+    }
 
-    public TwilioCallOperator(CallIdentifier callIdentifier, Session session) {
-        this.callIdentifier = callIdentifier;
-        this.session = session;
-        this.interruptSendingDataToTwilio = new AtomicBoolean(false);
-        this.currentPlaybackLabel = Optional.empty();
+    public CallWatch getWatch() {
+        return watch;
     }
 
     public Optional<String> getCurrentPlaybackLabel() {
         return currentPlaybackLabel;
     }
 
+    /**
+     * The caller's speech has been transcribed and the bot's answer is pending; arms the filler. Must be called by the
+     * actor.
+     */
+    public void awaitingBotResponse() {
+        if (!botPlaybackRunning) {
+            filler.arm();
+        }
+    }
+
+    /**
+     * Starts playing the bot audio back to the caller, on the playback pool, after fading out a running filler. When
+     * the pool is saturated the response is skipped, and Lex is told its playback has ended. Must be called by the
+     * actor.
+     */
+    public void startPlayback(AudioResponse audioResponse) {
+        filler.stop();
+        botPlaybackRunning = true;
+        playingResponse = audioResponse;
+        actor.getCost().retain("playback", audioResponse::bufferedBytes);
+        int generation = playbackGeneration;
+        long startedNanos = System.nanoTime();
+        try {
+            CallShards.getInstance().getPlaybackExecutor()
+                    .execute(() -> playback(audioResponse, generation, startedNanos));
+        } catch (RejectedExecutionException e) {
+            LOG.limited(Level.WARN, "playback.rejected", "skipping the bot response, {}", e.getMessage());
+            try {
+                audioResponse.close();
+            } catch (IOException closeFailure) {
+                LOG.error("could not close the audio response", closeFailure);
+            }
+            playingResponse = null;
+            markPlaybackEnd(generation);
+        }
+    }
+
     // send back media events as per https://www.twilio.com/docs/voice/twiml/stream#message-media-to-twilio
-    public void playback(AudioResponse audioResponse) {
-        try (CompressInputStream responseStream = new CompressInputStream(audioResponse, false)) {
-            byte[] bytes = new byte[MAX_BYTES_TO_READ];
+    private void playback(AudioResponse audioResponse, int generation, long startedNanos) {
+        String callSid = callIdentifier.getCallId();
+        PlaybackPacing pacing = PlaybackPacing.getInstance();
+        // the playback pool's work for this response, recorded frame by frame.
+        CallCost.Meter meter = actor.getCost().newMeter();
+        meter.start();
+        try (AudioResponse responseStream = audioResponse) {
+            // 16 bit PCM from Lex, encoded into u-law messages that start small and grow to the largest frame.
+            byte[] pcm = new byte[pacing.maxFrameBytes()];
+            int frameBytes = pacing.firstFrameBytes();
+            // when Twilio will have played everything sent so far, if it started playing right away.
+            long playedOutNanos = 0;
+            boolean firstChunk = true;
 
-            int numOfBytesRead = responseStream.read(bytes);
+            int numOfBytesRead = readFrame(responseStream, pcm, frameBytes, pacing, playedOutNanos);
             //while not end of stream, or not playback paused
 
-            while (numOfBytesRead != -1 && !interruptSendingDataToTwilio.get()) {
+            while (numOfBytesRead != -1 && generation == playbackGeneration) {
+
+                TranscodeEvent transcodeEvent = new TranscodeEvent();
+                transcodeEvent.begin();
+                byte[] uLaw = new byte[numOfBytesRead / 2];
+                CompressInputStream.compressULaw(pcm, numOfBytesRead, uLaw);
+                transcodeEvent.finish(callSid, TranscodeEvent.PCM_TO_ULAW, numOfBytesRead, uLaw.length);
 
-                byte[] copy = Arrays.copyOf(bytes, numOfBytesRead);
-                MediaMessage mediaMessage = new MediaMessage(copy, callIdentifier.getStreamSid());
-                writeToStream(mediaMessage.getJsonObject(), false);
-                bytes = new byte[MAX_BYTES_TO_READ];
-                numOfBytesRead = responseStream.read(bytes);
+                MediaMessage mediaMessage = new MediaMessage(uLaw, callIdentifier.getStreamSid());
+                long firstAudioNanos = firstChunk ? startedNanos : 0;
+                actor.tell(() -> sendMedia(mediaMessage, uLaw, generation, firstAudioNanos));
+                firstChunk = false;
+                playedOutNanos = Math.max(playedOutNanos, System.nanoTime()) + uLaw.length * NANOS_PER_SAMPLE;
+
+                frameBytes = pacing.nextFrameBytes(frameBytes);
+                meter.record();
+                numOfBytesRead = readFrame(responseStream, pcm, frameBytes, pacing, playedOutNanos);
             }
 
             //if it was not interrupted, it means it has reached end of stream.
-            if (!interruptSendingDataToTwilio.get()) {
-                // mark the end of stream and when we get back the same mark, we inform bot that
-                // playback is complete.
-
-                LOG.info("audio stream has ended, marking  a message ");
-                currentPlaybackLabel = Optional.of(UUID.randomUUID().toString());
-                writeToStream(new MarkMessage(callIdentifier.getStreamSid(), currentPlaybackLabel.get()).getJsonObject(), true);
+            if (generation == playbackGeneration) {
+                actor.tell(() -> markPlaybackEnd(generation));
             }
         } catch (IOException e) {
-            e.printStackTrace();
+            LOG.limited(Level.ERROR, "playback.read", "could not read bot audio for playback", e);
+        } finally {
+            meter.record();
+        }
+    }
+
+    /**
+     * Reads the next message of bot audio. In incremental mode it waits to fill up only while the audio sent so far
+     * keeps Twilio ahead of the caller by the pacing's lead; the first message of a response therefore goes out with
+     * whatever has arrived. Only whole 16 bit samples are returned, up to a last odd byte at the end of the stream.
+     *
+     * @param frameBytes an even number of bytes
+     */
+    static int readFrame(AudioResponse responseStream, byte[] pcm, int frameBytes, PlaybackPacing pacing,
+                         long playedOutNanos) throws IOException {
+        int read;
+        if (!pacing.isIncremental()) {
+            read = responseStream.read(pcm, 0, frameBytes);
+        } else {
+            long now = System.nanoTime();
+            read = responseStream.readAvailable(pcm, 0, frameBytes, now + pacing.fillNanos(playedOutNanos - now));
+        }
+        // a read ending halfway through a sample would lose it, and shift every sample after it by a byte: wait for
+        // the sample's second byte instead, there is room for it as the frame is even.
+        if (read > 0 && (read & 1) == 1) {
+            int secondByte = responseStream.read();
+            if (secondByte >= 0) {
+                pcm[read++] = (byte) secondByte;
+            }
+        }
+        return read;
+    }
+
+    /**
+     * @param firstAudioNanos when the response's first audio arrived from Lex, if this is its first chunk, else 0
+     */
+    private void sendMedia(MediaMessage mediaMessage, byte[] uLaw, int generation, long firstAudioNanos) {
+        // chunks still in the mailbox when the caller barged in are not played anymore.
+        if (generation != playbackGeneration) {
+            return;
         }
+        PlaybackChunkEvent playbackChunkEvent = new PlaybackChunkEvent();
+        playbackChunkEvent.begin();
+        writeToStream(mediaMessage.getJsonObject(), false);
+        playbackChunkEvent.finish(callIdentifier.getCallId(), uLaw.length);
+        if (echoProbe != null) {
+            echoProbe.sent(uLaw, uLaw.length);
+        }
+        if (firstAudioNanos != 0) {
+            TIME_TO_FIRST_AUDIO.recordNanos(System.nanoTime() - firstAudioNanos);
+        }
+        timeline.mediaSent();
+    }
+
+    private void markPlaybackEnd(int generation) {
+        if (generation != playbackGeneration) {
+            return;
+        }
+        // mark the end of stream and when we get back the same mark, we inform bot that
+        // playback is complete.
+        botPlaybackRunning = false;
+        LOG.debug("audio stream has ended, marking a message");
+        currentPlaybackLabel = Optional.of(UUID.randomUUID().toString());
+        watch.markSent();
+        writeToStream(new MarkMessage(callIdentifier.getStreamSid(), currentPlaybackLabel.get()).getJsonObject(), true);
     }
 
     // send clear message as per https://www.twilio.com/docs/voice/twiml/stream#message-clear-to-twilio
     // by the time pausePlayback comes, all data might have already been sent to the Twilio server
     public void pausePlayback() {
-        //update call
-        interruptSendingDataToTwilio.set(true);
+        PausePlaybackEvent pausePlaybackEvent = new PausePlaybackEvent();
+        pausePlaybackEvent.begin();
+        // stops the running playback, and drops its chunks that are not sent yet.
+        playbackGeneration++;
+        botPlaybackRunning = false;
+        filler.cancel();
 
         LOG.info("user seems to have interrupted playback, requesting twilio to stop playback with clear message");
 
@@ -126,28 +271,81 @@ public class TwilioCallOperator {
 
         currentPlaybackLabel = Optional.empty();
 
+        writer.discardQueued();
         writeToStream(clearMessage.getJsonObject(), true);
+        if (echoProbe != null) {
+            echoProbe.cleared();
+        }
+
+        pausePlaybackEvent.finish(callIdentifier.getCallId());
+    }
+
+    /**
+     * Sends filler audio, which unlike bot audio is not part of the call's timeline. Called by the actor.
+     */
+    void sendFiller(byte[] uLaw) {
+        writeToStream(new MediaMessage(uLaw, callIdentifier.getStreamSid()).getJsonObject(), false);
+        if (echoProbe != null) {
+            echoProbe.sent(uLaw, uLaw.length);
+        }
+    }
+
+    /**
+     * Plays the hold clip while the call's Lex conversation waits for the Lex quota. Must be called by the actor.
+     */
+    public void holdForQuota() {
+        filler.hold();
+    }
+
+    /**
+     * Fades out the hold clip once the Lex conversation may start. Must be called by the actor.
+     */
+    public void quotaGranted() {
+        if (!botPlaybackRunning) {
+            filler.stop();
+        }
+    }
 
-        interruptSendingDataToTwilio.set(false);
+    /**
+     * Stops timers and playback of the call once its media stream has closed. Must be called by the actor.
+     */
+    public void callEnded() {
+        filler.cancel();
+        writer.close();
+        playbackGeneration++;
+        botPlaybackRunning = false;
+        if (playingResponse != null) {
+            try {
+                playingResponse.close();
+            } catch (IOException e) {
+                LOG.error("could not close the audio response", e);
+            }
+            playingResponse = null;
+        }
+        if (echoProbe != null) {
+            PlaybackEchoProbes.getInstance().close(echoProbe);
+            LOG.info("playback echo: {}", echoProbe.getStats());
+        }
     }
 
     // See https://www.twilio.com/docs/voice/tutorials/how-to-modify-calls-in-progress-java
+    // the REST call runs on the control plane's own pool, so this never blocks the calling thread.
     public void hangUp(boolean exceptionCase) {
-        LOG.info("hanging up the twilio call:" + callIdentifier);
+        LOG.info("hanging up the twilio call: {}", callIdentifier);
 
-        Call.updater(callIdentifier.getCallId())
-                .setStatus(Call.UpdateStatus.COMPLETED)
-                .update();
+        HangUpEvent hangUpEvent = new HangUpEvent();
+        hangUpEvent.begin();
+        TwilioControlPlane.getInstance().hangUp(callIdentifier.getCallId()).whenComplete((result, error) ->
+                hangUpEvent.finish(callIdentifier.getCallId(), exceptionCase, error == null));
     }
 
-    private void writeToStream(JsonObject message, boolean log) {
-        try {
-            if (log) {
-                LOG.info("Sending message to Twilio:" + message);
-            }
-            session.getBasicRemote().sendObject(new Message(message.toString()));
-        } catch (IOException | EncodeException e) {
-            LOG.error(e);
+    /**
+     * @param control whether the message is a mark or a clear, which are logged and never dropped, unlike media
+     */
+    private void writeToStream(JsonObject message, boolean control) {
+        if (control) {
+            LOG.debug("Sending message to Twilio: {}", message);
         }
+        writer.send(message.toString(), control);
     }
 }
@@ -0,0 +1,297 @@
+package com.amazonaws.lex.twilio.sample.conversation;
+
+import com.amazonaws.lex.twilio.sample.lifecycle.Configuration;
+import com.amazonaws.lex.twilio.sample.logging.CallLogger;
+import com.amazonaws.lex.twilio.sample.metrics.LatencyHistogram;
+import com.amazonaws.lex.twilio.sample.metrics.Metrics;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import com.twilio.exception.ApiConnectionException;
+import com.twilio.exception.ApiException;
+import com.twilio.http.HttpClient;
+import com.twilio.http.NetworkHttpClient;
+import com.twilio.http.TwilioRestClient;
+import com.twilio.rest.api.v2010.account.Call;
+import com.twilio.security.RequestValidator;
+import org.apache.http.client.config.RequestConfig;
+import org.apache.http.impl.client.HttpClientBuilder;
+import org.apache.http.impl.conn.PoolingHttpClientConnectionManager;
+import org.apache.log4j.Level;
+
+import java.util.Map;
+import java.util.Properties;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/*
+ * Copyright Amazon.com, Inc. or its affiliates. All Rights Reserved.
+ * SPDX-License-Identifier: MIT-0
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this
+ * software and associated documentation files (the "Software"), to deal in the Software
+ * without restriction, including without limitation the rights to use, copy, modify,
+ * merge, publish, distribute, sublicense, and/or sell copies of the Software, and to
+ * permit persons to whom the Software is furnished to do so.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED,
+ * INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A
+ * PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT
+ * HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION
+ * OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE
+ * SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+/**
+ * Runs all Twilio REST (control plane) operations off the calling thread. Callers are typically Lex SDK event loop
+ * threads or Tomcat WebSocket threads which also serve other calls, so they must never wait on the Twilio API.
+ * <p>
+ * Requests are executed on a bounded pool, over a pooled keep-alive HTTP client, and retried with exponential backoff
+ * and jitter when the failure looks transient. Hang ups are de-duplicated per call: asking to hang up a call that is
+ * already being (or has been) hung up returns the same future instead of sending another request.
+ */
+public class TwilioControlPlane {
+
+    private static final CallLogger LOG = CallLogger.getLogger(TwilioControlPlane.class);
+
+    private static final LatencyHistogram HANG_UP_LATENCY = Metrics.latency("twilio.hangup.latency");
+    private static final LongAdder HANG_UP_REQUESTS = Metrics.counter("twilio.hangup.requests");
+    private static final LongAdder HANG_UP_DEDUPLICATED = Metrics.counter("twilio.hangup.deduplicated");
+    private static final LongAdder HANG_UP_RETRIES = Metrics.counter("twilio.hangup.retries");
+    private static final LongAdder HANG_UP_ERRORS = Metrics.counter("twilio.hangup.errors");
+    private static final LongAdder REJECTED = Metrics.counter("twilio.requests.rejected");
+
+    private static volatile TwilioControlPlane instance;
+
+    private final TwilioRestClient restClient;
+    private final ThreadPoolExecutor executor;
+    private final ScheduledExecutorService scheduler;
+    private final ConcurrentMap<String, CompletableFuture<Void>> hangUps;
+    private final int maxAttempts;
+    private final long initialBackoffMillis;
+    private final long maxBackoffMillis;
+    private final long hangUpDedupTtlMillis;
+    // null when webhooks cannot be validated, they are all rejected then.
+    private final RequestValidator requestValidator;
+    // empty when the URL Twilio requested is taken from the request.
+    private final String publicBaseUrl;
+
+    public static TwilioControlPlane getInstance() {
+        if (instance == null) {
+            synchronized (TwilioControlPlane.class) {
+                if (instance == null) {
+                    instance = new TwilioControlPlane(Configuration.load(Configuration.TWILIO));
+                }
+            }
+        }
+        return instance;
+    }
+
+    public TwilioControlPlane(Properties properties) {
+        this(properties, createHttpClient(properties));
+    }
+
+    TwilioControlPlane(Properties properties, HttpClient httpClient) {
+        this.maxAttempts = Integer.parseInt(properties.getProperty("max-attempts", "4"));
+        this.initialBackoffMillis = Long.parseLong(properties.getProperty("initial-backoff-ms", "200"));
+        this.maxBackoffMillis = Long.parseLong(properties.getProperty("max-backoff-ms", "3000"));
+        this.hangUpDedupTtlMillis = Long.parseLong(properties.getProperty("hang-up-dedup-ttl-ms", "600000"));
+        String authToken = properties.getProperty("auth-token", "");
+        if (!Boolean.parseBoolean(properties.getProperty("validate-webhook-signatures", "true"))) {
+            LOG.warn("validate-webhook-signatures is false, Twilio webhooks such as /call-status are disabled");
+            this.requestValidator = null;
+        } else if (authToken.isEmpty()) {
+            LOG.warn("no auth-token is configured, Twilio webhooks such as /call-status are disabled");
+            this.requestValidator = null;
+        } else {
+            this.requestValidator = new RequestValidator(authToken);
+        }
+        this.publicBaseUrl = stripTrailingSlash(properties.getProperty("public-base-url", "").trim());
+
+        this.restClient = new TwilioRestClient.Builder(properties.getProperty("account-sid"), properties.getProperty("auth-token"))
+                .httpClient(httpClient)
+                .build();
+
+        int workerThreads = Integer.parseInt(properties.getProperty("worker-threads", "4"));
+        this.executor = new ThreadPoolExecutor(workerThreads, workerThreads, 60, TimeUnit.SECONDS,
+                new ArrayBlockingQueue<>(Integer.parseInt(properties.getProperty("queue-size", "1000"))),
+                new ThreadFactoryBuilder().setNameFormat("twilio-control-plane-%d").setDaemon(true).build(),
+                new ThreadPoolExecutor.AbortPolicy());
+        this.executor.allowCoreThreadTimeOut(true);
+        this.scheduler = Executors.newSingleThreadScheduledExecutor(
+                new ThreadFactoryBuilder().setNameFormat("twilio-control-plane-scheduler").setDaemon(true).build());
+        this.hangUps = new ConcurrentHashMap<>();
+
+        Metrics.gauge("twilio.requests.queued", () -> executor.getQueue().size());
+        Metrics.gauge("twilio.requests.active", executor::getActiveCount);
+    }
+
+    private static HttpClient createHttpClient(Properties properties) {
+        if ("stub".equals(properties.getProperty("http-client", "network"))) {
+            LOG.info("using a local stub instead of the Twilio REST API");
+            return new StubTwilioHttpClient(
+                    Long.parseLong(properties.getProperty("stub-latency-ms", "50")),
+                    Double.parseDouble(properties.getProperty("stub-failure-rate", "0")));
+        }
+
+        int maxConnections = Integer.parseInt(properties.getProperty("max-connections", "20"));
+        long keepAliveMillis = Long.parseLong(properties.getProperty("keep-alive-ms", "30000"));
+
+        PoolingHttpClientConnectionManager connectionManager =
+                new PoolingHttpClientConnectionManager(keepAliveMillis, TimeUnit.MILLISECONDS);
+        connectionManager.setMaxTotal(maxConnections);
+        // all requests go to api.twilio.com, so a single route can use the whole pool.
+        connectionManager.setDefaultMaxPerRoute(maxConnections);
+        connectionManager.setValidateAfterInactivity(2000);
+
+        RequestConfig requestConfig = RequestConfig.custom()
+                .setConnectTimeout(Integer.parseInt(properties.getProperty("connect-timeout-ms", "2000")))
+                .setSocketTimeout(Integer.parseInt(properties.getProperty("socket-timeout-ms", "5000")))
+                .setConnectionRequestTimeout(Integer.parseInt(properties.getProperty("connection-request-timeout-ms", "1000")))
+                .build();
+
+        HttpClientBuilder clientBuilder = HttpClientBuilder.create()
+                .setConnectionManager(connectionManager)
+                .setDefaultRequestConfig(requestConfig)
+                .setKeepAliveStrategy((response, context) -> keepAliveMillis)
+                .evictExpiredConnections()
+                .evictIdleConnections(keepAliveMillis, TimeUnit.MILLISECONDS)
+                .useSystemProperties();
+
+        return new NetworkHttpClient(clientBuilder);
+    }
+
+    private static String stripTrailingSlash(String url) {
+        return url.endsWith("/") ? url.substring(0, url.length() - 1) : url;
+    }
+
+    /**
+     * Whether a webhook request was sent by Twilio, by its {@code X-Twilio-Signature} header. Always false when
+     * signatures cannot be checked ({@code validate-webhook-signatures=false}, or no auth token configured), so that
+     * webhooks fail closed.
+     *
+     * @param url        the full public URL Twilio requested, including the query string
+     * @param parameters the parameters of the POST body, without those of the query string
+     */
+    public boolean isSignedByTwilio(String url, Map<String, String> parameters, String signature) {
+        return requestValidator != null && signature != null && requestValidator.validate(url, parameters, signature);
+    }
+
+    /**
+     * @return the public URL Twilio sends webhooks to, e.g. {@code https://abc.ngrok.io}, without a trailing slash;
+     * empty when not configured
+     */
+    public String getPublicBaseUrl() {
+        return publicBaseUrl;
+    }
+
+    /**
+     * Asynchronously completes the given call. Repeated requests for the same call within the de-duplication window
+     * share the first request's future.
+     */
+    public CompletableFuture<Void> hangUp(String callSid) {
+        HANG_UP_REQUESTS.increment();
+
+        CompletableFuture<Void> created = new CompletableFuture<>();
+        CompletableFuture<Void> existing = hangUps.putIfAbsent(callSid, created);
+        if (existing != null) {
+            HANG_UP_DEDUPLICATED.increment();
+            LOG.debug("hang up already requested for call {}", callSid);
+            return existing;
+        }
+
+        submitHangUp(callSid, created, 1);
+        created.whenComplete((result, error) -> {
+            if (error != null) {
+                // let a later request try again.
+                hangUps.remove(callSid, created);
+            } else {
+                scheduler.schedule(() -> hangUps.remove(callSid, created), hangUpDedupTtlMillis, TimeUnit.MILLISECONDS);
+            }
+        });
+        return created;
+    }
+
+    private void submitHangUp(String callSid, CompletableFuture<Void> result, int attempt) {
+        try {
+            executor.execute(() -> attemptHangUp(callSid, result, attempt));
+        } catch (RejectedExecutionException e) {
+            REJECTED.increment();
+            HANG_UP_ERRORS.increment();
+            LOG.limited(Level.ERROR, "twilio.saturated", "twilio control plane is saturated, could not hang up call {}",
+                    callSid);
+            result.completeExceptionally(e);
+        }
+    }
+
+    private void attemptHangUp(String callSid, CompletableFuture<Void> result, int attempt) {
+        // the pool serves all calls, its lines are tagged with the call being hung up.
+        CallLogger.enterCall(callSid);
+        try {
+            hangUpOnce(callSid, result, attempt);
+        } finally {
+            CallLogger.exitCall();
+        }
+    }
+
+    private void hangUpOnce(String callSid, CompletableFuture<Void> result, int attempt) {
+        long start = System.nanoTime();
+        try {
+            Call.updater(callSid)
+                    .setStatus(Call.UpdateStatus.COMPLETED)
+                    .update(restClient);
+
+            HANG_UP_LATENCY.recordNanos(System.nanoTime() - start);
+            LOG.info("hung up the twilio call {} after {} attempt(s)", callSid, attempt);
+            result.complete(null);
+        } catch (RuntimeException e) {
+            HANG_UP_LATENCY.recordNanos(System.nanoTime() - start);
+
+            if (attempt < maxAttempts && isRetryable(e)) {
+                long backoff = backoffMillis(attempt);
+                HANG_UP_RETRIES.increment();
+                LOG.limited(Level.WARN, "twilio.hangup.retry",
+                        "hang up of call {} failed (attempt {}), retrying in {}ms: {}",
+                        callSid, attempt, backoff, e.getMessage());
+                scheduler.schedule(() -> submitHangUp(callSid, result, attempt + 1), backoff, TimeUnit.MILLISECONDS);
+            } else {
+                HANG_UP_ERRORS.increment();
+                LOG.limited(Level.ERROR, "twilio.hangup", "could not hang up the twilio call {}", callSid, e);
+                result.completeExceptionally(e);
+            }
+        }
+    }
+
+    private static boolean isRetryable(RuntimeException e) {
+        if (e instanceof ApiConnectionException) {
+            return true;
+        }
+        if (e instanceof ApiException) {
+            Integer statusCode = ((ApiException) e).getStatusCode();
+            return statusCode == null || statusCode == 429 || statusCode >= 500;
+        }
+        return false;
+    }
+
+    private long backoffMillis(int attempt) {
+        long exponential = Math.min(maxBackoffMillis, initialBackoffMillis << Math.min(attempt - 1, 20));
+        // full jitter on the upper half, so that retries of calls that failed together spread out.
+        return exponential / 2 + ThreadLocalRandom.current().nextLong(exponential / 2 + 1);
+    }
+
+    public TwilioRestClient getRestClient() {
+        return restClient;
+    }
+
+    public void shutdown() {
+        executor.shutdown();
+        scheduler.shutdown();
+    }
+}
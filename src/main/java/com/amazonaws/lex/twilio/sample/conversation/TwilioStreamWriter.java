@@ -0,0 +1,125 @@
+package com.amazonaws.lex.twilio.sample.conversation;
+
+import com.amazonaws.lex.twilio.sample.logging.CallLogger;
+import com.amazonaws.lex.twilio.sample.metrics.Metrics;
+import org.apache.log4j.Level;
+
+import javax.websocket.SendResult;
+import javax.websocket.Session;
+import java.util.ArrayDeque;
+import java.util.Queue;
+import java.util.concurrent.atomic.LongAdder;
+
+/*
+ * Copyright Amazon.com, Inc. or its affiliates. All Rights Reserved.
+ * SPDX-License-Identifier: MIT-0
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this
+ * software and associated documentation files (the "Software"), to deal in the Software
+ * without restriction, including without limitation the rights to use, copy, modify,
+ * merge, publish, distribute, sublicense, and/or sell copies of the Software, and to
+ * permit persons to whom the Software is furnished to do so.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED,
+ * INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A
+ * PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT
+ * HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION
+ * OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE
+ * SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+/**
+ * Writes a call's messages to its Twilio WebSocket without blocking the call's shard thread. Messages go out through
+ * the session's asynchronous endpoint one at a time, in the order they were sent: when a write completes, the call's
+ * actor is told, and sends the next one. A slow socket therefore only holds up its own call, whose messages wait here;
+ * beyond {@value #MAX_QUEUED} waiting messages media is dropped, counted at /metrics as {@code twilio.send.dropped}.
+ * Writes that do not complete within {@code websocket-async-send-timeout-ms} fail.
+ * <p>
+ * Everything but the completion handler runs on the actor.
+ */
+final class TwilioStreamWriter {
+
+    private static final CallLogger LOG = CallLogger.getLogger(TwilioStreamWriter.class);
+    private static final LongAdder DROPPED = Metrics.counter("twilio.send.dropped");
+
+    // 10 seconds of media in the messages of 20 ms the playback and the filler send at the least.
+    static final int MAX_QUEUED = 500;
+
+    private final Session session;
+    private final CallActor actor;
+    private final Queue<String> queued;
+    // whether a write is in progress, from sendText until the actor is told it completed.
+    private boolean writing;
+    private boolean closed;
+
+    TwilioStreamWriter(Session session, CallActor actor) {
+        this.session = session;
+        this.actor = actor;
+        this.queued = new ArrayDeque<>();
+    }
+
+    /**
+     * Sends a message after the ones sent before it. Media is dropped while the socket is too far behind; control
+     * messages, marks and clears, never are.
+     */
+    void send(String json, boolean control) {
+        if (closed) {
+            return;
+        }
+        if (!control && queued.size() >= MAX_QUEUED) {
+            DROPPED.increment();
+            LOG.limited(Level.WARN, "twilio.send.dropped", "dropping media, {} messages are waiting for the socket",
+                    queued.size());
+            return;
+        }
+        queued.add(json);
+        if (!writing) {
+            writeNext();
+        }
+    }
+
+    /**
+     * Drops the messages that have not been written yet, when the caller barged in.
+     */
+    void discardQueued() {
+        queued.clear();
+    }
+
+    /**
+     * Stops writing once the call has ended.
+     */
+    void close() {
+        closed = true;
+        queued.clear();
+    }
+
+    int queuedMessages() {
+        return queued.size();
+    }
+
+    private void writeNext() {
+        String json = queued.poll();
+        if (json == null || closed) {
+            writing = false;
+            return;
+        }
+        writing = true;
+        try {
+            session.getAsyncRemote().sendText(json, result -> actor.tell(() -> written(json, result)));
+        } catch (RuntimeException e) {
+            // the session has been closed meanwhile.
+            LOG.limited(Level.WARN, "twilio.send", "could not send a message to Twilio", e);
+            close();
+            writing = false;
+        }
+    }
+
+    private void written(String json, SendResult result) {
+        if (result.isOK()) {
+            actor.getCost().twilioSent(json.length());
+        } else {
+            LOG.limited(Level.WARN, "twilio.send", "could not send a message to Twilio", result.getException());
+        }
+        writeNext();
+    }
+}
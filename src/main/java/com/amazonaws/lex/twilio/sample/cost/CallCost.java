@@ -0,0 +1,270 @@
+package com.amazonaws.lex.twilio.sample.cost;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.LongSupplier;
+
+/*
+ * Copyright Amazon.com, Inc. or its affiliates. All Rights Reserved.
+ * SPDX-License-Identifier: MIT-0
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this
+ * software and associated documentation files (the "Software"), to deal in the Software
+ * without restriction, including without limitation the rights to use, copy, modify,
+ * merge, publish, distribute, sublicense, and/or sell copies of the Software, and to
+ * permit persons to whom the Software is furnished to do so.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED,
+ * INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A
+ * PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT
+ * HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION
+ * OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE
+ * SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+/**
+ * What one call costs this node: CPU time and bytes allocated by the threads while they work for the call, bytes
+ * exchanged with Twilio and Lex, and the buffer memory the call holds right now. Work is measured with a
+ * {@link Meter} around it, on whichever thread runs it; the other counters may be added to from any thread.
+ */
+public final class CallCost {
+
+    private static final ThreadMXBean THREADS = ManagementFactory.getThreadMXBean();
+    private static final boolean CPU_TIME_SUPPORTED = THREADS.isCurrentThreadCpuTimeSupported()
+            && THREADS.isThreadCpuTimeEnabled();
+    private static final com.sun.management.ThreadMXBean ALLOCATIONS = THREADS instanceof com.sun.management.ThreadMXBean
+            && ((com.sun.management.ThreadMXBean) THREADS).isThreadAllocatedMemorySupported()
+            && ((com.sun.management.ThreadMXBean) THREADS).isThreadAllocatedMemoryEnabled()
+            ? (com.sun.management.ThreadMXBean) THREADS : null;
+
+    private final String callSid;
+    private final boolean measured;
+    private final long startedNanos;
+    private volatile String bot;
+
+    private final LongAdder cpuNanos;
+    private final LongAdder allocatedBytes;
+    private final LongAdder twilioBytesReceived;
+    private final LongAdder twilioBytesSent;
+    private final LongAdder lexBytesReceived;
+    private final LongAdder lexBytesSent;
+    private final ConcurrentMap<String, LongSupplier> retained;
+
+    CallCost(String callSid, boolean measured) {
+        this.callSid = callSid;
+        this.measured = measured;
+        this.startedNanos = System.nanoTime();
+        this.cpuNanos = new LongAdder();
+        this.allocatedBytes = new LongAdder();
+        this.twilioBytesReceived = new LongAdder();
+        this.twilioBytesSent = new LongAdder();
+        this.lexBytesReceived = new LongAdder();
+        this.lexBytesSent = new LongAdder();
+        this.retained = new ConcurrentHashMap<>();
+    }
+
+    /**
+     * A cost that is not reported anywhere and measures no work, for conversations that are not calls, e.g. the
+     * warm-up and benchmarks.
+     */
+    public static CallCost detached() {
+        return new CallCost(null, false);
+    }
+
+    public String getCallSid() {
+        return callSid;
+    }
+
+    /**
+     * Bot the call talks to, null until its conversation has started.
+     */
+    public String getBot() {
+        return bot;
+    }
+
+    public void setBot(String bot) {
+        this.bot = bot;
+    }
+
+    /**
+     * A meter for work done for the call by one thread at a time.
+     */
+    public Meter newMeter() {
+        return new Meter();
+    }
+
+    public void twilioReceived(int bytes) {
+        twilioBytesReceived.add(bytes);
+    }
+
+    public void twilioSent(int bytes) {
+        twilioBytesSent.add(bytes);
+    }
+
+    public void lexReceived(int bytes) {
+        lexBytesReceived.add(bytes);
+    }
+
+    public void lexSent(int bytes) {
+        lexBytesSent.add(bytes);
+    }
+
+    /**
+     * Reports a buffer of the call, replacing the one reported under the same name, e.g. the queue of the previous
+     * Lex stream after a reconnect. The supplier is read by the cost endpoint's threads, so it must be thread safe.
+     */
+    public void retain(String name, LongSupplier bytes) {
+        retained.put(name, bytes);
+    }
+
+    /**
+     * Stops reporting a buffer the call no longer holds.
+     */
+    public void release(String name) {
+        retained.remove(name);
+    }
+
+    public long getCpuNanos() {
+        return cpuNanos.sum();
+    }
+
+    public long getAllocatedBytes() {
+        return allocatedBytes.sum();
+    }
+
+    public long getNetworkBytes() {
+        return twilioBytesReceived.sum() + twilioBytesSent.sum() + lexBytesReceived.sum() + lexBytesSent.sum();
+    }
+
+    public long getRetainedBytes() {
+        long bytes = 0;
+        for (LongSupplier supplier : retained.values()) {
+            bytes += supplier.getAsLong();
+        }
+        return bytes;
+    }
+
+    public Snapshot snapshot() {
+        Map<String, Long> buffers = new LinkedHashMap<>();
+        long retainedBytes = 0;
+        for (Map.Entry<String, LongSupplier> buffer : retained.entrySet()) {
+            long bytes = buffer.getValue().getAsLong();
+            buffers.put(buffer.getKey(), bytes);
+            retainedBytes += bytes;
+        }
+        return new Snapshot(this, retainedBytes, buffers);
+    }
+
+    /**
+     * Attributes the CPU time and allocations of the current thread to the call, from {@link #start()} to
+     * {@link #record()}. Not thread safe: one thread at a time, which may change between start and record only with
+     * a happens-before edge, as between the turns of an actor.
+     */
+    public final class Meter {
+
+        private long cpuMark;
+        private long allocatedMark;
+
+        private Meter() {
+        }
+
+        public void start() {
+            if (measured) {
+                cpuMark = threadCpuNanos();
+                allocatedMark = threadAllocatedBytes();
+            }
+        }
+
+        /**
+         * Adds the work since {@link #start()} or the last record to the call, and starts measuring again.
+         */
+        public void record() {
+            if (measured) {
+                long cpu = threadCpuNanos();
+                long allocated = threadAllocatedBytes();
+                cpuNanos.add(cpu - cpuMark);
+                allocatedBytes.add(allocated - allocatedMark);
+                cpuMark = cpu;
+                allocatedMark = allocated;
+            }
+        }
+    }
+
+    private static long threadCpuNanos() {
+        return CPU_TIME_SUPPORTED ? THREADS.getCurrentThreadCpuTime() : 0;
+    }
+
+    private static long threadAllocatedBytes() {
+        // getCurrentThreadAllocatedBytes() needs Java 14.
+        return ALLOCATIONS != null ? ALLOCATIONS.getThreadAllocatedBytes(Thread.currentThread().getId()) : 0;
+    }
+
+    /**
+     * The cost of a call as rendered by the {@code /costs} endpoint and the call's timeline. CPU time is in
+     * milliseconds.
+     */
+    public static final class Snapshot {
+        private final String callSid;
+        private final String bot;
+        private final long ageMillis;
+        private final double cpuMillis;
+        private final long allocatedBytes;
+        private final long twilioBytesReceived;
+        private final long twilioBytesSent;
+        private final long lexBytesReceived;
+        private final long lexBytesSent;
+        private final long retainedBytes;
+        private final Map<String, Long> retained;
+
+        private Snapshot(CallCost cost, long retainedBytes, Map<String, Long> retained) {
+            this.callSid = cost.callSid;
+            this.bot = cost.bot;
+            this.ageMillis = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - cost.startedNanos);
+            this.cpuMillis = cost.cpuNanos.sum() / 1_000_000.0;
+            this.allocatedBytes = cost.allocatedBytes.sum();
+            this.twilioBytesReceived = cost.twilioBytesReceived.sum();
+            this.twilioBytesSent = cost.twilioBytesSent.sum();
+            this.lexBytesReceived = cost.lexBytesReceived.sum();
+            this.lexBytesSent = cost.lexBytesSent.sum();
+            this.retainedBytes = retainedBytes;
+            this.retained = retained;
+        }
+
+        public String getCallSid() {
+            return callSid;
+        }
+
+        public String getBot() {
+            return bot;
+        }
+
+        public double getCpuMillis() {
+            return cpuMillis;
+        }
+
+        public long getAllocatedBytes() {
+            return allocatedBytes;
+        }
+
+        public long getNetworkBytes() {
+            return twilioBytesReceived + twilioBytesSent + lexBytesReceived + lexBytesSent;
+        }
+
+        public long getRetainedBytes() {
+            return retainedBytes;
+        }
+
+        @Override
+        public String toString() {
+            return String.format("cpu=%.1fms allocated=%dKB twilio in/out=%d/%dKB lex in/out=%d/%dKB", cpuMillis,
+                    allocatedBytes / 1024, twilioBytesReceived / 1024, twilioBytesSent / 1024,
+                    lexBytesReceived / 1024, lexBytesSent / 1024);
+        }
+    }
+}
@@ -0,0 +1,190 @@
+package com.amazonaws.lex.twilio.sample.cost;
+
+import com.amazonaws.lex.twilio.sample.lifecycle.Configuration;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.LongAdder;
+
+/*
+ * Copyright Amazon.com, Inc. or its affiliates. All Rights Reserved.
+ * SPDX-License-Identifier: MIT-0
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this
+ * software and associated documentation files (the "Software"), to deal in the Software
+ * without restriction, including without limitation the rights to use, copy, modify,
+ * merge, publish, distribute, sublicense, and/or sell copies of the Software, and to
+ * permit persons to whom the Software is furnished to do so.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED,
+ * INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A
+ * PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT
+ * HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION
+ * OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE
+ * SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+/**
+ * Costs of the calls in progress on this node, by call SID, and their totals per bot including ended calls. Measuring
+ * CPU time and allocations reads the thread's counters twice per unit of work (an actor turn, a playback frame, a Lex
+ * event) and can be turned off with {@code call-cost-thread-accounting=false} in server-configuration.properties;
+ * bytes and buffers are always counted.
+ */
+public final class CallCosts {
+
+    // calls whose conversation has not started yet.
+    private static final String UNKNOWN_BOT = "unknown";
+
+    private static volatile CallCosts instance;
+
+    private final boolean threadAccounting;
+    private final ConcurrentMap<String, CallCost> active;
+    private final ConcurrentMap<String, BotTotals> ended;
+
+    CallCosts(boolean threadAccounting) {
+        this.threadAccounting = threadAccounting;
+        this.active = new ConcurrentHashMap<>();
+        this.ended = new ConcurrentHashMap<>();
+    }
+
+    public static CallCosts getInstance() {
+        if (instance == null) {
+            synchronized (CallCosts.class) {
+                if (instance == null) {
+                    Properties properties = Configuration.load(Configuration.SERVER);
+                    instance = new CallCosts(Boolean.parseBoolean(
+                            properties.getProperty("call-cost-thread-accounting", "true").trim()));
+                }
+            }
+        }
+        return instance;
+    }
+
+    public CallCost open(String callSid) {
+        CallCost cost = new CallCost(callSid, threadAccounting);
+        active.put(callSid, cost);
+        return cost;
+    }
+
+    /**
+     * Moves the cost of an ended call into its bot's totals.
+     */
+    public void close(CallCost cost) {
+        if (cost.getCallSid() == null || !active.remove(cost.getCallSid(), cost)) {
+            return;
+        }
+        ended.computeIfAbsent(botOf(cost), bot -> new BotTotals()).add(cost);
+    }
+
+    public CallCost find(String callSid) {
+        return active.get(callSid);
+    }
+
+    /**
+     * The calls in progress that cost the most by the given measure, most expensive first.
+     */
+    public List<CallCost.Snapshot> top(int limit, Measure measure) {
+        List<CallCost.Snapshot> snapshots = new ArrayList<>();
+        for (CallCost cost : active.values()) {
+            snapshots.add(cost.snapshot());
+        }
+        snapshots.sort(Comparator.comparingDouble(measure::of).reversed());
+        return snapshots.size() > limit ? new ArrayList<>(snapshots.subList(0, limit)) : snapshots;
+    }
+
+    /**
+     * Totals per bot, of ended calls and of the calls in progress, by bot name.
+     */
+    public Map<String, Map<String, Object>> perBot() {
+        Map<String, BotTotals> totals = new TreeMap<>();
+        ended.forEach((bot, botTotals) -> totals.computeIfAbsent(bot, key -> new BotTotals()).add(botTotals));
+        Map<String, Long> activeCalls = new TreeMap<>();
+        Map<String, Long> retainedBytes = new TreeMap<>();
+        for (CallCost cost : active.values()) {
+            String bot = botOf(cost);
+            totals.computeIfAbsent(bot, key -> new BotTotals()).add(cost);
+            activeCalls.merge(bot, 1L, Long::sum);
+            retainedBytes.merge(bot, cost.getRetainedBytes(), Long::sum);
+        }
+
+        Map<String, Map<String, Object>> bots = new LinkedHashMap<>();
+        totals.forEach((bot, botTotals) -> {
+            long calls = botTotals.calls.sum();
+            Map<String, Object> rendered = new LinkedHashMap<>();
+            rendered.put("calls", calls);
+            rendered.put("activeCalls", activeCalls.getOrDefault(bot, 0L));
+            rendered.put("cpuMillis", botTotals.cpuNanos.sum() / 1_000_000.0);
+            rendered.put("cpuMillisPerCall", calls == 0 ? 0 : botTotals.cpuNanos.sum() / 1_000_000.0 / calls);
+            rendered.put("allocatedBytes", botTotals.allocatedBytes.sum());
+            rendered.put("networkBytes", botTotals.networkBytes.sum());
+            rendered.put("retainedBytes", retainedBytes.getOrDefault(bot, 0L));
+            bots.put(bot, rendered);
+        });
+        return bots;
+    }
+
+    private static String botOf(CallCost cost) {
+        String bot = cost.getBot();
+        return bot != null ? bot : UNKNOWN_BOT;
+    }
+
+    /**
+     * What the top calls are ranked by.
+     */
+    public enum Measure {
+        CPU {
+            @Override
+            double of(CallCost.Snapshot snapshot) {
+                return snapshot.getCpuMillis();
+            }
+        },
+        ALLOCATED {
+            @Override
+            double of(CallCost.Snapshot snapshot) {
+                return snapshot.getAllocatedBytes();
+            }
+        },
+        NETWORK {
+            @Override
+            double of(CallCost.Snapshot snapshot) {
+                return snapshot.getNetworkBytes();
+            }
+        },
+        RETAINED {
+            @Override
+            double of(CallCost.Snapshot snapshot) {
+                return snapshot.getRetainedBytes();
+            }
+        };
+
+        abstract double of(CallCost.Snapshot snapshot);
+    }
+
+    private static final class BotTotals {
+        private final LongAdder calls = new LongAdder();
+        private final LongAdder cpuNanos = new LongAdder();
+        private final LongAdder allocatedBytes = new LongAdder();
+        private final LongAdder networkBytes = new LongAdder();
+
+        void add(CallCost cost) {
+            calls.increment();
+            cpuNanos.add(cost.getCpuNanos());
+            allocatedBytes.add(cost.getAllocatedBytes());
+            networkBytes.add(cost.getNetworkBytes());
+        }
+
+        void add(BotTotals other) {
+            calls.add(other.calls.sum());
+            cpuNanos.add(other.cpuNanos.sum());
+            allocatedBytes.add(other.allocatedBytes.sum());
+            networkBytes.add(other.networkBytes.sum());
+        }
+    }
+}
@@ -0,0 +1,45 @@
+package com.amazonaws.lex.twilio.sample.jfr;
+
+import jdk.jfr.Category;
+import jdk.jfr.Event;
+import jdk.jfr.StackTrace;
+
+/*
+ * Copyright Amazon.com, Inc. or its affiliates. All Rights Reserved.
+ * SPDX-License-Identifier: MIT-0
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this
+ * software and associated documentation files (the "Software"), to deal in the Software
+ * without restriction, including without limitation the rights to use, copy, modify,
+ * merge, publish, distribute, sublicense, and/or sell copies of the Software, and to
+ * permit persons to whom the Software is furnished to do so.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED,
+ * INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A
+ * PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT
+ * HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION
+ * OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE
+ * SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+/**
+ * Base of the flight recorder events emitted along the call pipeline. Events are created, begun and ended on every
+ * pass, but fields are only filled in, and the event only written, when {@link #shouldCommit()} holds, i.e. when a
+ * recording is running, the event type is enabled and its duration is above the configured threshold. Without a
+ * recording the JIT removes nearly all of it.
+ * <p>
+ * Default thresholds are set on each event type; {@code lex-twilio-pipeline.jfc} records every event instead.
+ */
+@Category({"Lex Twilio", "Call Pipeline"})
+@StackTrace(false)
+public abstract class CallEvent extends Event {
+
+    /**
+     * Ends the event and reports whether it should be written, in which case the caller fills in its fields and
+     * commits it.
+     */
+    boolean endAndCheck() {
+        end();
+        return shouldCommit();
+    }
+}
@@ -0,0 +1,50 @@
+package com.amazonaws.lex.twilio.sample.jfr;
+
+import jdk.jfr.Description;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.Threshold;
+
+/*
+ * Copyright Amazon.com, Inc. or its affiliates. All Rights Reserved.
+ * SPDX-License-Identifier: MIT-0
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this
+ * software and associated documentation files (the "Software"), to deal in the Software
+ * without restriction, including without limitation the rights to use, copy, modify,
+ * merge, publish, distribute, sublicense, and/or sell copies of the Software, and to
+ * permit persons to whom the Software is furnished to do so.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED,
+ * INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A
+ * PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT
+ * HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION
+ * OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE
+ * SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+@Name("com.amazonaws.lex.twilio.HangUp")
+@Label("Hang Up")
+@Description("Completing a call through the Twilio REST API, from the request until the API answered (including retries)")
+@Threshold("0 ms")
+public class HangUpEvent extends CallEvent {
+
+    @Label("Call SID")
+    private String callSid;
+
+    @Label("After Error")
+    @Description("Whether the call is hung up because the conversation failed")
+    private boolean exceptionCase;
+
+    @Label("Succeeded")
+    private boolean succeeded;
+
+    public void finish(String callSid, boolean exceptionCase, boolean succeeded) {
+        if (endAndCheck()) {
+            this.callSid = callSid;
+            this.exceptionCase = exceptionCase;
+            this.succeeded = succeeded;
+            commit();
+        }
+    }
+}
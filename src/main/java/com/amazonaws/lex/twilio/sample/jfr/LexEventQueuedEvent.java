@@ -0,0 +1,55 @@
+package com.amazonaws.lex.twilio.sample.jfr;
+
+import jdk.jfr.DataAmount;
+import jdk.jfr.Description;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.Threshold;
+
+/*
+ * Copyright Amazon.com, Inc. or its affiliates. All Rights Reserved.
+ * SPDX-License-Identifier: MIT-0
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this
+ * software and associated documentation files (the "Software"), to deal in the Software
+ * without restriction, including without limitation the rights to use, copy, modify,
+ * merge, publish, distribute, sublicense, and/or sell copies of the Software, and to
+ * permit persons to whom the Software is furnished to do so.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED,
+ * INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A
+ * PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT
+ * HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION
+ * OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE
+ * SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+@Name("com.amazonaws.lex.twilio.LexEventQueued")
+@Label("Lex Event Queued")
+@Description("Creation of an event for Lex and queueing it for sending")
+@Threshold("5 ms")
+public class LexEventQueuedEvent extends CallEvent {
+
+    @Label("Call SID")
+    private String callSid;
+
+    @Label("Event Type")
+    private String eventType;
+
+    @Label("Audio Size")
+    @DataAmount
+    private int audioSize;
+
+    @Label("Queue Depth")
+    private int queueDepth;
+
+    public void finish(String callSid, String eventType, int audioSize, int queueDepth) {
+        if (endAndCheck()) {
+            this.callSid = callSid;
+            this.eventType = eventType;
+            this.audioSize = audioSize;
+            this.queueDepth = queueDepth;
+            commit();
+        }
+    }
+}
@@ -0,0 +1,59 @@
+package com.amazonaws.lex.twilio.sample.jfr;
+
+import jdk.jfr.DataAmount;
+import jdk.jfr.Description;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.Threshold;
+
+/*
+ * Copyright Amazon.com, Inc. or its affiliates. All Rights Reserved.
+ * SPDX-License-Identifier: MIT-0
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this
+ * software and associated documentation files (the "Software"), to deal in the Software
+ * without restriction, including without limitation the rights to use, copy, modify,
+ * merge, publish, distribute, sublicense, and/or sell copies of the Software, and to
+ * permit persons to whom the Software is furnished to do so.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED,
+ * INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A
+ * PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT
+ * HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION
+ * OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE
+ * SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+@Name("com.amazonaws.lex.twilio.Transcode")
+@Label("Transcode")
+@Description("Conversion of audio between Twilio's u-law and Lex's PCM")
+@Threshold("5 ms")
+public class TranscodeEvent extends CallEvent {
+
+    @Label("Call SID")
+    private String callSid;
+
+    public static final String ULAW_TO_PCM = "u-law to PCM";
+    public static final String PCM_TO_ULAW = "PCM to u-law";
+
+    @Label("Direction")
+    private String direction;
+
+    @Label("Input Size")
+    @DataAmount
+    private int inputSize;
+
+    @Label("Output Size")
+    @DataAmount
+    private int outputSize;
+
+    public void finish(String callSid, String direction, int inputSize, int outputSize) {
+        if (endAndCheck()) {
+            this.callSid = callSid;
+            this.direction = direction;
+            this.inputSize = inputSize;
+            this.outputSize = outputSize;
+            commit();
+        }
+    }
+}
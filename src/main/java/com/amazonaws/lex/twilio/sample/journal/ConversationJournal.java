@@ -0,0 +1,226 @@
+package com.amazonaws.lex.twilio.sample.journal;
+
+import com.amazonaws.lex.twilio.sample.lifecycle.Configuration;
+import com.amazonaws.lex.twilio.sample.logging.CallLogger;
+import com.amazonaws.lex.twilio.sample.metrics.Metrics;
+import org.apache.log4j.Level;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Properties;
+import java.util.Queue;
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/*
+ * Copyright Amazon.com, Inc. or its affiliates. All Rights Reserved.
+ * SPDX-License-Identifier: MIT-0
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this
+ * software and associated documentation files (the "Software"), to deal in the Software
+ * without restriction, including without limitation the rights to use, copy, modify,
+ * merge, publish, distribute, sublicense, and/or sell copies of the Software, and to
+ * permit persons to whom the Software is furnished to do so.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED,
+ * INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A
+ * PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT
+ * HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION
+ * OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE
+ * SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+/**
+ * Append-only journal of what happened in each call (lifecycle, transcripts, intents, text responses, interruptions)
+ * for analysis after the call, see {@link JournalExporter}. Configured in server-configuration.properties with
+ * {@code journal-enabled}, {@code journal-directory}, {@code journal-segment-mb} and {@code journal-flush-interval-ms};
+ * the first two can be overridden with a system property of the same name.
+ * <p>
+ * Appending never does I/O: every thread encodes its records into a buffer of its own, which is handed to the
+ * journal's writer thread when it is full and at least every flush interval. The writer copies the records into
+ * memory-mapped segment files (see {@link SegmentWriter}). When the writer falls behind, full buffers are dropped and
+ * counted at /metrics as {@code journal.buffers_dropped} rather than blocking the call.
+ */
+public final class ConversationJournal {
+
+    private static final CallLogger LOG = CallLogger.getLogger(ConversationJournal.class);
+
+    private static final int THREAD_BUFFER_BYTES = 64 * 1024;
+    private static final int MAX_PENDING_BUFFERS = 64;
+    private static final LongAdder RECORDS = Metrics.counter("journal.records");
+    private static final LongAdder RECORDS_DROPPED = Metrics.counter("journal.records_dropped");
+    private static final LongAdder BUFFERS_DROPPED = Metrics.counter("journal.buffers_dropped");
+
+    private static volatile ConversationJournal instance;
+
+    private final boolean enabled;
+    private final long flushIntervalMillis;
+    private final SegmentWriter segments;
+    private final ThreadLocal<ThreadBuffer> threadBuffers;
+    private final Set<ThreadBuffer> allThreadBuffers;
+    private final BlockingQueue<ByteBuffer> fullBuffers;
+    private final Queue<ByteBuffer> freeBuffers;
+    private final Thread writer;
+    private volatile boolean running;
+
+    private ConversationJournal(boolean enabled, Path directory, int segmentBytes, long flushIntervalMillis) {
+        this.enabled = enabled;
+        this.flushIntervalMillis = flushIntervalMillis;
+        this.segments = new SegmentWriter(directory, segmentBytes);
+        this.threadBuffers = ThreadLocal.withInitial(this::newThreadBuffer);
+        this.allThreadBuffers = ConcurrentHashMap.newKeySet();
+        this.fullBuffers = new ArrayBlockingQueue<>(MAX_PENDING_BUFFERS);
+        this.freeBuffers = new ConcurrentLinkedQueue<>();
+        this.writer = new Thread(this::runWriter, "journal-writer");
+        this.writer.setDaemon(true);
+        if (enabled) {
+            running = true;
+            writer.start();
+            LOG.info("journaling conversations to {}", directory.toAbsolutePath());
+        }
+    }
+
+    public static ConversationJournal getInstance() {
+        if (instance == null) {
+            synchronized (ConversationJournal.class) {
+                if (instance == null) {
+                    Properties properties = Configuration.load(Configuration.SERVER);
+                    String directory = property(properties, "journal-directory", "");
+                    instance = new ConversationJournal(
+                            Boolean.parseBoolean(property(properties, "journal-enabled", "false")),
+                            directory.isEmpty() ? Paths.get(System.getProperty("java.io.tmpdir"), "lex-twilio-journal")
+                                    : Paths.get(directory),
+                            Integer.parseInt(properties.getProperty("journal-segment-mb", "64").trim()) * 1024 * 1024,
+                            Long.parseLong(properties.getProperty("journal-flush-interval-ms", "200").trim()));
+                }
+            }
+        }
+        return instance;
+    }
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    /**
+     * Appends a record to the calling thread's buffer.
+     *
+     * @param fields the values of {@link JournalEvent#fieldName(int) the event's fields}, null for empty
+     */
+    public void append(JournalEvent event, String callSid, String... fields) {
+        if (!running) {
+            return;
+        }
+        threadBuffers.get().append(event, System.currentTimeMillis(), callSid, fields);
+    }
+
+    /**
+     * Writes out what has been appended so far and stops the writer.
+     */
+    public void close() {
+        if (!running) {
+            return;
+        }
+        allThreadBuffers.forEach(ThreadBuffer::flush);
+        running = false;
+        try {
+            writer.join(TimeUnit.SECONDS.toMillis(5));
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private ThreadBuffer newThreadBuffer() {
+        ThreadBuffer threadBuffer = new ThreadBuffer();
+        allThreadBuffers.add(threadBuffer);
+        return threadBuffer;
+    }
+
+    private ByteBuffer takeBuffer() {
+        ByteBuffer buffer = freeBuffers.poll();
+        return buffer != null ? buffer : ByteBuffer.allocate(THREAD_BUFFER_BYTES);
+    }
+
+    private void runWriter() {
+        long nextFlush = System.currentTimeMillis() + flushIntervalMillis;
+        // after close, drains what is left.
+        while (running || !fullBuffers.isEmpty()) {
+            try {
+                ByteBuffer buffer = fullBuffers.poll(flushIntervalMillis, TimeUnit.MILLISECONDS);
+                if (buffer != null) {
+                    write(buffer);
+                }
+                if (running && System.currentTimeMillis() >= nextFlush) {
+                    allThreadBuffers.forEach(ThreadBuffer::flush);
+                    nextFlush = System.currentTimeMillis() + flushIntervalMillis;
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                break;
+            }
+        }
+        try {
+            segments.close();
+        } catch (IOException e) {
+            LOG.error("could not close the conversation journal", e);
+        }
+    }
+
+    private void write(ByteBuffer buffer) {
+        try {
+            segments.write(buffer);
+        } catch (IOException e) {
+            // journaling must never break calls, the buffer is lost.
+            LOG.limited(Level.ERROR, "journal.write", "could not write to the conversation journal", e);
+        }
+        buffer.clear();
+        freeBuffers.offer(buffer);
+    }
+
+    private static String property(Properties properties, String key, String defaultValue) {
+        return System.getProperty(key, properties.getProperty(key, defaultValue)).trim();
+    }
+
+    /**
+     * Records appended by one thread, taken over by the writer thread when full or flushed. The lock is only
+     * contended while the writer flushes.
+     */
+    private final class ThreadBuffer {
+        private ByteBuffer buffer = takeBuffer();
+
+        synchronized void append(JournalEvent event, long epochMillis, String callSid, String[] fields) {
+            if (!JournalFormat.writeRecord(buffer, event, epochMillis, callSid, fields)) {
+                handOff();
+                if (!JournalFormat.writeRecord(buffer, event, epochMillis, callSid, fields)) {
+                    // larger than a whole buffer.
+                    RECORDS_DROPPED.increment();
+                    return;
+                }
+            }
+            RECORDS.increment();
+        }
+
+        synchronized void flush() {
+            if (buffer.position() > 0) {
+                handOff();
+            }
+        }
+
+        private void handOff() {
+            buffer.flip();
+            if (fullBuffers.offer(buffer)) {
+                buffer = takeBuffer();
+            } else {
+                BUFFERS_DROPPED.increment();
+                buffer.clear();
+            }
+        }
+    }
+}
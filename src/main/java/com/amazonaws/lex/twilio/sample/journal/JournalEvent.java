@@ -0,0 +1,62 @@
+package com.amazonaws.lex.twilio.sample.journal;
+
+/*
+ * Copyright Amazon.com, Inc. or its affiliates. All Rights Reserved.
+ * SPDX-License-Identifier: MIT-0
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this
+ * software and associated documentation files (the "Software"), to deal in the Software
+ * without restriction, including without limitation the rights to use, copy, modify,
+ * merge, publish, distribute, sublicense, and/or sell copies of the Software, and to
+ * permit persons to whom the Software is furnished to do so.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED,
+ * INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A
+ * PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT
+ * HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION
+ * OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE
+ * SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+/**
+ * Kinds of records in the {@link ConversationJournal}, each with the names of its fields in the order they are
+ * appended. Codes are stable, independent of the declaration order.
+ */
+public enum JournalEvent {
+
+    CALL_STARTED(1, "streamSid", "accountSid"),
+    CALL_STOPPED(2),
+    CALL_ENDED(3, "cause"),
+    TRANSCRIPT(4, "eventId", "transcript"),
+    INTENT_RESULT(5, "eventId", "intent", "state", "dialogAction"),
+    TEXT_RESPONSE(6, "eventId", "text"),
+    PLAYBACK_INTERRUPTED(7, "eventId");
+
+    private final int code;
+    private final String[] fieldNames;
+
+    JournalEvent(int code, String... fieldNames) {
+        this.code = code;
+        this.fieldNames = fieldNames;
+    }
+
+    int code() {
+        return code;
+    }
+
+    /**
+     * Name of the field at the given position, or {@code field<index>} for fields this version does not know.
+     */
+    public String fieldName(int index) {
+        return index < fieldNames.length ? fieldNames[index] : "field" + index;
+    }
+
+    static JournalEvent ofCode(int code) {
+        for (JournalEvent event : values()) {
+            if (event.code == code) {
+                return event;
+            }
+        }
+        return null;
+    }
+}
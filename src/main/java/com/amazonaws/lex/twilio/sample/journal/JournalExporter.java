@@ -0,0 +1,118 @@
+package com.amazonaws.lex.twilio.sample.journal;
+
+import com.google.gson.Gson;
+import com.google.gson.GsonBuilder;
+
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/*
+ * Copyright Amazon.com, Inc. or its affiliates. All Rights Reserved.
+ * SPDX-License-Identifier: MIT-0
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this
+ * software and associated documentation files (the "Software"), to deal in the Software
+ * without restriction, including without limitation the rights to use, copy, modify,
+ * merge, publish, distribute, sublicense, and/or sell copies of the Software, and to
+ * permit persons to whom the Software is furnished to do so.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED,
+ * INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A
+ * PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT
+ * HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION
+ * OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE
+ * SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+/**
+ * Exports calls from a conversation journal as JSON, one object per call with its events in order:
+ * <pre>
+ *     java -cp lex-twilio.jar com.amazonaws.lex.twilio.sample.journal.JournalExporter &lt;journal directory&gt; [CallSid...]
+ * </pre>
+ * Without CallSids, every call in the journal is exported. With CallSids, only the segments whose index lists one of
+ * the calls are read, from the call's first record on.
+ */
+public final class JournalExporter {
+
+    private static final Gson GSON = new GsonBuilder().setPrettyPrinting().disableHtmlEscaping().create();
+
+    private JournalExporter() {
+    }
+
+    public static void main(String[] args) throws IOException {
+        if (args.length < 1) {
+            System.err.println("usage: JournalExporter <journal directory> [CallSid...]");
+            System.exit(2);
+        }
+        Path directory = Paths.get(args[0]);
+        Set<String> callSids = new LinkedHashSet<>(Arrays.asList(args).subList(1, args.length));
+
+        Map<String, List<Map<String, Object>>> calls = export(directory, callSids);
+
+        List<Map<String, Object>> output = new ArrayList<>();
+        calls.forEach((callSid, events) -> {
+            Map<String, Object> call = new LinkedHashMap<>();
+            call.put("callSid", callSid);
+            call.put("events", events);
+            output.add(call);
+        });
+        Writer writer = new OutputStreamWriter(System.out, StandardCharsets.UTF_8);
+        GSON.toJson(output, writer);
+        writer.write(System.lineSeparator());
+        writer.flush();
+    }
+
+    /**
+     * Events of the given calls, or of all calls if none are given, by CallSid.
+     */
+    static Map<String, List<Map<String, Object>>> export(Path directory, Set<String> callSids) throws IOException {
+        Map<String, List<Map<String, Object>>> calls = new LinkedHashMap<>();
+        for (String callSid : callSids) {
+            calls.put(callSid, new ArrayList<>());
+        }
+        for (Path segment : JournalReader.segments(directory)) {
+            JournalReader reader = new JournalReader(segment);
+            if (!callSids.isEmpty()) {
+                Map<String, Integer> index = reader.readIndex();
+                // without an index, e.g. when the process died before writing it, the whole segment is read.
+                if (!index.isEmpty()) {
+                    int first = callSids.stream().filter(index::containsKey).mapToInt(index::get).min().orElse(-1);
+                    if (first < 0) {
+                        continue;
+                    }
+                    reader.seek(first);
+                }
+            }
+            while (reader.next()) {
+                if (callSids.isEmpty() || callSids.contains(reader.getCallSid())) {
+                    calls.computeIfAbsent(reader.getCallSid(), key -> new ArrayList<>()).add(toJson(reader));
+                }
+            }
+        }
+        return calls;
+    }
+
+    private static Map<String, Object> toJson(JournalReader reader) {
+        Map<String, Object> event = new LinkedHashMap<>();
+        event.put("time", Instant.ofEpochMilli(reader.getEpochMillis()).toString());
+        JournalEvent type = reader.getEvent();
+        event.put("event", type != null ? type.name().toLowerCase() : "unknown_" + reader.getEventCode());
+        List<String> fields = reader.getFields();
+        for (int i = 0; i < fields.size(); i++) {
+            event.put(type != null ? type.fieldName(i) : "field" + i, fields.get(i));
+        }
+        return event;
+    }
+}
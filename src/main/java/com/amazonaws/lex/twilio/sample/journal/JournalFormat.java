@@ -0,0 +1,101 @@
+package com.amazonaws.lex.twilio.sample.journal;
+
+import java.nio.BufferOverflowException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
+/*
+ * Copyright Amazon.com, Inc. or its affiliates. All Rights Reserved.
+ * SPDX-License-Identifier: MIT-0
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this
+ * software and associated documentation files (the "Software"), to deal in the Software
+ * without restriction, including without limitation the rights to use, copy, modify,
+ * merge, publish, distribute, sublicense, and/or sell copies of the Software, and to
+ * permit persons to whom the Software is furnished to do so.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED,
+ * INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A
+ * PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT
+ * HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION
+ * OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE
+ * SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+/**
+ * Binary layout of the conversation journal. A segment file starts with a header
+ * <pre>
+ *     magic "LJRN" (4 bytes), version (1 byte), wall clock time the segment was created in epoch millis (8 bytes)
+ * </pre>
+ * followed by records
+ * <pre>
+ *     length of the rest of the record (4 bytes), event code (1 byte), epoch millis (8 bytes), CallSid (string),
+ *     number of fields (1 byte), fields (strings)
+ * </pre>
+ * where a string is its UTF-8 length (2 bytes) followed by its UTF-8 bytes. Segments are mapped at their full size, so
+ * the records end at the first length of 0.
+ * <p>
+ * Next to each segment, an index file holds, for every call in the segment, the CallSid (string) and the offset of its
+ * first record (4 bytes).
+ */
+final class JournalFormat {
+
+    static final int MAGIC = 0x4C4A524E;
+    static final int VERSION = 1;
+    static final int HEADER_BYTES = 13;
+    static final String SEGMENT_SUFFIX = ".ljrn";
+    static final String INDEX_SUFFIX = ".ljix";
+    // longer fields, e.g. very long transcripts, are cut to this many characters.
+    private static final int MAX_FIELD_CHARS = 4096;
+
+    private JournalFormat() {
+    }
+
+    /**
+     * Writes a record at the buffer's position.
+     *
+     * @return false, leaving the buffer as it was, if the record does not fit
+     */
+    static boolean writeRecord(ByteBuffer buffer, JournalEvent event, long epochMillis, String callSid,
+                               String[] fields) {
+        int start = buffer.position();
+        try {
+            buffer.putInt(0);
+            buffer.put((byte) event.code());
+            buffer.putLong(epochMillis);
+            putString(buffer, callSid);
+            buffer.put((byte) fields.length);
+            for (String field : fields) {
+                putString(buffer, field);
+            }
+            buffer.putInt(start, buffer.position() - start - 4);
+            return true;
+        } catch (BufferOverflowException e) {
+            buffer.position(start);
+            return false;
+        }
+    }
+
+    /**
+     * CallSid of the record starting at the given offset.
+     */
+    static String callSidAt(ByteBuffer buffer, int recordOffset) {
+        return getString(buffer.duplicate().position(recordOffset + 4 + 1 + 8));
+    }
+
+    static void putString(ByteBuffer buffer, String value) {
+        String text = value == null ? "" : value;
+        if (text.length() > MAX_FIELD_CHARS) {
+            text = text.substring(0, MAX_FIELD_CHARS);
+        }
+        byte[] bytes = text.getBytes(StandardCharsets.UTF_8);
+        buffer.putShort((short) bytes.length);
+        buffer.put(bytes);
+    }
+
+    static String getString(ByteBuffer buffer) {
+        byte[] bytes = new byte[buffer.getShort() & 0xFFFF];
+        buffer.get(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+}
@@ -0,0 +1,164 @@
+package com.amazonaws.lex.twilio.sample.journal;
+
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+/*
+ * Copyright Amazon.com, Inc. or its affiliates. All Rights Reserved.
+ * SPDX-License-Identifier: MIT-0
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this
+ * software and associated documentation files (the "Software"), to deal in the Software
+ * without restriction, including without limitation the rights to use, copy, modify,
+ * merge, publish, distribute, sublicense, and/or sell copies of the Software, and to
+ * permit persons to whom the Software is furnished to do so.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED,
+ * INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A
+ * PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT
+ * HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION
+ * OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE
+ * SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+/**
+ * Reads the records of one journal segment, see {@link JournalFormat}, one at a time, from the start or from an
+ * offset taken from the segment's index.
+ */
+public final class JournalReader {
+
+    private final Path file;
+    private final MappedByteBuffer segment;
+    private final long createdEpochMillis;
+
+    private JournalEvent event;
+    private int eventCode;
+    private long epochMillis;
+    private String callSid;
+    private List<String> fields;
+
+    public JournalReader(Path file) throws IOException {
+        this.file = file;
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            this.segment = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+        }
+        if (segment.remaining() < JournalFormat.HEADER_BYTES || segment.getInt() != JournalFormat.MAGIC) {
+            throw new IOException(file + " is not a conversation journal segment");
+        }
+        int version = segment.get() & 0xFF;
+        if (version != JournalFormat.VERSION) {
+            throw new IOException("unsupported journal version " + version + " in " + file);
+        }
+        this.createdEpochMillis = segment.getLong();
+    }
+
+    /**
+     * Segment files in the directory, oldest first.
+     */
+    public static List<Path> segments(Path directory) throws IOException {
+        try (Stream<Path> files = Files.list(directory)) {
+            return files.filter(path -> path.getFileName().toString().endsWith(JournalFormat.SEGMENT_SUFFIX))
+                    .sorted()
+                    .collect(Collectors.toList());
+        }
+    }
+
+    /**
+     * Offsets of the first record of each call in the segment, empty if the segment has no index.
+     */
+    public Map<String, Integer> readIndex() throws IOException {
+        String name = file.getFileName().toString();
+        Path indexFile = file.resolveSibling(name.substring(0, name.length() - JournalFormat.SEGMENT_SUFFIX.length())
+                + JournalFormat.INDEX_SUFFIX);
+        Map<String, Integer> offsets = new LinkedHashMap<>();
+        if (!Files.exists(indexFile)) {
+            return offsets;
+        }
+        try (DataInputStream input = new DataInputStream(new BufferedInputStream(Files.newInputStream(indexFile)))) {
+            while (true) {
+                String indexedCallSid = input.readUTF();
+                offsets.put(indexedCallSid, input.readInt());
+            }
+        } catch (EOFException e) {
+            // end of the index, possibly cut short by the process dying.
+            return offsets;
+        }
+    }
+
+    /**
+     * Continues reading at the record starting at the given offset.
+     */
+    public void seek(int offset) {
+        segment.position(offset);
+    }
+
+    /**
+     * Moves to the next record.
+     *
+     * @return false at the end of the segment
+     */
+    public boolean next() {
+        if (segment.remaining() < 4) {
+            return false;
+        }
+        int length = segment.getInt();
+        if (length <= 0 || length > segment.remaining()) {
+            return false;
+        }
+        ByteBuffer record = segment.slice();
+        record.limit(length);
+        segment.position(segment.position() + length);
+
+        eventCode = record.get() & 0xFF;
+        event = JournalEvent.ofCode(eventCode);
+        epochMillis = record.getLong();
+        callSid = JournalFormat.getString(record);
+        int count = record.get() & 0xFF;
+        fields = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            fields.add(JournalFormat.getString(record));
+        }
+        return true;
+    }
+
+    public long getCreatedEpochMillis() {
+        return createdEpochMillis;
+    }
+
+    /**
+     * Event of the current record, null if it was written by a newer version.
+     */
+    public JournalEvent getEvent() {
+        return event;
+    }
+
+    public int getEventCode() {
+        return eventCode;
+    }
+
+    public long getEpochMillis() {
+        return epochMillis;
+    }
+
+    public String getCallSid() {
+        return callSid;
+    }
+
+    public List<String> getFields() {
+        return fields;
+    }
+}
@@ -0,0 +1,116 @@
+package com.amazonaws.lex.twilio.sample.journal;
+
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.HashSet;
+import java.util.Set;
+
+/*
+ * Copyright Amazon.com, Inc. or its affiliates. All Rights Reserved.
+ * SPDX-License-Identifier: MIT-0
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this
+ * software and associated documentation files (the "Software"), to deal in the Software
+ * without restriction, including without limitation the rights to use, copy, modify,
+ * merge, publish, distribute, sublicense, and/or sell copies of the Software, and to
+ * permit persons to whom the Software is furnished to do so.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED,
+ * INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A
+ * PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT
+ * HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION
+ * OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE
+ * SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+/**
+ * Copies records into memory-mapped segment files, starting a new segment when one is full, and indexes the first
+ * record of every call in each segment. Records live in the page cache as soon as they are copied, so they survive
+ * the process dying. Used by the journal's writer thread only, so it is not thread safe.
+ */
+final class SegmentWriter implements Closeable {
+
+    // room for the terminating length of 0.
+    private static final int END_BYTES = 4;
+
+    private final Path directory;
+    private final int segmentBytes;
+
+    private FileChannel channel;
+    private MappedByteBuffer segment;
+    private DataOutputStream index;
+    private Set<String> indexedCalls;
+    private int sequence;
+
+    SegmentWriter(Path directory, int segmentBytes) {
+        this.directory = directory;
+        this.segmentBytes = segmentBytes;
+    }
+
+    /**
+     * Appends the whole records between the buffer's position and limit.
+     */
+    void write(ByteBuffer records) throws IOException {
+        while (records.remaining() >= 4) {
+            int start = records.position();
+            int recordBytes = 4 + records.getInt(start);
+            if (segment == null || segment.remaining() < recordBytes + END_BYTES) {
+                rotate(recordBytes);
+            }
+            String callSid = JournalFormat.callSidAt(records, start);
+            if (indexedCalls.add(callSid)) {
+                index.writeUTF(callSid);
+                index.writeInt(segment.position());
+            }
+            ByteBuffer record = records.duplicate();
+            record.limit(start + recordBytes);
+            segment.put(record);
+            records.position(start + recordBytes);
+        }
+        index.flush();
+    }
+
+    private void rotate(int recordBytes) throws IOException {
+        closeSegment();
+        Files.createDirectories(directory);
+        String name = String.format("journal-%013d-%05d", System.currentTimeMillis(), sequence++);
+        Path file = directory.resolve(name + JournalFormat.SEGMENT_SUFFIX);
+        channel = FileChannel.open(file, StandardOpenOption.CREATE_NEW, StandardOpenOption.READ,
+                StandardOpenOption.WRITE);
+        segment = channel.map(FileChannel.MapMode.READ_WRITE, 0,
+                Math.max(segmentBytes, JournalFormat.HEADER_BYTES + recordBytes + END_BYTES));
+        segment.putInt(JournalFormat.MAGIC);
+        segment.put((byte) JournalFormat.VERSION);
+        segment.putLong(System.currentTimeMillis());
+        index = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(
+                directory.resolve(name + JournalFormat.INDEX_SUFFIX), StandardOpenOption.CREATE_NEW)));
+        indexedCalls = new HashSet<>();
+    }
+
+    private void closeSegment() throws IOException {
+        if (segment == null) {
+            return;
+        }
+        try {
+            index.close();
+            segment.force();
+        } finally {
+            // the mapping stays valid until it is garbage collected.
+            channel.close();
+            segment = null;
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        closeSegment();
+    }
+}
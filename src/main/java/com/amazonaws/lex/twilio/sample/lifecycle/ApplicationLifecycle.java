@@ -0,0 +1,129 @@
+package com.amazonaws.lex.twilio.sample.lifecycle;
+
+import com.amazonaws.lex.twilio.sample.conversation.CallShards;
+import com.amazonaws.lex.twilio.sample.conversation.CallSupervisor;
+import com.amazonaws.lex.twilio.sample.conversation.TwilioControlPlane;
+import com.amazonaws.lex.twilio.sample.journal.ConversationJournal;
+import com.amazonaws.lex.twilio.sample.monitor.MonitorBus;
+import com.amazonaws.lex.twilio.sample.prompts.PromptLibrary;
+import com.amazonaws.lex.twilio.sample.routing.FleetRouter;
+import com.amazonaws.lex.twilio.sample.streaming.BotRegistry;
+import com.amazonaws.lex.twilio.sample.streaming.BoundedLatencyQueue;
+import com.amazonaws.lex.twilio.sample.streaming.LexClientProvider;
+import org.apache.log4j.Logger;
+
+import javax.servlet.ServletContextEvent;
+import javax.servlet.ServletContextListener;
+import javax.servlet.annotation.WebListener;
+import java.util.Properties;
+
+/*
+ * Copyright Amazon.com, Inc. or its affiliates. All Rights Reserved.
+ * SPDX-License-Identifier: MIT-0
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this
+ * software and associated documentation files (the "Software"), to deal in the Software
+ * without restriction, including without limitation the rights to use, copy, modify,
+ * merge, publish, distribute, sublicense, and/or sell copies of the Software, and to
+ * permit persons to whom the Software is furnished to do so.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED,
+ * INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A
+ * PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT
+ * HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION
+ * OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE
+ * SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+/**
+ * Explicit start up of the application. When the servlet context starts, clients are built, and the media pipeline
+ * and the connections to Lex are warmed up on a background thread, so that the container can accept connections (e.g.
+ * health checks) right away and the first call does not pay for SDK bootstrap, class loading or connection set up.
+ * Progress is reported through {@link Readiness}.
+ */
+@WebListener
+public class ApplicationLifecycle implements ServletContextListener {
+
+    private static final Logger LOG = Logger.getLogger(ApplicationLifecycle.class);
+
+    private Thread startUpThread;
+
+    @Override
+    public void contextInitialized(ServletContextEvent servletContextEvent) {
+        startUpThread = new Thread(ApplicationLifecycle::startUp, "application-start-up");
+        startUpThread.setDaemon(true);
+        startUpThread.start();
+    }
+
+    @Override
+    public void contextDestroyed(ServletContextEvent servletContextEvent) {
+        if (startUpThread != null) {
+            startUpThread.interrupt();
+        }
+        if (Readiness.isReady()) {
+            FleetRouter.getInstance().stop();
+            TwilioControlPlane.getInstance().shutdown();
+            BotRegistry.getInstance().close();
+            CallShards.getInstance().stop();
+        }
+        // writes out the records of calls that were still going on.
+        ConversationJournal.getInstance().close();
+        MonitorBus.getInstance().close();
+    }
+
+    /**
+     * Builds all clients and warms up the pipeline on the calling thread.
+     */
+    static void startUp() {
+        long start = System.currentTimeMillis();
+        boolean clientsCreated = false;
+        try {
+            BotRegistry.getInstance();
+            TwilioControlPlane.getInstance();
+            CallShards.getInstance();
+            // starts sweeping for orphaned calls.
+            CallSupervisor.getInstance();
+            // starts the journal's writer, when journaling is enabled.
+            ConversationJournal.getInstance();
+            // starts the monitor's fan-out, when the monitor is enabled.
+            MonitorBus.getInstance();
+            // maps the filler clips, so that a missing clip keeps the node from becoming ready.
+            PromptLibrary.getInstance();
+            BoundedLatencyQueue.checkSettings();
+            clientsCreated = true;
+        } catch (RuntimeException e) {
+            LOG.error("could not create the Lex or Twilio clients, the prompt library or the queue settings", e);
+        }
+
+        try {
+            // warm up regardless, the media pipeline does not depend on the clients.
+            Properties properties = Configuration.load(Configuration.SERVER);
+            PipelineWarmUp.run(Integer.parseInt(properties.getProperty("startup-warmup-iterations", "2000")));
+        } catch (RuntimeException e) {
+            LOG.error("could not warm up the media pipeline", e);
+        }
+
+        if (clientsCreated) {
+            // pre-establish connections to Lex, so the first conversation does not wait for TCP/TLS/HTTP2 set up.
+            for (LexClientProvider bot : BotRegistry.getInstance().all()) {
+                bot.getConnectionWarmer().start();
+            }
+
+            Readiness.markReady();
+            // only start exchanging capacity with peers once this node can take calls itself.
+            startRouting();
+            LOG.info("application is ready after " + (System.currentTimeMillis() - start) + "ms of start up, "
+                    + Readiness.getTimeToReadyMillis() + "ms since JVM start");
+        } else {
+            Readiness.markFailed();
+        }
+    }
+
+    private static void startRouting() {
+        try {
+            FleetRouter.getInstance().start();
+        } catch (RuntimeException e) {
+            LOG.error("could not start routing calls across peers, calls stay on this node", e);
+        }
+    }
+}
@@ -0,0 +1,88 @@
+package com.amazonaws.lex.twilio.sample.lifecycle;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.util.Map;
+import java.util.Properties;
+import java.util.concurrent.ConcurrentHashMap;
+
+/*
+ * Copyright Amazon.com, Inc. or its affiliates. All Rights Reserved.
+ * SPDX-License-Identifier: MIT-0
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this
+ * software and associated documentation files (the "Software"), to deal in the Software
+ * without restriction, including without limitation the rights to use, copy, modify,
+ * merge, publish, distribute, sublicense, and/or sell copies of the Software, and to
+ * permit persons to whom the Software is furnished to do so.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED,
+ * INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A
+ * PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT
+ * HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION
+ * OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE
+ * SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+/**
+ * The configuration files on the class path, each read and parsed once per process.
+ * <p>
+ * Any property can be overridden with a system property: {@code -Dmonitor-token=secret} replaces the value of every
+ * file that declares {@code monitor-token}. A name that several files declare, such as {@code max-connections}, is
+ * set for one file only by prefixing it with the file's name, e.g.
+ * {@code -Dtwilio-configuration.max-connections=200}; the prefixed form can also set properties that the file leaves
+ * out.
+ */
+public final class Configuration {
+
+    public static final String SERVER = "server-configuration.properties";
+    public static final String TWILIO = "twilio-configuration.properties";
+    public static final String BOTS = "bot-configuration.properties";
+    public static final String QUEUES = "queue-configuration.properties";
+    public static final String ROUTING = "routing-configuration.properties";
+
+    private static final Map<String, Properties> LOADED = new ConcurrentHashMap<>();
+
+    private Configuration() {
+    }
+
+    /**
+     * @return a copy of the named configuration file with the system property overrides applied, callers may change
+     * it freely.
+     */
+    public static Properties load(String resource) {
+        Properties copy = new Properties();
+        copy.putAll(LOADED.computeIfAbsent(resource, name -> withOverrides(name, read(name), System.getProperties())));
+        return copy;
+    }
+
+    static Properties withOverrides(String resource, Properties properties, Properties overrides) {
+        String prefix = resource.substring(0, resource.length() - ".properties".length()) + ".";
+        for (String name : properties.stringPropertyNames()) {
+            String override = overrides.getProperty(name);
+            if (override != null) {
+                properties.setProperty(name, override);
+            }
+        }
+        for (String name : overrides.stringPropertyNames()) {
+            if (name.startsWith(prefix) && name.length() > prefix.length()) {
+                properties.setProperty(name.substring(prefix.length()), overrides.getProperty(name));
+            }
+        }
+        return properties;
+    }
+
+    private static Properties read(String resource) {
+        try (InputStream input = Configuration.class.getClassLoader().getResourceAsStream(resource)) {
+            if (input == null) {
+                throw new IllegalStateException(resource + " is not on the class path");
+            }
+            Properties properties = new Properties();
+            properties.load(input);
+            return properties;
+        } catch (IOException e) {
+            throw new UncheckedIOException("could not read " + resource, e);
+        }
+    }
+}
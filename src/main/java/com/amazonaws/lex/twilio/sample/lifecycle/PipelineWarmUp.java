@@ -0,0 +1,104 @@
+package com.amazonaws.lex.twilio.sample.lifecycle;
+
+import com.amazonaws.lex.twilio.sample.server.media.CompressInputStream;
+import com.amazonaws.lex.twilio.sample.server.media.DecompressInputStream;
+import com.amazonaws.lex.twilio.sample.server.messages.MediaMessage;
+import com.amazonaws.lex.twilio.sample.server.messages.Message;
+import com.amazonaws.lex.twilio.sample.server.messages.MessageDecoder;
+import com.amazonaws.lex.twilio.sample.server.messages.MessageEncoder;
+import com.amazonaws.lex.twilio.sample.server.messages.MessageType;
+import com.amazonaws.lex.twilio.sample.streaming.EventsPublisher;
+import org.reactivestreams.Subscriber;
+import org.reactivestreams.Subscription;
+import software.amazon.awssdk.services.lexruntimev2.model.StartConversationRequestEventStream;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.Arrays;
+import java.util.Base64;
+
+/*
+ * Copyright Amazon.com, Inc. or its affiliates. All Rights Reserved.
+ * SPDX-License-Identifier: MIT-0
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this
+ * software and associated documentation files (the "Software"), to deal in the Software
+ * without restriction, including without limitation the rights to use, copy, modify,
+ * merge, publish, distribute, sublicense, and/or sell copies of the Software, and to
+ * permit persons to whom the Software is furnished to do so.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED,
+ * INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A
+ * PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT
+ * HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION
+ * OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE
+ * SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+/**
+ * Pushes synthetic Twilio media frames through the same code a call uses (decode, transcode, Lex event creation,
+ * playback encoding) so that classes are loaded and hot methods are compiled before the first real call.
+ * Nothing here talks to Twilio or Lex.
+ */
+class PipelineWarmUp {
+
+    private static final String STREAM_SID = "MZ00000000000000000000000000000000";
+    private static final int FRAME_SIZE = 160; // 20ms of 8kHz u-law, as sent by Twilio
+
+    static void run(int iterations) {
+        MessageDecoder decoder = new MessageDecoder();
+        MessageEncoder encoder = new MessageEncoder();
+        EventsPublisher eventsPublisher = new EventsPublisher();
+        // consume the events as Lex would, so that the bounded event queue does not report warm up frames as dropped.
+        eventsPublisher.subscribe(new Subscriber<StartConversationRequestEventStream>() {
+            @Override
+            public void onSubscribe(Subscription subscription) {
+                subscription.request(Long.MAX_VALUE);
+            }
+
+            @Override
+            public void onNext(StartConversationRequestEventStream event) {
+            }
+
+            @Override
+            public void onError(Throwable throwable) {
+            }
+
+            @Override
+            public void onComplete() {
+            }
+        });
+
+        byte[] frame = new byte[FRAME_SIZE];
+        for (int i = 0; i < frame.length; i++) {
+            frame[i] = (byte) (i * 31);
+        }
+        String mediaJson = "{\"event\":\"media\",\"sequenceNumber\":\"1\",\"streamSid\":\"" + STREAM_SID + "\","
+                + "\"media\":{\"track\":\"inbound\",\"chunk\":\"1\",\"timestamp\":\"20\",\"payload\":\""
+                + Base64.getEncoder().encodeToString(frame) + "\"}}";
+
+        byte[] payload = new byte[FRAME_SIZE];
+        for (int i = 0; i < iterations; i++) {
+            // inbound: Twilio -> Lex
+            Message message = decoder.decode(mediaJson);
+            if (message.eventType() != MessageType.MEDIA) {
+                throw new IllegalStateException("unexpected warm up message type " + message.eventType());
+            }
+            int uLawLength = message.decodeMediaPayload(payload);
+            byte[] pcm = new byte[uLawLength * 2];
+            DecompressInputStream.decompressULaw(payload, uLawLength, pcm);
+            eventsPublisher.writeUserInputAudio(pcm);
+
+            // outbound: Lex -> Twilio
+            byte[] uLaw = new byte[pcm.length / 2];
+            try (CompressInputStream compressed = new CompressInputStream(new ByteArrayInputStream(pcm), false)) {
+                int read = compressed.read(uLaw);
+                encoder.encode(new Message(new MediaMessage(Arrays.copyOf(uLaw, read), STREAM_SID).getJsonObject().toString()));
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }
+        eventsPublisher.stop();
+    }
+}
@@ -0,0 +1,71 @@
+package com.amazonaws.lex.twilio.sample.lifecycle;
+
+import com.amazonaws.lex.twilio.sample.metrics.Metrics;
+
+import java.lang.management.ManagementFactory;
+
+/*
+ * Copyright Amazon.com, Inc. or its affiliates. All Rights Reserved.
+ * SPDX-License-Identifier: MIT-0
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this
+ * software and associated documentation files (the "Software"), to deal in the Software
+ * without restriction, including without limitation the rights to use, copy, modify,
+ * merge, publish, distribute, sublicense, and/or sell copies of the Software, and to
+ * permit persons to whom the Software is furnished to do so.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED,
+ * INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A
+ * PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT
+ * HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION
+ * OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE
+ * SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+/**
+ * Readiness of this process to take calls. The application starts in {@link State#STARTING} and moves to
+ * {@link State#READY} once {@link ApplicationLifecycle} has built all clients and warmed up the media pipeline.
+ */
+public final class Readiness {
+
+    public enum State {
+        STARTING,
+        READY,
+        FAILED
+    }
+
+    private static volatile State state = State.STARTING;
+    private static volatile long timeToReadyMillis = -1;
+
+    static {
+        Metrics.gauge("application.ready", () -> state == State.READY ? 1 : 0);
+        Metrics.gauge("application.time_to_ready_ms", () -> timeToReadyMillis);
+    }
+
+    private Readiness() {
+    }
+
+    public static State getState() {
+        return state;
+    }
+
+    public static boolean isReady() {
+        return state == State.READY;
+    }
+
+    /**
+     * Milliseconds from JVM start until the application became ready, or -1 if it is not ready yet.
+     */
+    public static long getTimeToReadyMillis() {
+        return timeToReadyMillis;
+    }
+
+    static void markReady() {
+        timeToReadyMillis = System.currentTimeMillis() - ManagementFactory.getRuntimeMXBean().getStartTime();
+        state = State.READY;
+    }
+
+    static void markFailed() {
+        state = State.FAILED;
+    }
+}
@@ -0,0 +1,139 @@
+package com.amazonaws.lex.twilio.sample.logging;
+
+import org.apache.log4j.Level;
+import org.apache.log4j.Logger;
+import org.apache.log4j.MDC;
+
+/*
+ * Copyright Amazon.com, Inc. or its affiliates. All Rights Reserved.
+ * SPDX-License-Identifier: MIT-0
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this
+ * software and associated documentation files (the "Software"), to deal in the Software
+ * without restriction, including without limitation the rights to use, copy, modify,
+ * merge, publish, distribute, sublicense, and/or sell copies of the Software, and to
+ * permit persons to whom the Software is furnished to do so.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED,
+ * INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A
+ * PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT
+ * HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION
+ * OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE
+ * SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+/**
+ * Logger for code on the per call path: messages are formatted only when their level is enabled, with {@code {}}
+ * placeholders filled from the arguments, and a trailing {@link Throwable} argument without a placeholder is logged
+ * as the exception. High frequency messages go through {@link #limited}, which caps every category at a fixed number
+ * of lines per second across all calls, so log volume does not grow with the number of calls.
+ * <p>
+ * Lines are tagged with the call they belong to through the log4j MDC key {@value #CALL_SID} (see
+ * {@link #enterCall(String)}), rendered by {@code %X{CallSid}} in log4j.xml. Appending happens asynchronously, see the
+ * {@code AsyncAppender} there.
+ */
+public final class CallLogger {
+
+    public static final String CALL_SID = "CallSid";
+
+    private final Logger logger;
+
+    private CallLogger(Logger logger) {
+        this.logger = logger;
+    }
+
+    public static CallLogger getLogger(Class<?> type) {
+        return new CallLogger(Logger.getLogger(type));
+    }
+
+    /**
+     * Tags lines logged by the current thread with the call, until {@link #exitCall()}.
+     */
+    public static void enterCall(String callSid) {
+        if (callSid != null) {
+            MDC.put(CALL_SID, callSid);
+        }
+    }
+
+    public static void exitCall() {
+        MDC.remove(CALL_SID);
+    }
+
+    public boolean isDebugEnabled() {
+        return logger.isDebugEnabled();
+    }
+
+    public void debug(String format, Object... args) {
+        log(Level.DEBUG, format, args);
+    }
+
+    public void info(String format, Object... args) {
+        log(Level.INFO, format, args);
+    }
+
+    public void warn(String format, Object... args) {
+        log(Level.WARN, format, args);
+    }
+
+    public void error(String format, Object... args) {
+        log(Level.ERROR, format, args);
+    }
+
+    /**
+     * Logs at the given level, unless the category has used up its lines for the current second. The next line of the
+     * category that is logged reports how many were suppressed.
+     *
+     * @param level    info for lines that trace the call, warn or error for failures
+     * @param category e.g. {@code twilio.mark}, rate limited with {@code log-rate-limit.<category>} in
+     *                 server-configuration.properties
+     */
+    public void limited(Level level, String category, String format, Object... args) {
+        if (!logger.isEnabledFor(level)) {
+            return;
+        }
+        long suppressed = LogRateLimiter.getInstance().acquire(category);
+        if (suppressed < 0) {
+            return;
+        }
+        String message = format(format, args);
+        if (suppressed > 0) {
+            message += " (" + suppressed + " similar lines suppressed)";
+        }
+        logger.log(level, message, throwable(format, args));
+    }
+
+    private void log(Level level, String format, Object[] args) {
+        if (logger.isEnabledFor(level)) {
+            logger.log(level, format(format, args), throwable(format, args));
+        }
+    }
+
+    static String format(String format, Object[] args) {
+        if (args.length == 0) {
+            return format;
+        }
+        StringBuilder message = new StringBuilder(format.length() + 16 * args.length);
+        int argument = 0;
+        int start = 0;
+        int placeholder;
+        while (argument < args.length && (placeholder = format.indexOf("{}", start)) >= 0) {
+            message.append(format, start, placeholder).append(args[argument++]);
+            start = placeholder + 2;
+        }
+        return message.append(format, start, format.length()).toString();
+    }
+
+    /**
+     * The last argument, if it is a throwable that has no placeholder of its own.
+     */
+    private static Throwable throwable(String format, Object[] args) {
+        if (args.length == 0 || !(args[args.length - 1] instanceof Throwable)) {
+            return null;
+        }
+        int placeholders = 0;
+        for (int index = format.indexOf("{}"); index >= 0; index = format.indexOf("{}", index + 2)) {
+            placeholders++;
+        }
+        return placeholders < args.length ? (Throwable) args[args.length - 1] : null;
+    }
+}
@@ -0,0 +1,108 @@
+package com.amazonaws.lex.twilio.sample.logging;
+
+import com.amazonaws.lex.twilio.sample.lifecycle.Configuration;
+import com.amazonaws.lex.twilio.sample.metrics.Metrics;
+
+import java.util.Properties;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.LongSupplier;
+
+/*
+ * Copyright Amazon.com, Inc. or its affiliates. All Rights Reserved.
+ * SPDX-License-Identifier: MIT-0
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this
+ * software and associated documentation files (the "Software"), to deal in the Software
+ * without restriction, including without limitation the rights to use, copy, modify,
+ * merge, publish, distribute, sublicense, and/or sell copies of the Software, and to
+ * permit persons to whom the Software is furnished to do so.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED,
+ * INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A
+ * PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT
+ * HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION
+ * OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE
+ * SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+/**
+ * Caps the lines per second of each log category across all calls. Limits are configured in
+ * server-configuration.properties with {@code log-rate-limit-per-second} (default for all categories, 20) and
+ * {@code log-rate-limit.<category>}; 0 suppresses a category completely.
+ */
+final class LogRateLimiter {
+
+    private static final LongAdder SUPPRESSED = Metrics.counter("logging.suppressed");
+
+    private static volatile LogRateLimiter instance;
+
+    private final Properties properties;
+    private final int defaultLimit;
+    private final ConcurrentMap<String, Window> windows;
+    private final LongSupplier millisClock;
+
+    LogRateLimiter(Properties properties, LongSupplier millisClock) {
+        this.properties = properties;
+        this.defaultLimit = Integer.parseInt(properties.getProperty("log-rate-limit-per-second", "20").trim());
+        this.windows = new ConcurrentHashMap<>();
+        this.millisClock = millisClock;
+    }
+
+    static LogRateLimiter getInstance() {
+        if (instance == null) {
+            synchronized (LogRateLimiter.class) {
+                if (instance == null) {
+                    instance = new LogRateLimiter(Configuration.load(Configuration.SERVER),
+                            System::currentTimeMillis);
+                }
+            }
+        }
+        return instance;
+    }
+
+    /**
+     * Takes a line of the category's budget for the current second.
+     *
+     * @return -1 if the line must be suppressed, otherwise the number of lines suppressed since the last one logged
+     */
+    long acquire(String category) {
+        Window window = windows.get(category);
+        if (window == null) {
+            window = windows.computeIfAbsent(category, name -> new Window(Integer.parseInt(
+                    properties.getProperty("log-rate-limit." + name, String.valueOf(defaultLimit)).trim())));
+        }
+        long suppressed = window.acquire(millisClock.getAsLong() / 1000);
+        if (suppressed < 0) {
+            SUPPRESSED.increment();
+        }
+        return suppressed;
+    }
+
+    private static final class Window {
+        private final int limit;
+        private long second;
+        private int lines;
+        private long suppressed;
+
+        private Window(int limit) {
+            this.limit = limit;
+        }
+
+        private synchronized long acquire(long now) {
+            if (now != second) {
+                second = now;
+                lines = 0;
+            }
+            if (lines >= limit) {
+                suppressed++;
+                return -1;
+            }
+            lines++;
+            long reported = suppressed;
+            suppressed = 0;
+            return reported;
+        }
+    }
+}
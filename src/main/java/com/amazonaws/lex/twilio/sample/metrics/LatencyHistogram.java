@@ -0,0 +1,132 @@
+package com.amazonaws.lex.twilio.sample.metrics;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+
+/*
+ * Copyright Amazon.com, Inc. or its affiliates. All Rights Reserved.
+ * SPDX-License-Identifier: MIT-0
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this
+ * software and associated documentation files (the "Software"), to deal in the Software
+ * without restriction, including without limitation the rights to use, copy, modify,
+ * merge, publish, distribute, sublicense, and/or sell copies of the Software, and to
+ * permit persons to whom the Software is furnished to do so.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED,
+ * INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A
+ * PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT
+ * HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION
+ * OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE
+ * SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+/**
+ * A lock free, fixed size latency histogram. Values are recorded in microseconds into log-linear buckets (every power
+ * of two is split into {@link #SUB_BUCKETS} linear sub buckets), so percentiles are accurate to roughly 12% while
+ * recording stays a couple of atomic increments with no allocation.
+ */
+public class LatencyHistogram {
+
+    private static final int SUB_BUCKET_BITS = 3;
+    private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+    private static final int NUM_OF_BUCKETS = (64 - SUB_BUCKET_BITS + 1) * SUB_BUCKETS;
+
+    private final AtomicLongArray buckets;
+    private final LongAdder count;
+    private final LongAdder sum;
+    private final LongAccumulator max;
+
+    public LatencyHistogram() {
+        this.buckets = new AtomicLongArray(NUM_OF_BUCKETS);
+        this.count = new LongAdder();
+        this.sum = new LongAdder();
+        this.max = new LongAccumulator(Math::max, 0);
+    }
+
+    public void recordNanos(long nanos) {
+        record(TimeUnit.NANOSECONDS.toMicros(nanos));
+    }
+
+    public void recordMillis(long millis) {
+        record(TimeUnit.MILLISECONDS.toMicros(millis));
+    }
+
+    /**
+     * Records a value in microseconds. Negative values are treated as zero.
+     */
+    public void record(long micros) {
+        long value = Math.max(0, micros);
+        buckets.incrementAndGet(bucketIndex(value));
+        count.increment();
+        sum.add(value);
+        max.accumulate(value);
+    }
+
+    public long count() {
+        return count.sum();
+    }
+
+    public long maxMicros() {
+        return max.get();
+    }
+
+    public double meanMicros() {
+        long n = count.sum();
+        return n == 0 ? 0 : (double) sum.sum() / n;
+    }
+
+    /**
+     * Returns the upper bound (in microseconds) of the bucket holding the given percentile, e.g. 99.0 for p99.
+     */
+    public long percentileMicros(double percentile) {
+        long total = 0;
+        long[] snapshot = new long[NUM_OF_BUCKETS];
+        for (int i = 0; i < NUM_OF_BUCKETS; i++) {
+            snapshot[i] = buckets.get(i);
+            total += snapshot[i];
+        }
+        if (total == 0) {
+            return 0;
+        }
+
+        long rank = (long) Math.ceil(total * percentile / 100.0);
+        long seen = 0;
+        for (int i = 0; i < NUM_OF_BUCKETS; i++) {
+            seen += snapshot[i];
+            if (seen >= rank) {
+                return Math.min(bucketUpperBound(i), max.get());
+            }
+        }
+        return max.get();
+    }
+
+    public void reset() {
+        for (int i = 0; i < NUM_OF_BUCKETS; i++) {
+            buckets.set(i, 0);
+        }
+        count.reset();
+        sum.reset();
+        max.reset();
+    }
+
+    static int bucketIndex(long value) {
+        if (value < SUB_BUCKETS) {
+            return (int) value;
+        }
+        int exponent = 63 - Long.numberOfLeadingZeros(value) - SUB_BUCKET_BITS;
+        int subBucket = (int) (value >>> exponent) & (SUB_BUCKETS - 1);
+        return Math.min(NUM_OF_BUCKETS - 1, (exponent + 1) * SUB_BUCKETS + subBucket);
+    }
+
+    static long bucketUpperBound(int index) {
+        if (index < SUB_BUCKETS) {
+            return index;
+        }
+        int exponent = index / SUB_BUCKETS - 1;
+        long subBucket = index % SUB_BUCKETS;
+        return ((SUB_BUCKETS + subBucket + 1) << exponent) - 1;
+    }
+}
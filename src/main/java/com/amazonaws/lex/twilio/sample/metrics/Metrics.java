@@ -0,0 +1,79 @@
+package com.amazonaws.lex.twilio.sample.metrics;
+
+import java.io.PrintWriter;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.LongSupplier;
+
+/*
+ * Copyright Amazon.com, Inc. or its affiliates. All Rights Reserved.
+ * SPDX-License-Identifier: MIT-0
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this
+ * software and associated documentation files (the "Software"), to deal in the Software
+ * without restriction, including without limitation the rights to use, copy, modify,
+ * merge, publish, distribute, sublicense, and/or sell copies of the Software, and to
+ * permit persons to whom the Software is furnished to do so.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED,
+ * INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A
+ * PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT
+ * HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION
+ * OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE
+ * SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+/**
+ * Process wide registry of counters, gauges and latency histograms. Metrics are created on first use and are never
+ * removed, so callers on hot paths should keep a reference to the returned {@link LongAdder} or
+ * {@link LatencyHistogram} instead of looking it up by name every time.
+ * <p>
+ * The registry is rendered as plain text by {@link com.amazonaws.lex.twilio.sample.server.MetricsServlet}.
+ */
+public final class Metrics {
+
+    private static final ConcurrentMap<String, LongAdder> COUNTERS = new ConcurrentHashMap<>();
+    private static final ConcurrentMap<String, LongSupplier> GAUGES = new ConcurrentHashMap<>();
+    private static final ConcurrentMap<String, LatencyHistogram> LATENCIES = new ConcurrentHashMap<>();
+
+    private Metrics() {
+    }
+
+    public static LongAdder counter(String name) {
+        return COUNTERS.computeIfAbsent(name, key -> new LongAdder());
+    }
+
+    public static void increment(String name) {
+        counter(name).increment();
+    }
+
+    public static LatencyHistogram latency(String name) {
+        return LATENCIES.computeIfAbsent(name, key -> new LatencyHistogram());
+    }
+
+    /**
+     * Registers a gauge, replacing any gauge previously registered under the same name.
+     */
+    public static void gauge(String name, LongSupplier supplier) {
+        GAUGES.put(name, supplier);
+    }
+
+    public static void writeTo(PrintWriter writer) {
+        new TreeMap<>(COUNTERS).forEach((name, counter) -> writer.println(name + " " + counter.sum()));
+        new TreeMap<>(GAUGES).forEach((name, gauge) -> writer.println(name + " " + gauge.getAsLong()));
+
+        for (Map.Entry<String, LatencyHistogram> entry : new TreeMap<>(LATENCIES).entrySet()) {
+            String name = entry.getKey();
+            LatencyHistogram histogram = entry.getValue();
+            writer.println(name + ".count " + histogram.count());
+            writer.println(name + ".mean_us " + Math.round(histogram.meanMicros()));
+            writer.println(name + ".p50_us " + histogram.percentileMicros(50));
+            writer.println(name + ".p90_us " + histogram.percentileMicros(90));
+            writer.println(name + ".p99_us " + histogram.percentileMicros(99));
+            writer.println(name + ".max_us " + histogram.maxMicros());
+        }
+    }
+}
@@ -0,0 +1,104 @@
+package com.amazonaws.lex.twilio.sample.monitor;
+
+import com.amazonaws.lex.twilio.sample.lifecycle.Configuration;
+import com.amazonaws.lex.twilio.sample.logging.CallLogger;
+
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+
+/*
+ * Copyright Amazon.com, Inc. or its affiliates. All Rights Reserved.
+ * SPDX-License-Identifier: MIT-0
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this
+ * software and associated documentation files (the "Software"), to deal in the Software
+ * without restriction, including without limitation the rights to use, copy, modify,
+ * merge, publish, distribute, sublicense, and/or sell copies of the Software, and to
+ * permit persons to whom the Software is furnished to do so.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED,
+ * INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A
+ * PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT
+ * HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION
+ * OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE
+ * SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+/**
+ * Guards what shows the content of calls to supervisors, i.e. live transcripts at {@code /monitor} and the per call
+ * details at {@code /timelines} and {@code /costs}, with the shared secret {@code monitor-token} of
+ * server-configuration.properties. A client presents it as {@code Authorization: Bearer <token>}, or as the
+ * {@value #TOKEN_PARAMETER} query parameter where it cannot set headers, e.g. a browser's WebSocket. Without a
+ * configured token {@code /monitor} permits nothing, while {@code /timelines} and {@code /costs} stay open to anyone,
+ * as they were before the token existed.
+ */
+public final class MonitorAccess {
+
+    /**
+     * Name of the query parameter that carries the token.
+     */
+    public static final String TOKEN_PARAMETER = "token";
+
+    private static final CallLogger LOG = CallLogger.getLogger(MonitorAccess.class);
+    private static final String BEARER = "Bearer ";
+
+    private static volatile MonitorAccess instance;
+
+    // null if no token is configured.
+    private final byte[] token;
+
+    MonitorAccess(String token) {
+        this.token = token == null || token.trim().isEmpty() ? null : token.trim().getBytes(StandardCharsets.UTF_8);
+    }
+
+    public static MonitorAccess getInstance() {
+        if (instance == null) {
+            synchronized (MonitorAccess.class) {
+                if (instance == null) {
+                    instance = new MonitorAccess(Configuration.load(Configuration.SERVER).getProperty("monitor-token"));
+                    if (!instance.isConfigured()) {
+                        LOG.warn("no monitor-token is configured, /timelines and /costs are open to anyone who can "
+                                + "reach this node");
+                    }
+                }
+            }
+        }
+        return instance;
+    }
+
+    /**
+     * Whether a token is configured, without which nothing is permitted.
+     */
+    public boolean isConfigured() {
+        return token != null;
+    }
+
+    /**
+     * Whether the request presents the configured token.
+     *
+     * @param authorization  the request's {@code Authorization} header, null if it has none
+     * @param tokenParameter the request's {@value #TOKEN_PARAMETER} query parameter, null if it has none
+     */
+    public boolean permits(String authorization, String tokenParameter) {
+        if (authorization != null && authorization.regionMatches(true, 0, BEARER, 0, BEARER.length())) {
+            return matches(authorization.substring(BEARER.length()).trim());
+        }
+        return matches(tokenParameter);
+    }
+
+    /**
+     * Whether the request may read a call's details at {@code /timelines} or {@code /costs}: any request while no
+     * token is configured, otherwise those presenting it.
+     *
+     * @see #permits(String, String)
+     */
+    public boolean permitsDetails(String authorization, String tokenParameter) {
+        return token == null || permits(authorization, tokenParameter);
+    }
+
+    private boolean matches(String presented) {
+        // compared in constant time, so that the token cannot be guessed a character at a time.
+        return token != null && presented != null
+                && MessageDigest.isEqual(token, presented.getBytes(StandardCharsets.UTF_8));
+    }
+}
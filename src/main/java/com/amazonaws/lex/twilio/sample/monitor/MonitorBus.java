@@ -0,0 +1,380 @@
+package com.amazonaws.lex.twilio.sample.monitor;
+
+import com.amazonaws.lex.twilio.sample.journal.JournalEvent;
+import com.amazonaws.lex.twilio.sample.lifecycle.Configuration;
+import com.amazonaws.lex.twilio.sample.logging.CallLogger;
+import com.amazonaws.lex.twilio.sample.metrics.Metrics;
+import org.apache.log4j.Level;
+
+import javax.websocket.Session;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.Deque;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
+import java.util.function.Supplier;
+
+/*
+ * Copyright Amazon.com, Inc. or its affiliates. All Rights Reserved.
+ * SPDX-License-Identifier: MIT-0
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this
+ * software and associated documentation files (the "Software"), to deal in the Software
+ * without restriction, including without limitation the rights to use, copy, modify,
+ * merge, publish, distribute, sublicense, and/or sell copies of the Software, and to
+ * permit persons to whom the Software is furnished to do so.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED,
+ * INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A
+ * PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT
+ * HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION
+ * OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE
+ * SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+/**
+ * Fans the events of live calls (lifecycle, transcripts, intents, text responses, interruptions) out to the
+ * supervisors watching them at the {@code /monitor} WebSocket. Configured in server-configuration.properties with
+ * {@code monitor-enabled} and the other {@code monitor-*} keys.
+ * <p>
+ * Publishing never blocks and never waits for a subscriber: the event is put into the next slot of a ring, claimed
+ * with a single atomic increment, overwriting the oldest event. Everything else happens on the fan-out thread, which
+ * polls the ring: it keeps the last events of every call as its replay history, and moves each subscriber's cursor
+ * along the ring, sending the events since its last message as one message once that message has been written.
+ * A subscriber that has fallen behind more than {@code monitor-max-batch} events is only sent the latest event of
+ * each kind per call; one the ring has lapped is caught up from the replay history. Events the fan-out thread itself
+ * could not keep up with are counted at /metrics as {@code monitor.events_overwritten}.
+ */
+public final class MonitorBus {
+
+    private static final CallLogger LOG = CallLogger.getLogger(MonitorBus.class);
+
+    private static final LongAdder PUBLISHED = Metrics.counter("monitor.events");
+    private static final LongAdder OVERWRITTEN = Metrics.counter("monitor.events_overwritten");
+    private static final LongAdder CONFLATED = Metrics.counter("monitor.events_conflated");
+    private static final LongAdder REJECTED = Metrics.counter("monitor.subscribers_rejected");
+
+    private static volatile MonitorBus instance;
+
+    private final int maxSubscribers;
+    private final int historyPerCall;
+    private final int historyCalls;
+    private final int maxBatch;
+    private final long pollIntervalNanos;
+    private final AtomicReferenceArray<MonitorEvent> ring;
+    private final int mask;
+    // sequence of the next event to be published.
+    private final AtomicLong claimed;
+    private final Queue<MonitorSubscriber> joining;
+    private final AtomicInteger subscriberCount;
+    private final Thread fanOut;
+    private volatile boolean running;
+
+    // owned by the fan-out thread.
+    private final List<MonitorSubscriber> subscribers;
+    private final Map<String, Deque<MonitorEvent>> histories;
+    // sequence of the next event to be taken into the histories.
+    private long drained;
+
+    /**
+     * A bus that is not polled yet, see {@link #start()}.
+     */
+    MonitorBus(Properties properties, Supplier<MonitorAccess> access) {
+        boolean enabled = Boolean.parseBoolean(properties.getProperty("monitor-enabled", "false").trim());
+        if (enabled && !access.get().isConfigured()) {
+            // the monitor shows what callers say; it is never open to anyone who finds the URL.
+            throw new IllegalArgumentException("monitor-enabled needs a monitor-token");
+        }
+        int ringSize = intProperty(properties, "monitor-ring-size", 4096);
+        if (ringSize <= 0 || Integer.bitCount(ringSize) != 1) {
+            throw new IllegalArgumentException("monitor-ring-size must be a power of two, got " + ringSize);
+        }
+        this.maxSubscribers = intProperty(properties, "monitor-max-subscribers", 500);
+        this.historyPerCall = intProperty(properties, "monitor-history-per-call", 100);
+        this.historyCalls = intProperty(properties, "monitor-history-calls", 1000);
+        this.maxBatch = intProperty(properties, "monitor-max-batch", 256);
+        this.pollIntervalNanos = TimeUnit.MILLISECONDS.toNanos(intProperty(properties, "monitor-poll-interval-ms", 50));
+        this.ring = new AtomicReferenceArray<>(ringSize);
+        this.mask = ringSize - 1;
+        this.claimed = new AtomicLong();
+        this.joining = new ConcurrentLinkedQueue<>();
+        this.subscriberCount = new AtomicInteger();
+        this.subscribers = new ArrayList<>();
+        // least recently updated or watched call first, so that the calls that ended longest ago are forgotten first.
+        this.histories = new LinkedHashMap<String, Deque<MonitorEvent>>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, Deque<MonitorEvent>> eldest) {
+                return size() > historyCalls;
+            }
+        };
+        this.fanOut = new Thread(this::runFanOut, "monitor-fanout");
+        this.fanOut.setDaemon(true);
+        Metrics.gauge("monitor.subscribers", subscriberCount::get);
+        this.running = enabled;
+    }
+
+    public static MonitorBus getInstance() {
+        if (instance == null) {
+            synchronized (MonitorBus.class) {
+                if (instance == null) {
+                    MonitorBus bus = new MonitorBus(Configuration.load(Configuration.SERVER), MonitorAccess::getInstance);
+                    bus.start();
+                    instance = bus;
+                }
+            }
+        }
+        return instance;
+    }
+
+    public boolean isEnabled() {
+        return running;
+    }
+
+    /**
+     * Publishes an event of a call to the subscribers watching it. Called on the call path: does not block and does
+     * no I/O.
+     *
+     * @param fields the values of {@link JournalEvent#fieldName(int) the event's fields}, null for empty
+     */
+    public void publish(JournalEvent event, String callSid, String... fields) {
+        if (!running) {
+            return;
+        }
+        MonitorEvent monitorEvent = new MonitorEvent(System.currentTimeMillis(), event, callSid, fields);
+        long sequence = claimed.getAndIncrement();
+        monitorEvent.sequence = sequence;
+        ring.lazySet(index(sequence), monitorEvent);
+        PUBLISHED.increment();
+    }
+
+    /**
+     * Starts sending the events of a call, or of every call, to a WebSocket, beginning with the replay history.
+     *
+     * @param callSid the call to watch, null for every call
+     * @return the subscription, or null if the monitor is disabled or has {@code monitor-max-subscribers} already
+     */
+    public MonitorSubscriber subscribe(Session session, String callSid) {
+        if (!running) {
+            return null;
+        }
+        if (subscriberCount.incrementAndGet() > maxSubscribers) {
+            subscriberCount.decrementAndGet();
+            REJECTED.increment();
+            return null;
+        }
+        MonitorSubscriber subscriber = new MonitorSubscriber(session, callSid);
+        joining.offer(subscriber);
+        LockSupport.unpark(fanOut);
+        return subscriber;
+    }
+
+    public void unsubscribe(MonitorSubscriber subscriber) {
+        subscriber.close();
+    }
+
+    /**
+     * Stops the fan-out thread.
+     */
+    public void close() {
+        if (!running) {
+            return;
+        }
+        running = false;
+        LockSupport.unpark(fanOut);
+        try {
+            fanOut.join(TimeUnit.SECONDS.toMillis(5));
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private void start() {
+        if (running) {
+            fanOut.start();
+            LOG.info("live call monitor enabled at /monitor");
+        }
+    }
+
+    private int index(long sequence) {
+        return (int) (sequence & mask);
+    }
+
+    private void runFanOut() {
+        while (running) {
+            try {
+                poll();
+            } catch (RuntimeException e) {
+                // monitoring must never break anything, the events are lost.
+                LOG.limited(Level.ERROR, "monitor.fanout", "could not fan out monitor events", e);
+            }
+            LockSupport.parkNanos(pollIntervalNanos);
+        }
+    }
+
+    /**
+     * One round of the fan-out thread: takes in what was published, replays the history to new subscribers and sends
+     * the others what is new, unless their last message is still being written.
+     */
+    void poll() {
+        drain();
+        join();
+        for (Iterator<MonitorSubscriber> iterator = subscribers.iterator(); iterator.hasNext(); ) {
+            MonitorSubscriber subscriber = iterator.next();
+            if (subscriber.isClosed()) {
+                iterator.remove();
+                subscriberCount.decrementAndGet();
+            } else if (!subscriber.isSending() && subscriber.cursor < drained) {
+                deliver(subscriber);
+            }
+        }
+    }
+
+    /**
+     * Takes the events published since the last poll into the histories of their calls.
+     */
+    private void drain() {
+        long published = claimed.get();
+        long oldest = published - ring.length();
+        if (drained < oldest) {
+            OVERWRITTEN.add(oldest - drained);
+            drained = oldest;
+        }
+        while (drained < published) {
+            MonitorEvent event = ring.get(index(drained));
+            if (event == null || event.sequence < drained) {
+                // claimed, but not written yet; taken with the next poll.
+                break;
+            }
+            if (event.sequence == drained) {
+                Deque<MonitorEvent> history = histories.computeIfAbsent(event.getCallSid(), key -> new ArrayDeque<>());
+                history.addLast(event);
+                if (history.size() > historyPerCall) {
+                    history.removeFirst();
+                }
+            } else {
+                OVERWRITTEN.increment();
+            }
+            drained++;
+        }
+    }
+
+    /**
+     * Sends the new subscribers their replay: the history of the call they watch, or the latest event of each kind
+     * of every call in the history.
+     */
+    private void join() {
+        MonitorSubscriber subscriber;
+        while ((subscriber = joining.poll()) != null) {
+            if (subscriber.isClosed()) {
+                subscriberCount.decrementAndGet();
+                continue;
+            }
+            subscriber.cursor = drained;
+            subscribers.add(subscriber);
+            List<MonitorEvent> replay = historySince(subscriber, Long.MIN_VALUE);
+            if (subscriber.getCallSid() == null) {
+                replay = conflate(replay);
+            }
+            send(subscriber, true, replay);
+        }
+    }
+
+    /**
+     * Sends a subscriber the events between its cursor and the histories.
+     */
+    private void deliver(MonitorSubscriber subscriber) {
+        List<MonitorEvent> events = new ArrayList<>();
+        for (long sequence = subscriber.cursor; sequence < drained; sequence++) {
+            MonitorEvent event = ring.get(index(sequence));
+            if (event.sequence != sequence) {
+                // lapped by the publishers while the subscriber's last message was being written.
+                events = historySince(subscriber, subscriber.cursor);
+                break;
+            }
+            if (subscriber.matches(event)) {
+                events.add(event);
+            }
+        }
+        subscriber.cursor = drained;
+        if (!events.isEmpty()) {
+            send(subscriber, false, events);
+        }
+    }
+
+    private List<MonitorEvent> historySince(MonitorSubscriber subscriber, long sequence) {
+        List<MonitorEvent> events = new ArrayList<>();
+        if (subscriber.getCallSid() != null) {
+            Deque<MonitorEvent> history = histories.get(subscriber.getCallSid());
+            if (history != null) {
+                addSince(events, history, sequence);
+            }
+        } else {
+            histories.values().forEach(history -> addSince(events, history, sequence));
+            events.sort(Comparator.comparingLong(event -> event.sequence));
+        }
+        return events;
+    }
+
+    private static void addSince(List<MonitorEvent> events, Deque<MonitorEvent> history, long sequence) {
+        for (MonitorEvent event : history) {
+            if (event.sequence >= sequence) {
+                events.add(event);
+            }
+        }
+    }
+
+    private void send(MonitorSubscriber subscriber, boolean replay, List<MonitorEvent> events) {
+        int skipped = 0;
+        if (events.size() > maxBatch) {
+            List<MonitorEvent> conflated = conflate(events);
+            skipped = events.size() - conflated.size();
+            if (!replay) {
+                CONFLATED.add(skipped);
+            }
+            events = conflated;
+        }
+        StringBuilder message = new StringBuilder(64 + 128 * events.size())
+                .append("{\"replay\":").append(replay)
+                .append(",\"skipped\":").append(skipped)
+                .append(",\"events\":[");
+        for (int i = 0; i < events.size(); i++) {
+            if (i > 0) {
+                message.append(',');
+            }
+            message.append(events.get(i).toJson());
+        }
+        subscriber.send(message.append("]}").toString());
+    }
+
+    /**
+     * The latest event of each kind per call, oldest first, at most {@code monitor-max-batch} of them.
+     */
+    private List<MonitorEvent> conflate(List<MonitorEvent> events) {
+        Map<String, MonitorEvent> latest = new LinkedHashMap<>();
+        for (MonitorEvent event : events) {
+            latest.put(event.getCallSid() + '/' + event.getType().name(), event);
+        }
+        List<MonitorEvent> conflated = new ArrayList<>(latest.values());
+        conflated.sort(Comparator.comparingLong(event -> event.sequence));
+        if (conflated.size() > maxBatch) {
+            conflated = new ArrayList<>(conflated.subList(conflated.size() - maxBatch, conflated.size()));
+        }
+        return conflated;
+    }
+
+    private static int intProperty(Properties properties, String key, int defaultValue) {
+        return Integer.parseInt(properties.getProperty(key, String.valueOf(defaultValue)).trim());
+    }
+}
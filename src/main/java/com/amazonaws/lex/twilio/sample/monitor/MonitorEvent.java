@@ -0,0 +1,72 @@
+package com.amazonaws.lex.twilio.sample.monitor;
+
+import com.amazonaws.lex.twilio.sample.journal.JournalEvent;
+import com.google.gson.JsonObject;
+
+import java.util.Locale;
+
+/*
+ * Copyright Amazon.com, Inc. or its affiliates. All Rights Reserved.
+ * SPDX-License-Identifier: MIT-0
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this
+ * software and associated documentation files (the "Software"), to deal in the Software
+ * without restriction, including without limitation the rights to use, copy, modify,
+ * merge, publish, distribute, sublicense, and/or sell copies of the Software, and to
+ * permit persons to whom the Software is furnished to do so.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED,
+ * INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A
+ * PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT
+ * HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION
+ * OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE
+ * SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+/**
+ * One event of a call as seen by the monitor: the same events and fields as the journal's. Created on the call path,
+ * rendered to JSON once by the fan-out thread, however many subscribers it goes to.
+ */
+final class MonitorEvent {
+
+    // set before the event is published to the ring.
+    long sequence;
+    private final long epochMillis;
+    private final JournalEvent type;
+    private final String callSid;
+    private final String[] fields;
+    // rendered by the fan-out thread only.
+    private String json;
+
+    MonitorEvent(long epochMillis, JournalEvent type, String callSid, String[] fields) {
+        this.epochMillis = epochMillis;
+        this.type = type;
+        this.callSid = callSid;
+        this.fields = fields;
+    }
+
+    JournalEvent getType() {
+        return type;
+    }
+
+    String getCallSid() {
+        return callSid;
+    }
+
+    String toJson() {
+        if (json == null) {
+            JsonObject object = new JsonObject();
+            object.addProperty("seq", sequence);
+            object.addProperty("time", epochMillis);
+            object.addProperty("callSid", callSid);
+            object.addProperty("event", type.name().toLowerCase(Locale.ROOT));
+            for (int i = 0; i < fields.length; i++) {
+                if (fields[i] != null) {
+                    object.addProperty(type.fieldName(i), fields[i]);
+                }
+            }
+            json = object.toString();
+        }
+        return json;
+    }
+}
@@ -0,0 +1,81 @@
+package com.amazonaws.lex.twilio.sample.monitor;
+
+import javax.websocket.Session;
+
+/*
+ * Copyright Amazon.com, Inc. or its affiliates. All Rights Reserved.
+ * SPDX-License-Identifier: MIT-0
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this
+ * software and associated documentation files (the "Software"), to deal in the Software
+ * without restriction, including without limitation the rights to use, copy, modify,
+ * merge, publish, distribute, sublicense, and/or sell copies of the Software, and to
+ * permit persons to whom the Software is furnished to do so.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED,
+ * INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A
+ * PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT
+ * HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION
+ * OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE
+ * SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+/**
+ * A WebSocket watching one call, or every call when its call SID is null. Its cursor is the sequence of the next
+ * event of the ring it has not been sent, and is only moved by the fan-out thread. At most one message is being sent
+ * at a time; the events published meanwhile are sent with the next one.
+ */
+public final class MonitorSubscriber {
+
+    private final Session session;
+    private final String callSid;
+    // fan-out thread only.
+    long cursor;
+    private volatile boolean sending;
+    private volatile boolean closed;
+
+    MonitorSubscriber(Session session, String callSid) {
+        this.session = session;
+        this.callSid = callSid;
+    }
+
+    String getCallSid() {
+        return callSid;
+    }
+
+    boolean matches(MonitorEvent event) {
+        return callSid == null || callSid.equals(event.getCallSid());
+    }
+
+    boolean isSending() {
+        return sending;
+    }
+
+    boolean isClosed() {
+        return closed;
+    }
+
+    void close() {
+        closed = true;
+    }
+
+    /**
+     * Starts sending a message without waiting for it to be written to the socket. A failed send closes the
+     * subscriber.
+     */
+    void send(String message) {
+        sending = true;
+        try {
+            session.getAsyncRemote().sendText(message, result -> {
+                if (!result.isOK()) {
+                    closed = true;
+                }
+                sending = false;
+            });
+        } catch (RuntimeException e) {
+            // the session has been closed meanwhile.
+            closed = true;
+            sending = false;
+        }
+    }
+}
@@ -0,0 +1,70 @@
+package com.amazonaws.lex.twilio.sample.prompts;
+
+import java.nio.ByteBuffer;
+
+/*
+ * Copyright Amazon.com, Inc. or its affiliates. All Rights Reserved.
+ * SPDX-License-Identifier: MIT-0
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this
+ * software and associated documentation files (the "Software"), to deal in the Software
+ * without restriction, including without limitation the rights to use, copy, modify,
+ * merge, publish, distribute, sublicense, and/or sell copies of the Software, and to
+ * permit persons to whom the Software is furnished to do so.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED,
+ * INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A
+ * PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT
+ * HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION
+ * OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE
+ * SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+/**
+ * A pre-encoded clip of 8kHz u-law audio, backed by a read-only memory-mapped file that all calls share. Reading
+ * uses absolute positions only, so a clip needs no synchronization and each call keeps its own position.
+ */
+public final class PromptClip {
+
+    private final String name;
+    private final ByteBuffer audio;
+
+    PromptClip(String name, ByteBuffer audio) {
+        this.name = name;
+        this.audio = audio;
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    /**
+     * Length in bytes, which for u-law is also the number of samples.
+     */
+    public int length() {
+        return audio.limit();
+    }
+
+    /**
+     * Copies up to {@code length} bytes of audio, starting at {@code offset} in the clip, into {@code target}.
+     *
+     * @param loop whether to continue at the beginning of the clip when its end is reached; otherwise copying stops
+     *             there
+     * @return the number of bytes copied
+     */
+    public int read(int offset, byte[] target, int targetOffset, int length, boolean loop) {
+        int limit = audio.limit();
+        int copied = 0;
+        int position = offset;
+        while (copied < length) {
+            if (position >= limit) {
+                if (!loop || limit == 0) {
+                    break;
+                }
+                position = 0;
+            }
+            target[targetOffset + copied++] = audio.get(position++);
+        }
+        return copied;
+    }
+}
@@ -0,0 +1,193 @@
+package com.amazonaws.lex.twilio.sample.prompts;
+
+import com.amazonaws.lex.twilio.sample.lifecycle.Configuration;
+import com.amazonaws.lex.twilio.sample.metrics.Metrics;
+import org.apache.log4j.Logger;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.TreeMap;
+
+/*
+ * Copyright Amazon.com, Inc. or its affiliates. All Rights Reserved.
+ * SPDX-License-Identifier: MIT-0
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this
+ * software and associated documentation files (the "Software"), to deal in the Software
+ * without restriction, including without limitation the rights to use, copy, modify,
+ * merge, publish, distribute, sublicense, and/or sell copies of the Software, and to
+ * permit persons to whom the Software is furnished to do so.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED,
+ * INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A
+ * PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT
+ * HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION
+ * OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE
+ * SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+/**
+ * Pre-encoded u-law clips (fillers, hold music, earcons) played to callers while they wait for the bot. Every
+ * {@code *.ulaw} file in {@code prompt-directory} (raw 8kHz mono u-law, as Twilio plays it) is memory-mapped read-only
+ * once and shared by all calls, so playing a clip costs neither synthesis nor transcoding nor per call memory.
+ * <p>
+ * Settings in server-configuration.properties, each of which can be overridden with a system property:
+ * <ul>
+ *     <li>{@code prompt-directory}: directory of the clips; empty disables fillers</li>
+ *     <li>{@code filler-clips}: names (file names without {@code .ulaw}) of the clips played, in turn, once the
+ *     caller has waited {@code filler-silence-ms} for the bot's answer</li>
+ *     <li>{@code hold-clip}: clip looped after a filler clip has ended while the caller is still waiting</li>
+ *     <li>{@code filler-silence-ms}: wait after the caller's transcript before a filler starts, default 700</li>
+ *     <li>{@code filler-max-ms}: longest filler playback, default 20000</li>
+ *     <li>{@code filler-chunk-ms}: audio per media message; a filler is sent at real time pace one chunk ahead, so
+ *     this bounds how much filler is still buffered at Twilio when the bot's answer arrives. Default 40</li>
+ * </ul>
+ */
+public final class PromptLibrary {
+
+    private static final Logger LOG = Logger.getLogger(PromptLibrary.class);
+
+    private static final String EXTENSION = ".ulaw";
+
+    private static volatile PromptLibrary instance;
+
+    private final Map<String, PromptClip> clips;
+    private final List<PromptClip> fillers;
+    private final PromptClip holdClip;
+    private final long silenceMillis;
+    private final long maxMillis;
+    private final int chunkMillis;
+
+    private PromptLibrary(Map<String, PromptClip> clips, List<PromptClip> fillers, PromptClip holdClip,
+                          long silenceMillis, long maxMillis, int chunkMillis) {
+        this.clips = clips;
+        this.fillers = fillers;
+        this.holdClip = holdClip;
+        this.silenceMillis = silenceMillis;
+        this.maxMillis = maxMillis;
+        this.chunkMillis = chunkMillis;
+    }
+
+    public static PromptLibrary getInstance() {
+        if (instance == null) {
+            synchronized (PromptLibrary.class) {
+                if (instance == null) {
+                    instance = load(Configuration.load(Configuration.SERVER));
+                }
+            }
+        }
+        return instance;
+    }
+
+    private static PromptLibrary load(Properties properties) {
+        String directory = property(properties, "prompt-directory", "");
+        Map<String, PromptClip> clips = directory.isEmpty() ? Collections.emptyMap() : mapClips(Paths.get(directory));
+
+        List<PromptClip> fillers = new ArrayList<>();
+        for (String name : property(properties, "filler-clips", "").split(",")) {
+            if (!name.trim().isEmpty()) {
+                fillers.add(requireClip(clips, name.trim(), directory));
+            }
+        }
+        String holdName = property(properties, "hold-clip", "");
+        PromptClip holdClip = holdName.isEmpty() ? null : requireClip(clips, holdName, directory);
+
+        PromptLibrary library = new PromptLibrary(Collections.unmodifiableMap(clips), Collections.unmodifiableList(fillers),
+                holdClip,
+                Long.parseLong(property(properties, "filler-silence-ms", "700")),
+                Long.parseLong(property(properties, "filler-max-ms", "20000")),
+                Integer.parseInt(property(properties, "filler-chunk-ms", "40")));
+        long mappedBytes = clips.values().stream().mapToLong(PromptClip::length).sum();
+        Metrics.gauge("prompts.mapped_bytes", () -> mappedBytes);
+        if (library.isFillerEnabled()) {
+            LOG.info("playing fillers " + fillers.stream().map(PromptClip::getName).reduce((a, b) -> a + ", " + b).orElse("-")
+                    + (holdClip == null ? "" : " and hold clip " + holdClip.getName()) + " after "
+                    + library.silenceMillis + " ms of waiting");
+        }
+        return library;
+    }
+
+    private static Map<String, PromptClip> mapClips(Path directory) {
+        Map<String, PromptClip> clips = new TreeMap<>();
+        try (DirectoryStream<Path> files = Files.newDirectoryStream(directory, "*" + EXTENSION)) {
+            for (Path file : files) {
+                String fileName = file.getFileName().toString();
+                String name = fileName.substring(0, fileName.length() - EXTENSION.length());
+                // the mapping stays valid after the channel is closed.
+                try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+                    MappedByteBuffer audio = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+                    // page the clip in now rather than on a call's first playback.
+                    audio.load();
+                    clips.put(name, new PromptClip(name, audio));
+                }
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException("could not map the prompts in " + directory, e);
+        }
+        LOG.info("mapped " + clips.size() + " prompts from " + directory.toAbsolutePath());
+        return clips;
+    }
+
+    private static PromptClip requireClip(Map<String, PromptClip> clips, String name, String directory) {
+        PromptClip clip = clips.get(name);
+        if (clip == null) {
+            throw new IllegalStateException("prompt " + name + EXTENSION + " not found in prompt-directory '" + directory + "'");
+        }
+        return clip;
+    }
+
+    /**
+     * The clip with the given name, or null.
+     */
+    public PromptClip get(String name) {
+        return clips.get(name);
+    }
+
+    public boolean isFillerEnabled() {
+        return !fillers.isEmpty() || holdClip != null;
+    }
+
+    /**
+     * Filler clip for the given turn of a call; turns go through the fillers in order.
+     *
+     * @return the clip, or null when only a hold clip is configured
+     */
+    public PromptClip filler(int turn) {
+        return fillers.isEmpty() ? null : fillers.get(turn % fillers.size());
+    }
+
+    /**
+     * The clip looped after a filler, or null.
+     */
+    public PromptClip getHoldClip() {
+        return holdClip;
+    }
+
+    public long getSilenceMillis() {
+        return silenceMillis;
+    }
+
+    public long getMaxMillis() {
+        return maxMillis;
+    }
+
+    public int getChunkMillis() {
+        return chunkMillis;
+    }
+
+    private static String property(Properties properties, String key, String defaultValue) {
+        return System.getProperty(key, properties.getProperty(key, defaultValue)).trim();
+    }
+}
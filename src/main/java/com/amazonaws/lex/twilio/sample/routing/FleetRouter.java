@@ -0,0 +1,351 @@
+package com.amazonaws.lex.twilio.sample.routing;
+
+import com.amazonaws.lex.twilio.sample.lifecycle.Configuration;
+import com.amazonaws.lex.twilio.sample.lifecycle.Readiness;
+import com.amazonaws.lex.twilio.sample.logging.CallLogger;
+import com.amazonaws.lex.twilio.sample.metrics.LatencyHistogram;
+import com.amazonaws.lex.twilio.sample.metrics.Metrics;
+import com.amazonaws.lex.twilio.sample.streaming.AudioEventsSubscription;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import com.google.gson.Gson;
+import com.google.gson.JsonParseException;
+import org.apache.log4j.Level;
+
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Properties;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+/*
+ * Copyright Amazon.com, Inc. or its affiliates. All Rights Reserved.
+ * SPDX-License-Identifier: MIT-0
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this
+ * software and associated documentation files (the "Software"), to deal in the Software
+ * without restriction, including without limitation the rights to use, copy, modify,
+ * merge, publish, distribute, sublicense, and/or sell copies of the Software, and to
+ * permit persons to whom the Software is furnished to do so.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED,
+ * INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A
+ * PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT
+ * HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION
+ * OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE
+ * SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+/**
+ * Picks the node that should handle the media stream of a new call. Every node publishes its {@link NodeCapacity} on
+ * {@code /capacity}; the router polls the configured peers (and, with gossip enabled, peers learned from them whose
+ * URL starts with one of {@code gossip-allowed-urls}) and routes each call to the least loaded healthy node, which may
+ * be this one.
+ * <p>
+ * Capacities are at most one poll interval old, so calls routed to a node since its last poll are counted as pending
+ * calls on top of its published active calls. Otherwise every call arriving within a poll interval would go to the
+ * same node.
+ * <p>
+ * Routing is off by default; then every call streams to the node that answered the webhook.
+ */
+public class FleetRouter {
+
+    private static final CallLogger LOG = CallLogger.getLogger(FleetRouter.class);
+
+    private static final LongAdder ROUTED_LOCAL = Metrics.counter("routing.decisions.local");
+    private static final LongAdder ROUTED_PEER = Metrics.counter("routing.decisions.peer");
+    private static final LongAdder NO_HEALTHY_NODE = Metrics.counter("routing.decisions.no_healthy_node");
+    private static final LongAdder POLL_ERRORS = Metrics.counter("routing.peers.poll_errors");
+    private static final LatencyHistogram POLL_LATENCY = Metrics.latency("routing.peers.poll.latency");
+
+    private static final Gson GSON = new Gson();
+
+    private static volatile FleetRouter instance;
+
+    private final boolean enabled;
+    private final String nodeUrl;
+    private final String streamUrl;
+    private final int maxCalls;
+    private final boolean gossip;
+    // URL prefixes a peer learned through gossip must start with.
+    private final List<String> gossipAllowed;
+    private final long pollIntervalMillis;
+    private final int peerTimeoutMillis;
+    private final long staleAfterMillis;
+    private final long forgetAfterMillis;
+    private final Node self;
+    private final ConcurrentMap<String, Node> peers;
+    private final ScheduledExecutorService scheduler;
+    private final ExecutorService pollers;
+
+    public static FleetRouter getInstance() {
+        if (instance == null) {
+            synchronized (FleetRouter.class) {
+                if (instance == null) {
+                    instance = new FleetRouter(Configuration.load(Configuration.ROUTING));
+                }
+            }
+        }
+        return instance;
+    }
+
+    FleetRouter(Properties properties) {
+        this.enabled = Boolean.parseBoolean(properties.getProperty("routing-enabled", "false"));
+        this.nodeUrl = trimTrailingSlash(properties.getProperty("node-url", ""));
+        this.streamUrl = properties.getProperty("stream-url", "");
+        this.maxCalls = Integer.parseInt(properties.getProperty("max-calls", "0"));
+        this.gossip = Boolean.parseBoolean(properties.getProperty("gossip", "false"));
+        this.gossipAllowed = new ArrayList<>();
+        for (String prefix : properties.getProperty("gossip-allowed-urls", "").split(",")) {
+            if (!prefix.trim().isEmpty()) {
+                gossipAllowed.add(prefix.trim());
+            }
+        }
+        if (enabled && gossip && gossipAllowed.isEmpty()) {
+            // peers learned from any node that answers /capacity would let anyone on the network take calls.
+            throw new IllegalArgumentException("gossip=true needs gossip-allowed-urls");
+        }
+        this.pollIntervalMillis = Long.parseLong(properties.getProperty("poll-interval-ms", "1000"));
+        this.peerTimeoutMillis = Integer.parseInt(properties.getProperty("peer-timeout-ms", "500"));
+        this.staleAfterMillis = Long.parseLong(properties.getProperty("stale-after-ms", "5000"));
+        this.forgetAfterMillis = Long.parseLong(properties.getProperty("forget-after-ms", "300000"));
+
+        this.self = new Node(nodeUrl, true);
+        this.peers = new ConcurrentHashMap<>();
+        for (String peer : properties.getProperty("peers", "").split(",")) {
+            String peerUrl = trimTrailingSlash(peer.trim());
+            if (!peerUrl.isEmpty() && !peerUrl.equals(nodeUrl)) {
+                peers.put(peerUrl, new Node(peerUrl, true));
+            }
+        }
+
+        int pollerThreads = Integer.parseInt(properties.getProperty("poller-threads", "4"));
+        this.scheduler = Executors.newSingleThreadScheduledExecutor(
+                new ThreadFactoryBuilder().setNameFormat("fleet-router-scheduler").setDaemon(true).build());
+        this.pollers = Executors.newFixedThreadPool(pollerThreads,
+                new ThreadFactoryBuilder().setNameFormat("fleet-router-poller-%d").setDaemon(true).build());
+
+        Metrics.gauge("routing.peers.known", peers::size);
+        Metrics.gauge("routing.peers.healthy", this::healthyPeers);
+    }
+
+    private static String trimTrailingSlash(String url) {
+        return url.endsWith("/") ? url.substring(0, url.length() - 1) : url;
+    }
+
+    public void start() {
+        if (!enabled) {
+            return;
+        }
+        LOG.info("routing calls across this node and peers {}", peers.keySet());
+        scheduler.scheduleWithFixedDelay(this::refresh, 0, pollIntervalMillis, TimeUnit.MILLISECONDS);
+    }
+
+    public void stop() {
+        scheduler.shutdownNow();
+        pollers.shutdownNow();
+    }
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    long healthyPeers() {
+        long now = System.currentTimeMillis();
+        return peers.values().stream().filter(peer -> peer.isHealthy(now)).count();
+    }
+
+    /**
+     * Current capacity of this node.
+     *
+     * @param fallbackStreamUrl stream URL to publish when none is configured, i.e. the URL derived from the request.
+     */
+    public NodeCapacity localCapacity(String fallbackStreamUrl) {
+        return new NodeCapacity(
+                nodeUrl,
+                streamUrl.isEmpty() ? fallbackStreamUrl : streamUrl,
+                Readiness.isReady(),
+                LocalNode.getActiveCalls(),
+                maxCalls,
+                LocalNode.getCpuLoad(),
+                AudioEventsSubscription.getQueuedEvents(),
+                new ArrayList<>(peers.keySet()));
+    }
+
+    /**
+     * Stream URL of the node the next call should be routed to.
+     *
+     * @param localStreamUrl stream URL of this node, derived from the webhook request, used when no stream URL is
+     *                       configured, when routing is disabled and when no node is healthy.
+     */
+    public String chooseStreamUrl(String localStreamUrl) {
+        if (!enabled) {
+            return localStreamUrl;
+        }
+
+        long now = System.currentTimeMillis();
+        List<Node> candidates = new ArrayList<>();
+        if (self.isHealthy(now)) {
+            candidates.add(self);
+        }
+        for (Node peer : peers.values()) {
+            if (peer.isHealthy(now)) {
+                candidates.add(peer);
+            }
+        }
+
+        Node chosen = candidates.stream()
+                .min(Comparator.<Node>comparingDouble(Node::load)
+                        .thenComparingInt(Node::calls)
+                        .thenComparingLong(node -> node.capacity.getQueuedEvents()))
+                .orElse(null);
+
+        if (chosen == null) {
+            NO_HEALTHY_NODE.increment();
+            LOG.limited(Level.WARN, "fleet.full", "no node with free capacity, streaming the call to this node");
+            return localStreamUrl;
+        }
+
+        chosen.pendingCalls.incrementAndGet();
+        if (chosen == self) {
+            ROUTED_LOCAL.increment();
+            return streamUrl.isEmpty() ? localStreamUrl : streamUrl;
+        }
+        ROUTED_PEER.increment();
+        LOG.debug("routing call to {} {}", chosen.url, chosen.capacity);
+        return chosen.capacity.getStreamUrl();
+    }
+
+    private void refresh() {
+        // stream URL only matters for peers, this node's URL is derived from each request when not configured.
+        self.update(localCapacity(streamUrl), System.currentTimeMillis());
+
+        long now = System.currentTimeMillis();
+        for (Node peer : peers.values()) {
+            if (!peer.configured && now - peer.lastSeenAt >= forgetAfterMillis) {
+                LOG.info("forgetting unreachable peer {}", peer.url);
+                peers.remove(peer.url, peer);
+            } else if (peer.polling.compareAndSet(false, true)) {
+                try {
+                    pollers.execute(() -> poll(peer));
+                } catch (RejectedExecutionException e) {
+                    peer.polling.set(false);
+                }
+            }
+        }
+    }
+
+    private void poll(Node peer) {
+        long start = System.nanoTime();
+        try {
+            HttpURLConnection connection = (HttpURLConnection) new URL(peer.url + "/capacity").openConnection();
+            connection.setConnectTimeout(peerTimeoutMillis);
+            connection.setReadTimeout(peerTimeoutMillis);
+            connection.setRequestProperty("Accept", "application/json");
+
+            NodeCapacity capacity;
+            try (Reader reader = new InputStreamReader(connection.getInputStream(), StandardCharsets.UTF_8)) {
+                capacity = GSON.fromJson(reader, NodeCapacity.class);
+            }
+            POLL_LATENCY.recordNanos(System.nanoTime() - start);
+
+            if (peer.failures > 0) {
+                LOG.info("peer {} is reachable again", peer.url);
+            }
+            peer.update(capacity, System.currentTimeMillis());
+
+            if (gossip) {
+                for (String learned : capacity.getPeers()) {
+                    String learnedUrl = trimTrailingSlash(learned);
+                    if (learnedUrl.isEmpty() || learnedUrl.equals(nodeUrl) || peers.containsKey(learnedUrl)) {
+                        continue;
+                    }
+                    if (!isGossipAllowed(learnedUrl)) {
+                        LOG.limited(Level.WARN, "fleet.gossip", "ignoring peer {} from {}, it is not in "
+                                + "gossip-allowed-urls", learnedUrl, peer.url);
+                    } else if (peers.putIfAbsent(learnedUrl, new Node(learnedUrl, false)) == null) {
+                        LOG.info("learned about peer {} from {}", learnedUrl, peer.url);
+                    }
+                }
+            }
+        } catch (IOException | JsonParseException e) {
+            POLL_ERRORS.increment();
+            if (peer.failures++ == 0) {
+                LOG.limited(Level.WARN, "fleet.peer", "could not get the capacity of peer {}: {}", peer.url,
+                        e.getMessage());
+            }
+        } finally {
+            peer.polling.set(false);
+        }
+    }
+
+    private boolean isGossipAllowed(String url) {
+        for (String prefix : gossipAllowed) {
+            if (url.startsWith(prefix)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Last known capacity of a node, including this one.
+     */
+    private final class Node {
+        private final String url;
+        // from the static peer list (or this node), never forgotten.
+        private final boolean configured;
+        private final AtomicBoolean polling;
+        private final AtomicInteger pendingCalls;
+        private volatile NodeCapacity capacity;
+        private volatile long lastSeenAt;
+        // only written by the poller currently holding the polling flag.
+        private volatile int failures;
+
+        Node(String url, boolean configured) {
+            this.url = url;
+            this.configured = configured;
+            this.polling = new AtomicBoolean(false);
+            this.pendingCalls = new AtomicInteger(0);
+            this.lastSeenAt = System.currentTimeMillis();
+        }
+
+        void update(NodeCapacity capacity, long now) {
+            this.capacity = capacity;
+            this.lastSeenAt = now;
+            this.failures = 0;
+            // calls routed before this snapshot are now counted in its active calls (or never arrived).
+            this.pendingCalls.set(0);
+        }
+
+        boolean isHealthy(long now) {
+            NodeCapacity current = capacity;
+            return current != null
+                    && now - lastSeenAt <= staleAfterMillis
+                    && (this == self || (current.getStreamUrl() != null && !current.getStreamUrl().isEmpty()))
+                    && current.canAccept(pendingCalls.get());
+        }
+
+        double load() {
+            return capacity.load(pendingCalls.get());
+        }
+
+        int calls() {
+            return capacity.getActiveCalls() + pendingCalls.get();
+        }
+    }
+}
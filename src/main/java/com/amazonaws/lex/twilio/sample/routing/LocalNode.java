@@ -0,0 +1,68 @@
+package com.amazonaws.lex.twilio.sample.routing;
+
+import com.amazonaws.lex.twilio.sample.metrics.Metrics;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.OperatingSystemMXBean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/*
+ * Copyright Amazon.com, Inc. or its affiliates. All Rights Reserved.
+ * SPDX-License-Identifier: MIT-0
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this
+ * software and associated documentation files (the "Software"), to deal in the Software
+ * without restriction, including without limitation the rights to use, copy, modify,
+ * merge, publish, distribute, sublicense, and/or sell copies of the Software, and to
+ * permit persons to whom the Software is furnished to do so.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED,
+ * INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A
+ * PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT
+ * HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION
+ * OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE
+ * SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+/**
+ * Load indicators of this process: calls with an open media stream and CPU load.
+ */
+public final class LocalNode {
+
+    private static final AtomicInteger ACTIVE_CALLS = new AtomicInteger(0);
+
+    static {
+        Metrics.gauge("calls.active", ACTIVE_CALLS::get);
+    }
+
+    private LocalNode() {
+    }
+
+    public static void callStarted() {
+        ACTIVE_CALLS.incrementAndGet();
+    }
+
+    public static void callEnded() {
+        ACTIVE_CALLS.decrementAndGet();
+    }
+
+    public static int getActiveCalls() {
+        return ACTIVE_CALLS.get();
+    }
+
+    /**
+     * CPU load of this process between 0 and 1, falling back to the system load average per processor where the
+     * process load is not available.
+     */
+    public static double getCpuLoad() {
+        OperatingSystemMXBean operatingSystem = ManagementFactory.getOperatingSystemMXBean();
+        if (operatingSystem instanceof com.sun.management.OperatingSystemMXBean) {
+            double processLoad = ((com.sun.management.OperatingSystemMXBean) operatingSystem).getProcessCpuLoad();
+            if (processLoad >= 0) {
+                return processLoad;
+            }
+        }
+        double loadAverage = operatingSystem.getSystemLoadAverage();
+        return loadAverage < 0 ? 0 : Math.min(1, loadAverage / operatingSystem.getAvailableProcessors());
+    }
+}
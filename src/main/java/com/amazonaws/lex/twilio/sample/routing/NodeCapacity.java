@@ -0,0 +1,128 @@
+package com.amazonaws.lex.twilio.sample.routing;
+
+import java.util.Collections;
+import java.util.List;
+
+/*
+ * Copyright Amazon.com, Inc. or its affiliates. All Rights Reserved.
+ * SPDX-License-Identifier: MIT-0
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this
+ * software and associated documentation files (the "Software"), to deal in the Software
+ * without restriction, including without limitation the rights to use, copy, modify,
+ * merge, publish, distribute, sublicense, and/or sell copies of the Software, and to
+ * permit persons to whom the Software is furnished to do so.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED,
+ * INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A
+ * PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT
+ * HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION
+ * OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE
+ * SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+/**
+ * Load of one node as published on its {@code /capacity} endpoint and exchanged between peers. Serialized with Gson,
+ * so fields are plain values and there is a no-argument constructor.
+ */
+public class NodeCapacity {
+
+    // base http(s) URL under which peers reach this node's /capacity endpoint.
+    private String nodeUrl;
+    // WebSocket URL Twilio should stream media of calls routed to this node to.
+    private String streamUrl;
+    private boolean ready;
+    private int activeCalls;
+    // 0 means unlimited.
+    private int maxCalls;
+    // process CPU load between 0 and 1.
+    private double cpuLoad;
+    // events waiting to be sent to Lex, across all conversations.
+    private long queuedEvents;
+    // peers this node knows about, used to discover nodes that are not in the static peer list.
+    private List<String> peers;
+    // whether the node takes another call, for load balancers; the router works it out from the fields above.
+    private boolean acceptingCalls;
+
+    public NodeCapacity() {
+        this.peers = Collections.emptyList();
+    }
+
+    NodeCapacity(String nodeUrl, String streamUrl, boolean ready, int activeCalls, int maxCalls, double cpuLoad,
+                 long queuedEvents, List<String> peers) {
+        this.nodeUrl = nodeUrl;
+        this.streamUrl = streamUrl;
+        this.ready = ready;
+        this.activeCalls = activeCalls;
+        this.maxCalls = maxCalls;
+        this.cpuLoad = cpuLoad;
+        this.queuedEvents = queuedEvents;
+        this.peers = peers;
+        this.acceptingCalls = canAccept(0);
+    }
+
+    public String getNodeUrl() {
+        return nodeUrl;
+    }
+
+    public String getStreamUrl() {
+        return streamUrl;
+    }
+
+    public boolean isReady() {
+        return ready;
+    }
+
+    public int getActiveCalls() {
+        return activeCalls;
+    }
+
+    public int getMaxCalls() {
+        return maxCalls;
+    }
+
+    public double getCpuLoad() {
+        return cpuLoad;
+    }
+
+    public long getQueuedEvents() {
+        return queuedEvents;
+    }
+
+    public List<String> getPeers() {
+        return peers == null ? Collections.emptyList() : peers;
+    }
+
+    public boolean isAcceptingCalls() {
+        return acceptingCalls;
+    }
+
+    /**
+     * Whether the node can take another call, given calls already routed to it that have not started yet.
+     */
+    public boolean canAccept(int pendingCalls) {
+        return ready && (maxCalls <= 0 || activeCalls + pendingCalls < maxCalls);
+    }
+
+    /**
+     * Load between 0 and 1 (or above, when over its call limit): the higher of call slot utilization and CPU load.
+     */
+    public double load(int pendingCalls) {
+        double callUtilization = maxCalls > 0 ? (double) (activeCalls + pendingCalls) / maxCalls : 0;
+        return Math.max(callUtilization, cpuLoad);
+    }
+
+    @Override
+    public String toString() {
+        return "NodeCapacity{" +
+                "nodeUrl='" + nodeUrl + '\'' +
+                ", streamUrl='" + streamUrl + '\'' +
+                ", ready=" + ready +
+                ", activeCalls=" + activeCalls +
+                ", maxCalls=" + maxCalls +
+                ", cpuLoad=" + cpuLoad +
+                ", queuedEvents=" + queuedEvents +
+                ", acceptingCalls=" + acceptingCalls +
+                '}';
+    }
+}
@@ -2,25 +2,44 @@ package com.amazonaws.lex.twilio.sample.server;
 
 
 import com.amazonaws.lex.twilio.sample.conversation.BotConversation;
+import com.amazonaws.lex.twilio.sample.conversation.CallActor;
+import com.amazonaws.lex.twilio.sample.conversation.CallShards;
+import com.amazonaws.lex.twilio.sample.conversation.CallSupervisor;
+import com.amazonaws.lex.twilio.sample.conversation.CallWatch;
 import com.amazonaws.lex.twilio.sample.conversation.TwilioCallOperator;
-import com.amazonaws.lex.twilio.sample.server.media.DecompressInputStream;
+import com.amazonaws.lex.twilio.sample.cost.CallCosts;
+import com.amazonaws.lex.twilio.sample.jfr.WebSocketMessageEvent;
+import com.amazonaws.lex.twilio.sample.journal.ConversationJournal;
+import com.amazonaws.lex.twilio.sample.journal.JournalEvent;
+import com.amazonaws.lex.twilio.sample.logging.CallLogger;
+import com.amazonaws.lex.twilio.sample.metrics.Metrics;
+import com.amazonaws.lex.twilio.sample.monitor.MonitorBus;
+import com.amazonaws.lex.twilio.sample.routing.LocalNode;
+import com.amazonaws.lex.twilio.sample.server.media.InboundAudio;
 import com.amazonaws.lex.twilio.sample.server.messages.MarkMessage;
-import com.amazonaws.lex.twilio.sample.server.messages.MediaMessage;
 import com.amazonaws.lex.twilio.sample.server.messages.Message;
 import com.amazonaws.lex.twilio.sample.server.messages.MessageDecoder;
 import com.amazonaws.lex.twilio.sample.server.messages.MessageEncoder;
 import com.amazonaws.lex.twilio.sample.server.messages.MessageType;
 import com.amazonaws.lex.twilio.sample.server.messages.StartMessage;
 import com.amazonaws.lex.twilio.sample.server.messages.StopMessage;
+import com.amazonaws.lex.twilio.sample.streaming.BotRegistry;
 import com.amazonaws.lex.twilio.sample.streaming.LexBidirectionalStreamingClient;
+import com.amazonaws.lex.twilio.sample.streaming.LexClientProvider;
+import com.amazonaws.lex.twilio.sample.streaming.QueueOverflowException;
+import com.amazonaws.lex.twilio.sample.timeline.CallTimeline;
+import com.amazonaws.lex.twilio.sample.timeline.CallTimelines;
+import com.amazonaws.lex.twilio.sample.trace.TraceCapture;
+import com.amazonaws.lex.twilio.sample.trace.TraceWriter;
 import com.google.common.primitives.Bytes;
-import org.apache.log4j.Logger;
+import org.apache.log4j.Level;
 
 import javax.sound.sampled.AudioFileFormat;
 import javax.sound.sampled.AudioFormat;
 import javax.sound.sampled.AudioInputStream;
 import javax.sound.sampled.AudioSystem;
 import javax.websocket.OnClose;
+import javax.websocket.OnError;
 import javax.websocket.OnMessage;
 import javax.websocket.OnOpen;
 import javax.websocket.Session;
@@ -28,10 +47,8 @@ import javax.websocket.server.ServerEndpoint;
 import java.io.ByteArrayInputStream;
 import java.io.IOException;
 import java.net.URISyntaxException;
-import java.nio.ByteBuffer;
 import java.nio.file.Files;
 import java.nio.file.Path;
-import java.util.Arrays;
 import java.util.HashMap;
 import java.util.Map;
 /*
@@ -58,12 +75,24 @@ import java.util.Map;
         encoders = MessageEncoder.class)
 public class AudioStream {
 
-    private static final Logger LOG = Logger.getLogger(AudioStream.class);
+    private static final CallLogger LOG = CallLogger.getLogger(AudioStream.class);
+
     private final Map<String, byte[]> rawBytes;
 
     private Session session;
     private BotConversation botConversation;
     private TwilioCallOperator twilioCallOperator;
+    private String callSid;
+    private boolean callCounted;
+    private TraceWriter traceWriter;
+    // only touched by the WebSocket thread; everything else is confined to the actor once the call has started.
+    private CallActor actor;
+    private long webSocketOpenedNanos;
+    private CallTimeline timeline;
+    private CallWatch watch;
+    private InboundAudio inboundAudio;
+    private boolean stopReceived;
+    private boolean tornDown;
 
     public AudioStream() {
         this.rawBytes = new HashMap<>();
@@ -76,12 +105,70 @@ public class AudioStream {
     @OnOpen
     public void onOpen(Session session) {
         this.session = session;
+        this.webSocketOpenedNanos = System.nanoTime();
+        this.traceWriter = TraceCapture.getInstance().open(session.getId());
 
         LOG.info("onOpen triggered by Twilio");
     }
 
     @OnMessage
     public void onMessage(Message message) {
+        long receivedNanos = System.nanoTime();
+        MessageType messageType = message.eventType();
+        if (actor == null && messageType == MessageType.START) {
+            // the CallSid is only known from the start message; from here on the call's actor handles every message.
+            actor = CallShards.getInstance().newActor(message.asStartMessage().getCallIdentifier().getCallId());
+        }
+        if (actor != null) {
+            actor.tell(() -> process(message, messageType, receivedNanos));
+        } else {
+            process(message, messageType, receivedNanos);
+        }
+    }
+
+    private void process(Message message, MessageType messageType, long receivedNanos) {
+        WebSocketMessageEvent messageEvent = new WebSocketMessageEvent();
+        messageEvent.begin();
+
+        handle(message);
+
+        int messageSize = message.getJson().length();
+        messageEvent.finish(callSid, messageType.name(), messageSize);
+        if (actor != null) {
+            actor.getCost().twilioReceived(messageSize);
+        }
+        if (traceWriter != null) {
+            capture(messageType, receivedNanos, message);
+        }
+    }
+
+    /**
+     * Appends the message to this stream's trace. Media messages are stored as the u-law payload already decoded by
+     * {@link InboundAudio}, other messages as their JSON text.
+     */
+    private void capture(MessageType messageType, long receivedNanos, Message message) {
+        try {
+            if (messageType == MessageType.MEDIA) {
+                traceWriter.write(messageType, receivedNanos, inboundAudio.getULawBuffer(), inboundAudio.getULawLength());
+            } else {
+                traceWriter.write(messageType, receivedNanos, message.getJson());
+            }
+        } catch (IOException e) {
+            LOG.error("could not write to media stream trace {}, capture stopped", traceWriter.getFile(), e);
+            closeTrace();
+        }
+    }
+
+    private void closeTrace() {
+        try {
+            traceWriter.close();
+        } catch (IOException e) {
+            LOG.error("could not close media stream trace {}", traceWriter.getFile(), e);
+        }
+        traceWriter = null;
+    }
+
+    private void handle(Message message) {
         //LOG.info("message ..." + message);
         if (message.eventType().equals(MessageType.CONNECTED)) {
             // first message, does not contain anything useful
@@ -91,44 +178,58 @@ public class AudioStream {
             // stream id, account id, call id. remember to update them
             // later
             StartMessage startMessage = message.asStartMessage();
-            LOG.info("got a start message from twilio:" + startMessage);
-
             CallIdentifier callIdentifier = startMessage.getCallIdentifier();
-            this.twilioCallOperator = new TwilioCallOperator(callIdentifier, session);
+            this.callSid = callIdentifier.getCallId();
+            CallLogger.enterCall(callSid);
+            LOG.info("got a start message from twilio: {}", startMessage);
+            ConversationJournal.getInstance().append(JournalEvent.CALL_STARTED, callSid,
+                    callIdentifier.getStreamSid(), callIdentifier.getAccountId());
+            MonitorBus.getInstance().publish(JournalEvent.CALL_STARTED, callSid,
+                    callIdentifier.getStreamSid(), callIdentifier.getAccountId());
+            this.timeline = CallTimelines.callStarted(callSid, webSocketOpenedNanos);
+            if (!callCounted) {
+                callCounted = true;
+                LocalNode.callStarted();
+            }
+            this.watch = CallSupervisor.getInstance().watch(callSid, actor, this::tearDown);
+            this.twilioCallOperator = new TwilioCallOperator(callIdentifier, session, actor, timeline, watch);
+            this.inboundAudio = new InboundAudio(actor, this::forwardUserAudio);
+            timeline.addStats("inbound_audio", inboundAudio.getJitterBuffer()::getStats);
+            timeline.addStats("audio_quality", inboundAudio.getQualityAnalyzer()::getStats);
+            actor.getCost().retain("jitter_buffer", inboundAudio.getJitterBuffer()::bufferedBytes);
+            timeline.addStats("cost", actor.getCost()::snapshot);
             try {
-                this.botConversation = new LexBidirectionalStreamingClient().startConversation(twilioCallOperator);
+                LexClientProvider bot = BotRegistry.getInstance().get(
+                        startMessage.getCustomParameter(BotRegistry.STREAM_PARAMETER));
+                this.botConversation = new LexBidirectionalStreamingClient(bot).startConversation(twilioCallOperator);
             } catch (URISyntaxException e) {
-                LOG.error(e);
+                LOG.error("could not start the conversation with Lex", e);
             }
         } else if (message.eventType().equals(MessageType.MEDIA)) {
             // contains audio data, decode for inbound audio
-            // and send it to bot
-            MediaMessage mediaMessage = message.asMediaMessage();
-
-            byte[] uLawEncodedByte = mediaMessage.getDecodedPayload();
-            byte[] uncompressedBytes = DecompressInputStream.decompressULawBytes(uLawEncodedByte);
-            byte[] copiedBytes = Arrays.copyOf(uncompressedBytes, uncompressedBytes.length);
-            //might need to split into smaller events of max size 320, if server throws an error.
-            this.botConversation.writeUserInputAudio(ByteBuffer.wrap(uncompressedBytes));
-
-            // uncomment this to keep adding incoming bytes to memory as well.
-            // this is useful to captures raw audio that Twilio sends to this application
-            // see counterpart method (persistBytesToDisk)
-
-            //persistBytesInMemory(mediaMessage.getStreamSid(), copiedBytes);
+            // and send it to bot, through forwardUserAudio.
+            watch.mediaReceived();
+            inboundAudio.media(message);
         } else if (message.eventType().equals(MessageType.STOP)) {
             StopMessage stopMessage = message.asStopMessage();
-            LOG.info("got a stop message from twilio:" + stopMessage);
+            LOG.info("got a stop message from twilio: {}", stopMessage);
+            stopReceived = true;
+            ConversationJournal.getInstance().append(JournalEvent.CALL_STOPPED, callSid);
+            MonitorBus.getInstance().publish(JournalEvent.CALL_STOPPED, callSid);
 
+            inboundAudio.flush();
             this.botConversation.stopConversation();
 
             //persistBytesToDisk(stopMessage.getCallIdentifier().getStreamSid());
 
         } else if (message.eventType().equals(MessageType.MARK)) {
             MarkMessage markMessage = message.asMarkMessage();
-            LOG.info("got a mark message from twilio:" + markMessage);
+            // one per bot response and call, so rate limited like the other per call lines.
+            LOG.limited(Level.INFO, "twilio.mark", "got a mark message from twilio: {}", markMessage);
+            watch.markReturned();
 
             if (this.twilioCallOperator.getCurrentPlaybackLabel().isPresent() && this.twilioCallOperator.getCurrentPlaybackLabel().get().equals(markMessage.getMarkName())) {
+                timeline.markReturned();
                 botConversation.informPlaybackFinished();
             }
             if (botConversation.isConversationStopped()) {
@@ -140,6 +241,31 @@ public class AudioStream {
         }
     }
 
+    /**
+     * Sends a frame of the caller's audio, as released by the jitter buffer, to Lex.
+     */
+    private void forwardUserAudio(byte[] pcm) {
+        timeline.userAudio(pcm);
+
+        // uncomment this to keep adding incoming bytes to memory as well.
+        // this is useful to captures raw audio that Twilio sends to this application
+        // see counterpart method (persistBytesToDisk)
+
+        //persistBytesInMemory(twilioCallOperator.getCallIdentifier().getStreamSid(), pcm);
+
+        //might need to split into smaller events of max size 320, if server throws an error.
+        try {
+            this.botConversation.writeUserInputAudio(pcm);
+        } catch (QueueOverflowException e) {
+            // audio for Lex piles up beyond the configured bounds, end the call instead of the JVM.
+            if (!botConversation.isConversationStopped()) {
+                LOG.error("ending call: {}", e.getMessage());
+                this.botConversation.stopConversation();
+                this.twilioCallOperator.hangUp(true);
+            }
+        }
+    }
+
     private void persistBytesInMemory(String streamSid, byte[] bytes) {
         rawBytes.merge(streamSid, bytes, Bytes::concat);
     }
@@ -157,7 +283,7 @@ public class AudioStream {
             AudioSystem.write(new AudioInputStream(new ByteArrayInputStream(
                     rawBytes.get(streamSid)), format, rawBytes.get(streamSid).length), AudioFileFormat.Type.WAVE, tempFile.toFile());
 
-            LOG.info("persisted data @ " + tempFile.toAbsolutePath());
+            LOG.info("persisted data @ {}", tempFile.toAbsolutePath());
         } catch (IOException e) {
             LOG.error("IOException when writing data to disk", e);
         }
@@ -167,5 +293,73 @@ public class AudioStream {
     public void onClose(Session session) {
         LOG.info("onClose triggered");
         this.session = session;
+        if (actor != null) {
+            // a media stream that ends the regular way sends a stop message before the WebSocket closes.
+            actor.tell(() -> tearDown(stopReceived ? null : CallSupervisor.WEBSOCKET_CLOSE));
+        } else {
+            tearDown(null);
+        }
+    }
+
+    @OnError
+    public void onError(Session session, Throwable error) {
+        LOG.warn("WebSocket of the media stream failed: {}", error.toString());
+        if (actor != null) {
+            actor.tell(() -> tearDown(CallSupervisor.WEBSOCKET_ERROR));
+        }
+    }
+
+    /**
+     * Releases every resource of the call, once: the Lex stream, playback, timers and the call's supervision.
+     *
+     * @param cause why the call is torn down (see {@link CallSupervisor}), or null if it ended the regular way
+     */
+    private void tearDown(String cause) {
+        if (tornDown) {
+            return;
+        }
+        tornDown = true;
+        if (callSid != null) {
+            String ending = cause != null ? cause : "completed";
+            ConversationJournal.getInstance().append(JournalEvent.CALL_ENDED, callSid, ending);
+            MonitorBus.getInstance().publish(JournalEvent.CALL_ENDED, callSid, ending);
+        }
+        if (botConversation != null) {
+            if (cause == null) {
+                botConversation.stopConversation();
+            } else if (botConversation.terminate()) {
+                Metrics.increment("calls.reaped.lex_streams");
+            }
+        }
+        if (twilioCallOperator != null) {
+            twilioCallOperator.callEnded();
+            if (cause != null && !cause.equals(CallSupervisor.WEBSOCKET_CLOSE) && !cause.equals(CallSupervisor.CALL_STATUS)) {
+                // the call is stuck rather than gone, end it at Twilio as well.
+                twilioCallOperator.hangUp(true);
+            }
+        }
+        if (watch != null) {
+            CallSupervisor.getInstance().release(watch, cause);
+        }
+        if (inboundAudio != null) {
+            inboundAudio.close();
+            LOG.info("caller audio: {}", inboundAudio.getQualityAnalyzer().callEnded());
+        }
+        if (actor != null) {
+            CallCosts.getInstance().close(actor.getCost());
+            LOG.info("call cost: {}", actor.getCost().snapshot());
+        }
+        if (callCounted) {
+            callCounted = false;
+            LocalNode.callEnded();
+        }
+        if (timeline != null) {
+            CallTimelines.callEnded(timeline);
+            timeline = null;
+        }
+        if (traceWriter != null) {
+            LOG.info("media stream captured to {}", traceWriter.getFile());
+            closeTrace();
+        }
     }
 }
@@ -0,0 +1,143 @@
+package com.amazonaws.lex.twilio.sample.server;
+
+import com.amazonaws.lex.twilio.sample.conversation.CallSupervisor;
+import com.amazonaws.lex.twilio.sample.conversation.TwilioControlPlane;
+
+import javax.servlet.annotation.WebServlet;
+import javax.servlet.http.HttpServlet;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import java.io.IOException;
+import java.net.URLDecoder;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+import java.util.HashMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.function.BiConsumer;
+import java.util.function.Supplier;
+
+/*
+ * Copyright Amazon.com, Inc. or its affiliates. All Rights Reserved.
+ * SPDX-License-Identifier: MIT-0
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this
+ * software and associated documentation files (the "Software"), to deal in the Software
+ * without restriction, including without limitation the rights to use, copy, modify,
+ * merge, publish, distribute, sublicense, and/or sell copies of the Software, and to
+ * permit persons to whom the Software is furnished to do so.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED,
+ * INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A
+ * PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT
+ * HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION
+ * OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE
+ * SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+/**
+ * Receives Twilio's call status callbacks (set "Call status changes" of the phone number to this URL). A call that
+ * Twilio reports as ended is torn down by the {@link CallSupervisor} of the node that holds its media stream, even if
+ * the media stream has not ended properly. Callbacks for calls that are not on this node are acknowledged and ignored.
+ * <p>
+ * Every callback must carry a valid {@code X-Twilio-Signature}. Twilio signs the public URL it requested and the
+ * parameters of the POST body, so the URL is rebuilt from {@code public-base-url} or the forwarded headers of a TLS
+ * terminating proxy, and only the body is parsed.
+ */
+@WebServlet("/call-status")
+public class CallStatusServlet extends HttpServlet {
+
+    private final Supplier<TwilioControlPlane> controlPlane;
+    private final BiConsumer<String, String> callStatus;
+
+    public CallStatusServlet() {
+        this(TwilioControlPlane::getInstance, (callSid, status) -> CallSupervisor.getInstance().callStatus(callSid, status));
+    }
+
+    CallStatusServlet(Supplier<TwilioControlPlane> controlPlane, BiConsumer<String, String> callStatus) {
+        this.controlPlane = controlPlane;
+        this.callStatus = callStatus;
+    }
+
+    @Override
+    protected void doPost(HttpServletRequest request, HttpServletResponse response) throws IOException {
+        TwilioControlPlane twilio = controlPlane.get();
+        Map<String, String> parameters = formParameters(request);
+        if (!twilio.isSignedByTwilio(signedUrl(request, twilio.getPublicBaseUrl()), parameters,
+                request.getHeader("X-Twilio-Signature"))) {
+            response.sendError(HttpServletResponse.SC_FORBIDDEN, "invalid Twilio signature");
+            return;
+        }
+
+        String callSid = parameters.get("CallSid");
+        String status = parameters.get("CallStatus");
+        if (callSid == null || status == null) {
+            response.sendError(HttpServletResponse.SC_BAD_REQUEST, "CallSid and CallStatus are required");
+            return;
+        }
+        callStatus.accept(callSid, status);
+        response.setStatus(HttpServletResponse.SC_NO_CONTENT);
+    }
+
+    /**
+     * The URL as Twilio requested it: the configured public base URL, else the scheme and host forwarded by a proxy,
+     * else those of the request and its Host header, followed by the request's path and query string.
+     */
+    static String signedUrl(HttpServletRequest request, String publicBaseUrl) {
+        StringBuilder url = new StringBuilder();
+        if (!publicBaseUrl.isEmpty()) {
+            url.append(publicBaseUrl);
+        } else {
+            String scheme = firstHeaderValue(request, "X-Forwarded-Proto");
+            String host = firstHeaderValue(request, "X-Forwarded-Host");
+            if (host == null) {
+                host = request.getHeader("Host");
+            }
+            if (host == null) {
+                host = request.getServerName() + ":" + request.getServerPort();
+            }
+            url.append(scheme == null ? request.getScheme() : scheme).append("://").append(host);
+        }
+        url.append(request.getRequestURI());
+        if (request.getQueryString() != null) {
+            url.append('?').append(request.getQueryString());
+        }
+        return url.toString();
+    }
+
+    private static String firstHeaderValue(HttpServletRequest request, String name) {
+        String value = request.getHeader(name);
+        if (value == null) {
+            return null;
+        }
+        int comma = value.indexOf(',');
+        value = (comma < 0 ? value : value.substring(0, comma)).trim();
+        return value.isEmpty() ? null : value;
+    }
+
+    /**
+     * The parameters of an {@code application/x-www-form-urlencoded} body. Unlike
+     * {@link HttpServletRequest#getParameterMap()} this leaves out the parameters of the query string, which Twilio
+     * signs as part of the URL.
+     */
+    static Map<String, String> formParameters(HttpServletRequest request) throws IOException {
+        Map<String, String> parameters = new HashMap<>();
+        String contentType = request.getContentType();
+        if (contentType == null || !contentType.toLowerCase(Locale.ROOT).startsWith("application/x-www-form-urlencoded")) {
+            return parameters;
+        }
+        Charset charset = request.getCharacterEncoding() == null
+                ? StandardCharsets.UTF_8 : Charset.forName(request.getCharacterEncoding());
+        String body = new String(request.getInputStream().readAllBytes(), charset);
+        for (String pair : body.split("&")) {
+            if (pair.isEmpty()) {
+                continue;
+            }
+            int equals = pair.indexOf('=');
+            String name = URLDecoder.decode(equals < 0 ? pair : pair.substring(0, equals), charset);
+            String value = equals < 0 ? "" : URLDecoder.decode(pair.substring(equals + 1), charset);
+            parameters.putIfAbsent(name, value);
+        }
+        return parameters;
+    }
+}
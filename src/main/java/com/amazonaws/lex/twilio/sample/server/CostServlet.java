@@ -0,0 +1,92 @@
+package com.amazonaws.lex.twilio.sample.server;
+
+import com.amazonaws.lex.twilio.sample.cost.CallCost;
+import com.amazonaws.lex.twilio.sample.cost.CallCosts;
+import com.amazonaws.lex.twilio.sample.monitor.MonitorAccess;
+import com.google.gson.Gson;
+import com.google.gson.JsonObject;
+
+import javax.servlet.annotation.WebServlet;
+import javax.servlet.http.HttpServlet;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import java.io.IOException;
+import java.util.Locale;
+
+/*
+ * Copyright Amazon.com, Inc. or its affiliates. All Rights Reserved.
+ * SPDX-License-Identifier: MIT-0
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this
+ * software and associated documentation files (the "Software"), to deal in the Software
+ * without restriction, including without limitation the rights to use, copy, modify,
+ * merge, publish, distribute, sublicense, and/or sell copies of the Software, and to
+ * permit persons to whom the Software is furnished to do so.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED,
+ * INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A
+ * PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT
+ * HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION
+ * OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE
+ * SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+/**
+ * Serves what calls cost as JSON: {@code GET /costs} returns the {@code top} (default 10) most expensive calls in
+ * progress, ranked {@code by} cpu (default), allocated, network or retained bytes, together with totals per bot;
+ * {@code GET /costs?callSid=CA...} the cost of a single call in progress. Requests must present the
+ * {@code monitor-token} if one is configured, see {@link MonitorAccess}.
+ */
+@WebServlet("/costs")
+public class CostServlet extends HttpServlet {
+
+    private static final Gson GSON = new Gson();
+    private static final int DEFAULT_TOP = 10;
+
+    @Override
+    protected void doGet(HttpServletRequest request, HttpServletResponse response) throws IOException {
+        if (!MonitorAccess.getInstance().permitsDetails(request.getHeader("Authorization"),
+                request.getParameter(MonitorAccess.TOKEN_PARAMETER))) {
+            response.setHeader("WWW-Authenticate", "Bearer");
+            response.sendError(HttpServletResponse.SC_UNAUTHORIZED, "a valid monitor token is required");
+            return;
+        }
+        response.setContentType("application/json");
+        CallCosts costs = CallCosts.getInstance();
+
+        String callSid = request.getParameter("callSid");
+        if (callSid != null) {
+            CallCost cost = costs.find(callSid);
+            if (cost == null) {
+                response.sendError(HttpServletResponse.SC_NOT_FOUND, "no call in progress " + callSid);
+                return;
+            }
+            response.getWriter().print(GSON.toJson(cost.snapshot()));
+            return;
+        }
+
+        CallCosts.Measure measure;
+        try {
+            String by = request.getParameter("by");
+            measure = by == null ? CallCosts.Measure.CPU : CallCosts.Measure.valueOf(by.toUpperCase(Locale.ROOT));
+        } catch (IllegalArgumentException e) {
+            response.sendError(HttpServletResponse.SC_BAD_REQUEST, "by must be cpu, allocated, network or retained");
+            return;
+        }
+
+        JsonObject body = new JsonObject();
+        body.addProperty("by", measure.name().toLowerCase(Locale.ROOT));
+        body.add("top", GSON.toJsonTree(costs.top(topOf(request), measure)));
+        body.add("bots", GSON.toJsonTree(costs.perBot()));
+        response.getWriter().print(GSON.toJson(body));
+    }
+
+    private static int topOf(HttpServletRequest request) {
+        try {
+            String top = request.getParameter("top");
+            return top == null ? DEFAULT_TOP : Math.max(0, Integer.parseInt(top));
+        } catch (NumberFormatException e) {
+            return DEFAULT_TOP;
+        }
+    }
+}
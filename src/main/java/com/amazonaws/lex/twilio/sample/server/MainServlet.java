@@ -1,11 +1,20 @@
 package com.amazonaws.lex.twilio.sample.server;
 
+import com.amazonaws.lex.twilio.sample.conversation.PlaybackEchoProbes;
+import com.amazonaws.lex.twilio.sample.lifecycle.Readiness;
+import com.amazonaws.lex.twilio.sample.logging.CallLogger;
+import com.amazonaws.lex.twilio.sample.routing.FleetRouter;
+import com.amazonaws.lex.twilio.sample.routing.NodeCapacity;
+import com.amazonaws.lex.twilio.sample.streaming.BotRegistry;
+import com.amazonaws.lex.twilio.sample.timeline.CallTimelines;
+import com.google.gson.Gson;
 import com.twilio.twiml.TwiMLException;
 import com.twilio.twiml.VoiceResponse;
 import com.twilio.twiml.voice.Connect;
+import com.twilio.twiml.voice.Parameter;
 import com.twilio.twiml.voice.Say;
+import com.twilio.twiml.voice.Start;
 import com.twilio.twiml.voice.Stream;
-import org.apache.log4j.Logger;
 
 import javax.servlet.ServletException;
 import javax.servlet.annotation.WebServlet;
@@ -13,6 +22,7 @@ import javax.servlet.http.HttpServlet;
 import javax.servlet.http.HttpServletRequest;
 import javax.servlet.http.HttpServletResponse;
 import java.io.IOException;
+import java.io.PrintWriter;
 
 /*
  * Copyright Amazon.com, Inc. or its affiliates. All Rights Reserved.
@@ -36,7 +46,8 @@ public class
 
 MainServlet extends HttpServlet {
 
-    private static final Logger LOGGER = Logger.getLogger(MainServlet.class);
+    private static final CallLogger LOG = CallLogger.getLogger(MainServlet.class);
+    private static final Gson GSON = new Gson();
 
     public MainServlet() {
     }
@@ -45,42 +56,104 @@ MainServlet extends HttpServlet {
     protected void doPost(HttpServletRequest request, HttpServletResponse response) throws
             IOException {
 
-        String pathForWebsocketsStream = String.format("wss://%s%s/%s",
-                request.getServerName(),
-                request.getContextPath(),
-                "audiostream");
+        String callSid = request.getParameter("CallSid");
+        if (callSid != null) {
+            CallTimelines.webhookReceived(callSid);
+        }
+
+        // with routing enabled, the media stream may go to a less loaded peer rather than to this node.
+        String pathForWebsocketsStream = FleetRouter.getInstance().chooseStreamUrl(streamUrlOf(request));
 
-        LOGGER.info(String.format("websockets stream url %s", pathForWebsocketsStream));
+        LOG.info("websockets stream url {}", pathForWebsocketsStream);
 
         Say say = new Say.Builder().addText("Welcome to a Twilio Lex sample application.").build();
 
+        // the media stream talks to the bot picked here, on whichever node it lands.
+        String bot = BotRegistry.getInstance().route(request.getParameter("bot"), request.getParameter("From"),
+                request.getParameter("To"));
         Stream stream = new Stream.Builder()
                 .url(pathForWebsocketsStream)
+                .parameter(new Parameter.Builder().name(BotRegistry.STREAM_PARAMETER).value(bot).build())
                 .build();
         Connect connect = new Connect.Builder().stream(stream).build();
 
-        VoiceResponse voiceResponse = new VoiceResponse.Builder()
-                .say(say)
+        VoiceResponse.Builder voiceResponseBuilder = new VoiceResponse.Builder().say(say);
+        if (PlaybackEchoProbes.getInstance().isEnabled()) {
+            // <Connect> streams only carry the caller's audio; the audio played to the caller comes on a forked
+            // stream to the same node.
+            Stream echoStream = new Stream.Builder()
+                    .url(pathForWebsocketsStream.substring(0, pathForWebsocketsStream.lastIndexOf('/') + 1)
+                            + PlaybackEchoProbes.ENDPOINT)
+                    .track(Stream.Track.OUTBOUND_TRACK)
+                    .build();
+            voiceResponseBuilder.start(new Start.Builder().stream(echoStream).build());
+        }
+        VoiceResponse voiceResponse = voiceResponseBuilder
                 .connect(connect)
                 .build();
 
         // Render TwiML as XML
-        response.setContentType("text/xml");
-
+        String twiml;
         try {
-            response.getWriter().print(voiceResponse.toXml());
+            twiml = voiceResponse.toXml();
         } catch (TwiMLException e) {
-            e.printStackTrace();
+            LOG.error("could not render the TwiML for call {}", callSid, e);
+            response.sendError(HttpServletResponse.SC_INTERNAL_SERVER_ERROR);
+            return;
         }
+        response.setContentType("text/xml");
+        response.getWriter().print(twiml);
+    }
+
+    /**
+     * Stream URL of this node, as seen by the client of the given request.
+     */
+    static String streamUrlOf(HttpServletRequest request) {
+        return String.format("wss://%s%s/%s",
+                request.getServerName(),
+                request.getContextPath(),
+                "audiostream");
     }
 
+    /**
+     * Health check for load balancers. Reports unavailable until the node is ready; a node at its call limit stays
+     * available, and reports {@code acceptingCalls} false in its capacity. Add {@code ?format=json} for the node's
+     * capacity as JSON, as served at /capacity.
+     */
     @Override
     protected void doGet(HttpServletRequest httpServletRequest, HttpServletResponse httpServletResponse)
             throws ServletException, IOException {
-        LOGGER.info("Hello World from log!");
+        FleetRouter fleetRouter = FleetRouter.getInstance();
+        NodeCapacity capacity = fleetRouter.localCapacity(streamUrlOf(httpServletRequest));
+
+        // report unavailable until clients are built and the pipeline is warmed up, so that load balancers only
+        // route calls to this node once it can answer them without a cold start. A full node is still alive, and
+        // still takes webhooks when it routes calls to peers, so being full is only reported in the capacity.
+        if (!Readiness.isReady()) {
+            httpServletResponse.setStatus(HttpServletResponse.SC_SERVICE_UNAVAILABLE);
+        }
 
-        httpServletResponse.setContentType("text/html");
+        if ("json".equals(httpServletRequest.getParameter("format"))) {
+            httpServletResponse.setContentType("application/json");
+            httpServletResponse.getWriter().print(GSON.toJson(capacity));
+            return;
+        }
 
-        httpServletResponse.getWriter().println("<h1>Status Lex Wait and Continue: <i style=\"color: green\">Green</i></h1>");
+        httpServletResponse.setContentType("text/html");
+        PrintWriter writer = httpServletResponse.getWriter();
+        if (!Readiness.isReady()) {
+            writer.println("<h1>Status Lex Wait and Continue: <i style=\"color: orange\">" + Readiness.getState() + "</i></h1>");
+        } else if (!capacity.isAcceptingCalls()) {
+            writer.println("<h1>Status Lex Wait and Continue: <i style=\"color: orange\">At capacity</i></h1>");
+        } else {
+            writer.println("<h1>Status Lex Wait and Continue: <i style=\"color: green\">Green</i></h1>");
+        }
+        writer.println("<p>Active calls: " + capacity.getActiveCalls()
+                + (capacity.getMaxCalls() > 0 ? " of " + capacity.getMaxCalls() : "") + "</p>");
+        writer.println("<p>CPU load: " + Math.round(capacity.getCpuLoad() * 100) + "%</p>");
+        writer.println("<p>Events queued for Lex: " + capacity.getQueuedEvents() + "</p>");
+        if (fleetRouter.isEnabled()) {
+            writer.println("<p>Routing across peers: " + capacity.getPeers() + "</p>");
+        }
     }
 }
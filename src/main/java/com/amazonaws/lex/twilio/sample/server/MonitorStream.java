@@ -0,0 +1,85 @@
+package com.amazonaws.lex.twilio.sample.server;
+
+import com.amazonaws.lex.twilio.sample.logging.CallLogger;
+import com.amazonaws.lex.twilio.sample.monitor.MonitorAccess;
+import com.amazonaws.lex.twilio.sample.monitor.MonitorBus;
+import com.amazonaws.lex.twilio.sample.monitor.MonitorSubscriber;
+import org.apache.log4j.Level;
+
+import javax.websocket.CloseReason;
+import javax.websocket.OnClose;
+import javax.websocket.OnError;
+import javax.websocket.OnOpen;
+import javax.websocket.Session;
+import javax.websocket.server.ServerEndpoint;
+import java.io.IOException;
+import java.util.List;
+
+/*
+ * Copyright Amazon.com, Inc. or its affiliates. All Rights Reserved.
+ * SPDX-License-Identifier: MIT-0
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this
+ * software and associated documentation files (the "Software"), to deal in the Software
+ * without restriction, including without limitation the rights to use, copy, modify,
+ * merge, publish, distribute, sublicense, and/or sell copies of the Software, and to
+ * permit persons to whom the Software is furnished to do so.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED,
+ * INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A
+ * PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT
+ * HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION
+ * OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE
+ * SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+/**
+ * Streams live call events to a supervisor's dashboard: {@code /monitor?callSid=CA...} watches one call,
+ * {@code /monitor} every call on this node. Each message is a JSON object with the events since the previous one,
+ * the first one replaying what happened before the dashboard connected. See {@link MonitorBus}. The dashboard presents
+ * the {@code monitor-token} as the {@code token} query parameter, see {@link MonitorAccess}.
+ */
+@ServerEndpoint("/monitor")
+public class MonitorStream {
+
+    private static final CallLogger LOG = CallLogger.getLogger(MonitorStream.class);
+
+    private MonitorSubscriber subscriber;
+
+    @OnOpen
+    public void onOpen(Session session) throws IOException {
+        if (!MonitorAccess.getInstance().permits(null, parameter(session, MonitorAccess.TOKEN_PARAMETER))) {
+            LOG.limited(Level.WARN, "monitor.unauthorized", "refused monitor subscriber {} without a valid token",
+                    session.getId());
+            session.close(new CloseReason(CloseReason.CloseCodes.VIOLATED_POLICY, "a valid monitor token is required"));
+            return;
+        }
+        String callSid = parameter(session, "callSid");
+        subscriber = MonitorBus.getInstance().subscribe(session, callSid);
+        if (subscriber == null) {
+            session.close(new CloseReason(CloseReason.CloseCodes.TRY_AGAIN_LATER,
+                    "the monitor is disabled or has too many subscribers"));
+            return;
+        }
+        // a dashboard may watch a quiet call for longer than media streams may be idle.
+        session.setMaxIdleTimeout(0);
+        LOG.info("monitor subscriber {} watching {}", session.getId(), callSid != null ? callSid : "every call");
+    }
+
+    private static String parameter(Session session, String name) {
+        List<String> values = session.getRequestParameterMap().get(name);
+        return values == null || values.isEmpty() ? null : values.get(0);
+    }
+
+    @OnClose
+    public void onClose() {
+        if (subscriber != null) {
+            MonitorBus.getInstance().unsubscribe(subscriber);
+        }
+    }
+
+    @OnError
+    public void onError(Throwable error) {
+        LOG.limited(Level.WARN, "monitor.error", "WebSocket of a monitor subscriber failed: {}", error.toString());
+    }
+}
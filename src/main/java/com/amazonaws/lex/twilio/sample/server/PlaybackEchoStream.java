@@ -0,0 +1,79 @@
+package com.amazonaws.lex.twilio.sample.server;
+
+import com.amazonaws.lex.twilio.sample.conversation.PlaybackEchoProbe;
+import com.amazonaws.lex.twilio.sample.conversation.PlaybackEchoProbes;
+import com.amazonaws.lex.twilio.sample.logging.CallLogger;
+import com.amazonaws.lex.twilio.sample.server.messages.Message;
+import com.amazonaws.lex.twilio.sample.server.messages.MessageDecoder;
+import com.amazonaws.lex.twilio.sample.server.messages.MessageEncoder;
+import com.amazonaws.lex.twilio.sample.server.messages.MessageType;
+
+import javax.websocket.OnClose;
+import javax.websocket.OnMessage;
+import javax.websocket.server.ServerEndpoint;
+
+/*
+ * Copyright Amazon.com, Inc. or its affiliates. All Rights Reserved.
+ * SPDX-License-Identifier: MIT-0
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this
+ * software and associated documentation files (the "Software"), to deal in the Software
+ * without restriction, including without limitation the rights to use, copy, modify,
+ * merge, publish, distribute, sublicense, and/or sell copies of the Software, and to
+ * permit persons to whom the Software is furnished to do so.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED,
+ * INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A
+ * PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT
+ * HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION
+ * OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE
+ * SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+/**
+ * Receives the outbound track of a call, i.e. what Twilio plays to the caller, forked by the TwiML when
+ * {@code playback-echo-probe-enabled} is set, and hands its frames to the call's {@link PlaybackEchoProbe}. Frames
+ * are decoded straight from the message text, like the caller's audio.
+ */
+@ServerEndpoint(
+        value = "/" + PlaybackEchoProbes.ENDPOINT,
+        decoders = MessageDecoder.class,
+        encoders = MessageEncoder.class)
+public class PlaybackEchoStream {
+
+    private static final CallLogger LOG = CallLogger.getLogger(PlaybackEchoStream.class);
+
+    private String callSid;
+    // found once the call's media stream has started.
+    private PlaybackEchoProbe probe;
+
+    @OnMessage
+    public void onMessage(Message message) {
+        MessageType messageType = message.eventType();
+        if (messageType == MessageType.START) {
+            callSid = message.asStartMessage().getCallIdentifier().getCallId();
+            LOG.info("playback echo stream of call {} started", callSid);
+        } else if (messageType == MessageType.MEDIA && callSid != null && !message.isInboundMedia()) {
+            if (probe == null) {
+                probe = PlaybackEchoProbes.getInstance().find(callSid);
+                if (probe == null) {
+                    return;
+                }
+            }
+            long receivedNanos = System.nanoTime();
+            int maxPayloadLength = message.maxMediaPayloadLength();
+            if (maxPayloadLength < 0) {
+                return;
+            }
+            byte[] uLaw = new byte[maxPayloadLength];
+            int length = message.decodeMediaPayload(uLaw);
+            PlaybackEchoProbe callProbe = probe;
+            callProbe.getActor().tell(() -> callProbe.echoed(uLaw, length, receivedNanos));
+        }
+    }
+
+    @OnClose
+    public void onClose() {
+        LOG.info("playback echo stream of call {} closed", callSid);
+    }
+}
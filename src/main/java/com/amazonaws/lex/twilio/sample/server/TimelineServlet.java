@@ -0,0 +1,105 @@
+package com.amazonaws.lex.twilio.sample.server;
+
+import com.amazonaws.lex.twilio.sample.metrics.LatencyHistogram;
+import com.amazonaws.lex.twilio.sample.metrics.Metrics;
+import com.amazonaws.lex.twilio.sample.monitor.MonitorAccess;
+import com.amazonaws.lex.twilio.sample.timeline.CallTimeline;
+import com.amazonaws.lex.twilio.sample.timeline.CallTimelines;
+import com.google.gson.Gson;
+import com.google.gson.JsonArray;
+import com.google.gson.JsonObject;
+
+import javax.servlet.annotation.WebServlet;
+import javax.servlet.http.HttpServlet;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import java.io.IOException;
+
+/*
+ * Copyright Amazon.com, Inc. or its affiliates. All Rights Reserved.
+ * SPDX-License-Identifier: MIT-0
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this
+ * software and associated documentation files (the "Software"), to deal in the Software
+ * without restriction, including without limitation the rights to use, copy, modify,
+ * merge, publish, distribute, sublicense, and/or sell copies of the Software, and to
+ * permit persons to whom the Software is furnished to do so.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED,
+ * INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A
+ * PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT
+ * HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION
+ * OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE
+ * SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+/**
+ * Serves call timelines as JSON: {@code GET /timelines} returns percentiles of every interval across calls together
+ * with the timelines of calls in progress and of the last {@code limit} (default 20) ended calls,
+ * {@code GET /timelines?callSid=CA...} the timeline of a single call. Times are in milliseconds. Requests must present
+ * the {@code monitor-token} if one is configured, see {@link MonitorAccess}.
+ */
+@WebServlet("/timelines")
+public class TimelineServlet extends HttpServlet {
+
+    private static final Gson GSON = new Gson();
+    private static final int DEFAULT_LIMIT = 20;
+
+    @Override
+    protected void doGet(HttpServletRequest request, HttpServletResponse response) throws IOException {
+        if (!MonitorAccess.getInstance().permitsDetails(request.getHeader("Authorization"),
+                request.getParameter(MonitorAccess.TOKEN_PARAMETER))) {
+            response.setHeader("WWW-Authenticate", "Bearer");
+            response.sendError(HttpServletResponse.SC_UNAUTHORIZED, "a valid monitor token is required");
+            return;
+        }
+        response.setContentType("application/json");
+
+        String callSid = request.getParameter("callSid");
+        if (callSid != null) {
+            CallTimeline timeline = CallTimelines.find(callSid);
+            if (timeline == null) {
+                response.sendError(HttpServletResponse.SC_NOT_FOUND, "no timeline for call " + callSid);
+                return;
+            }
+            response.getWriter().print(GSON.toJson(timeline.snapshot()));
+            return;
+        }
+
+        JsonObject percentiles = new JsonObject();
+        for (String name : CallTimelines.intervalNames()) {
+            LatencyHistogram histogram = Metrics.latency("timeline." + name);
+            JsonObject interval = new JsonObject();
+            interval.addProperty("count", histogram.count());
+            interval.addProperty("p50", histogram.percentileMicros(50) / 1000.0);
+            interval.addProperty("p90", histogram.percentileMicros(90) / 1000.0);
+            interval.addProperty("p99", histogram.percentileMicros(99) / 1000.0);
+            interval.addProperty("max", histogram.maxMicros() / 1000.0);
+            percentiles.add(name, interval);
+        }
+
+        JsonArray active = new JsonArray();
+        for (CallTimeline timeline : CallTimelines.active()) {
+            active.add(GSON.toJsonTree(timeline.snapshot()));
+        }
+        JsonArray recent = new JsonArray();
+        for (CallTimeline timeline : CallTimelines.recent(limitOf(request))) {
+            recent.add(GSON.toJsonTree(timeline.snapshot()));
+        }
+
+        JsonObject body = new JsonObject();
+        body.add("percentiles", percentiles);
+        body.add("active", active);
+        body.add("recent", recent);
+        response.getWriter().print(GSON.toJson(body));
+    }
+
+    private static int limitOf(HttpServletRequest request) {
+        try {
+            String limit = request.getParameter("limit");
+            return limit == null ? DEFAULT_LIMIT : Math.max(0, Integer.parseInt(limit));
+        } catch (NumberFormatException e) {
+            return DEFAULT_LIMIT;
+        }
+    }
+}
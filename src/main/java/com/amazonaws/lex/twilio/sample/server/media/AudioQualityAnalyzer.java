@@ -0,0 +1,266 @@
+package com.amazonaws.lex.twilio.sample.server.media;
+
+import com.amazonaws.lex.twilio.sample.metrics.Metrics;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.LongAdder;
+
+/*
+ * Copyright Amazon.com, Inc. or its affiliates. All Rights Reserved.
+ * SPDX-License-Identifier: MIT-0
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this
+ * software and associated documentation files (the "Software"), to deal in the Software
+ * without restriction, including without limitation the rights to use, copy, modify,
+ * merge, publish, distribute, sublicense, and/or sell copies of the Software, and to
+ * permit persons to whom the Software is furnished to do so.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED,
+ * INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A
+ * PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT
+ * HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION
+ * OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE
+ * SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+/**
+ * Measures the caller's audio as it arrives, to tell why Lex did not understand a caller: level and peak, clipped
+ * samples, noise floor, share of silence and DC offset, in one pass over each frame and with a fixed number of fields
+ * per call.
+ * <p>
+ * Frames are classified as silent when they are within 6 dB of the noise floor or below -60 dBFS. The noise floor
+ * follows the quietest frames: it drops to a quieter frame at once and rises by 0.5 dB per second otherwise. The speech
+ * level is the RMS of the frames that are not silent.
+ * <p>
+ * Confined to the call's actor. Statistics of the call are published every second for {@link #getStats()}; when the
+ * call ends, its frames are added up at /metrics as {@code audio.*}, and calls with quiet, clipped, noisy or mostly
+ * silent audio are counted as {@code audio.calls.<issue>}.
+ */
+public final class AudioQualityAnalyzer {
+
+    // largest magnitude u-law decodes to is 32124; samples this close to it have been clipped on the way.
+    private static final int CLIPPING_MAGNITUDE = 32000;
+    private static final double FULL_SCALE = 32768;
+    private static final double SILENCE_MEAN_SQUARE = meanSquare(-60);
+    // 6 dB above the noise floor in mean square terms.
+    private static final double ABOVE_FLOOR = 4;
+    // 0.5 dB per second at 50 frames per second.
+    private static final double FLOOR_RISE_PER_FRAME = Math.pow(10, 0.5 / 10 / 50);
+    private static final double MIN_FLOOR_MEAN_SQUARE = 1;
+    private static final int STATS_INTERVAL_FRAMES = 50;
+
+    // thresholds of the issues counted per call
+    private static final double QUIET_SPEECH_DBFS = -35;
+    private static final double CLIPPED_SAMPLE_RATIO = 0.001;
+    private static final double NOISY_FLOOR_DBFS = -45;
+    private static final double MOSTLY_SILENT_RATIO = 0.9;
+    static final String QUIET = "quiet";
+    static final String CLIPPED = "clipped";
+    static final String NOISY = "noisy";
+    static final String MOSTLY_SILENT = "mostly_silent";
+
+    private static final LongAdder FRAMES = Metrics.counter("audio.frames");
+    private static final LongAdder SILENT_FRAMES = Metrics.counter("audio.silent_frames");
+    private static final LongAdder CLIPPED_SAMPLES = Metrics.counter("audio.clipped_samples");
+    private static final LongAdder CALLS = Metrics.counter("audio.calls");
+
+    private long frames;
+    private long samples;
+    private double sumSquares;
+    private long sumSamples;
+    private int peak;
+    private long clippedSamples;
+    private long silentFrames;
+    private double speechSumSquares;
+    private long speechSamples;
+    // 0 until the first frame.
+    private double noiseFloor;
+    private int framesSincePublished;
+    private volatile Stats stats = snapshot();
+
+    /**
+     * Takes a frame of the caller's audio.
+     *
+     * @param pcm 16 bit little endian PCM
+     */
+    public void analyze(byte[] pcm) {
+        int count = pcm.length / 2;
+        if (count == 0) {
+            return;
+        }
+        long frameSumSquares = 0;
+        long frameSum = 0;
+        int framePeak = 0;
+        int frameClipped = 0;
+        for (int i = 0; i < count; i++) {
+            int sample = (short) ((pcm[2 * i] & 0xFF) | (pcm[2 * i + 1] << 8));
+            int magnitude = Math.abs(sample);
+            frameSumSquares += (long) sample * sample;
+            frameSum += sample;
+            if (magnitude > framePeak) {
+                framePeak = magnitude;
+            }
+            if (magnitude >= CLIPPING_MAGNITUDE) {
+                frameClipped++;
+            }
+        }
+
+        double frameMeanSquare = frameSumSquares / (double) count;
+        if (noiseFloor == 0 || frameMeanSquare < noiseFloor) {
+            noiseFloor = Math.max(MIN_FLOOR_MEAN_SQUARE, frameMeanSquare);
+        } else {
+            noiseFloor *= FLOOR_RISE_PER_FRAME;
+        }
+        boolean silent = frameMeanSquare < SILENCE_MEAN_SQUARE || frameMeanSquare < noiseFloor * ABOVE_FLOOR;
+
+        frames++;
+        samples += count;
+        sumSquares += frameSumSquares;
+        sumSamples += frameSum;
+        peak = Math.max(peak, framePeak);
+        clippedSamples += frameClipped;
+        if (silent) {
+            silentFrames++;
+        } else {
+            speechSumSquares += frameSumSquares;
+            speechSamples += count;
+        }
+        if (++framesSincePublished >= STATS_INTERVAL_FRAMES) {
+            framesSincePublished = 0;
+            stats = snapshot();
+        }
+    }
+
+    /**
+     * Statistics of this call as of the last second.
+     */
+    public Stats getStats() {
+        return stats;
+    }
+
+    /**
+     * Adds this call's audio to the totals at /metrics.
+     *
+     * @return the final statistics of the call
+     */
+    public Stats callEnded() {
+        stats = snapshot();
+        FRAMES.add(frames);
+        SILENT_FRAMES.add(silentFrames);
+        CLIPPED_SAMPLES.add(clippedSamples);
+        if (frames > 0) {
+            CALLS.increment();
+            for (String issue : stats.issues) {
+                Metrics.increment("audio.calls." + issue);
+            }
+        }
+        return stats;
+    }
+
+    private Stats snapshot() {
+        double levelDbfs = dbfs(samples == 0 ? 0 : sumSquares / samples);
+        double speechLevelDbfs = dbfs(speechSamples == 0 ? 0 : speechSumSquares / speechSamples);
+        double noiseFloorDbfs = dbfs(noiseFloor);
+        double silenceRatio = frames == 0 ? 0 : silentFrames / (double) frames;
+
+        List<String> issues = new ArrayList<>();
+        if (speechSamples > 0 && speechLevelDbfs < QUIET_SPEECH_DBFS) {
+            issues.add(QUIET);
+        }
+        if (speechSamples > 0 && clippedSamples > speechSamples * CLIPPED_SAMPLE_RATIO) {
+            issues.add(CLIPPED);
+        }
+        if (frames > 0 && noiseFloorDbfs > NOISY_FLOOR_DBFS) {
+            issues.add(NOISY);
+        }
+        if (frames > 0 && silenceRatio > MOSTLY_SILENT_RATIO) {
+            issues.add(MOSTLY_SILENT);
+        }
+        return new Stats(frames, round(levelDbfs), round(speechLevelDbfs), round(dbfs(peak * (double) peak)),
+                clippedSamples, round(noiseFloorDbfs), Math.round(silenceRatio * 1000) / 1000.0,
+                samples == 0 ? 0 : round(sumSamples / (double) samples), issues);
+    }
+
+    /**
+     * Level of the given mean square sample value relative to full scale, -96 for digital silence.
+     */
+    private static double dbfs(double meanSquare) {
+        return meanSquare <= 0 ? -96 : Math.max(-96, 10 * Math.log10(meanSquare / (FULL_SCALE * FULL_SCALE)));
+    }
+
+    private static double meanSquare(double dbfs) {
+        return FULL_SCALE * FULL_SCALE * Math.pow(10, dbfs / 10);
+    }
+
+    private static double round(double value) {
+        return Math.round(value * 10) / 10.0;
+    }
+
+    /**
+     * Audio quality of one call, serialized with Gson.
+     */
+    public static final class Stats {
+        private final long frames;
+        private final double levelDbfs;
+        private final double speechLevelDbfs;
+        private final double peakDbfs;
+        private final long clippedSamples;
+        private final double noiseFloorDbfs;
+        private final double silenceRatio;
+        private final double dcOffset;
+        private final List<String> issues;
+
+        private Stats(long frames, double levelDbfs, double speechLevelDbfs, double peakDbfs, long clippedSamples,
+                      double noiseFloorDbfs, double silenceRatio, double dcOffset, List<String> issues) {
+            this.frames = frames;
+            this.levelDbfs = levelDbfs;
+            this.speechLevelDbfs = speechLevelDbfs;
+            this.peakDbfs = peakDbfs;
+            this.clippedSamples = clippedSamples;
+            this.noiseFloorDbfs = noiseFloorDbfs;
+            this.silenceRatio = silenceRatio;
+            this.dcOffset = dcOffset;
+            this.issues = issues;
+        }
+
+        long getFrames() {
+            return frames;
+        }
+
+        double getSpeechLevelDbfs() {
+            return speechLevelDbfs;
+        }
+
+        double getPeakDbfs() {
+            return peakDbfs;
+        }
+
+        long getClippedSamples() {
+            return clippedSamples;
+        }
+
+        double getNoiseFloorDbfs() {
+            return noiseFloorDbfs;
+        }
+
+        double getSilenceRatio() {
+            return silenceRatio;
+        }
+
+        double getDcOffset() {
+            return dcOffset;
+        }
+
+        List<String> getIssues() {
+            return issues;
+        }
+
+        @Override
+        public String toString() {
+            return "speech " + speechLevelDbfs + " dBFS, peak " + peakDbfs + " dBFS, noise floor " + noiseFloorDbfs
+                    + " dBFS, " + Math.round(silenceRatio * 100) + "% silence, " + clippedSamples
+                    + " clipped samples, DC offset " + dcOffset + (issues.isEmpty() ? "" : ", " + issues);
+        }
+    }
+}
@@ -42,6 +42,21 @@ public class CompressInputStream extends FilterInputStream {
         return read(b, 0, b.length);
     }
 
+    /**
+     * Encodes {@code length} bytes of little-endian 16 bit PCM into u-law, without intermediate streams or buffers.
+     *
+     * @param uLaw receives the encoded samples, must hold at least {@code length / 2} bytes
+     */
+    public static void compressULaw(byte[] pcm, int length, byte[] uLaw) {
+        int off = 0;
+        int i = 0;
+        while (i + 1 < length) {
+            int sample = (pcm[i++] & 0x00FF);
+            sample |= (pcm[i++] << 8);
+            uLaw[off++] = (byte) ulawcompressor.compress((short) sample);
+        }
+    }
+
     public int read(byte[] b, int off, int len) throws IOException {
         int i, sample;
         byte[] inb;
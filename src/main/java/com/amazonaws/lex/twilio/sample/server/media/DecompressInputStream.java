@@ -137,6 +137,20 @@ public class DecompressInputStream extends FilterInputStream {
         return len << 1;
     }
 
+    /**
+     * Decodes {@code length} u-law bytes into little-endian 16 bit PCM, without intermediate streams or buffers.
+     *
+     * @param pcm receives the samples, must hold at least {@code 2 * length} bytes
+     */
+    public static void decompressULaw(byte[] uLaw, int length, byte[] pcm) {
+        int off = 0;
+        for (int i = 0; i < length; i++) {
+            int value = ulawtable[uLaw[i] & 0x00FF];
+            pcm[off++] = (byte) ((value >> 8) & 0x00FF);      // little-endian
+            pcm[off++] = (byte) (value & 0x00FF);
+        }
+    }
+
     public static byte[] decompressULawBytes(byte[] bytes) {
         ByteArrayInputStream byteArrayInputStream = new ByteArrayInputStream(bytes);
         try {
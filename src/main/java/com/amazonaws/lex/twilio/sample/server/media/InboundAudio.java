@@ -0,0 +1,159 @@
+package com.amazonaws.lex.twilio.sample.server.media;
+
+import com.amazonaws.lex.twilio.sample.conversation.CallActor;
+import com.amazonaws.lex.twilio.sample.conversation.CallShards;
+import com.amazonaws.lex.twilio.sample.jfr.TranscodeEvent;
+import com.amazonaws.lex.twilio.sample.metrics.Metrics;
+import com.amazonaws.lex.twilio.sample.server.messages.Message;
+
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Consumer;
+
+/*
+ * Copyright Amazon.com, Inc. or its affiliates. All Rights Reserved.
+ * SPDX-License-Identifier: MIT-0
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this
+ * software and associated documentation files (the "Software"), to deal in the Software
+ * without restriction, including without limitation the rights to use, copy, modify,
+ * merge, publish, distribute, sublicense, and/or sell copies of the Software, and to
+ * permit persons to whom the Software is furnished to do so.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED,
+ * INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A
+ * PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT
+ * HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION
+ * OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE
+ * SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+/**
+ * The caller's side of a call's media stream, from Twilio media messages to the PCM frames sent to Lex: the payload is
+ * decoded into a buffer reused across frames, transcoded, measured by the {@link AudioQualityAnalyzer} and put back in
+ * order by the {@link JitterBuffer}, which hands the frames on. While the jitter buffer holds frames back for a missing
+ * one, a timer releases them once they are overdue, should no further frame arrive to do so.
+ * <p>
+ * Not thread safe: confined to the call's actor.
+ */
+public final class InboundAudio {
+
+    // twilio sends 160 bytes (20ms) of u-law per media message
+    private static final int MEDIA_PAYLOAD_SIZE = 160;
+    private static final LongAdder OUTBOUND_FRAMES_DROPPED = Metrics.counter("media.outbound_frames_dropped");
+
+    private final CallActor actor;
+    private final String callSid;
+    private final JitterBuffer jitterBuffer;
+    private final AudioQualityAnalyzer qualityAnalyzer;
+    private byte[] uLawBuffer;
+    private int uLawLength;
+    // releases the frames held back by the jitter buffer when they are overdue, null while none are held back.
+    private ScheduledFuture<?> releaseTimer;
+    private boolean closed;
+
+    /**
+     * @param actor  the call's actor, which runs this
+     * @param output receives the caller's audio as 16 bit PCM frames, in order
+     */
+    public InboundAudio(CallActor actor, Consumer<byte[]> output) {
+        this.actor = actor;
+        this.callSid = actor.getCallSid();
+        this.jitterBuffer = new JitterBuffer(output);
+        this.qualityAnalyzer = new AudioQualityAnalyzer();
+        this.uLawBuffer = new byte[MEDIA_PAYLOAD_SIZE];
+    }
+
+    /**
+     * Takes a media message. This runs every 20ms for every call, so the payload is decoded straight from the message
+     * text into a buffer reused across frames; the only allocation is the PCM array handed on.
+     */
+    public void media(Message message) {
+        if (!message.isInboundMedia()) {
+            // bot audio Twilio streams back is never sent to Lex.
+            OUTBOUND_FRAMES_DROPPED.increment();
+            uLawLength = 0;
+            return;
+        }
+        int maxPayloadLength = message.maxMediaPayloadLength();
+        if (uLawBuffer.length < maxPayloadLength) {
+            uLawBuffer = new byte[maxPayloadLength];
+        }
+        uLawLength = message.decodeMediaPayload(uLawBuffer);
+
+        TranscodeEvent transcodeEvent = new TranscodeEvent();
+        transcodeEvent.begin();
+        byte[] uncompressedBytes = new byte[uLawLength * 2];
+        DecompressInputStream.decompressULaw(uLawBuffer, uLawLength, uncompressedBytes);
+        transcodeEvent.finish(callSid, TranscodeEvent.ULAW_TO_PCM, uLawLength, uncompressedBytes.length);
+        qualityAnalyzer.analyze(uncompressedBytes);
+        // back in order, with missing frames concealed, before it goes on.
+        jitterBuffer.offer(message.mediaChunk(), message.mediaTimestamp(), uncompressedBytes);
+        if (releaseTimer == null) {
+            scheduleRelease();
+        }
+    }
+
+    /**
+     * Releases the audio held back for missing frames, e.g. when the media stream stops.
+     */
+    public void flush() {
+        jitterBuffer.flush();
+        cancelRelease();
+    }
+
+    /**
+     * The call has ended: no audio is released from here on.
+     */
+    public void close() {
+        closed = true;
+        cancelRelease();
+    }
+
+    private void scheduleRelease() {
+        long delayNanos = jitterBuffer.nanosUntilOverdue();
+        if (delayNanos >= 0 && !closed) {
+            releaseTimer = CallShards.getInstance().getScheduler().schedule(() -> actor.tell(this::releaseOverdue),
+                    delayNanos, TimeUnit.NANOSECONDS);
+        }
+    }
+
+    private void releaseOverdue() {
+        releaseTimer = null;
+        if (closed) {
+            return;
+        }
+        jitterBuffer.releaseOverdue();
+        scheduleRelease();
+    }
+
+    private void cancelRelease() {
+        if (releaseTimer != null) {
+            releaseTimer.cancel(false);
+            releaseTimer = null;
+        }
+    }
+
+    /**
+     * The u-law payload of the last media message, valid up to {@link #getULawLength()} until the next one.
+     */
+    public byte[] getULawBuffer() {
+        return uLawBuffer;
+    }
+
+    /**
+     * Length of the last media message's payload, 0 if it was not the caller's audio.
+     */
+    public int getULawLength() {
+        return uLawLength;
+    }
+
+    public JitterBuffer getJitterBuffer() {
+        return jitterBuffer;
+    }
+
+    public AudioQualityAnalyzer getQualityAnalyzer() {
+        return qualityAnalyzer;
+    }
+}
@@ -0,0 +1,384 @@
+package com.amazonaws.lex.twilio.sample.server.media;
+
+import com.amazonaws.lex.twilio.sample.metrics.LatencyHistogram;
+import com.amazonaws.lex.twilio.sample.metrics.Metrics;
+
+import java.util.Arrays;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Consumer;
+
+/*
+ * Copyright Amazon.com, Inc. or its affiliates. All Rights Reserved.
+ * SPDX-License-Identifier: MIT-0
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this
+ * software and associated documentation files (the "Software"), to deal in the Software
+ * without restriction, including without limitation the rights to use, copy, modify,
+ * merge, publish, distribute, sublicense, and/or sell copies of the Software, and to
+ * permit persons to whom the Software is furnished to do so.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED,
+ * INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A
+ * PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT
+ * HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION
+ * OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE
+ * SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+/**
+ * Puts the caller's audio back in order before it goes to Lex, using the {@code media.chunk} number and
+ * {@code media.timestamp} Twilio sends with every media message: frames are released in chunk order, duplicates and
+ * frames that arrive after their place has been filled are dropped, and missing frames are concealed, so that Lex
+ * hears a stream with the caller's timing rather than one with holes.
+ * <p>
+ * Frames that arrive in order are released at once. When a chunk is missing, the frames after it are held back until
+ * it arrives, or until as many frames are held as the observed jitter calls for (at least 2), or until the oldest of
+ * them has waited {@code jitter-max-latency-ms}; then the missing frame is concealed. That wait is checked whenever
+ * a frame arrives and by {@link #releaseOverdue()}, which {@link InboundAudio} runs on a timer, so that it also holds
+ * when the caller's audio stops after a missing frame. Gaps in the media timestamps of
+ * frames that did arrive, i.e. audio Twilio never sent, are filled in up to {@code jitter-max-conceal-ms}. Concealment
+ * cross-fades from the frame before a single missing one to the frame after it, or repeats the last frame fading out,
+ * or inserts silence (see {@link JitterBufferSettings}).
+ * <p>
+ * Confined to the call's actor. Statistics of the call are published every second for {@link #getStats()}, and added
+ * up across calls at /metrics as {@code jitter.*}.
+ */
+public final class JitterBuffer {
+
+    static final int FRAME_MILLIS = 20;
+    private static final int PCM_BYTES_PER_MILLI = 16;
+    private static final int FRAME_BYTES = FRAME_MILLIS * PCM_BYTES_PER_MILLI;
+    private static final long FRAME_NANOS = TimeUnit.MILLISECONDS.toNanos(FRAME_MILLIS);
+    private static final int MIN_DEPTH_FRAMES = 2;
+    // frames after which repeating the last frame turns into silence.
+    private static final int MAX_REPEATED_FRAMES = 3;
+    private static final int STATS_INTERVAL_FRAMES = 50;
+    // chunk numbers of recently concealed frames, to tell late frames from duplicates.
+    private static final int CONCEALED_HISTORY = 256;
+
+    private static final LongAdder LOST = Metrics.counter("jitter.frames_lost");
+    private static final LongAdder LATE = Metrics.counter("jitter.frames_late");
+    private static final LongAdder DUPLICATES = Metrics.counter("jitter.duplicates");
+    private static final LongAdder REORDERED = Metrics.counter("jitter.reordered");
+    private static final LongAdder GAP_FRAMES = Metrics.counter("jitter.gap_frames");
+    private static final LatencyHistogram JITTER = Metrics.latency("jitter.inbound");
+
+    private final JitterBufferSettings settings;
+    private final Consumer<byte[]> output;
+    private final TreeMap<Long, Frame> pending;
+    private final long[] concealedChunks;
+
+    private long nextChunk = -1;
+    private long highestChunk = -1;
+    // media timestamp the next released frame should have, -1 until the first frame.
+    private long nextTimestamp = -1;
+    private byte[] lastFrame;
+    private int repeatedFrames;
+    private long lastArrivalTimestamp = -1;
+    private long lastArrivalNanos;
+    private double jitterMillis;
+    private int depthFrames = MIN_DEPTH_FRAMES;
+
+    private long received;
+    private long lost;
+    private long late;
+    private long duplicates;
+    private long reordered;
+    private long gapFrames;
+    private int framesSincePublished;
+    private volatile Stats stats;
+    // size of pending, for readers on other threads.
+    private volatile int pendingFrames;
+
+    /**
+     * @param output receives the released 16 bit PCM frames, in order
+     */
+    public JitterBuffer(Consumer<byte[]> output) {
+        this(JitterBufferSettings.getInstance(), output);
+    }
+
+    JitterBuffer(JitterBufferSettings settings, Consumer<byte[]> output) {
+        this.settings = settings;
+        this.output = output;
+        this.pending = new TreeMap<>();
+        this.concealedChunks = new long[CONCEALED_HISTORY];
+        Arrays.fill(concealedChunks, -1);
+        this.stats = snapshot();
+    }
+
+    /**
+     * Takes a frame of the caller's audio and releases what can be released.
+     *
+     * @param chunk     Twilio's {@code media.chunk}, -1 if unknown, in which case the frame is passed on as is
+     * @param timestamp Twilio's {@code media.timestamp} in milliseconds, -1 if unknown
+     * @param pcm       the frame as 16 bit PCM, handed on as is
+     */
+    public void offer(long chunk, long timestamp, byte[] pcm) {
+        long now = System.nanoTime();
+        received++;
+        if (!settings.isEnabled() || chunk < 0) {
+            output.accept(pcm);
+            publishPeriodically();
+            return;
+        }
+        estimateJitter(timestamp, now);
+        if (nextChunk < 0) {
+            nextChunk = chunk;
+        }
+
+        if (chunk == nextChunk && pending.isEmpty()) {
+            // the usual case: in order, nothing held back.
+            highestChunk = chunk;
+            emit(timestamp, pcm);
+            nextChunk++;
+        } else if (chunk < nextChunk || pending.containsKey(chunk)) {
+            if (concealedChunks[(int) (chunk % CONCEALED_HISTORY)] == chunk) {
+                late++;
+                LATE.increment();
+            } else {
+                duplicates++;
+                DUPLICATES.increment();
+            }
+        } else {
+            if (chunk < highestChunk) {
+                reordered++;
+                REORDERED.increment();
+            }
+            highestChunk = Math.max(highestChunk, chunk);
+            pending.put(chunk, new Frame(timestamp, pcm, now));
+            release(now, false);
+        }
+        publishPeriodically();
+    }
+
+    /**
+     * Releases every frame held back, concealing what is still missing, e.g. when the media stream stops.
+     */
+    public void flush() {
+        release(System.nanoTime(), true);
+        publish();
+    }
+
+    /**
+     * Releases the frames held back for a missing frame once the first of them has waited {@code jitter-max-latency-ms},
+     * without waiting for the next frame to arrive.
+     */
+    public void releaseOverdue() {
+        release(System.nanoTime(), false);
+    }
+
+    /**
+     * Time until the first frame held back has waited {@code jitter-max-latency-ms}, 0 if it already has, -1 if no frame
+     * is held back.
+     */
+    public long nanosUntilOverdue() {
+        if (pending.isEmpty()) {
+            return -1;
+        }
+        long overdueNanos = pending.firstEntry().getValue().arrivalNanos + settings.getMaxLatencyFrames() * FRAME_NANOS;
+        return Math.max(0, overdueNanos - System.nanoTime());
+    }
+
+    /**
+     * Bytes of audio held back waiting for missing frames. Safe to call from any thread.
+     */
+    public long bufferedBytes() {
+        return (long) pendingFrames * FRAME_BYTES;
+    }
+
+    /**
+     * Statistics of this call as of the last second.
+     */
+    public Stats getStats() {
+        return stats;
+    }
+
+    private void release(long now, boolean flush) {
+        while (!pending.isEmpty()) {
+            Map.Entry<Long, Frame> first = pending.firstEntry();
+            if (first.getKey() == nextChunk) {
+                pending.pollFirstEntry();
+                emit(first.getValue().timestamp, first.getValue().pcm);
+                nextChunk++;
+                continue;
+            }
+            boolean overdue = now - first.getValue().arrivalNanos >= settings.getMaxLatencyFrames() * FRAME_NANOS;
+            if (!flush && !overdue && pending.size() < depthFrames) {
+                // keep waiting for the missing frame.
+                break;
+            }
+            concealedChunks[(int) (nextChunk % CONCEALED_HISTORY)] = nextChunk;
+            lost++;
+            LOST.increment();
+            output.accept(conceal(first.getKey() == nextChunk + 1 ? first.getValue().pcm : null));
+            if (nextTimestamp >= 0) {
+                nextTimestamp += FRAME_MILLIS;
+            }
+            nextChunk++;
+        }
+        pendingFrames = pending.size();
+    }
+
+    private void emit(long timestamp, byte[] pcm) {
+        if (nextTimestamp >= 0 && timestamp >= 0) {
+            // audio that Twilio did not send at all shows as a jump in the timestamps.
+            long missing = (timestamp - nextTimestamp + FRAME_MILLIS / 2) / FRAME_MILLIS;
+            int fill = (int) Math.min(missing, settings.getMaxConcealFrames());
+            for (int i = 0; i < fill; i++) {
+                output.accept(conceal(i == fill - 1 ? pcm : null));
+            }
+            if (fill > 0) {
+                gapFrames += fill;
+                GAP_FRAMES.add(fill);
+            }
+        }
+        if (timestamp >= 0) {
+            nextTimestamp = timestamp + pcm.length / PCM_BYTES_PER_MILLI;
+        }
+        output.accept(pcm);
+        lastFrame = pcm;
+        repeatedFrames = 0;
+    }
+
+    /**
+     * A frame in place of a missing one.
+     *
+     * @param following the frame after the missing one if it has arrived, else null
+     */
+    private byte[] conceal(byte[] following) {
+        byte[] pcm = new byte[lastFrame != null ? lastFrame.length : FRAME_BYTES];
+        if (!settings.isInterpolate() || lastFrame == null) {
+            return pcm;
+        }
+        int samples = pcm.length / 2;
+        if (following != null && following.length == lastFrame.length) {
+            // cross-fade from the frame before the gap to the frame after it.
+            for (int i = 0; i < samples; i++) {
+                double weight = (i + 1) / (double) (samples + 1);
+                int sample = (int) (sample(lastFrame, i) * (1 - weight) + sample(following, i) * weight);
+                pcm[2 * i] = (byte) sample;
+                pcm[2 * i + 1] = (byte) (sample >> 8);
+            }
+        } else if (repeatedFrames < MAX_REPEATED_FRAMES) {
+            // repeat the last frame, halving its level with every further missing frame.
+            int shift = repeatedFrames + 1;
+            for (int i = 0; i < samples; i++) {
+                int sample = sample(lastFrame, i) >> shift;
+                pcm[2 * i] = (byte) sample;
+                pcm[2 * i + 1] = (byte) (sample >> 8);
+            }
+        }
+        repeatedFrames++;
+        return pcm;
+    }
+
+    private static int sample(byte[] pcm, int index) {
+        return (short) ((pcm[2 * index] & 0xFF) | (pcm[2 * index + 1] << 8));
+    }
+
+    /**
+     * Interarrival jitter as in RFC 3550, from arrival times against media timestamps; the depth of frames held back
+     * for a missing one follows it.
+     */
+    private void estimateJitter(long timestamp, long now) {
+        if (timestamp < 0) {
+            return;
+        }
+        if (lastArrivalTimestamp >= 0 && timestamp > lastArrivalTimestamp) {
+            double transitDifference = (now - lastArrivalNanos) / 1e6 - (timestamp - lastArrivalTimestamp);
+            jitterMillis += (Math.abs(transitDifference) - jitterMillis) / 16;
+            depthFrames = (int) Math.min(settings.getMaxLatencyFrames(),
+                    Math.max(MIN_DEPTH_FRAMES, Math.ceil(2 * jitterMillis / FRAME_MILLIS)));
+        }
+        if (timestamp > lastArrivalTimestamp) {
+            lastArrivalTimestamp = timestamp;
+            lastArrivalNanos = now;
+        }
+    }
+
+    private void publishPeriodically() {
+        if (++framesSincePublished >= STATS_INTERVAL_FRAMES) {
+            publish();
+            JITTER.recordNanos((long) (jitterMillis * 1e6));
+        }
+    }
+
+    private void publish() {
+        framesSincePublished = 0;
+        stats = snapshot();
+    }
+
+    private Stats snapshot() {
+        return new Stats(received, lost, late, duplicates, reordered, gapFrames,
+                Math.round(jitterMillis * 10) / 10.0, depthFrames);
+    }
+
+    private static final class Frame {
+        private final long timestamp;
+        private final byte[] pcm;
+        private final long arrivalNanos;
+
+        private Frame(long timestamp, byte[] pcm, long arrivalNanos) {
+            this.timestamp = timestamp;
+            this.pcm = pcm;
+            this.arrivalNanos = arrivalNanos;
+        }
+    }
+
+    /**
+     * Inbound audio statistics of one call, serialized with Gson.
+     */
+    public static final class Stats {
+        private final long received;
+        private final long lost;
+        private final long late;
+        private final long duplicates;
+        private final long reordered;
+        private final long gapFrames;
+        private final double jitterMs;
+        private final int depthFrames;
+
+        private Stats(long received, long lost, long late, long duplicates, long reordered, long gapFrames,
+                      double jitterMs, int depthFrames) {
+            this.received = received;
+            this.lost = lost;
+            this.late = late;
+            this.duplicates = duplicates;
+            this.reordered = reordered;
+            this.gapFrames = gapFrames;
+            this.jitterMs = jitterMs;
+            this.depthFrames = depthFrames;
+        }
+
+        public long getReceived() {
+            return received;
+        }
+
+        public long getLost() {
+            return lost;
+        }
+
+        public long getLate() {
+            return late;
+        }
+
+        public long getDuplicates() {
+            return duplicates;
+        }
+
+        public long getReordered() {
+            return reordered;
+        }
+
+        public long getGapFrames() {
+            return gapFrames;
+        }
+
+        public double getJitterMs() {
+            return jitterMs;
+        }
+    }
+}
@@ -0,0 +1,89 @@
+package com.amazonaws.lex.twilio.sample.server.media;
+
+import com.amazonaws.lex.twilio.sample.lifecycle.Configuration;
+
+import java.util.Properties;
+
+/*
+ * Copyright Amazon.com, Inc. or its affiliates. All Rights Reserved.
+ * SPDX-License-Identifier: MIT-0
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this
+ * software and associated documentation files (the "Software"), to deal in the Software
+ * without restriction, including without limitation the rights to use, copy, modify,
+ * merge, publish, distribute, sublicense, and/or sell copies of the Software, and to
+ * permit persons to whom the Software is furnished to do so.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED,
+ * INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A
+ * PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT
+ * HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION
+ * OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE
+ * SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+/**
+ * Settings of the inbound {@link JitterBuffer}, from server-configuration.properties:
+ * <ul>
+ *     <li>{@code jitter-buffer-enabled}: whether caller audio goes through the jitter buffer, default true</li>
+ *     <li>{@code jitter-max-latency-ms}: longest a frame is held back waiting for a missing one, default 200</li>
+ *     <li>{@code jitter-max-conceal-ms}: longest gap in Twilio's media timestamps that is filled in, default 400</li>
+ *     <li>{@code jitter-concealment}: {@code interpolate} (default) fills a missing frame from its neighbours,
+ *     {@code silence} with silence</li>
+ * </ul>
+ */
+final class JitterBufferSettings {
+
+    private static volatile JitterBufferSettings instance;
+
+    private final boolean enabled;
+    private final int maxLatencyFrames;
+    private final int maxConcealFrames;
+    private final boolean interpolate;
+
+    JitterBufferSettings(boolean enabled, int maxLatencyMillis, int maxConcealMillis, boolean interpolate) {
+        this.enabled = enabled;
+        this.maxLatencyFrames = Math.max(1, maxLatencyMillis / JitterBuffer.FRAME_MILLIS);
+        this.maxConcealFrames = Math.max(0, maxConcealMillis / JitterBuffer.FRAME_MILLIS);
+        this.interpolate = interpolate;
+    }
+
+    static JitterBufferSettings getInstance() {
+        if (instance == null) {
+            synchronized (JitterBufferSettings.class) {
+                if (instance == null) {
+                    instance = fromProperties(Configuration.load(Configuration.SERVER));
+                }
+            }
+        }
+        return instance;
+    }
+
+    static JitterBufferSettings fromProperties(Properties properties) {
+        String concealment = properties.getProperty("jitter-concealment", "interpolate").trim();
+        if (!concealment.equals("interpolate") && !concealment.equals("silence")) {
+            throw new IllegalArgumentException("jitter-concealment must be interpolate or silence, not " + concealment);
+        }
+        return new JitterBufferSettings(
+                Boolean.parseBoolean(properties.getProperty("jitter-buffer-enabled", "true").trim()),
+                Integer.parseInt(properties.getProperty("jitter-max-latency-ms", "200").trim()),
+                Integer.parseInt(properties.getProperty("jitter-max-conceal-ms", "400").trim()),
+                concealment.equals("interpolate"));
+    }
+
+    boolean isEnabled() {
+        return enabled;
+    }
+
+    int getMaxLatencyFrames() {
+        return maxLatencyFrames;
+    }
+
+    int getMaxConcealFrames() {
+        return maxConcealFrames;
+    }
+
+    boolean isInterpolate() {
+        return interpolate;
+    }
+}
@@ -0,0 +1,152 @@
+package com.amazonaws.lex.twilio.sample.server.messages;
+
+import java.util.Arrays;
+
+/*
+ * Copyright Amazon.com, Inc. or its affiliates. All Rights Reserved.
+ * SPDX-License-Identifier: MIT-0
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this
+ * software and associated documentation files (the "Software"), to deal in the Software
+ * without restriction, including without limitation the rights to use, copy, modify,
+ * merge, publish, distribute, sublicense, and/or sell copies of the Software, and to
+ * permit persons to whom the Software is furnished to do so.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED,
+ * INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A
+ * PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT
+ * HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION
+ * OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE
+ * SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+/**
+ * Allocation free lookups of string values in Twilio's compact media stream JSON. Used for the fields read on every
+ * media frame, so that those frames never build a JSON tree. Keys are assumed to be unique within a message, which
+ * holds for the fields looked up here.
+ */
+final class JsonScanner {
+
+    private static final int[] BASE64_VALUES = new int[128];
+
+    static {
+        Arrays.fill(BASE64_VALUES, -1);
+        String alphabet = "ABCDEFGHIJKLMNOPQRSTUVWXYZabcdefghijklmnopqrstuvwxyz0123456789+/";
+        for (int i = 0; i < alphabet.length(); i++) {
+            BASE64_VALUES[alphabet.charAt(i)] = i;
+        }
+    }
+
+    private JsonScanner() {
+    }
+
+    /**
+     * Index of the first character of the string value of the given key, or -1 if the key is not present or its value
+     * is not a string.
+     *
+     * @param quotedKey key including its quotes, e.g. {@code "\"event\""}
+     */
+    static int stringValueStart(String json, String quotedKey) {
+        int index = json.indexOf(quotedKey);
+        if (index < 0) {
+            return -1;
+        }
+        index = skipWhitespace(json, index + quotedKey.length());
+        if (index >= json.length() || json.charAt(index) != ':') {
+            return -1;
+        }
+        index = skipWhitespace(json, index + 1);
+        if (index >= json.length() || json.charAt(index) != '"') {
+            return -1;
+        }
+        return index + 1;
+    }
+
+    /**
+     * Index of the quote closing the string value starting at {@code start}, or -1 if it is not terminated.
+     */
+    static int stringValueEnd(String json, int start) {
+        for (int i = start; i < json.length(); i++) {
+            char c = json.charAt(i);
+            if (c == '\\') {
+                i++;
+            } else if (c == '"') {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * The non-negative integer in the string value of the given key, as Twilio sends numbers, or -1 if the key is not
+     * present or its value is not such a number.
+     */
+    static long longValue(String json, String quotedKey) {
+        int start = stringValueStart(json, quotedKey);
+        if (start < 0) {
+            return -1;
+        }
+        long value = 0;
+        int index = start;
+        for (; index < json.length() && index - start < 18; index++) {
+            char c = json.charAt(index);
+            if (c < '0' || c > '9') {
+                break;
+            }
+            value = value * 10 + (c - '0');
+        }
+        return index > start && index < json.length() && json.charAt(index) == '"' ? value : -1;
+    }
+
+    /**
+     * Whether the string value starting at {@code start} is exactly {@code expected}.
+     */
+    static boolean valueEquals(String json, int start, String expected) {
+        int end = start + expected.length();
+        return json.startsWith(expected, start) && end < json.length() && json.charAt(end) == '"';
+    }
+
+    /**
+     * Decodes the base64 characters in {@code [start, end)} into {@code target}.
+     *
+     * @return the number of bytes written
+     * @throws IllegalArgumentException if the value is not valid base64 or does not fit into {@code target}
+     */
+    static int decodeBase64(String json, int start, int end, byte[] target) {
+        int bits = 0;
+        int bitCount = 0;
+        int length = 0;
+        for (int i = start; i < end; i++) {
+            char c = json.charAt(i);
+            if (c == '=') {
+                break;
+            }
+            if (c == '\\') {
+                // JSON may escape '/' as "\/"
+                continue;
+            }
+            int value = c < BASE64_VALUES.length ? BASE64_VALUES[c] : -1;
+            if (value < 0) {
+                throw new IllegalArgumentException("invalid base64 character at index " + i);
+            }
+            bits = (bits << 6) | value;
+            bitCount += 6;
+            if (bitCount >= 8) {
+                bitCount -= 8;
+                if (length == target.length) {
+                    throw new IllegalArgumentException("base64 value does not fit into " + target.length + " bytes");
+                }
+                target[length++] = (byte) (bits >> bitCount);
+                bits &= (1 << bitCount) - 1;
+            }
+        }
+        return length;
+    }
+
+    private static int skipWhitespace(String json, int index) {
+        while (index < json.length() && Character.isWhitespace(json.charAt(index))) {
+            index++;
+        }
+        return index;
+    }
+}
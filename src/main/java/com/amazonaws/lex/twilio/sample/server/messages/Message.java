@@ -25,48 +25,125 @@ import java.util.StringJoiner;
 
 /**
  * See details at https://www.twilio.com/docs/voice/twiml/stream
+ * <p>
+ * The JSON is parsed lazily: media frames, which make up nearly all messages, are handled by {@link #eventType()} and
+ * {@link #decodeMediaPayload(byte[])} straight from the raw text, without building a JSON tree.
  */
 public class Message {
 
     private static final Gson GSON = new Gson();
-    private final JsonObject jsonObject;
+    private static final String EVENT_KEY = "\"event\"";
+    private static final String PAYLOAD_KEY = "\"payload\"";
+    private static final String CHUNK_KEY = "\"chunk\"";
+    private static final String TIMESTAMP_KEY = "\"timestamp\"";
+    private static final String TRACK_KEY = "\"track\"";
+
+    private final String json;
+    private JsonObject jsonObject;
+    private MessageType eventType;
 
     public Message(String json) {
-        this.jsonObject = GSON.fromJson(json, JsonObject.class);
+        this.json = json;
+    }
+
+    /**
+     * The message as sent or received on the wire.
+     */
+    public String getJson() {
+        return json;
     }
 
     public JsonObject getJsonObject() {
+        if (jsonObject == null) {
+            jsonObject = GSON.fromJson(json, JsonObject.class);
+        }
         return jsonObject;
     }
 
     public MessageType eventType() {
-        return MessageType.fromString(jsonObject.get("event").getAsString());
+        if (eventType == null) {
+            int start = JsonScanner.stringValueStart(json, EVENT_KEY);
+            eventType = start >= 0
+                    ? MessageType.fromJson(json, start)
+                    : MessageType.fromString(getJsonObject().get("event").getAsString());
+        }
+        return eventType;
+    }
+
+    /**
+     * Upper bound of the number of bytes {@link #decodeMediaPayload(byte[])} writes, or -1 if this message has no
+     * payload.
+     */
+    public int maxMediaPayloadLength() {
+        int start = JsonScanner.stringValueStart(json, PAYLOAD_KEY);
+        if (start < 0) {
+            return -1;
+        }
+        int end = JsonScanner.stringValueEnd(json, start);
+        return end < 0 ? -1 : (end - start) / 4 * 3 + 3;
+    }
+
+    /**
+     * Decodes the base64 audio payload of a media message into the given buffer, which should hold at least
+     * {@link #maxMediaPayloadLength()} bytes.
+     *
+     * @return the number of bytes written
+     */
+    public int decodeMediaPayload(byte[] target) {
+        int start = JsonScanner.stringValueStart(json, PAYLOAD_KEY);
+        int end = start < 0 ? -1 : JsonScanner.stringValueEnd(json, start);
+        if (end < 0) {
+            throw new IllegalStateException("message has no media payload");
+        }
+        return JsonScanner.decodeBase64(json, start, end, target);
+    }
+
+    /**
+     * The {@code media.chunk} number of a media message, counting the frames of the track from 1, or -1 if absent.
+     */
+    public long mediaChunk() {
+        return JsonScanner.longValue(json, CHUNK_KEY);
+    }
+
+    /**
+     * The {@code media.timestamp} of a media message, in milliseconds since the start of the stream, or -1 if absent.
+     */
+    public long mediaTimestamp() {
+        return JsonScanner.longValue(json, TIMESTAMP_KEY);
+    }
+
+    /**
+     * Whether this media message carries the caller's audio, i.e. its {@code media.track} is {@code inbound} or absent.
+     */
+    public boolean isInboundMedia() {
+        int start = JsonScanner.stringValueStart(json, TRACK_KEY);
+        return start < 0 || JsonScanner.valueEquals(json, start, "inbound");
     }
 
     public ConnectedMessage asConnectedMessage() {
-        return new ConnectedMessage(jsonObject);
+        return new ConnectedMessage(getJsonObject());
     }
 
     public StartMessage asStartMessage() {
-        return new StartMessage(jsonObject);
+        return new StartMessage(getJsonObject());
     }
 
     public MediaMessage asMediaMessage() {
-        return new MediaMessage(jsonObject);
+        return new MediaMessage(getJsonObject());
     }
 
     public StopMessage asStopMessage() {
-        return new StopMessage(jsonObject);
+        return new StopMessage(getJsonObject());
     }
 
     public MarkMessage asMarkMessage() {
-        return new MarkMessage(jsonObject);
+        return new MarkMessage(getJsonObject());
     }
 
     @Override
     public String toString() {
         return new StringJoiner(", ", Message.class.getSimpleName() + "[", "]")
-                .add("jsonObject=" + jsonObject)
+                .add("json=" + json)
                 .toString();
     }
 }
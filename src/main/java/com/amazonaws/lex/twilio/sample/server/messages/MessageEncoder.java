@@ -32,8 +32,8 @@ public class MessageEncoder implements Encoder.Text<Message> {
 
     @Override
     public String encode(Message message) {
-        //LOG.info(message.getJsonObject().toString());
-        return message.getJsonObject().toString();
+        //LOG.info(message.getJson());
+        return message.getJson();
     }
 
     @Override
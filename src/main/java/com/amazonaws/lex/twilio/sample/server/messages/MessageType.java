@@ -24,6 +24,9 @@ public enum MessageType {
     STOP("stop"),
     MARK("mark");
 
+    // values() copies the array on every call.
+    private static final MessageType[] VALUES = values();
+
     private final String asString;
 
     MessageType(String asString) {
@@ -35,7 +38,7 @@ public enum MessageType {
     }
 
     public static MessageType fromString(String string) {
-        for (MessageType value : MessageType.values()) {
+        for (MessageType value : VALUES) {
             if (value.asString().equals(string)) {
                 return value;
             }
@@ -43,4 +46,18 @@ public enum MessageType {
 
         throw new IllegalArgumentException("message type not supported:" + string);
     }
+
+    /**
+     * Message type of the JSON string value starting at {@code start}, read without copying it out of the message.
+     */
+    static MessageType fromJson(String json, int start) {
+        for (MessageType value : VALUES) {
+            if (JsonScanner.valueEquals(json, start, value.asString)) {
+                return value;
+            }
+        }
+
+        int end = JsonScanner.stringValueEnd(json, start);
+        throw new IllegalArgumentException("message type not supported:" + json.substring(start, end < 0 ? json.length() : end));
+    }
 }
@@ -2,6 +2,7 @@ package com.amazonaws.lex.twilio.sample.server.messages;
 
 import com.amazonaws.lex.twilio.sample.server.CallIdentifier;
 import com.amazonaws.lex.twilio.sample.server.media.MediaFormat;
+import com.google.gson.JsonElement;
 import com.google.gson.JsonObject;
 
 import java.util.StringJoiner;
@@ -49,6 +50,18 @@ public class StartMessage {
                 startObj.get("channels").getAsInt());
     }
 
+    /**
+     * Value of a {@code <Parameter>} of the TwiML {@code <Stream>}, or null if it was not set.
+     */
+    public String getCustomParameter(String name) {
+        JsonElement parameters = getStartObject().get("customParameters");
+        if (parameters == null || !parameters.isJsonObject()) {
+            return null;
+        }
+        JsonElement value = parameters.getAsJsonObject().get(name);
+        return value != null && value.isJsonPrimitive() ? value.getAsString() : null;
+    }
+
     private JsonObject getStartObject() {
         return jsonObject.get("start").getAsJsonObject();
     }
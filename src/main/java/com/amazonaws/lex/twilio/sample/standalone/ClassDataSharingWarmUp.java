@@ -0,0 +1,116 @@
+package com.amazonaws.lex.twilio.sample.standalone;
+
+import com.amazonaws.lex.twilio.sample.lifecycle.Configuration;
+import com.amazonaws.lex.twilio.sample.lifecycle.Readiness;
+import org.apache.log4j.Logger;
+
+import javax.websocket.ClientEndpointConfig;
+import javax.websocket.ContainerProvider;
+import javax.websocket.Endpoint;
+import javax.websocket.EndpointConfig;
+import javax.websocket.Session;
+import javax.websocket.WebSocketContainer;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.HttpURLConnection;
+import java.net.URI;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.util.Properties;
+import java.util.concurrent.TimeUnit;
+
+/*
+ * Copyright Amazon.com, Inc. or its affiliates. All Rights Reserved.
+ * SPDX-License-Identifier: MIT-0
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this
+ * software and associated documentation files (the "Software"), to deal in the Software
+ * without restriction, including without limitation the rights to use, copy, modify,
+ * merge, publish, distribute, sublicense, and/or sell copies of the Software, and to
+ * permit persons to whom the Software is furnished to do so.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED,
+ * INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A
+ * PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT
+ * HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION
+ * OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE
+ * SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+/**
+ * Scripted warm up run used to build an application class data sharing (AppCDS) archive, see
+ * create-appcds-archive.sh. It starts the standalone server on an ephemeral port, waits for the start up lifecycle to
+ * finish and then exercises the webhook, the metrics endpoint and the WebSocket endpoint once, so that every class
+ * a call needs is in the dumped class list. It exits when done.
+ */
+public class ClassDataSharingWarmUp {
+
+    private static final Logger LOG = Logger.getLogger(ClassDataSharingWarmUp.class);
+    private static final long READINESS_TIMEOUT_MILLIS = TimeUnit.MINUTES.toMillis(2);
+
+    public static void main(String[] args) throws Exception {
+        Properties properties = Configuration.load(Configuration.SERVER);
+        properties.setProperty("port", "0");
+
+        StandaloneServer server = new StandaloneServer(properties);
+        server.start();
+        try {
+            awaitStartUp();
+
+            String base = "http://localhost:" + server.getLocalPort() + properties.getProperty("context-path", "");
+            request(base + "/voice", "GET");
+            request(base + "/voice", "POST");
+            request(base + "/metrics", "GET");
+            openAudioStream(base.replace("http://", "ws://") + "/audiostream");
+        } finally {
+            server.stop();
+        }
+        LOG.info("warm up finished, application state " + Readiness.getState());
+        System.exit(0);
+    }
+
+    private static void awaitStartUp() throws InterruptedException {
+        long deadline = System.currentTimeMillis() + READINESS_TIMEOUT_MILLIS;
+        while (Readiness.getState() == Readiness.State.STARTING && System.currentTimeMillis() < deadline) {
+            TimeUnit.MILLISECONDS.sleep(50);
+        }
+        // clients can fail to build when no credentials are configured (e.g. in an image build); the classes loaded
+        // up to that point still end up in the archive.
+        LOG.info("start up finished with state " + Readiness.getState());
+    }
+
+    private static void request(String url, String method) throws IOException {
+        HttpURLConnection connection = (HttpURLConnection) new URL(url).openConnection();
+        connection.setRequestMethod(method);
+        if ("POST".equals(method)) {
+            connection.setDoOutput(true);
+            connection.setRequestProperty("Content-Type", "application/x-www-form-urlencoded");
+            try (OutputStream output = connection.getOutputStream()) {
+                output.write("CallSid=CA00000000000000000000000000000000".getBytes(StandardCharsets.UTF_8));
+            }
+        }
+        // any answer has run the endpoint's classes, including a 503 from /voice when the clients failed to build.
+        int responseCode = connection.getResponseCode();
+        try (InputStream input = responseCode < 400 ? connection.getInputStream() : connection.getErrorStream()) {
+            if (input != null) {
+                while (input.read() != -1) {
+                    // drain the response
+                }
+            }
+        }
+        LOG.info(method + " " + url + " -> " + responseCode);
+    }
+
+    private static void openAudioStream(String url) throws Exception {
+        WebSocketContainer container = ContainerProvider.getWebSocketContainer();
+        Session session = container.connectToServer(new Endpoint() {
+            @Override
+            public void onOpen(Session session, EndpointConfig config) {
+            }
+        }, ClientEndpointConfig.Builder.create().build(), URI.create(url));
+
+        session.getBasicRemote().sendText("{\"event\":\"connected\",\"protocol\":\"Call\",\"version\":\"1.0.0\"}");
+        session.close();
+    }
+}
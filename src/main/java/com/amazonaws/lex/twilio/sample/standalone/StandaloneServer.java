@@ -0,0 +1,176 @@
+package com.amazonaws.lex.twilio.sample.standalone;
+
+import com.amazonaws.lex.twilio.sample.lifecycle.ApplicationLifecycle;
+import com.amazonaws.lex.twilio.sample.lifecycle.Configuration;
+import com.amazonaws.lex.twilio.sample.server.AudioStream;
+import com.amazonaws.lex.twilio.sample.server.CallStatusServlet;
+import com.amazonaws.lex.twilio.sample.server.CapacityServlet;
+import com.amazonaws.lex.twilio.sample.server.CostServlet;
+import com.amazonaws.lex.twilio.sample.server.MainServlet;
+import com.amazonaws.lex.twilio.sample.server.MetricsServlet;
+import com.amazonaws.lex.twilio.sample.server.MonitorStream;
+import com.amazonaws.lex.twilio.sample.server.PlaybackEchoStream;
+import com.amazonaws.lex.twilio.sample.server.TimelineServlet;
+import org.apache.catalina.Context;
+import org.apache.catalina.LifecycleException;
+import org.apache.catalina.connector.Connector;
+import org.apache.catalina.startup.Tomcat;
+import org.apache.coyote.http11.Http11NioProtocol;
+import org.apache.log4j.Logger;
+import org.apache.tomcat.websocket.server.WsSci;
+
+import javax.servlet.ServletContextEvent;
+import javax.servlet.ServletContextListener;
+import javax.servlet.http.HttpServlet;
+import javax.websocket.DeploymentException;
+import javax.websocket.server.ServerContainer;
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.nio.file.Files;
+import java.util.Properties;
+
+/*
+ * Copyright Amazon.com, Inc. or its affiliates. All Rights Reserved.
+ * SPDX-License-Identifier: MIT-0
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this
+ * software and associated documentation files (the "Software"), to deal in the Software
+ * without restriction, including without limitation the rights to use, copy, modify,
+ * merge, publish, distribute, sublicense, and/or sell copies of the Software, and to
+ * permit persons to whom the Software is furnished to do so.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED,
+ * INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A
+ * PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT
+ * HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION
+ * OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE
+ * SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+/**
+ * Runs the sample application without a separately installed Tomcat. The same {@link MainServlet} and
+ * {@link AudioStream} endpoint that are deployed in the WAR are hosted on an embedded Tomcat with an NIO connector,
+ * whose I/O threads, socket buffers and idle timeouts are configured from server-configuration.properties.
+ * <p>
+ * Build with {@code mvn -Pstandalone package} and run with {@code java -jar target/twilio-wait-and-continue-standalone.jar}.
+ */
+public class StandaloneServer {
+
+    private static final Logger LOG = Logger.getLogger(StandaloneServer.class);
+
+    private final Properties properties;
+    private final Tomcat tomcat;
+
+    public StandaloneServer(Properties properties) {
+        this.properties = properties;
+        this.tomcat = new Tomcat();
+    }
+
+    public static void main(String[] args) throws Exception {
+        StandaloneServer server = new StandaloneServer(Configuration.load(Configuration.SERVER));
+        server.start();
+        server.await();
+    }
+
+    public void start() throws IOException, LifecycleException {
+        tomcat.setBaseDir(Files.createTempDirectory("twilio-lex-tomcat").toString());
+        tomcat.setConnector(createConnector());
+
+        Context context = tomcat.addContext(properties.getProperty("context-path", ""), null);
+        addServlet(context, "voice", new MainServlet(), "/voice");
+        addServlet(context, "metrics", new MetricsServlet(), "/metrics");
+        addServlet(context, "capacity", new CapacityServlet(), "/capacity");
+        addServlet(context, "timelines", new TimelineServlet(), "/timelines");
+        addServlet(context, "call-status", new CallStatusServlet(), "/call-status");
+        addServlet(context, "costs", new CostServlet(), "/costs");
+
+        context.addServletContainerInitializer(new WsSci(), null);
+        // initializers run in the order they were added, so the server container exists when EndpointRegistrar runs.
+        context.addServletContainerInitializer((classes, servletContext) -> {
+            servletContext.addListener(new EndpointRegistrar());
+            servletContext.addListener(new ApplicationLifecycle());
+        }, null);
+
+        tomcat.start();
+
+        LOG.info("standalone server started on port " + tomcat.getConnector().getLocalPort() + " in "
+                + (System.currentTimeMillis() - ManagementFactory.getRuntimeMXBean().getStartTime()) + "ms since JVM start");
+    }
+
+    public void await() {
+        tomcat.getServer().await();
+    }
+
+    public void stop() throws LifecycleException {
+        tomcat.stop();
+        tomcat.destroy();
+    }
+
+    public int getLocalPort() {
+        return tomcat.getConnector().getLocalPort();
+    }
+
+    private Connector createConnector() {
+        Connector connector = new Connector(Http11NioProtocol.class.getName());
+        connector.setPort(intProperty("port"));
+        connector.setURIEncoding("UTF-8");
+
+        Http11NioProtocol protocol = (Http11NioProtocol) connector.getProtocolHandler();
+        protocol.setAcceptorThreadCount(intProperty("acceptor-threads"));
+        protocol.setPollerThreadCount(intProperty("io-threads"));
+        protocol.setMaxThreads(intProperty("worker-threads"));
+        protocol.setMinSpareThreads(intProperty("min-spare-threads"));
+        protocol.setMaxConnections(intProperty("max-connections"));
+        protocol.setAcceptCount(intProperty("accept-count"));
+        protocol.setConnectionTimeout(intProperty("connection-timeout-ms"));
+        protocol.setKeepAliveTimeout(intProperty("keep-alive-timeout-ms"));
+        // media frames are small and latency sensitive, never wait to coalesce them.
+        protocol.setTcpNoDelay(true);
+
+        connector.setProperty("socket.rxBufSize", properties.getProperty("socket-receive-buffer-bytes"));
+        connector.setProperty("socket.txBufSize", properties.getProperty("socket-send-buffer-bytes"));
+        connector.setProperty("socket.appReadBufSize", properties.getProperty("app-read-buffer-bytes"));
+        connector.setProperty("socket.appWriteBufSize", properties.getProperty("app-write-buffer-bytes"));
+        connector.setProperty("socket.bufferPool", properties.getProperty("buffer-pool-size"));
+        return connector;
+    }
+
+    private static void addServlet(Context context, String name, HttpServlet servlet, String pattern) {
+        Tomcat.addServlet(context, name, servlet);
+        context.addServletMappingDecoded(pattern, name);
+    }
+
+    private int intProperty(String name) {
+        return Integer.parseInt(properties.getProperty(name));
+    }
+
+    /**
+     * The embedded context does not scan for annotations, so the WebSocket endpoint is registered explicitly once
+     * {@link WsSci} has created the server container.
+     */
+    private class EndpointRegistrar implements ServletContextListener {
+
+        @Override
+        public void contextInitialized(ServletContextEvent servletContextEvent) {
+            ServerContainer serverContainer = (ServerContainer) servletContextEvent.getServletContext()
+                    .getAttribute(ServerContainer.class.getName());
+
+            serverContainer.setDefaultMaxTextMessageBufferSize(intProperty("websocket-text-buffer-bytes"));
+            serverContainer.setDefaultMaxBinaryMessageBufferSize(intProperty("websocket-binary-buffer-bytes"));
+            serverContainer.setDefaultMaxSessionIdleTimeout(Long.parseLong(properties.getProperty("websocket-idle-timeout-ms")));
+            serverContainer.setAsyncSendTimeout(Long.parseLong(properties.getProperty("websocket-async-send-timeout-ms")));
+
+            try {
+                serverContainer.addEndpoint(AudioStream.class);
+                serverContainer.addEndpoint(PlaybackEchoStream.class);
+                serverContainer.addEndpoint(MonitorStream.class);
+            } catch (DeploymentException e) {
+                throw new IllegalStateException("could not register the WebSocket endpoints", e);
+            }
+        }
+
+        @Override
+        public void contextDestroyed(ServletContextEvent servletContextEvent) {
+        }
+    }
+}
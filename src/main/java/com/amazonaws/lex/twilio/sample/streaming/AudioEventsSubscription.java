@@ -1,6 +1,10 @@
 package com.amazonaws.lex.twilio.sample.streaming;
 
-import org.apache.log4j.Logger;
+import com.amazonaws.lex.twilio.sample.cost.CallCost;
+import com.amazonaws.lex.twilio.sample.jfr.LexEventQueuedEvent;
+import com.amazonaws.lex.twilio.sample.jfr.LexEventSentEvent;
+import com.amazonaws.lex.twilio.sample.logging.CallLogger;
+import org.apache.log4j.Level;
 import org.reactivestreams.Subscriber;
 import org.reactivestreams.Subscription;
 import software.amazon.awssdk.core.SdkBytes;
@@ -10,11 +14,16 @@ import software.amazon.awssdk.services.lexruntimev2.model.DisconnectionEvent;
 import software.amazon.awssdk.services.lexruntimev2.model.PlaybackCompletionEvent;
 import software.amazon.awssdk.services.lexruntimev2.model.StartConversationRequestEventStream;
 
-import java.nio.ByteBuffer;
-import java.util.concurrent.BlockingQueue;
+import java.util.Set;
 import java.util.concurrent.CompletableFuture;
-import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
 
 /*
  * Copyright Amazon.com, Inc. or its affiliates. All Rights Reserved.
@@ -34,21 +43,58 @@ import java.util.concurrent.atomic.AtomicLong;
  * SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
  */
 public class AudioEventsSubscription implements Subscription {
-    private static final Logger LOG = Logger.getLogger(AudioEventsSubscription.class);
+    private static final CallLogger LOG = CallLogger.getLogger(AudioEventsSubscription.class);
 
-    private static final String AUDIO_CONTENT_TYPE = "audio/lpcm; sample-rate=8000; sample-size-bits=16; channel-count=1; is-big-endian=false";
     private static final String RESPONSE_TYPE = "audio/pcm; sample-rate=8000";
     private static final AtomicLong eventIdGenerator = new AtomicLong(0);
+    // writers of conversations in progress, used to report how many events are waiting to be sent to Lex.
+    private static final Set<EventWriter> RUNNING_WRITERS = ConcurrentHashMap.newKeySet();
 
     private Subscriber<? super StartConversationRequestEventStream> subscriber;
     private final EventWriter eventWriter;
+    private final String audioContentType;
+    private final UplinkEncoder uplinkEncoder;
+    private final Executor eventWriterExecutor;
     private CompletableFuture<?> eventWriterFuture;
 
     public AudioEventsSubscription() {
-        this.eventWriter = new EventWriter();
+        this(null, UplinkCodec.PCM);
+    }
+
+    /**
+     * @param callSid     call this conversation belongs to, reported in flight recorder events.
+     * @param uplinkCodec format of the caller's audio sent to Lex
+     */
+    public AudioEventsSubscription(String callSid, UplinkCodec uplinkCodec) {
+        this(callSid, uplinkCodec, CallCost.detached(), ForkJoinPool.commonPool());
+    }
+
+    /**
+     * @param cost                what the call costs, charged with the event writer's work, the audio sent and the
+     *                            queued events
+     * @param eventWriterExecutor runs the event writer, which blocks a thread until the conversation ends
+     */
+    public AudioEventsSubscription(String callSid, UplinkCodec uplinkCodec, CallCost cost,
+                                   Executor eventWriterExecutor) {
+        this.eventWriter = new EventWriter(callSid, cost, uplinkCodec);
+        this.eventWriterExecutor = eventWriterExecutor;
+        cost.retain("lex_events", eventWriter::queuedBytes);
+        this.audioContentType = uplinkCodec.getContentType();
+        this.uplinkEncoder = uplinkCodec.newEncoder();
         configureConversation();
     }
 
+    /**
+     * Number of events, across all conversations in progress, that are waiting to be sent to Lex.
+     */
+    public static long getQueuedEvents() {
+        long queued = 0;
+        for (EventWriter writer : RUNNING_WRITERS) {
+            queued += writer.eventQueue.size();
+        }
+        return queued;
+    }
+
     public void setSubscriber(Subscriber<? super StartConversationRequestEventStream> subscriber) {
         this.subscriber = subscriber;
         this.eventWriter.setSubscriber(subscriber);
@@ -61,11 +107,21 @@ public class AudioEventsSubscription implements Subscription {
     public void request(long demand) {
         // start a thread to write events, if it has not been started so far.
         if (eventWriterFuture == null) {
-            eventWriterFuture = CompletableFuture.runAsync(eventWriter).whenComplete((result, error) -> {
-                if (error != null) {
-                    error.printStackTrace();
-                }
-            });
+            try {
+                eventWriterFuture = CompletableFuture.runAsync(eventWriter, eventWriterExecutor).whenComplete((result, error) -> {
+                    if (error != null) {
+                        LOG.error("the writer of events to Lex failed", error);
+                    }
+                });
+            } catch (RejectedExecutionException e) {
+                // the bot's writer threads are used up: fail the stream, which then goes the way of any failed stream,
+                // including abort() releasing the queue.
+                LOG.limited(Level.WARN, "lex-events.rejected", "could not start the writer of events to Lex: {}",
+                        e.getMessage());
+                eventWriterFuture = CompletableFuture.failedFuture(e);
+                subscriber.onError(e);
+                return;
+            }
         }
         eventWriter.addDemand(demand);
     }
@@ -86,7 +142,8 @@ public class AudioEventsSubscription implements Subscription {
                 .build();
 
         eventWriter.writeConfigurationEvent(configurationEvent);
-        LOG.info("sending a ConfigurationEvent to server:" + configurationEvent);
+        LOG.info("sending a ConfigurationEvent to server, event id {}", eventId);
+        LOG.debug("{}", configurationEvent);
     }
 
 
@@ -102,13 +159,22 @@ public class AudioEventsSubscription implements Subscription {
 
         eventWriter.writeDisconnectEvent(disconnectionEvent);
 
-        LOG.info("sending a DisconnectionEvent to server:" + disconnectionEvent);
+        LOG.info("sending a DisconnectionEvent to server, event id {}", eventId);
     }
 
     public void stop() {
         disconnect();
     }
 
+    /**
+     * Stops sending without a disconnection event, after the stream to Lex has failed or when it was never opened.
+     * Queued events are released even if the writer never started.
+     */
+    public void abort() {
+        eventWriter.stop();
+        eventWriter.releaseUnlessStarted();
+    }
+
     public void playbackFinished() {
         String eventId = "PlaybackCompletion-" + eventIdGenerator.incrementAndGet();
 
@@ -120,32 +186,75 @@ public class AudioEventsSubscription implements Subscription {
 
         eventWriter.writePlaybackFinishedEvent(playbackCompletionEvent);
 
-        LOG.info("sending a PlaybackCompletionEvent to server:" + playbackCompletionEvent);
+        LOG.info("sending a PlaybackCompletionEvent to server, event id {}", eventId);
     }
 
-    public void writeAudioEvent(ByteBuffer byteBuffer) {
-        String eventId = "AudioInputEvent-" + eventIdGenerator.incrementAndGet();
+    /**
+     * Encodes the audio with the conversation's uplink codec and queues it as an audio event. With PCM the array
+     * becomes the event's audio chunk without a copy, so it must not be modified afterwards.
+     *
+     * @throws QueueOverflowException if the event queue's overflow policy fails the call
+     */
+    public void writeAudioEvent(byte[] pcm) {
+        byte[] audioChunk = uplinkEncoder.encode(pcm);
+        if (audioChunk == null) {
+            // the audio does not fill an encoder frame yet.
+            return;
+        }
+        eventWriter.writeAudioInputEvent(audioInputEvent(audioChunk, audioContentType), audioChunk.length);
+    }
 
-        AudioInputEvent audioInputEvent = StartConversationRequestEventStream
+    private static AudioInputEvent audioInputEvent(byte[] audioChunk, String contentType) {
+        // audio events carry no event id: there is one every 20ms per call, and ids are optional for Lex.
+        return StartConversationRequestEventStream
                 .audioInputEventBuilder()
-                .eventId(eventId)
                 .clientTimestampMillis(System.currentTimeMillis())
-                .audioChunk(SdkBytes.fromByteBuffer(byteBuffer))
-                .contentType(AUDIO_CONTENT_TYPE)
+                .audioChunk(SdkBytes.fromByteArrayUnsafe(audioChunk))
+                .contentType(contentType)
                 .build();
-
-        eventWriter.writeAudioInputEvent(audioInputEvent);
     }
 
     private static class EventWriter implements Runnable {
-        private final BlockingQueue<StartConversationRequestEventStream> eventQueue;
+        // how long the writer waits for demand or events before checking whether it has been stopped.
+        private static final long IDLE_WAIT_MS = 10;
+        // longest silence sent in place of one gap: enough for Lex to hear a pause, while a queue that dropped audio
+        // for seconds, say behind the conversation quota, does not turn into seconds of silence.
+        private static final int MAX_SILENCE_MS = 500;
+
+        private final BoundedLatencyQueue<StartConversationRequestEventStream> eventQueue;
         private final AtomicLong demand;
+        // claimed by the writer when it starts, or by an abort before it did: whoever claims it closes the queue.
+        private final AtomicBoolean started;
+        private final String callSid;
+        private final CallCost cost;
+        private final UplinkCodec uplinkCodec;
+        private final int maxSilenceBytes;
+        // writer thread only: bytes of audio dropped in front of the next audio event, bytes of silence still to be
+        // sent in their place, and the event taken from the queue behind them.
+        private boolean audioSent;
+        private long gapBytes;
+        private long silenceOwed;
+        private StartConversationRequestEventStream heldEvent;
         private Subscriber<? super StartConversationRequestEventStream> subscriber;
-        private boolean stop;
+        private volatile boolean stop;
+        private volatile Thread thread;
 
-        public EventWriter() {
-            this.eventQueue = new LinkedBlockingQueue<>();
+        public EventWriter(String callSid, CallCost cost, UplinkCodec uplinkCodec) {
+            this.eventQueue = new BoundedLatencyQueue<>("lex-events", event -> 1, EventWriter::audioBytes);
             this.demand = new AtomicLong(0);
+            this.started = new AtomicBoolean();
+            this.callSid = callSid;
+            this.cost = cost;
+            this.uplinkCodec = uplinkCodec;
+            this.maxSilenceBytes = uplinkCodec.getBitRate() / 8 * MAX_SILENCE_MS / 1000;
+        }
+
+        private static long audioBytes(StartConversationRequestEventStream event) {
+            return event instanceof AudioInputEvent ? ((AudioInputEvent) event).audioChunk().asByteArrayUnsafe().length : 0;
+        }
+
+        long queuedBytes() {
+            return eventQueue.sumOf(EventWriter::audioBytes);
         }
 
         public void setSubscriber(Subscriber<? super StartConversationRequestEventStream> subscriber) {
@@ -153,66 +262,157 @@ public class AudioEventsSubscription implements Subscription {
         }
 
         public void writeConfigurationEvent(ConfigurationEvent configurationEvent) {
-            eventQueue.add(configurationEvent);
+            enqueueControl(configurationEvent, "ConfigurationEvent");
         }
 
         public void writeDisconnectEvent(DisconnectionEvent disconnectionEvent) {
-            eventQueue.add(disconnectionEvent);
+            enqueueControl(disconnectionEvent, "DisconnectionEvent");
         }
 
         public void writePlaybackFinishedEvent(PlaybackCompletionEvent playbackCompletionEvent) {
-            eventQueue.add(playbackCompletionEvent);
+            enqueueControl(playbackCompletionEvent, "PlaybackCompletionEvent");
+        }
+
+        private void enqueueControl(StartConversationRequestEventStream event, String eventType) {
+            LexEventQueuedEvent queuedEvent = new LexEventQueuedEvent();
+            queuedEvent.begin();
+            eventQueue.offerControl(event);
+            queuedEvent.finish(callSid, eventType, 0, eventQueue.size());
         }
 
         void addDemand(long l) {
             this.demand.addAndGet(l);
+            Thread writerThread = thread;
+            if (writerThread != null) {
+                LockSupport.unpark(writerThread);
+            }
         }
 
         @Override
         public void run() {
+            if (!started.compareAndSet(false, true)) {
+                // aborted before the first demand.
+                return;
+            }
+            RUNNING_WRITERS.add(this);
+            CallLogger.enterCall(callSid);
+            thread = Thread.currentThread();
+            CallCost.Meter meter = cost.newMeter();
+            meter.start();
             try {
 
-                while (true) {
-                    if (stop) {
-                        break;
+                // the writer sleeps while there is no demand or nothing to send, rather than spinning, and wakes up
+                // at least every IDLE_WAIT_MS to notice that it has been stopped.
+                while (!stop) {
+                    if (demand.get() <= 0) {
+                        LockSupport.parkNanos(this, TimeUnit.MILLISECONDS.toNanos(IDLE_WAIT_MS));
+                        continue;
                     }
 
-                    long currentDemand = demand.get();
-
-                    if (currentDemand > 0) {
-                        // try to read from queue of events.
-                        // if nothing in queue at this point, read as many audio events directly from audio stream
-                        for (long i = 0; i < currentDemand; i++) {
-
-                            if (eventQueue.peek() != null) {
-                                StartConversationRequestEventStream event = eventQueue.take();
-                                subscriber.onNext(event);
-                                demand.decrementAndGet();
-
-                                // if this was disconnect event, break this loop to stop sending more events.
-                                // tell the subscriber, we are done
-                                if (event instanceof DisconnectionEvent) {
-                                    stop = true;
-                                    subscriber.onComplete();
-                                }
-                            }
-
-                        }
+                    StartConversationRequestEventStream event = nextEvent();
+                    if (event == null) {
+                        continue;
+                    }
+                    LexEventSentEvent sentEvent = new LexEventSentEvent();
+                    sentEvent.begin();
+                    subscriber.onNext(event);
+                    if (event instanceof AudioInputEvent) {
+                        int audioSize = ((AudioInputEvent) event).audioChunk().asByteArrayUnsafe().length;
+                        sentEvent.finish(callSid, "AudioInputEvent", audioSize);
+                        cost.lexSent(audioSize);
+                        audioSent = true;
+                    } else {
+                        sentEvent.finish(callSid, event.getClass().getSimpleName(), 0);
+                    }
+                    demand.decrementAndGet();
+                    // the idle waits since the last event are charged with it.
+                    meter.record();
+
+                    // if this was disconnect event, break this loop to stop sending more events.
+                    // tell the subscriber, we are done
+                    if (event instanceof DisconnectionEvent) {
+                        stop = true;
+                        subscriber.onComplete();
                     }
                 }
-            } catch (InterruptedException e) {
-                throw new RuntimeException("interrupted when reading data to be sent to server");
             } catch (Exception e) {
-                e.printStackTrace();
+                LOG.error("sending events to Lex failed", e);
+            } finally {
+                meter.record();
+                thread = null;
+                CallLogger.exitCall();
+                RUNNING_WRITERS.remove(this);
+                eventQueue.close();
             }
         }
 
+        /**
+         * The next event to send: silence in place of audio the queue has dropped, so that Lex hears a pause of the
+         * same duration rather than the audio on both sides of the gap joined together, then the events behind it.
+         * The silence is capped at MAX_SILENCE_MS, and audio dropped before the first audio event was sent, while
+         * the stream was waiting to open, is not filled at all: there is nothing in front of it to keep apart.
+         */
+        private StartConversationRequestEventStream nextEvent() throws InterruptedException {
+            if (silenceOwed > 0) {
+                byte[] silence = uplinkCodec.silence((int) silenceOwed);
+                if (silence.length > 0) {
+                    silenceOwed -= silence.length;
+                    return audioInputEvent(silence, uplinkCodec.getContentType());
+                }
+                // less than a frame is left.
+                silenceOwed = 0;
+            }
+            if (heldEvent != null) {
+                StartConversationRequestEventStream event = heldEvent;
+                heldEvent = null;
+                return event;
+            }
+            StartConversationRequestEventStream event = eventQueue.poll(IDLE_WAIT_MS, TimeUnit.MILLISECONDS);
+            if (event == null) {
+                return null;
+            }
+            // control events go first, the gap is between audio events.
+            gapBytes += eventQueue.drainGap();
+            if (gapBytes == 0 || !(event instanceof AudioInputEvent)) {
+                return event;
+            }
+            if (!audioSent) {
+                LOG.limited(Level.WARN, "lex-events.dropped", "dropped {} ms of audio queued before the stream opened",
+                        gapBytes * 8000 / uplinkCodec.getBitRate());
+                gapBytes = 0;
+                return event;
+            }
+            LOG.limited(Level.WARN, "lex-events.dropped",
+                    "filling {} ms of audio that could not be sent in time with silence",
+                    gapBytes * 8000 / uplinkCodec.getBitRate());
+            silenceOwed = Math.min(gapBytes, maxSilenceBytes);
+            gapBytes = 0;
+            heldEvent = event;
+            return nextEvent();
+        }
+
         public void stop() {
             stop = true;
         }
 
-        public void writeAudioInputEvent(AudioInputEvent audioInputEvent) {
-            eventQueue.add(audioInputEvent);
+        /**
+         * Closes the queue, dropping what it holds, if the writer has not started yet; it will not start afterwards.
+         * A running writer closes the queue itself when it ends.
+         */
+        void releaseUnlessStarted() {
+            if (started.compareAndSet(false, true)) {
+                eventQueue.close();
+            }
+        }
+
+        /**
+         * @throws QueueOverflowException if the queue's overflow policy fails the call
+         */
+        public void writeAudioInputEvent(AudioInputEvent audioInputEvent, int audioSize) {
+            LexEventQueuedEvent queuedEvent = new LexEventQueuedEvent();
+            queuedEvent.begin();
+            eventQueue.offer(audioInputEvent);
+            queuedEvent.finish(callSid, "AudioInputEvent", audioSize, eventQueue.size());
         }
     }
 
@@ -1,10 +1,11 @@
 package com.amazonaws.lex.twilio.sample.streaming;
 
+import com.amazonaws.lex.twilio.sample.logging.CallLogger;
+import org.apache.log4j.Level;
+
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.UncheckedIOException;
-import java.util.Optional;
-import java.util.concurrent.LinkedBlockingQueue;
 import java.util.concurrent.TimeUnit;
 
 /*
@@ -24,40 +25,119 @@ import java.util.concurrent.TimeUnit;
  * OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE
  * SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
  */
+/**
+ * Bot audio of one prompt, written by the Lex response handler chunk by chunk and read for playback. Chunks are held in
+ * a {@link BoundedLatencyQueue} named {@code playback}, weighed in bytes.
+ */
 public class AudioResponse extends InputStream {
 
+    private static final CallLogger LOG = CallLogger.getLogger(AudioResponse.class);
+
     // Used to convert byte, which is signed in Java, to positive integer (unsigned)
     private static final int UNSIGNED_BYTE_MASK = 0xFF;
-    private static final long POLL_INTERVAL_MS = 10;
+    private static final long POLL_INTERVAL_NANOS = TimeUnit.MILLISECONDS.toNanos(10);
 
-    private final LinkedBlockingQueue<Integer> byteQueue = new LinkedBlockingQueue<>();
+    private final BoundedLatencyQueue<byte[]> chunkQueue = new BoundedLatencyQueue<>("playback", chunk -> chunk.length);
+
+    private byte[] currentChunk;
+    private int position;
 
     private volatile boolean closed;
 
     @Override
     public int read() throws IOException {
-        try {
-            Optional<Integer> maybeInt;
-            while (true) {
-                maybeInt = Optional.ofNullable(this.byteQueue.poll(POLL_INTERVAL_MS, TimeUnit.MILLISECONDS));
+        if (!nextChunkIfNeeded()) {
+            return -1;
+        }
+        return currentChunk[position++] & UNSIGNED_BYTE_MASK;
+    }
 
-                // If we get an integer from the queue, return it.
-                if (maybeInt.isPresent()) {
-                    return maybeInt.get();
-                }
+    /**
+     * Fills {@code bytes} from the queued chunks, waiting for more until it is full or the stream is closed.
+     */
+    @Override
+    public int read(byte[] bytes, int offset, int length) throws IOException {
+        int read = 0;
+        while (read < length && nextChunkIfNeeded()) {
+            int count = Math.min(length - read, currentChunk.length - position);
+            System.arraycopy(currentChunk, position, bytes, offset + read, count);
+            position += count;
+            read += count;
+        }
+        return read == 0 && length > 0 ? -1 : read;
+    }
 
-                // If the stream is closed & there is nothing queued up, return -1.
-                if (this.closed) {
-                    return -1;
+    /**
+     * Reads what has arrived so far, without waiting for {@code bytes} to fill up: waits for the first bytes, then
+     * takes whatever is queued and keeps waiting for more only until {@code deadlineNanos} (of
+     * {@link System#nanoTime()}) has passed. An odd number of bytes is never returned, so 16 bit samples stay whole.
+     *
+     * @return the number of bytes read, or -1 at the end of the stream
+     */
+    public int readAvailable(byte[] bytes, int offset, int length, long deadlineNanos) throws IOException {
+        int read = 0;
+        while (read < length) {
+            boolean mustWait = read == 0 || (read & 1) == 1;
+            if (!(mustWait ? nextChunkIfNeeded() : nextChunkIfNeeded(deadlineNanos))) {
+                break;
+            }
+            int count = Math.min(length - read, currentChunk.length - position);
+            System.arraycopy(currentChunk, position, bytes, offset + read, count);
+            position += count;
+            read += count;
+        }
+        return read == 0 && length > 0 ? -1 : read;
+    }
+
+    /**
+     * @return false if the current chunk is used up, the stream is closed and nothing is queued
+     */
+    private boolean nextChunkIfNeeded() throws IOException {
+        return nextChunkIfNeeded(false, 0);
+    }
+
+    /**
+     * @return false if the current chunk is used up and no chunk has arrived before the deadline, or the stream has
+     * ended
+     */
+    private boolean nextChunkIfNeeded(long deadlineNanos) throws IOException {
+        return nextChunkIfNeeded(true, deadlineNanos);
+    }
+
+    private boolean nextChunkIfNeeded(boolean bounded, long deadlineNanos) throws IOException {
+        try {
+            while (currentChunk == null || position == currentChunk.length) {
+                long waitNanos = bounded ? Math.min(POLL_INTERVAL_NANOS, deadlineNanos - System.nanoTime())
+                        : POLL_INTERVAL_NANOS;
+                byte[] chunk = waitNanos > 0 ? chunkQueue.poll(waitNanos, TimeUnit.NANOSECONDS) : chunkQueue.poll();
+
+                // If we get a chunk from the queue, continue with it.
+                if (chunk != null) {
+                    long gap = chunkQueue.drainGap();
+                    if (gap > 0) {
+                        LOG.limited(Level.WARN, "playback.dropped",
+                                "dropped {} chunks of bot audio that could not be played back in time", gap);
+                    }
+                    currentChunk = chunk;
+                    position = 0;
+                } else if (this.closed && chunkQueue.size() == 0) {
+                    // If the stream is closed & there is nothing queued up, this is the end of the stream.
+                    return false;
+                } else if (waitNanos <= 0) {
+                    return false;
                 }
             }
+            return true;
         } catch (InterruptedException e) {
             throw new IOException(e);
         }
     }
 
     /**
-     * Writes data into the stream to be offered on future read() calls.
+     * Writes data into the stream to be offered on future read() calls. The array is queued as is, so it must not be
+     * modified afterwards.
+     *
+     * @throws QueueOverflowException if the playback queue's overflow policy fails the call
      */
     public void write(byte[] byteArray) {
         // Don't write into the stream if it is closed already.
@@ -65,14 +145,22 @@ public class AudioResponse extends InputStream {
             throw new UncheckedIOException(new IOException("Stream already closed when attempting to write into it."));
         }
 
-        for (byte b : byteArray) {
-            this.byteQueue.add(b & UNSIGNED_BYTE_MASK);
+        if (byteArray.length > 0) {
+            this.chunkQueue.offer(byteArray);
         }
     }
 
+    /**
+     * Bytes of bot audio queued and not read yet. Safe to call from any thread.
+     */
+    public long bufferedBytes() {
+        return chunkQueue.sumOf(chunk -> chunk.length);
+    }
+
     @Override
     public void close() throws IOException {
         this.closed = true;
+        this.chunkQueue.close();
         super.close();
     }
 }
@@ -0,0 +1,191 @@
+package com.amazonaws.lex.twilio.sample.streaming;
+
+import com.amazonaws.lex.twilio.sample.lifecycle.Configuration;
+import com.amazonaws.lex.twilio.sample.logging.CallLogger;
+import org.apache.log4j.Level;
+
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Properties;
+import java.util.regex.Pattern;
+
+/*
+ * Copyright Amazon.com, Inc. or its affiliates. All Rights Reserved.
+ * SPDX-License-Identifier: MIT-0
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this
+ * software and associated documentation files (the "Software"), to deal in the Software
+ * without restriction, including without limitation the rights to use, copy, modify,
+ * merge, publish, distribute, sublicense, and/or sell copies of the Software, and to
+ * permit persons to whom the Software is furnished to do so.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED,
+ * INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A
+ * PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT
+ * HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION
+ * OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE
+ * SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+/**
+ * The bots calls can talk to, configured in bot-configuration.properties, and which bot a call is routed to. The top
+ * level keys configure the {@value #DEFAULT_BOT} bot. Further bots are listed in {@code bots} and configured with
+ * {@code bot.<name>.<key>} for any of the keys, falling back to the top level ones, so e.g. only {@code botId} and
+ * {@code quotaMaxConversations} need to be set for a bot in the same account and region. Every bot has a
+ * {@link LexClientProvider} of its own.
+ * <p>
+ * The webhook picks the bot of a call: the {@code bot} query parameter of the webhook URL if set, else the bot whose
+ * {@code bot.<name>.numbers} lists the dialed number (Twilio's {@code To}), else the bot whose
+ * {@code bot.<name>.callers} lists the caller's number ({@code From}), else the default bot. The dialed number comes
+ * first because it is the number the caller chose, and the caller's number is only as trustworthy as caller ID. The
+ * name reaches the media stream, possibly on a peer node, as a {@code <Stream>} custom parameter.
+ */
+public final class BotRegistry {
+
+    public static final String DEFAULT_BOT = "default";
+    /**
+     * Name of the {@code <Stream>} custom parameter that carries the bot of the call.
+     */
+    public static final String STREAM_PARAMETER = "bot";
+
+    private static final CallLogger LOG = CallLogger.getLogger(BotRegistry.class);
+    private static final Pattern BOT_NAME = Pattern.compile("[A-Za-z0-9_-]+");
+
+    private static volatile BotRegistry instance;
+
+    private final Map<String, LexClientProvider> bots;
+    private final Map<String, String> botsByCaller;
+    private final Map<String, String> botsByNumber;
+
+    /**
+     * Creates the client of a bot from its properties.
+     */
+    interface BotFactory {
+        LexClientProvider create(String name, String metricPrefix, Properties properties);
+    }
+
+    BotRegistry(Properties properties, BotFactory factory) {
+        this.bots = new LinkedHashMap<>();
+        this.botsByCaller = new HashMap<>();
+        this.botsByNumber = new HashMap<>();
+
+        bots.put(DEFAULT_BOT, factory.create(DEFAULT_BOT, "lex", properties));
+        for (String name : properties.getProperty("bots", "").split(",")) {
+            name = name.trim();
+            if (name.isEmpty()) {
+                continue;
+            }
+            if (!BOT_NAME.matcher(name).matches() || bots.containsKey(name)) {
+                throw new IllegalArgumentException("bot name " + name + " is used twice or has characters other "
+                        + "than letters, digits, - and _");
+            }
+            Properties botProperties = overlay(properties, "bot." + name + ".");
+            bots.put(name, factory.create(name, "lex.bot." + name, botProperties));
+            addRoutes(botsByCaller, name, botProperties.getProperty("callers", ""));
+            addRoutes(botsByNumber, name, botProperties.getProperty("numbers", ""));
+        }
+    }
+
+    public static BotRegistry getInstance() {
+        if (instance == null) {
+            synchronized (BotRegistry.class) {
+                if (instance == null) {
+                    instance = new BotRegistry(Configuration.load(Configuration.BOTS), BotRegistry::create);
+                }
+            }
+        }
+        return instance;
+    }
+
+    private static LexClientProvider create(String name, String metricPrefix, Properties properties) {
+        long start = System.currentTimeMillis();
+        LexClientProvider provider = new LexClientProvider(name, metricPrefix, properties);
+        LOG.info("created the Lex runtime client of bot {} in {}ms", name, System.currentTimeMillis() - start);
+        return provider;
+    }
+
+    /**
+     * The top level keys, overridden by the keys starting with the prefix, with the prefix removed.
+     */
+    private static Properties overlay(Properties properties, String prefix) {
+        Properties overlaid = new Properties();
+        overlaid.putAll(properties);
+        for (String key : properties.stringPropertyNames()) {
+            if (key.startsWith(prefix)) {
+                overlaid.setProperty(key.substring(prefix.length()), properties.getProperty(key));
+            }
+        }
+        return overlaid;
+    }
+
+    private static void addRoutes(Map<String, String> routes, String name, String numbers) {
+        for (String number : numbers.split(",")) {
+            number = normalize(number);
+            if (number.isEmpty()) {
+                continue;
+            }
+            String previous = routes.putIfAbsent(number, name);
+            if (previous != null) {
+                throw new IllegalArgumentException(number + " is routed to both bot " + previous + " and bot " + name);
+            }
+        }
+    }
+
+    private static String normalize(String number) {
+        return number == null ? "" : number.replaceAll("[\\s()-]", "");
+    }
+
+    /**
+     * Name of the bot a call goes to.
+     *
+     * @param requested the webhook's {@code bot} query parameter, or null
+     * @param from      the caller's number, or null
+     * @param to        the dialed number, or null
+     */
+    public String route(String requested, String from, String to) {
+        if (requested != null && bots.containsKey(requested)) {
+            return requested;
+        }
+        if (requested != null) {
+            LOG.limited(Level.WARN, "bots.unknown", "webhook asked for unknown bot {}, routing by number",
+                    requested);
+        }
+        String bot = botsByNumber.get(normalize(to));
+        if (bot == null) {
+            bot = botsByCaller.get(normalize(from));
+        }
+        return bot != null ? bot : DEFAULT_BOT;
+    }
+
+    /**
+     * The bot of the given name, or the default bot if there is no such bot, e.g. for media streams of calls whose
+     * TwiML predates a configuration change.
+     */
+    public LexClientProvider get(String name) {
+        LexClientProvider bot = name != null ? bots.get(name) : null;
+        if (bot == null) {
+            if (name != null) {
+                LOG.limited(Level.WARN, "bots.unknown", "no bot {}, using the default bot", name);
+            }
+            return getDefault();
+        }
+        return bot;
+    }
+
+    public LexClientProvider getDefault() {
+        return bots.get(DEFAULT_BOT);
+    }
+
+    public Collection<LexClientProvider> all() {
+        return Collections.unmodifiableCollection(bots.values());
+    }
+
+    public void close() {
+        for (LexClientProvider bot : bots.values()) {
+            bot.close();
+        }
+    }
+}
@@ -2,11 +2,17 @@ package com.amazonaws.lex.twilio.sample.streaming;
 
 import com.amazonaws.lex.twilio.sample.conversation.BotConversation;
 import com.amazonaws.lex.twilio.sample.conversation.TwilioCallOperator;
-import org.apache.log4j.Logger;
+import com.amazonaws.lex.twilio.sample.jfr.BotResponseEvent;
+import com.amazonaws.lex.twilio.sample.journal.ConversationJournal;
+import com.amazonaws.lex.twilio.sample.journal.JournalEvent;
+import com.amazonaws.lex.twilio.sample.logging.CallLogger;
+import com.amazonaws.lex.twilio.sample.monitor.MonitorBus;
 import software.amazon.awssdk.core.async.SdkPublisher;
 import software.amazon.awssdk.services.lexruntimev2.model.AudioResponseEvent;
 import software.amazon.awssdk.services.lexruntimev2.model.DialogActionType;
+import software.amazon.awssdk.services.lexruntimev2.model.Intent;
 import software.amazon.awssdk.services.lexruntimev2.model.IntentResultEvent;
+import software.amazon.awssdk.services.lexruntimev2.model.Message;
 import software.amazon.awssdk.services.lexruntimev2.model.PlaybackInterruptionEvent;
 import software.amazon.awssdk.services.lexruntimev2.model.StartConversationResponse;
 import software.amazon.awssdk.services.lexruntimev2.model.StartConversationResponseEventStream;
@@ -16,7 +22,7 @@ import software.amazon.awssdk.services.lexruntimev2.model.TranscriptEvent;
 
 import java.io.IOException;
 import java.io.UncheckedIOException;
-import java.util.concurrent.CompletableFuture;
+import java.util.stream.Collectors;
 
 /*
  * Copyright Amazon.com, Inc. or its affiliates. All Rights Reserved.
@@ -43,10 +49,13 @@ import java.util.concurrent.CompletableFuture;
  */
 public class BotResponseHandler implements StartConversationResponseHandler {
 
-    private static final Logger LOG = Logger.getLogger(BotResponseHandler.class);
+    private static final CallLogger LOG = CallLogger.getLogger(BotResponseHandler.class);
 
     private final BotConversation botConversation;
     private final TwilioCallOperator twilioCallOperator;
+    // run by the actor once the stream is established.
+    private final Runnable onStreamEstablished;
+    // confined to the call's actor, like all call state.
     private boolean isDialogStateClosed;
     private AudioResponse audioResponse;
 
@@ -54,40 +63,90 @@ public class BotResponseHandler implements StartConversationResponseHandler {
 
 
     public BotResponseHandler(BotConversation botConversation, TwilioCallOperator twilioCallOperator) {
+        this(botConversation, twilioCallOperator, () -> {
+        });
+    }
+
+    /**
+     * @param onStreamEstablished run by the call's actor once Lex has accepted the stream
+     */
+    public BotResponseHandler(BotConversation botConversation, TwilioCallOperator twilioCallOperator,
+                              Runnable onStreamEstablished) {
         this.twilioCallOperator = twilioCallOperator;
         this.botConversation = botConversation;
+        this.onStreamEstablished = onStreamEstablished;
         this.isDialogStateClosed = false; // at start, dialog state is open
     }
 
     @Override
     public void responseReceived(StartConversationResponse startConversationResponse) {
-        LOG.info("successfully established the connection with server. request id:" + startConversationResponse.responseMetadata().requestId()); // would have 2XX, request id.
+        LOG.info("successfully established the connection with server. request id: {}", startConversationResponse.responseMetadata().requestId()); // would have 2XX, request id.
+        twilioCallOperator.getActor().tell(() -> {
+            twilioCallOperator.getTimeline().lexStreamEstablished();
+            onStreamEstablished.run();
+        });
+    }
+
+    /**
+     * The stream has failed: ends the playback of bot audio that will not be completed anymore. Must be called by the
+     * actor.
+     */
+    public void streamFailed() {
+        closeAudioStream();
     }
 
     @Override
     public void onEventStream(SdkPublisher<StartConversationResponseEventStream> sdkPublisher) {
 
+        // events arrive on the SDK's event loop threads; they are handled by the call's actor, which owns the call
+        // state and may block on the WebSocket.
         sdkPublisher.subscribe(event -> {
-            if (event instanceof PlaybackInterruptionEvent) {
-                handle((PlaybackInterruptionEvent) event);
-            } else if (event instanceof TranscriptEvent) {
-                handle((TranscriptEvent) event);
-            } else if (event instanceof IntentResultEvent) {
-                handle((IntentResultEvent) event);
-            } else if (event instanceof TextResponseEvent) {
-                handle((TextResponseEvent) event);
-            } else if (event instanceof AudioResponseEvent) {
-                handle((AudioResponseEvent) event);
-            } else{
-                LOG.info("Getting an unknown event ..."+event);
-            }
+            twilioCallOperator.getWatch().lexEvent();
+            twilioCallOperator.getActor().tell(() -> dispatch(event));
         });
     }
 
+    private void dispatch(StartConversationResponseEventStream event) {
+        if (botConversation.isTerminated()) {
+            // events still in the mailbox when the call was torn down.
+            return;
+        }
+        BotResponseEvent responseEvent = new BotResponseEvent();
+        responseEvent.begin();
+        String responseType;
+        int audioSize = 0;
+
+        if (event instanceof PlaybackInterruptionEvent) {
+            responseType = "PlaybackInterruptionEvent";
+            handle((PlaybackInterruptionEvent) event);
+        } else if (event instanceof TranscriptEvent) {
+            responseType = "TranscriptEvent";
+            handle((TranscriptEvent) event);
+        } else if (event instanceof IntentResultEvent) {
+            responseType = "IntentResultEvent";
+            handle((IntentResultEvent) event);
+        } else if (event instanceof TextResponseEvent) {
+            responseType = "TextResponseEvent";
+            handle((TextResponseEvent) event);
+        } else if (event instanceof AudioResponseEvent) {
+            responseType = "AudioResponseEvent";
+            AudioResponseEvent audioResponseEvent = (AudioResponseEvent) event;
+            if (audioResponseEvent.audioChunk() != null) {
+                audioSize = audioResponseEvent.audioChunk().asByteArrayUnsafe().length;
+                twilioCallOperator.getActor().getCost().lexReceived(audioSize);
+            }
+            handle(audioResponseEvent);
+        } else{
+            responseType = "Unknown";
+            LOG.warn("Getting an unknown event ... {}", event);
+        }
+
+        responseEvent.finish(twilioCallOperator.getCallIdentifier().getCallId(), responseType, audioSize);
+    }
+
     @Override
     public void exceptionOccurred(Throwable throwable) {
-        LOG.error(throwable);
-        System.err.println("got an exception:" + throwable);
+        LOG.error("got an exception on the Lex stream", throwable);
     }
 
     @Override
@@ -96,7 +155,8 @@ public class BotResponseHandler implements StartConversationResponseHandler {
     }
 
     private void handle(PlaybackInterruptionEvent event) {
-        LOG.info("Got a PlaybackInterruptionEvent: " + event);
+        LOG.info("Got a PlaybackInterruptionEvent, event id {}", event.eventId());
+        record(JournalEvent.PLAYBACK_INTERRUPTED, event.eventId());
 
         twilioCallOperator.pausePlayback();
 
@@ -105,19 +165,30 @@ public class BotResponseHandler implements StartConversationResponseHandler {
                 audioResponse.close();
             }
         } catch (Exception e) {
-            e.printStackTrace();
+            LOG.error("could not close the interrupted audio response", e);
         }
 
-        LOG.info("Done with a  PlaybackInterruptionEvent: " + event);
+        LOG.debug("Done with a PlaybackInterruptionEvent: {}", event);
     }
 
     private void handle(TranscriptEvent event) {
-        LOG.info("Got a TranscriptEvent: " + event);
+        // the transcript is what the caller said, only logged at debug level.
+        LOG.info("Got a TranscriptEvent, event id {}", event.eventId());
+        LOG.debug("{}", event);
+        record(JournalEvent.TRANSCRIPT, event.eventId(), event.transcript());
+        twilioCallOperator.getTimeline().transcript();
+        twilioCallOperator.awaitingBotResponse();
     }
 
 
     private void handle(IntentResultEvent event) {
-        LOG.info("Got an IntentResultEvent: " + event);
+        LOG.info("Got an IntentResultEvent, dialog action {}", event.sessionState().dialogAction().type());
+        LOG.debug("{}", event);
+        Intent intent = event.sessionState().intent();
+        record(JournalEvent.INTENT_RESULT, event.eventId(), intent != null ? intent.name() : null,
+                intent != null ? intent.stateAsString() : null,
+                String.valueOf(event.sessionState().dialogAction().type()));
+        twilioCallOperator.getTimeline().intentResult();
         isDialogStateClosed = DialogActionType.CLOSE.equals(event.sessionState().dialogAction().type());
 
         // if dialog state is closed, stop sending events to lex server
@@ -128,11 +199,14 @@ public class BotResponseHandler implements StartConversationResponseHandler {
     }
 
     private void handle(TextResponseEvent event) {
-        LOG.info("Got an TextResponseEvent: " + event);
-        event.messages().forEach(message -> {
-            LOG.info("Message content type:" + message.contentType());
-            LOG.info("Message content:" + message.content());
-        });
+        LOG.info("Got a TextResponseEvent with {} messages", event.messages().size());
+        if (LOG.isDebugEnabled()) {
+            event.messages().forEach(message -> LOG.debug("Message content type: {}, content: {}",
+                    message.contentType(), message.content()));
+        }
+        record(JournalEvent.TEXT_RESPONSE, event.eventId(), event.messages().stream()
+                .map(Message::content)
+                .collect(Collectors.joining("\n")));
 
         // if bot does not have a message, and this dialog was closed, we should hang up because
         // we will never send a message to play to twilio and subsequently, never get back a
@@ -150,15 +224,20 @@ public class BotResponseHandler implements StartConversationResponseHandler {
 
             LOG.info("got a non empty audio response. starting a audio response collector in a separate thread");
             audioResponse = new AudioResponse();
-            CompletableFuture.runAsync(() -> twilioCallOperator.playback(audioResponse)).whenComplete((result, error) -> {
-                if (error != null) {
-                    error.printStackTrace();
-                }
-            });
+            twilioCallOperator.startPlayback(audioResponse);
         }
 
         if (event.audioChunk() != null) {
-            audioResponse.write(event.audioChunk().asByteArray());
+            twilioCallOperator.getTimeline().audioResponse();
+            try {
+                audioResponse.write(event.audioChunk().asByteArray());
+            } catch (QueueOverflowException e) {
+                // playback is stuck, end the call rather than buffer bot audio without limit.
+                LOG.error("ending call: {}", e.getMessage());
+                closeAudioStream();
+                botConversation.stopConversation();
+                twilioCallOperator.hangUp(true);
+            }
         } else {
             // no audio bytes means audio prompt has ended.
             closeAudioStream();
@@ -169,10 +248,19 @@ public class BotResponseHandler implements StartConversationResponseHandler {
         }
     }
 
+    /**
+     * Appends the event to the journal and publishes it to the supervisors watching the call.
+     */
+    private void record(JournalEvent journalEvent, String... fields) {
+        String callSid = twilioCallOperator.getCallIdentifier().getCallId();
+        ConversationJournal.getInstance().append(journalEvent, callSid, fields);
+        MonitorBus.getInstance().publish(journalEvent, callSid, fields);
+    }
+
     private void closeAudioStream(){
         try {
             if (audioResponse != null) {
-                LOG.info("Closing writing to in memory audio response....");
+                LOG.debug("Closing writing to in memory audio response....");
                 audioResponse.close();
             }
             audioResponse = null;  // prepare  for next audio prompt.
@@ -0,0 +1,381 @@
+package com.amazonaws.lex.twilio.sample.streaming;
+
+import com.amazonaws.lex.twilio.sample.metrics.LatencyHistogram;
+import com.amazonaws.lex.twilio.sample.metrics.Metrics;
+
+import java.util.ArrayDeque;
+import java.util.Iterator;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.ToIntFunction;
+import java.util.function.ToLongFunction;
+
+/*
+ * Copyright Amazon.com, Inc. or its affiliates. All Rights Reserved.
+ * SPDX-License-Identifier: MIT-0
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this
+ * software and associated documentation files (the "Software"), to deal in the Software
+ * without restriction, including without limitation the rights to use, copy, modify,
+ * merge, publish, distribute, sublicense, and/or sell copies of the Software, and to
+ * permit persons to whom the Software is furnished to do so.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED,
+ * INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A
+ * PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT
+ * HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION
+ * OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE
+ * SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+/**
+ * A per call FIFO queue bounded both by capacity and by the age of its oldest audio, with an {@link OverflowPolicy}
+ * deciding what happens when a bound is hit. Audio is weighed (e.g. in events or bytes) against the capacity; control
+ * items are never dropped and do not count against the capacity. Offers never wait: every queue is written by a
+ * call's actor, on a shard thread shared with other calls.
+ * <p>
+ * When audio is dropped, the next consumer of the queue sees the gap through {@link #drainGap()}, measured in dropped
+ * items or with the queue's gap measure, e.g. bytes of audio, so that it can fill the gap.
+ * <p>
+ * Queues of the same name share metrics: {@code queue.<name>.depth} (items in all open queues),
+ * {@code queue.<name>.oldest_age_ms} (across all open queues), {@code queue.<name>.dropped},
+ * {@code queue.<name>.overflows} and the {@code queue.<name>.wait} latency of items taken from the queue.
+ */
+public class BoundedLatencyQueue<T> {
+
+    private static final ConcurrentMap<String, Set<BoundedLatencyQueue<?>>> OPEN_QUEUES = new ConcurrentHashMap<>();
+
+    private final String name;
+    private final ToIntFunction<? super T> weigher;
+    private final ToLongFunction<? super T> gapMeasure;
+    private final long capacity;
+    private final long maxAgeNanos;
+    private final OverflowPolicy policy;
+
+    private final ArrayDeque<Entry<T>> entries;
+    private final ReentrantLock lock;
+    private final Condition notEmpty;
+
+    private final LongAdder dropped;
+    private final LongAdder overflows;
+    private final LatencyHistogram waitLatency;
+
+    // weight of the audio in the queue.
+    private long weight;
+    // audio dropped since the last call to drainGap, in the gap measure.
+    private long gap;
+    private boolean failed;
+    private boolean closed;
+
+    /**
+     * Creates a queue with the bounds configured for {@code name} in queue-configuration.properties.
+     *
+     * @param weigher weight of an audio item against the capacity
+     */
+    public BoundedLatencyQueue(String name, ToIntFunction<? super T> weigher) {
+        this(name, weigher, item -> 1);
+    }
+
+    /**
+     * @param gapMeasure measure of dropped audio reported by {@link #drainGap()}
+     */
+    public BoundedLatencyQueue(String name, ToIntFunction<? super T> weigher, ToLongFunction<? super T> gapMeasure) {
+        this(name, QueueSettings.forQueue(name), weigher, gapMeasure);
+    }
+
+    BoundedLatencyQueue(String name, QueueSettings settings, ToIntFunction<? super T> weigher,
+                        ToLongFunction<? super T> gapMeasure) {
+        this.name = name;
+        this.weigher = weigher;
+        this.gapMeasure = gapMeasure;
+        this.capacity = settings.getCapacity();
+        this.maxAgeNanos = TimeUnit.MILLISECONDS.toNanos(settings.getMaxAgeMillis());
+        this.policy = settings.getPolicy();
+        this.entries = new ArrayDeque<>();
+        this.lock = new ReentrantLock();
+        this.notEmpty = lock.newCondition();
+        this.dropped = Metrics.counter("queue." + name + ".dropped");
+        this.overflows = Metrics.counter("queue." + name + ".overflows");
+        this.waitLatency = Metrics.latency("queue." + name + ".wait");
+
+        OPEN_QUEUES.computeIfAbsent(name, BoundedLatencyQueue::registerGauges).add(this);
+    }
+
+    /**
+     * Reads queue-configuration.properties, so that a bad configuration is reported at start up rather than by the
+     * first call.
+     *
+     * @throws IllegalArgumentException if the configuration is invalid
+     */
+    public static void checkSettings() {
+        QueueSettings.forQueue("lex-events");
+    }
+
+    private static Set<BoundedLatencyQueue<?>> registerGauges(String name) {
+        Set<BoundedLatencyQueue<?>> queues = ConcurrentHashMap.newKeySet();
+        Metrics.gauge("queue." + name + ".depth", () -> {
+            long depth = 0;
+            for (BoundedLatencyQueue<?> queue : queues) {
+                depth += queue.size();
+            }
+            return depth;
+        });
+        Metrics.gauge("queue." + name + ".oldest_age_ms", () -> {
+            long oldest = 0;
+            for (BoundedLatencyQueue<?> queue : queues) {
+                oldest = Math.max(oldest, queue.oldestAgeMillis());
+            }
+            return oldest;
+        });
+        return queues;
+    }
+
+    /**
+     * Adds audio, applying the overflow policy when the queue is full or its oldest audio is too old.
+     *
+     * @throws QueueOverflowException if the policy fails the call, now or on an earlier offer
+     * @throws IllegalStateException  if the queue is closed
+     */
+    public void offer(T item) {
+        int itemWeight = weigher.applyAsInt(item);
+        lock.lock();
+        try {
+            checkOpen();
+            long now = System.nanoTime();
+            switch (policy) {
+                case DROP_OLDEST:
+                    expire(now);
+                    while (weight > 0 && weight + itemWeight > capacity) {
+                        dropOldestAudio();
+                    }
+                    break;
+                case FAIL:
+                    if (weight > 0 && weight + itemWeight > capacity) {
+                        fail("is full (" + weight + " of " + capacity + ")");
+                    }
+                    if (oldestAudioAgeNanos(now) > maxAgeNanos) {
+                        fail("holds audio older than " + TimeUnit.NANOSECONDS.toMillis(maxAgeNanos) + " ms");
+                    }
+                    break;
+                default:
+                    throw new IllegalStateException("unknown overflow policy " + policy);
+            }
+            entries.add(new Entry<>(item, now, itemWeight, false));
+            weight += itemWeight;
+            notEmpty.signal();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Adds a control item. It is accepted even when the queue is full, has failed or is closed.
+     */
+    public void offerControl(T item) {
+        lock.lock();
+        try {
+            entries.add(new Entry<>(item, System.nanoTime(), 0, true));
+            notEmpty.signal();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Takes the oldest item, or returns null if there is none.
+     */
+    public T poll() {
+        lock.lock();
+        try {
+            return take(System.nanoTime());
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Takes the oldest item, waiting up to the timeout for one.
+     *
+     * @return the item, or null on timeout or when the queue is closed and empty
+     */
+    public T poll(long timeout, TimeUnit unit) throws InterruptedException {
+        long remaining = unit.toNanos(timeout);
+        lock.lock();
+        try {
+            while (entries.isEmpty()) {
+                if (closed || remaining <= 0) {
+                    return null;
+                }
+                remaining = notEmpty.awaitNanos(remaining);
+            }
+            return take(System.nanoTime());
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Audio dropped since the last call, i.e. the gap in front of the item taken last: the number of items, or the sum
+     * of the gap measure over them.
+     */
+    public long drainGap() {
+        lock.lock();
+        try {
+            long missing = gap;
+            gap = 0;
+            return missing;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public int size() {
+        lock.lock();
+        try {
+            return entries.size();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Sum of the given measure, e.g. bytes, over the items in the queue, control items included.
+     */
+    public long sumOf(ToLongFunction<? super T> measure) {
+        lock.lock();
+        try {
+            long sum = 0;
+            for (Entry<T> entry : entries) {
+                sum += measure.applyAsLong(entry.item);
+            }
+            return sum;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Age of the oldest item, control items included, or 0 when empty.
+     */
+    public long oldestAgeMillis() {
+        lock.lock();
+        try {
+            Entry<T> oldest = entries.peek();
+            return oldest == null ? 0 : TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - oldest.enqueuedNanos);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Stops accepting audio and removes the queue from the metrics. Items already queued can still be taken.
+     */
+    public void close() {
+        lock.lock();
+        try {
+            closed = true;
+            notEmpty.signalAll();
+        } finally {
+            lock.unlock();
+        }
+        Set<BoundedLatencyQueue<?>> queues = OPEN_QUEUES.get(name);
+        if (queues != null) {
+            queues.remove(this);
+        }
+    }
+
+    private T take(long now) {
+        if (policy == OverflowPolicy.DROP_OLDEST) {
+            expire(now);
+        }
+        Entry<T> entry = entries.poll();
+        if (entry == null) {
+            return null;
+        }
+        if (!entry.control) {
+            weight -= entry.weight;
+        }
+        waitLatency.recordNanos(now - entry.enqueuedNanos);
+        return entry.item;
+    }
+
+    private void checkOpen() {
+        if (closed) {
+            throw new IllegalStateException(name + " queue is closed");
+        }
+        if (failed) {
+            throw new QueueOverflowException(name + " queue has failed");
+        }
+    }
+
+    private void fail(String reason) {
+        failed = true;
+        overflows.increment();
+        throw new QueueOverflowException(name + " queue " + reason + ", policy " + policy);
+    }
+
+    /**
+     * Drops audio older than the maximum age. Entries are in arrival order, so this stops at the first audio that is
+     * young enough.
+     */
+    private void expire(long now) {
+        Iterator<Entry<T>> iterator = entries.iterator();
+        while (iterator.hasNext()) {
+            Entry<T> entry = iterator.next();
+            if (entry.control) {
+                continue;
+            }
+            if (now - entry.enqueuedNanos <= maxAgeNanos) {
+                return;
+            }
+            iterator.remove();
+            dropped(entry);
+        }
+    }
+
+    private void dropOldestAudio() {
+        Iterator<Entry<T>> iterator = entries.iterator();
+        while (iterator.hasNext()) {
+            Entry<T> entry = iterator.next();
+            if (!entry.control) {
+                iterator.remove();
+                dropped(entry);
+                return;
+            }
+        }
+    }
+
+    private void dropped(Entry<T> entry) {
+        weight -= entry.weight;
+        gap += gapMeasure.applyAsLong(entry.item);
+        dropped.increment();
+    }
+
+    private long oldestAudioAgeNanos(long now) {
+        for (Entry<T> entry : entries) {
+            if (!entry.control) {
+                return now - entry.enqueuedNanos;
+            }
+        }
+        return 0;
+    }
+
+    private static final class Entry<T> {
+        private final T item;
+        private final long enqueuedNanos;
+        private final int weight;
+        private final boolean control;
+
+        private Entry(T item, long enqueuedNanos, int weight, boolean control) {
+            this.item = item;
+            this.enqueuedNanos = enqueuedNanos;
+            this.weight = weight;
+            this.control = control;
+        }
+    }
+}
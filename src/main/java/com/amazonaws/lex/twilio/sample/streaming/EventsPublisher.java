@@ -1,10 +1,13 @@
 package com.amazonaws.lex.twilio.sample.streaming;
 
+import com.amazonaws.lex.twilio.sample.cost.CallCost;
 import org.reactivestreams.Publisher;
 import org.reactivestreams.Subscriber;
 import software.amazon.awssdk.services.lexruntimev2.model.StartConversationRequestEventStream;
 
-import java.nio.ByteBuffer;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ForkJoinPool;
+
 /*
  * Copyright Amazon.com, Inc. or its affiliates. All Rights Reserved.
  * SPDX-License-Identifier: MIT-0
@@ -30,7 +33,27 @@ import java.nio.ByteBuffer;
  */
 public class EventsPublisher implements Publisher<StartConversationRequestEventStream> {
 
-    private AudioEventsSubscription audioEventsSubscription = new AudioEventsSubscription();
+    private final AudioEventsSubscription audioEventsSubscription;
+
+    public EventsPublisher() {
+        this(null, UplinkCodec.PCM);
+    }
+
+    /**
+     * @param callSid     call this conversation belongs to, reported in flight recorder events.
+     * @param uplinkCodec format of the caller's audio sent to Lex
+     */
+    public EventsPublisher(String callSid, UplinkCodec uplinkCodec) {
+        this(callSid, uplinkCodec, CallCost.detached(), ForkJoinPool.commonPool());
+    }
+
+    /**
+     * @param cost               what the call costs, charged with sending its events to Lex
+     * @param eventWriterExecutor runs the thread that sends the events, see {@link LexClientProvider}
+     */
+    public EventsPublisher(String callSid, UplinkCodec uplinkCodec, CallCost cost, Executor eventWriterExecutor) {
+        this.audioEventsSubscription = new AudioEventsSubscription(callSid, uplinkCodec, cost, eventWriterExecutor);
+    }
 
     @Override
     public void subscribe(Subscriber<? super StartConversationRequestEventStream> subscriber) {
@@ -42,11 +65,18 @@ public class EventsPublisher implements Publisher<StartConversationRequestEventS
         audioEventsSubscription.stop();
     }
 
+    /**
+     * Stops sending without a disconnection event, after the stream to Lex has failed or when it was never opened.
+     */
+    public void abort() {
+        audioEventsSubscription.abort();
+    }
+
     public void playbackFinished() {
         audioEventsSubscription.playbackFinished();
     }
 
-    public void writeUserInputAudio(ByteBuffer byteBuffer) {
-        audioEventsSubscription.writeAudioEvent(byteBuffer);
+    public void writeUserInputAudio(byte[] pcm) {
+        audioEventsSubscription.writeAudioEvent(pcm);
     }
 }
@@ -1,23 +1,19 @@
 package com.amazonaws.lex.twilio.sample.streaming;
 
 import com.amazonaws.lex.twilio.sample.conversation.BotConversation;
+import com.amazonaws.lex.twilio.sample.conversation.CallActor;
+import com.amazonaws.lex.twilio.sample.conversation.CallShards;
 import com.amazonaws.lex.twilio.sample.conversation.TwilioCallOperator;
-import org.apache.log4j.Logger;
-import software.amazon.awssdk.auth.credentials.AwsBasicCredentials;
-import software.amazon.awssdk.auth.credentials.AwsCredentialsProvider;
-import software.amazon.awssdk.auth.credentials.StaticCredentialsProvider;
-import software.amazon.awssdk.regions.Region;
-import software.amazon.awssdk.services.lexruntimev2.LexRuntimeV2AsyncClient;
+import com.amazonaws.lex.twilio.sample.logging.CallLogger;
+import com.amazonaws.lex.twilio.sample.metrics.Metrics;
 import software.amazon.awssdk.services.lexruntimev2.model.ConversationMode;
 import software.amazon.awssdk.services.lexruntimev2.model.StartConversationRequest;
 
-import java.io.IOException;
-import java.io.InputStream;
-import java.io.UncheckedIOException;
 import java.net.URISyntaxException;
-import java.util.Properties;
 import java.util.UUID;
 import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
 /*
  * Copyright Amazon.com, Inc. or its affiliates. All Rights Reserved.
  * SPDX-License-Identifier: MIT-0
@@ -53,104 +49,203 @@ import java.util.concurrent.CompletableFuture;
  */
 public class LexBidirectionalStreamingClient {
 
-    private static final Logger LOG = Logger.getLogger(LexBidirectionalStreamingClient.class);
+    private static final CallLogger LOG = CallLogger.getLogger(LexBidirectionalStreamingClient.class);
 
-    private static final String botId;
-    private static final String botAliasId;
-    private static final String localeId;
-    private static final String accessKey;
-    private static final String secretKey;
-    private static final Region region;
-    private static final LexRuntimeV2AsyncClient lexRuntimeServiceClient;
+    private final LexClientProvider lexClientProvider;
+    private final ReconnectPolicy reconnectPolicy;
+    private final LexQuotaManager quotaManager;
     private final String sessionId;
+    private final LongAdder reconnectAttempts;
+    private final LongAdder reconnected;
+    private final LongAdder reconnectFailures;
+    private final LongAdder throttledRetries;
+    private final StreamRecovery recovery;
+
+    /**
+     * @param lexClientProvider the bot to converse with, see {@link BotRegistry}
+     */
+    public LexBidirectionalStreamingClient(LexClientProvider lexClientProvider) {
+        this.lexClientProvider = lexClientProvider;
+        this.reconnectPolicy = lexClientProvider.getReconnectPolicy();
+        this.quotaManager = lexClientProvider.getQuotaManager();
+        this.sessionId = UUID.randomUUID().toString();
+        this.recovery = new StreamRecovery(reconnectPolicy);
+        String metricPrefix = lexClientProvider.getMetricPrefix();
+        this.reconnectAttempts = Metrics.counter(metricPrefix + ".reconnect.attempts");
+        this.reconnected = Metrics.counter(metricPrefix + ".reconnect.successes");
+        this.reconnectFailures = Metrics.counter(metricPrefix + ".reconnect.failures");
+        this.throttledRetries = Metrics.counter(metricPrefix + ".quota.throttled_retries");
+    }
 
-    static {
-        Properties properties = readProperties();
-
-        botId = properties.getProperty("botId");
-        botAliasId = properties.getProperty("botAliasId");
-        localeId = properties.getProperty("localeId");
-        accessKey = properties.getProperty("accessKey");
-        secretKey = properties.getProperty("secretKey");
-        region = Region.of(properties.getProperty("region"));
 
-        AwsCredentialsProvider awsCredentialsProvider = StaticCredentialsProvider
-                .create(AwsBasicCredentials.create(accessKey, secretKey));
+    private EventsPublisher newEventsPublisher(TwilioCallOperator twilioCallOperator) {
+        return new EventsPublisher(twilioCallOperator.getCallIdentifier().getCallId(), lexClientProvider.getUplinkCodec(),
+                twilioCallOperator.getActor().getCost(), lexClientProvider.getEventWriterExecutor());
+    }
 
-        lexRuntimeServiceClient = LexRuntimeV2AsyncClient.builder()
-                .region(region)
-                .credentialsProvider(awsCredentialsProvider)
-                //.endpointOverride(new URI("https://runtime-v2-lex.us-west-2.amazonaws.com"))
-                .build();
+    /**
+     * Opens a Lex stream for the conversation, once the bot's {@link LexQuotaManager} grants a permit for it; the
+     * caller hears the hold clip while the start is queued. When the stream fails while the call is still going on, it
+     * is reopened with the same session id, up to the reconnect policy's number of attempts, and the call is hung up
+     * only then.
+     *
+     * @param reconnect whether this stream replaces a failed one
+     */
+    private void openStream(StartConversationRequest startConversationRequest, EventsPublisher eventsPublisher,
+                            BotConversation botConversation, TwilioCallOperator twilioCallOperator, boolean reconnect) {
+        CallActor actor = twilioCallOperator.getActor();
+        CompletableFuture<LexQuotaManager.Permit> permit = quotaManager.acquire(
+                twilioCallOperator.getCallIdentifier().getCallId(), reconnect);
+        boolean queued = !permit.isDone();
+        if (queued) {
+            LOG.info("Lex quota is exhausted, conversation start queued");
+            twilioCallOperator.holdForQuota();
+        }
+        permit.whenComplete((granted, error) -> actor.tell(() -> {
+            if (error != null) {
+                LOG.error("ending call: {}", error.getMessage());
+                // the publisher was never handed to Lex.
+                eventsPublisher.abort();
+                botConversation.stopConversation();
+                twilioCallOperator.hangUp(true);
+            } else if (botConversation.isConversationStopped()) {
+                granted.release();
+                eventsPublisher.abort();
+            } else {
+                if (queued) {
+                    twilioCallOperator.quotaGranted();
+                }
+                startStream(startConversationRequest, eventsPublisher, botConversation, twilioCallOperator, reconnect,
+                        granted);
+            }
+        }));
     }
 
-    private static Properties readProperties() {
-        try (InputStream input = LexBidirectionalStreamingClient.class.getClassLoader().getResourceAsStream("bot-configuration.properties")) {
+    private void startStream(StartConversationRequest startConversationRequest, EventsPublisher eventsPublisher,
+                             BotConversation botConversation, TwilioCallOperator twilioCallOperator, boolean reconnect,
+                             LexQuotaManager.Permit permit) {
+        CallActor actor = twilioCallOperator.getActor();
 
-            Properties prop = new Properties();
-            // load a properties file
-            prop.load(input);
+        // create a class to handle responses from bot. after server processes streamed user data, it will respond back
+        // on another stream.
+        BotResponseHandler botResponseHandler = new BotResponseHandler(botConversation, twilioCallOperator, () -> {
+            permit.established();
+            recovery.established();
+            if (reconnect) {
+                reconnected.increment();
+                botConversation.streamRestored(eventsPublisher);
+            }
+        });
 
-            return prop;
-        } catch (IOException ex) {
-            throw new UncheckedIOException(ex);
-        }
-    }
+        lexClientProvider.getConnectionWarmer().onConversationStarted();
+        CompletableFuture<Void> conversation = lexClientProvider.getClient().startConversation(
+                startConversationRequest,
+                eventsPublisher,
+                botResponseHandler);
+        botConversation.streamOpened(conversation);
 
-    public LexBidirectionalStreamingClient() {
-        this.sessionId = UUID.randomUUID().toString();
+        // wait till conversation finishes. conversation will finish if dialog state reaches "Closed" state - at which point
+        // client should gracefully stop the connection,or some exception occurs during the conversation - at which point
+        // client should send a disconnection event, or reopen the stream.
+        conversation.whenComplete((result, exception) -> {
+            permit.release();
+            if (exception == null) {
+                return;
+            }
+            // a terminated conversation has cancelled its stream itself, the call is gone.
+            boolean terminated = botConversation.isTerminated();
+            if (!terminated) {
+                lexClientProvider.getConnectionWarmer().onConnectionFailure();
+            }
+            actor.tell(() -> {
+                // nothing more can be sent, and a stream that failed before asking for events never started its
+                // writer: this releases its queue.
+                eventsPublisher.abort();
+                if (!terminated) {
+                    streamFailed(startConversationRequest, botConversation, botResponseHandler, twilioCallOperator,
+                            exception);
+                }
+            });
+        });
     }
 
+    private void streamFailed(StartConversationRequest startConversationRequest, BotConversation botConversation,
+                              BotResponseHandler botResponseHandler, TwilioCallOperator twilioCallOperator,
+                              Throwable exception) {
+        botResponseHandler.streamFailed();
+        String callSid = twilioCallOperator.getCallIdentifier().getCallId();
+        if (StreamRecovery.isThrottling(exception)) {
+            quotaManager.throttled();
+        }
+        switch (recovery.streamFailed(exception, botConversation.isConversationStopped())) {
+            case REQUEUE:
+                // queued again behind the lowered limits rather than hanging up, the queue paces the retry.
+                throttledRetries.increment();
+                LOG.warn("Lex throttled the stream of call {}, queueing it again, attempt {} of {}", callSid,
+                        recovery.getThrottledAttempts(), StreamRecovery.MAX_THROTTLED_RETRIES);
+                botConversation.streamLost();
+                openStream(startConversationRequest, newEventsPublisher(twilioCallOperator), botConversation,
+                        twilioCallOperator, true);
+                return;
+            case GIVE_UP:
+                if (reconnectPolicy.isEnabled() && !botConversation.isConversationStopped()) {
+                    reconnectFailures.increment();
+                    LOG.error("giving up on the Lex stream of call {} after {} attempts", callSid,
+                            recovery.getFailedAttempts());
+                }
+                botConversation.stopConversation();
+                twilioCallOperator.hangUp(true);
+                return;
+            default:
+                break;
+        }
+
+        reconnectAttempts.increment();
+        botConversation.streamLost();
+        long backoff = recovery.backoffMillis();
+        LOG.warn("Lex stream of call {} failed ({}), reconnecting in {} ms, attempt {} of {}", callSid, exception,
+                backoff, recovery.getFailedAttempts(), reconnectPolicy.getMaxAttempts());
+        CallShards.getInstance().getScheduler().schedule(() -> twilioCallOperator.getActor().tell(() -> {
+            if (!botConversation.isConversationStopped()) {
+                openStream(startConversationRequest, newEventsPublisher(twilioCallOperator), botConversation,
+                        twilioCallOperator, true);
+            }
+        }), backoff, TimeUnit.MILLISECONDS);
+    }
 
     public BotConversation startConversation(TwilioCallOperator twilioCallOperator) throws URISyntaxException {
 
         // create a new SDK client. you will need to use an async client.
-        LOG.info("step 1: creating a new Lex SDK client");
-        // this is created once at class creation time in static block.
+        LOG.debug("step 1: creating a new Lex SDK client");
+        // this is created once per bot, at application start up (see BotRegistry).
 
         // configure bot, alias and locale with which to have a conversation.
-        LOG.info("step 2: configuring bot details");
+        LOG.debug("step 2: configuring bot details");
         StartConversationRequest.Builder startConversationRequestBuilder = StartConversationRequest.builder()
-                .botId(botId)
-                .botAliasId(botAliasId)
-                .localeId(localeId);
+                .botId(lexClientProvider.getBotId())
+                .botAliasId(lexClientProvider.getBotAliasId())
+                .localeId(lexClientProvider.getLocaleId());
 
         // configure the conversation mode with bot (defaults to audio)
-        LOG.info("step 3: choosing conversation mode");
+        LOG.debug("step 3: choosing conversation mode");
         startConversationRequestBuilder = startConversationRequestBuilder.conversationMode(ConversationMode.AUDIO);
 
         // assign a unique identifier for the conversation
-        LOG.info("step 4: choosing a unique conversation identifier");
+        LOG.debug("step 4: choosing a unique conversation identifier");
         startConversationRequestBuilder = startConversationRequestBuilder.sessionId(sessionId);
 
         // build the initial request
         StartConversationRequest startConversationRequest = startConversationRequestBuilder.build();
 
         // create a stream of audio data to server. stream will start after connection is established with server.
-        EventsPublisher eventsPublisher = new EventsPublisher();
-
-        BotConversation botConversation = new BotConversation(eventsPublisher);
+        EventsPublisher eventsPublisher = newEventsPublisher(twilioCallOperator);
 
-        // create a class to handle responses from bot. after server processes streamed user data, it will respond back
-        // on another stream.
-        BotResponseHandler botResponseHandler = new BotResponseHandler(botConversation, twilioCallOperator);
+        BotConversation botConversation = new BotConversation(eventsPublisher, twilioCallOperator.getActor().getCost());
+        twilioCallOperator.getActor().getCost().setBot(lexClientProvider.getName());
 
         // start a connection and pass in the a publisher that will stream audio and process bot responses.
-        LOG.info("step 5: starting the conversation ...");
-        CompletableFuture<Void> conversation = lexRuntimeServiceClient.startConversation(
-                startConversationRequest,
-                eventsPublisher,
-                botResponseHandler);
-
-        // wait till conversation finishes. conversation will finish if dialog state reaches "Closed" state - at which point
-        // client should gracefully stop the connection,or some exception occurs during the conversation - at which point
-        // client should send a disconnection event.
-        conversation.whenComplete((result, exception) -> {
-            if (exception != null) {
-                eventsPublisher.stop();
-                twilioCallOperator.hangUp(true);
-            }
-        });
+        LOG.debug("step 5: starting the conversation ...");
+        openStream(startConversationRequest, eventsPublisher, botConversation, twilioCallOperator, false);
 
         return botConversation;
 
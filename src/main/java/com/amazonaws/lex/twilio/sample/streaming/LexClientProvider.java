@@ -0,0 +1,265 @@
+package com.amazonaws.lex.twilio.sample.streaming;
+
+import com.amazonaws.lex.twilio.sample.logging.CallLogger;
+import com.amazonaws.lex.twilio.sample.metrics.Metrics;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import software.amazon.awssdk.auth.credentials.AwsBasicCredentials;
+import software.amazon.awssdk.auth.credentials.AwsCredentialsProvider;
+import software.amazon.awssdk.auth.credentials.StaticCredentialsProvider;
+import software.amazon.awssdk.http.Protocol;
+import software.amazon.awssdk.http.SdkHttpConfigurationOption;
+import software.amazon.awssdk.http.async.SdkAsyncHttpClient;
+import software.amazon.awssdk.http.nio.netty.Http2Configuration;
+import software.amazon.awssdk.http.nio.netty.NettyNioAsyncHttpClient;
+import software.amazon.awssdk.http.nio.netty.SdkEventLoopGroup;
+import software.amazon.awssdk.regions.Region;
+import software.amazon.awssdk.services.lexruntimev2.LexRuntimeV2AsyncClient;
+import software.amazon.awssdk.services.lexruntimev2.LexRuntimeV2AsyncClientBuilder;
+import software.amazon.awssdk.utils.AttributeMap;
+
+import java.net.URI;
+import java.time.Duration;
+import java.util.Properties;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.SynchronousQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/*
+ * Copyright Amazon.com, Inc. or its affiliates. All Rights Reserved.
+ * SPDX-License-Identifier: MIT-0
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this
+ * software and associated documentation files (the "Software"), to deal in the Software
+ * without restriction, including without limitation the rights to use, copy, modify,
+ * merge, publish, distribute, sublicense, and/or sell copies of the Software, and to
+ * permit persons to whom the Software is furnished to do so.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED,
+ * INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A
+ * PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT
+ * HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION
+ * OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE
+ * SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+/**
+ * Owns the configuration of one bot and everything its conversations run on, kept apart from the other bots so that a
+ * slow or throttled bot cannot starve them: the Lex runtime client with its own HTTP/2 connection pool and Netty event
+ * loops, the threads that send the callers' audio, the quota and the connection warmer, and metrics of its own. The
+ * client is expensive to build (SDK bootstrap, Netty event loops, class loading), so the providers of all bots are
+ * created once by the {@link BotRegistry}.
+ * <p>
+ * The calls themselves are not split by bot: the call shards that run every call's actor, the playback threads and the
+ * timers of {@code CallShards} are shared by all bots, sized in server-configuration.properties. Their work per call is
+ * short and does not wait on Lex, unlike the event writers, which block a thread for the length of a call.
+ */
+public class LexClientProvider {
+
+    private static final CallLogger LOG = CallLogger.getLogger(LexClientProvider.class);
+
+    private final String name;
+    private final String metricPrefix;
+    private final String botId;
+    private final String botAliasId;
+    private final String localeId;
+    private final Region region;
+    private final URI endpoint;
+    private final UplinkCodec uplinkCodec;
+    private final ReconnectPolicy reconnectPolicy;
+    private final LexQuotaManager quotaManager;
+    private final SdkAsyncHttpClient httpClient;
+    private final LexRuntimeV2AsyncClient lexRuntimeServiceClient;
+    private final ThreadPoolExecutor eventWriters;
+    private final LexConnectionWarmer connectionWarmer;
+
+    /**
+     * @param name         name of the bot configuration, see {@link BotRegistry}
+     * @param metricPrefix prefix of the bot's metrics, e.g. {@code lex}
+     */
+    LexClientProvider(String name, String metricPrefix, Properties properties) {
+        this.name = name;
+        this.metricPrefix = metricPrefix;
+        botId = properties.getProperty("botId");
+        botAliasId = properties.getProperty("botAliasId");
+        localeId = properties.getProperty("localeId");
+        region = Region.of(properties.getProperty("region"));
+
+        String endpointOverride = properties.getProperty("endpointOverride", "");
+        endpoint = endpointOverride.isEmpty()
+                ? URI.create("https://runtime-v2-lex." + region.id() + ".amazonaws.com")
+                : URI.create(endpointOverride);
+        uplinkCodec = UplinkCodec.fromProperties(properties);
+        reconnectPolicy = ReconnectPolicy.fromProperties(properties);
+        quotaManager = LexQuotaManager.fromProperties(properties, name, metricPrefix);
+        LOG.info("sending caller audio to Lex bot {} as {}", name, uplinkCodec);
+
+        AwsCredentialsProvider awsCredentialsProvider = StaticCredentialsProvider
+                .create(AwsBasicCredentials.create(properties.getProperty("accessKey"), properties.getProperty("secretKey")));
+
+        // the HTTP client is built here, rather than by the SDK, so that LexConnectionWarmer can open connections on
+        // exactly the pool that conversations will use.
+        httpClient = createHttpClient(name, properties);
+
+        LexRuntimeV2AsyncClientBuilder clientBuilder = LexRuntimeV2AsyncClient.builder()
+                .region(region)
+                .credentialsProvider(awsCredentialsProvider)
+                .httpClient(httpClient);
+        if (!endpointOverride.isEmpty()) {
+            // e.g. a local stand-in for testing
+            clientBuilder.endpointOverride(endpoint);
+        }
+        lexRuntimeServiceClient = clientBuilder.build();
+
+        eventWriters = createEventWriters(name, metricPrefix, properties);
+        connectionWarmer = new LexConnectionWarmer(name, metricPrefix, httpClient, endpoint, properties);
+    }
+
+    static SdkAsyncHttpClient createHttpClient(String name, Properties properties) {
+        Http2Configuration http2Configuration = Http2Configuration.builder()
+                .maxStreams(Long.parseLong(properties.getProperty("maxStreamsPerConnection", "50")))
+                // PING frames keep idle connections (and the NAT/load balancer state in between) alive, and detect
+                // dead connections before a call tries to use them.
+                .healthCheckPingPeriod(Duration.ofMillis(Long.parseLong(properties.getProperty("connectionPingPeriodMs", "20000"))))
+                .build();
+
+        NettyNioAsyncHttpClient.Builder builder = NettyNioAsyncHttpClient.builder()
+                .protocol(Protocol.HTTP2)
+                .http2Configuration(http2Configuration)
+                .maxConcurrency(Integer.parseInt(properties.getProperty("maxConcurrency", "500")))
+                .connectionTimeout(Duration.ofMillis(Long.parseLong(properties.getProperty("connectionTimeoutMs", "2000"))))
+                .connectionMaxIdleTime(Duration.ofMillis(Long.parseLong(properties.getProperty("connectionMaxIdleMs", "300000"))))
+                .tcpKeepAlive(true);
+        int eventLoopThreads = Integer.parseInt(properties.getProperty("eventLoopThreads", "0").trim());
+        if (eventLoopThreads > 0) {
+            builder.eventLoopGroupBuilder(SdkEventLoopGroup.builder()
+                    .numberOfThreads(eventLoopThreads)
+                    .threadFactory(new ThreadFactoryBuilder().setNameFormat("lex-" + name + "-io-%d").setDaemon(true).build()));
+        }
+
+        if (Boolean.parseBoolean(properties.getProperty("trustAllCertificates", "false"))) {
+            // only meant for local stand-ins with self signed certificates.
+            LOG.warn("trusting all certificates for Lex connections");
+            return builder.buildWithDefaults(AttributeMap.builder()
+                    .put(SdkHttpConfigurationOption.TRUST_ALL_CERTIFICATES, true)
+                    .build());
+        }
+        return builder.build();
+    }
+
+    /**
+     * Each conversation's event writer blocks a thread for the length of the call, so the pool holds up to
+     * {@code eventWriterThreads} threads, one per concurrent conversation with the bot, and {@code eventWriterQueue}
+     * writers waiting for a thread. A writer beyond that is rejected, which fails the conversation's stream to Lex like
+     * any other stream failure.
+     */
+    private static ThreadPoolExecutor createEventWriters(String name, String metricPrefix, Properties properties) {
+        int threads = Integer.parseInt(properties.getProperty("eventWriterThreads", "500").trim());
+        int queued = Integer.parseInt(properties.getProperty("eventWriterQueue", "0").trim());
+        if (threads < 1 || queued < 0) {
+            throw new IllegalArgumentException("eventWriterThreads must be at least 1 and eventWriterQueue at least 0, not "
+                    + threads + " and " + queued);
+        }
+        LongAdder rejected = Metrics.counter(metricPrefix + ".event_writers.rejected");
+        ThreadPoolExecutor executor = new ThreadPoolExecutor(threads, threads, 60, TimeUnit.SECONDS,
+                queued > 0 ? new ArrayBlockingQueue<>(queued) : new SynchronousQueue<>(),
+                new ThreadFactoryBuilder().setNameFormat("lex-" + name + "-writer-%d").setDaemon(true).build(),
+                (writer, pool) -> {
+                    rejected.increment();
+                    throw new RejectedExecutionException("all " + threads + " event writer threads of bot " + name
+                            + " are busy");
+                });
+        // threads are started as conversations need them and end when idle, as with the cached pool before.
+        executor.allowCoreThreadTimeOut(true);
+        Metrics.gauge(metricPrefix + ".event_writers.active", executor::getActiveCount);
+        return executor;
+    }
+
+    /**
+     * Name of the bot configuration, {@value BotRegistry#DEFAULT_BOT} for the bot configured by the top level keys.
+     */
+    public String getName() {
+        return name;
+    }
+
+    /**
+     * Prefix of the bot's metrics: {@code lex} for the default bot, {@code lex.bot.<name>} for the others.
+     */
+    public String getMetricPrefix() {
+        return metricPrefix;
+    }
+
+    public String getBotId() {
+        return botId;
+    }
+
+    public String getBotAliasId() {
+        return botAliasId;
+    }
+
+    public String getLocaleId() {
+        return localeId;
+    }
+
+    public Region getRegion() {
+        return region;
+    }
+
+    public URI getEndpoint() {
+        return endpoint;
+    }
+
+    /**
+     * Format of the caller's audio sent to this bot.
+     */
+    public UplinkCodec getUplinkCodec() {
+        return uplinkCodec;
+    }
+
+    /**
+     * How conversations with this bot reopen a failed Lex stream.
+     */
+    public ReconnectPolicy getReconnectPolicy() {
+        return reconnectPolicy;
+    }
+
+    /**
+     * Concurrency and start rate quota of this bot's Lex streams.
+     */
+    public LexQuotaManager getQuotaManager() {
+        return quotaManager;
+    }
+
+    public LexRuntimeV2AsyncClient getClient() {
+        return lexRuntimeServiceClient;
+    }
+
+    /**
+     * The HTTP/2 client shared by all conversations with this bot.
+     */
+    public SdkAsyncHttpClient getHttpClient() {
+        return httpClient;
+    }
+
+    /**
+     * Runs the event writers of conversations with this bot, rejecting writers beyond {@code eventWriterThreads} and
+     * {@code eventWriterQueue}.
+     */
+    public Executor getEventWriterExecutor() {
+        return eventWriters;
+    }
+
+    public LexConnectionWarmer getConnectionWarmer() {
+        return connectionWarmer;
+    }
+
+    public void close() {
+        connectionWarmer.stop();
+        eventWriters.shutdownNow();
+        lexRuntimeServiceClient.close();
+        httpClient.close();
+    }
+}
@@ -0,0 +1,341 @@
+package com.amazonaws.lex.twilio.sample.streaming;
+
+import com.amazonaws.lex.twilio.sample.metrics.LatencyHistogram;
+import com.amazonaws.lex.twilio.sample.metrics.Metrics;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import org.apache.log4j.Logger;
+import org.reactivestreams.Publisher;
+import org.reactivestreams.Subscriber;
+import org.reactivestreams.Subscription;
+import software.amazon.awssdk.http.SdkHttpFullRequest;
+import software.amazon.awssdk.http.SdkHttpMethod;
+import software.amazon.awssdk.http.SdkHttpResponse;
+import software.amazon.awssdk.http.async.AsyncExecuteRequest;
+import software.amazon.awssdk.http.async.SdkAsyncHttpClient;
+import software.amazon.awssdk.http.async.SdkAsyncHttpResponseHandler;
+import software.amazon.awssdk.http.async.SdkHttpContentPublisher;
+
+import java.net.URI;
+import java.nio.ByteBuffer;
+import java.util.Optional;
+import java.util.Properties;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+/*
+ * Copyright Amazon.com, Inc. or its affiliates. All Rights Reserved.
+ * SPDX-License-Identifier: MIT-0
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this
+ * software and associated documentation files (the "Software"), to deal in the Software
+ * without restriction, including without limitation the rights to use, copy, modify,
+ * merge, publish, distribute, sublicense, and/or sell copies of the Software, and to
+ * permit persons to whom the Software is furnished to do so.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED,
+ * INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A
+ * PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT
+ * HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION
+ * OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE
+ * SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+/**
+ * Keeps HTTP/2 connections to the Lex runtime endpoint established, so that a new conversation does not pay for DNS,
+ * TCP, TLS and HTTP/2 set up while the caller listens to dead air.
+ * <p>
+ * Connections are opened by sending one small unauthenticated request per connection, all at once, through the same
+ * HTTP client that conversations use; Lex rejects them, but the connection stays in the pool. The HTTP/2 pool only
+ * multiplexes onto connections that are already established, so requests sent while none is opens a connection each;
+ * once one is established, a later round reuses it rather than opening more. The first round of a new client is the
+ * exception: the pool holds requests back until its first connection has negotiated the protocol, and may then
+ * multiplex them all onto that one, so it opens at least one and at most {@code warmConnections}. Connections are then kept alive with
+ * HTTP/2 PING frames (see {@link LexClientProvider}), re-warmed when no conversation has started for
+ * {@code rewarmIdleMs}, and re-warmed after a conversation fails on a broken connection, at most once per
+ * {@code rewarmDebounceMs} however many conversations fail. A round that does not warm every connection is retried
+ * after {@code rewarmDebounceMs}, a few times.
+ */
+public class LexConnectionWarmer {
+
+    private static final Logger LOG = Logger.getLogger(LexConnectionWarmer.class);
+
+    // after these, only idleness or a new conversation failure starts another round.
+    private static final int MAX_RETRIED_ROUNDS = 3;
+
+    private final LatencyHistogram warmUpLatency;
+    private final LongAdder warmUpRounds;
+    private final LongAdder warmUpErrors;
+    private final SdkAsyncHttpClient httpClient;
+    private final URI endpoint;
+    private final int connections;
+    private final long rewarmIdleMillis;
+    private final long rewarmDebounceMillis;
+    private final long connectionMaxIdleMillis;
+    private final long warmUpTimeoutMillis;
+    private final ScheduledExecutorService scheduler;
+    private final AtomicBoolean warming;
+    private final AtomicBoolean started;
+    private final AtomicBoolean rewarmScheduled;
+    // consecutive rounds that did not warm every connection.
+    private final AtomicInteger failedRounds;
+
+    private volatile long lastActivityAt;
+    private volatile long lastRoundAt;
+    private volatile long lastWarmedAt;
+    private volatile int lastRoundSuccesses;
+
+    /**
+     * @param name         bot the connections are for, used in thread names
+     * @param metricPrefix prefix of the bot's metrics, e.g. {@code lex}
+     */
+    LexConnectionWarmer(String name, String metricPrefix, SdkAsyncHttpClient httpClient, URI endpoint,
+                        Properties properties) {
+        this.httpClient = httpClient;
+        this.endpoint = endpoint;
+        this.connections = Integer.parseInt(properties.getProperty("warmConnections", "2"));
+        this.rewarmIdleMillis = Long.parseLong(properties.getProperty("rewarmIdleMs", "60000"));
+        this.rewarmDebounceMillis = Long.parseLong(properties.getProperty("rewarmDebounceMs", "10000"));
+        this.connectionMaxIdleMillis = Long.parseLong(properties.getProperty("connectionMaxIdleMs", "300000"));
+        this.warmUpTimeoutMillis = Long.parseLong(properties.getProperty("warmUpTimeoutMs", "5000"));
+        this.scheduler = Executors.newSingleThreadScheduledExecutor(
+                new ThreadFactoryBuilder().setNameFormat("lex-connection-warmer-" + name).setDaemon(true).build());
+        this.warming = new AtomicBoolean(false);
+        this.started = new AtomicBoolean(false);
+        this.rewarmScheduled = new AtomicBoolean(false);
+        this.failedRounds = new AtomicInteger(0);
+        this.lastActivityAt = System.currentTimeMillis();
+
+        this.warmUpLatency = Metrics.latency(metricPrefix + ".connections.warmup.latency");
+        this.warmUpRounds = Metrics.counter(metricPrefix + ".connections.warmup.rounds");
+        this.warmUpErrors = Metrics.counter(metricPrefix + ".connections.warmup.errors");
+        Metrics.gauge(metricPrefix + ".connections.warm_estimate", this::getEstimatedWarmConnections);
+    }
+
+    /**
+     * Warms up the configured number of connections, waiting at most {@code warmUpTimeoutMs}, and then keeps them warm
+     * in the background.
+     */
+    public void start() {
+        if (connections <= 0 || !started.compareAndSet(false, true)) {
+            return;
+        }
+        retryUnlessWarmed(warmUp());
+
+        long checkPeriod = Math.max(1000, rewarmIdleMillis / 2);
+        scheduler.scheduleWithFixedDelay(() -> {
+            if (System.currentTimeMillis() - Math.max(lastActivityAt, lastWarmedAt) >= rewarmIdleMillis) {
+                retryUnlessWarmed(warmUp());
+            }
+        }, checkPeriod, checkPeriod, TimeUnit.MILLISECONDS);
+    }
+
+    public void stop() {
+        scheduler.shutdownNow();
+    }
+
+    /**
+     * A conversation was started, which keeps (or makes) one of the connections warm.
+     */
+    public void onConversationStarted() {
+        lastActivityAt = System.currentTimeMillis();
+    }
+
+    /**
+     * A conversation failed, possibly because its connection was reset. Re-warm the pool so the next call does not
+     * have to reconnect, no sooner than {@code rewarmDebounceMs} after the last round: the failures of a burst share
+     * one round.
+     */
+    public void onConnectionFailure() {
+        lastRoundSuccesses = 0;
+        failedRounds.set(0);
+        scheduleRewarm();
+    }
+
+    private void scheduleRewarm() {
+        if (!started.get() || !rewarmScheduled.compareAndSet(false, true)) {
+            return;
+        }
+        long delay = Math.max(0, lastRoundAt + rewarmDebounceMillis - System.currentTimeMillis());
+        try {
+            scheduler.schedule(() -> {
+                boolean warmed;
+                try {
+                    warmed = warmUp();
+                } finally {
+                    // failures reported while the round was pending or running are covered by it.
+                    rewarmScheduled.set(false);
+                }
+                retryUnlessWarmed(warmed);
+            }, delay, TimeUnit.MILLISECONDS);
+        } catch (RejectedExecutionException e) {
+            // stopped.
+            rewarmScheduled.set(false);
+        }
+    }
+
+    /**
+     * A round right after connections were lost can still be sent on them before the pool has noticed, and fail. Its
+     * failures evict those connections, so the next round opens new ones.
+     */
+    private void retryUnlessWarmed(boolean warmed) {
+        if (warmed) {
+            failedRounds.set(0);
+        } else if (failedRounds.incrementAndGet() <= MAX_RETRIED_ROUNDS) {
+            scheduleRewarm();
+        }
+    }
+
+    /**
+     * Estimate of the warm connections, not read from the pool: how many warm up requests of the last round were
+     * answered, as long as it happened within the pool's idle timeout and no conversation has failed since. An upper
+     * bound, as requests of one round may share a connection.
+     */
+    public int getEstimatedWarmConnections() {
+        if (System.currentTimeMillis() - lastWarmedAt >= connectionMaxIdleMillis) {
+            return 0;
+        }
+        return Math.min(connections, lastRoundSuccesses);
+    }
+
+    /**
+     * @return whether every warm up request was answered; also true when another round was already running
+     */
+    private boolean warmUp() {
+        if (!warming.compareAndSet(false, true)) {
+            return true;
+        }
+        long start = System.nanoTime();
+        lastRoundAt = System.currentTimeMillis();
+        try {
+            AtomicInteger successes = new AtomicInteger(0);
+            CompletableFuture<?>[] futures = new CompletableFuture<?>[connections];
+            for (int i = 0; i < connections; i++) {
+                futures[i] = sendWarmUpRequest().thenRun(successes::incrementAndGet);
+            }
+
+            try {
+                CompletableFuture.allOf(futures).get(warmUpTimeoutMillis, TimeUnit.MILLISECONDS);
+            } catch (ExecutionException | TimeoutException e) {
+                warmUpErrors.increment();
+                LOG.warn("some Lex warm up requests failed or timed out: " + e.getMessage());
+            }
+
+            warmUpRounds.increment();
+            warmUpLatency.recordNanos(System.nanoTime() - start);
+            lastRoundSuccesses = successes.get();
+            if (lastRoundSuccesses > 0) {
+                lastWarmedAt = System.currentTimeMillis();
+            }
+            LOG.info("warmed up Lex connections to " + endpoint + ": about " + getEstimatedWarmConnections() + " of " + connections
+                    + " warm, took " + TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start) + "ms");
+            return lastRoundSuccesses == connections;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return true;
+        } catch (RuntimeException e) {
+            warmUpErrors.increment();
+            LOG.error("could not warm up Lex connections", e);
+            return false;
+        } finally {
+            warming.set(false);
+        }
+    }
+
+    /**
+     * Completes once a response (of any status) has been fully received, i.e. the connection carrying it is
+     * established and usable.
+     */
+    private CompletableFuture<Void> sendWarmUpRequest() {
+        SdkHttpFullRequest request = SdkHttpFullRequest.builder()
+                .uri(endpoint)
+                .method(SdkHttpMethod.GET)
+                .putHeader("Host", endpoint.getHost())
+                .build();
+
+        CompletableFuture<Void> received = new CompletableFuture<>();
+        AsyncExecuteRequest executeRequest = AsyncExecuteRequest.builder()
+                .request(request)
+                .requestContentPublisher(new EmptyContentPublisher())
+                .responseHandler(new DrainingResponseHandler(received))
+                .build();
+
+        httpClient.execute(executeRequest).whenComplete((result, error) -> {
+            if (error != null) {
+                received.completeExceptionally(error);
+            }
+        });
+        return received;
+    }
+
+    private static class EmptyContentPublisher implements SdkHttpContentPublisher {
+
+        @Override
+        public Optional<Long> contentLength() {
+            return Optional.of(0L);
+        }
+
+        @Override
+        public void subscribe(Subscriber<? super ByteBuffer> subscriber) {
+            subscriber.onSubscribe(new Subscription() {
+                @Override
+                public void request(long n) {
+                }
+
+                @Override
+                public void cancel() {
+                }
+            });
+            subscriber.onComplete();
+        }
+    }
+
+    private static class DrainingResponseHandler implements SdkAsyncHttpResponseHandler {
+        private final CompletableFuture<Void> received;
+
+        DrainingResponseHandler(CompletableFuture<Void> received) {
+            this.received = received;
+        }
+
+        @Override
+        public void onHeaders(SdkHttpResponse headers) {
+            LOG.debug("Lex warm up request answered with status " + headers.statusCode());
+        }
+
+        @Override
+        public void onStream(Publisher<ByteBuffer> stream) {
+            stream.subscribe(new Subscriber<ByteBuffer>() {
+                @Override
+                public void onSubscribe(Subscription subscription) {
+                    subscription.request(Long.MAX_VALUE);
+                }
+
+                @Override
+                public void onNext(ByteBuffer byteBuffer) {
+                }
+
+                @Override
+                public void onError(Throwable throwable) {
+                    received.completeExceptionally(throwable);
+                }
+
+                @Override
+                public void onComplete() {
+                    received.complete(null);
+                }
+            });
+        }
+
+        @Override
+        public void onError(Throwable error) {
+            received.completeExceptionally(error);
+        }
+    }
+}
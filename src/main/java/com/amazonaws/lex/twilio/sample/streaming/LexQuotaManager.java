@@ -0,0 +1,335 @@
+package com.amazonaws.lex.twilio.sample.streaming;
+
+import com.amazonaws.lex.twilio.sample.conversation.CallShards;
+import com.amazonaws.lex.twilio.sample.logging.CallLogger;
+import com.amazonaws.lex.twilio.sample.metrics.LatencyHistogram;
+import com.amazonaws.lex.twilio.sample.metrics.Metrics;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.List;
+import java.util.PriorityQueue;
+import java.util.Properties;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.LongSupplier;
+import java.util.function.Supplier;
+
+/*
+ * Copyright Amazon.com, Inc. or its affiliates. All Rights Reserved.
+ * SPDX-License-Identifier: MIT-0
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this
+ * software and associated documentation files (the "Software"), to deal in the Software
+ * without restriction, including without limitation the rights to use, copy, modify,
+ * merge, publish, distribute, sublicense, and/or sell copies of the Software, and to
+ * permit persons to whom the Software is furnished to do so.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED,
+ * INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A
+ * PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT
+ * HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION
+ * OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE
+ * SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+/**
+ * Keeps the conversations started with a bot within Lex's quotas for concurrent streaming conversations and for
+ * requests per second. Every stream is opened with a {@link Permit}, granted when both a concurrency slot and a token
+ * of the start rate bucket are free; otherwise the start waits in a queue, and the caller hears the hold clip
+ * meanwhile. Configured in bot-configuration.properties, one manager per bot and region:
+ * <ul>
+ *     <li>{@code quotaMaxConversations}: concurrent Lex streams, 0 (default) for no limit</li>
+ *     <li>{@code quotaStartsPerSecond}: rate of new streams, 0 (default) for no limit, with bursts of up to
+ *     {@code quotaStartBurst} starts (default 10)</li>
+ *     <li>{@code quotaQueueOrder}: {@code priority} (default) lets reopened and retried streams of calls already in a
+ *     conversation go first, {@code fifo} serves all starts in arrival order</li>
+ *     <li>{@code quotaMaxQueued} and {@code quotaMaxWaitMs}: starts beyond which, or waiting longer than which, are
+ *     rejected and their call hung up. Defaults 500 and 15000</li>
+ * </ul>
+ * The limits adapt to throttling: every {@code ThrottlingException} from Lex cuts the concurrency limit to three
+ * quarters of the streams open at the time and halves the start rate, and each stream established afterwards raises
+ * the concurrency limit by one, while the start rate recovers by a tenth of its configured value per second, back up
+ * to the configured limits.
+ */
+public final class LexQuotaManager {
+
+    private static final CallLogger LOG = CallLogger.getLogger(LexQuotaManager.class);
+
+    private static final double CONCURRENCY_DECREASE = 0.75;
+    private static final double RATE_DECREASE = 0.5;
+    private static final double RATE_RECOVERY_PER_SECOND = 0.1;
+    // queued starts are checked at least this often for their deadline.
+    private static final long MAX_WAKE_UP_NANOS = TimeUnit.MILLISECONDS.toNanos(100);
+
+    private final String name;
+    private final int maxConversations;
+    private final double maxStartsPerSecond;
+    private final int startBurst;
+    private final int maxQueued;
+    private final long maxWaitNanos;
+    private final PriorityQueue<PendingStart> queue;
+    private final LatencyHistogram queueWait;
+    private final LongAdder queued;
+    private final LongAdder rejected;
+    private final LongAdder throttledRequests;
+    private final LongSupplier nanoClock;
+    private final Supplier<ScheduledExecutorService> scheduler;
+
+    // all of the following guarded by this.
+    private double concurrencyLimit;
+    private double startsPerSecond;
+    private double tokens;
+    private long refilledNanos;
+    private int active;
+    private long sequence;
+    private ScheduledFuture<?> wakeUp;
+
+    /**
+     * @param nanoClock time source in nanoseconds, {@link System#nanoTime()} outside of tests
+     * @param scheduler runs the wake ups that grant refilled tokens and reject expired starts
+     */
+    LexQuotaManager(String name, String metricPrefix, int maxConversations, double maxStartsPerSecond,
+                    int startBurst, boolean priorityOrder, int maxQueued, long maxWaitMillis,
+                    LongSupplier nanoClock, Supplier<ScheduledExecutorService> scheduler) {
+        this.name = name;
+        this.nanoClock = nanoClock;
+        this.scheduler = scheduler;
+        this.maxConversations = maxConversations > 0 ? maxConversations : Integer.MAX_VALUE;
+        this.maxStartsPerSecond = maxStartsPerSecond;
+        this.startBurst = Math.max(1, startBurst);
+        this.maxQueued = maxQueued;
+        this.maxWaitNanos = TimeUnit.MILLISECONDS.toNanos(maxWaitMillis);
+        Comparator<PendingStart> arrival = Comparator.comparingLong(pending -> pending.sequence);
+        this.queue = new PriorityQueue<>(priorityOrder
+                ? Comparator.<PendingStart, Boolean>comparing(pending -> !pending.retry).thenComparing(arrival)
+                : arrival);
+        this.concurrencyLimit = this.maxConversations;
+        this.startsPerSecond = maxStartsPerSecond;
+        this.tokens = this.startBurst;
+        this.refilledNanos = nanoClock.getAsLong();
+
+        this.queueWait = Metrics.latency(metricPrefix + ".quota.queue_wait");
+        this.queued = Metrics.counter(metricPrefix + ".quota.queued");
+        this.rejected = Metrics.counter(metricPrefix + ".quota.rejected");
+        this.throttledRequests = Metrics.counter(metricPrefix + ".quota.throttled");
+        Metrics.gauge(metricPrefix + ".quota.active", () -> {
+            synchronized (this) {
+                return active;
+            }
+        });
+        Metrics.gauge(metricPrefix + ".quota.waiting", () -> {
+            synchronized (this) {
+                return queue.size();
+            }
+        });
+        Metrics.gauge(metricPrefix + ".quota.concurrency_limit", () -> {
+            synchronized (this) {
+                return concurrencyLimit >= Integer.MAX_VALUE ? 0 : (long) concurrencyLimit;
+            }
+        });
+        Metrics.gauge(metricPrefix + ".quota.starts_per_second", () -> {
+            synchronized (this) {
+                return (long) startsPerSecond;
+            }
+        });
+    }
+
+    /**
+     * @param name         bot the quota is for, in log lines and errors
+     * @param metricPrefix prefix of the bot's metrics, e.g. {@code lex}
+     */
+    static LexQuotaManager fromProperties(Properties properties, String name, String metricPrefix) {
+        String order = properties.getProperty("quotaQueueOrder", "priority").trim();
+        if (!order.equals("priority") && !order.equals("fifo")) {
+            throw new IllegalArgumentException("quotaQueueOrder must be priority or fifo, not " + order);
+        }
+        LexQuotaManager manager = new LexQuotaManager(name, metricPrefix,
+                Integer.parseInt(properties.getProperty("quotaMaxConversations", "0").trim()),
+                Double.parseDouble(properties.getProperty("quotaStartsPerSecond", "0").trim()),
+                Integer.parseInt(properties.getProperty("quotaStartBurst", "10").trim()),
+                order.equals("priority"),
+                Integer.parseInt(properties.getProperty("quotaMaxQueued", "500").trim()),
+                Long.parseLong(properties.getProperty("quotaMaxWaitMs", "15000").trim()),
+                System::nanoTime, () -> CallShards.getInstance().getScheduler());
+        LOG.info("Lex quota of {}: {} concurrent conversations, {} starts per second, {} order", name,
+                manager.maxConversations == Integer.MAX_VALUE ? "unlimited" : manager.maxConversations,
+                manager.maxStartsPerSecond > 0 ? manager.maxStartsPerSecond : "unlimited", order);
+        return manager;
+    }
+
+    /**
+     * Asks for a permit to open a Lex stream. The future completes, on the thread that frees the quota, with the
+     * permit, or exceptionally with a {@link QueueOverflowException} when the start is rejected. A permit granted to a
+     * future that has been cancelled meanwhile is released again.
+     *
+     * @param retry whether the stream replaces one of a call already in a conversation, served first in priority order
+     */
+    public CompletableFuture<Permit> acquire(String callSid, boolean retry) {
+        PendingStart pending = new PendingStart(callSid, retry, nanoClock.getAsLong());
+        synchronized (this) {
+            if (queue.size() >= maxQueued) {
+                rejected.increment();
+                pending.future.completeExceptionally(new QueueOverflowException(
+                        "more than " + maxQueued + " Lex conversations waiting to start for " + name));
+                return pending.future;
+            }
+            pending.sequence = sequence++;
+            queue.add(pending);
+        }
+        drain();
+        if (!pending.future.isDone()) {
+            queued.increment();
+        }
+        return pending.future;
+    }
+
+    /**
+     * Lex has throttled a request: cuts the concurrency limit and the start rate.
+     */
+    public void throttled() {
+        throttledRequests.increment();
+        synchronized (this) {
+            concurrencyLimit = Math.max(1, Math.min(concurrencyLimit, active) * CONCURRENCY_DECREASE);
+            if (maxStartsPerSecond > 0) {
+                startsPerSecond = Math.max(maxStartsPerSecond * RATE_RECOVERY_PER_SECOND, startsPerSecond * RATE_DECREASE);
+            }
+            LOG.warn("Lex throttled {}, limits lowered to {} concurrent conversations and {} starts per second", name,
+                    (int) concurrencyLimit, startsPerSecond);
+        }
+    }
+
+    private void established() {
+        synchronized (this) {
+            concurrencyLimit = Math.min(maxConversations, concurrencyLimit + 1);
+        }
+        drain();
+    }
+
+    private void release() {
+        synchronized (this) {
+            active--;
+        }
+        drain();
+    }
+
+    /**
+     * Grants permits to queued starts for as long as the quota allows, and rejects starts that have waited too long.
+     */
+    void drain() {
+        List<PendingStart> granted = new ArrayList<>();
+        List<PendingStart> expired = new ArrayList<>();
+        long now = nanoClock.getAsLong();
+        synchronized (this) {
+            refill(now);
+            for (Iterator<PendingStart> iterator = queue.iterator(); iterator.hasNext(); ) {
+                PendingStart pending = iterator.next();
+                if (pending.future.isDone()) {
+                    iterator.remove();
+                } else if (now - pending.queuedNanos > maxWaitNanos) {
+                    iterator.remove();
+                    expired.add(pending);
+                }
+            }
+            long wakeUpNanos = MAX_WAKE_UP_NANOS;
+            while (!queue.isEmpty() && active < (int) concurrencyLimit) {
+                if (startsPerSecond > 0 && tokens < 1) {
+                    wakeUpNanos = Math.min(wakeUpNanos, (long) ((1 - tokens) / startsPerSecond * 1e9) + 1);
+                    break;
+                }
+                if (startsPerSecond > 0) {
+                    tokens--;
+                }
+                active++;
+                granted.add(queue.poll());
+            }
+            if (wakeUp != null) {
+                wakeUp.cancel(false);
+                wakeUp = null;
+            }
+            if (!queue.isEmpty()) {
+                // a release or an established stream drains as well, this only catches refills and deadlines.
+                wakeUp = scheduler.get().schedule(this::drain, wakeUpNanos, TimeUnit.NANOSECONDS);
+            }
+        }
+
+        for (PendingStart pending : expired) {
+            rejected.increment();
+            pending.future.completeExceptionally(new QueueOverflowException(
+                    "Lex conversation of call " + pending.callSid + " could not start within the quota of " + name));
+        }
+        for (PendingStart pending : granted) {
+            Permit permit = new Permit();
+            if (pending.future.complete(permit)) {
+                queueWait.recordNanos(now - pending.queuedNanos);
+            } else {
+                permit.release();
+            }
+        }
+    }
+
+    synchronized double getConcurrencyLimit() {
+        return concurrencyLimit;
+    }
+
+    synchronized double getStartsPerSecond() {
+        refill(nanoClock.getAsLong());
+        return startsPerSecond;
+    }
+
+    private void refill(long now) {
+        if (maxStartsPerSecond <= 0) {
+            return;
+        }
+        double seconds = (now - refilledNanos) / 1e9;
+        refilledNanos = now;
+        startsPerSecond = Math.min(maxStartsPerSecond,
+                startsPerSecond + maxStartsPerSecond * RATE_RECOVERY_PER_SECOND * seconds);
+        tokens = Math.min(startBurst, tokens + startsPerSecond * seconds);
+    }
+
+    /**
+     * The right to have one Lex stream open. Released exactly once, when the stream has ended or failed.
+     */
+    public final class Permit {
+        private final AtomicBoolean released = new AtomicBoolean();
+
+        private Permit() {
+        }
+
+        /**
+         * The stream has been established, so Lex accepts the current load: raises the concurrency limit.
+         */
+        public void established() {
+            if (!released.get()) {
+                LexQuotaManager.this.established();
+            }
+        }
+
+        public void release() {
+            if (released.compareAndSet(false, true)) {
+                LexQuotaManager.this.release();
+            }
+        }
+    }
+
+    private static final class PendingStart {
+        private final String callSid;
+        private final boolean retry;
+        private final long queuedNanos;
+        private final CompletableFuture<Permit> future;
+        private long sequence;
+
+        private PendingStart(String callSid, boolean retry, long queuedNanos) {
+            this.callSid = callSid;
+            this.retry = retry;
+            this.queuedNanos = queuedNanos;
+            this.future = new CompletableFuture<>();
+        }
+    }
+}
@@ -0,0 +1,91 @@
+package com.amazonaws.lex.twilio.sample.streaming;
+
+import com.amazonaws.lex.twilio.sample.metrics.LatencyHistogram;
+import com.amazonaws.lex.twilio.sample.metrics.Metrics;
+import io.github.jaredmdobson.concentus.OpusApplication;
+import io.github.jaredmdobson.concentus.OpusEncoder;
+import io.github.jaredmdobson.concentus.OpusException;
+import io.github.jaredmdobson.concentus.OpusSignal;
+
+/*
+ * Copyright Amazon.com, Inc. or its affiliates. All Rights Reserved.
+ * SPDX-License-Identifier: MIT-0
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this
+ * software and associated documentation files (the "Software"), to deal in the Software
+ * without restriction, including without limitation the rights to use, copy, modify,
+ * merge, publish, distribute, sublicense, and/or sell copies of the Software, and to
+ * permit persons to whom the Software is furnished to do so.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED,
+ * INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A
+ * PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT
+ * HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION
+ * OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE
+ * SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+/**
+ * Constant bit rate Opus encoder of one conversation, using Concentus, a pure Java port of libopus. Incoming PCM is
+ * collected into frames of the configured duration; each complete frame is encoded into exactly
+ * {@code bitRate * frameMillis / 8000} bytes.
+ * <p>
+ * Not thread safe: a conversation's audio is written by its call actor only.
+ */
+final class OpusUplinkEncoder implements UplinkEncoder {
+
+    private static final LatencyHistogram ENCODE_LATENCY = Metrics.latency("lex.uplink.opus.encode");
+
+    private final OpusEncoder encoder;
+    private final short[] frame;
+    private final int frameBytes;
+    // samples collected in frame.
+    private int samples;
+
+    OpusUplinkEncoder(int bitRate, int frameMillis, int complexity) {
+        try {
+            this.encoder = new OpusEncoder(UplinkCodec.SAMPLE_RATE, 1, OpusApplication.OPUS_APPLICATION_VOIP);
+        } catch (OpusException e) {
+            throw new IllegalStateException("could not create an Opus encoder", e);
+        }
+        encoder.setBitrate(bitRate);
+        // a constant bit rate is what makes the frames of the stream separable without a preamble.
+        encoder.setUseVBR(false);
+        encoder.setUseDTX(false);
+        encoder.setComplexity(complexity);
+        encoder.setSignalType(OpusSignal.OPUS_SIGNAL_VOICE);
+        this.frame = new short[UplinkCodec.SAMPLE_RATE * frameMillis / 1000];
+        this.frameBytes = bitRate * frameMillis / 8000;
+    }
+
+    @Override
+    public byte[] encode(byte[] pcm) {
+        int completeFrames = (samples + pcm.length / 2) / frame.length;
+        byte[] encoded = completeFrames == 0 ? null : new byte[completeFrames * frameBytes];
+        int encodedLength = 0;
+        for (int i = 0; i + 1 < pcm.length; i += 2) {
+            frame[samples++] = (short) ((pcm[i] & 0xFF) | (pcm[i + 1] << 8));
+            if (samples == frame.length) {
+                encodeFrame(encoded, encodedLength);
+                encodedLength += frameBytes;
+                samples = 0;
+            }
+        }
+        return encoded;
+    }
+
+    private void encodeFrame(byte[] target, int offset) {
+        long start = System.nanoTime();
+        int length;
+        try {
+            length = encoder.encode(frame, 0, frame.length, target, offset, frameBytes);
+        } catch (OpusException e) {
+            throw new IllegalStateException("could not encode an Opus frame", e);
+        }
+        ENCODE_LATENCY.recordNanos(System.nanoTime() - start);
+        if (length != frameBytes) {
+            // Lex splits the stream into frames by size, a shorter frame would garble everything after it.
+            throw new IllegalStateException("Opus frame of " + length + " bytes, expected " + frameBytes);
+        }
+    }
+}
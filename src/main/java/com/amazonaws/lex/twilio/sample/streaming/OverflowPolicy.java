@@ -0,0 +1,45 @@
+package com.amazonaws.lex.twilio.sample.streaming;
+
+/*
+ * Copyright Amazon.com, Inc. or its affiliates. All Rights Reserved.
+ * SPDX-License-Identifier: MIT-0
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this
+ * software and associated documentation files (the "Software"), to deal in the Software
+ * without restriction, including without limitation the rights to use, copy, modify,
+ * merge, publish, distribute, sublicense, and/or sell copies of the Software, and to
+ * permit persons to whom the Software is furnished to do so.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED,
+ * INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A
+ * PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT
+ * HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION
+ * OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE
+ * SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+/**
+ * What a {@link BoundedLatencyQueue} does with new audio when it is full, or when its oldest audio is older than the
+ * queue's maximum age.
+ */
+public enum OverflowPolicy {
+    /**
+     * Drop the oldest audio to make room, and audio older than the maximum age, leaving a gap in the stream.
+     */
+    DROP_OLDEST,
+    /**
+     * Fail the call.
+     */
+    FAIL;
+
+    /**
+     * Parses the configuration form of a policy, e.g. {@code drop-oldest}.
+     */
+    public static OverflowPolicy parse(String value) {
+        try {
+            return valueOf(value.trim().replace('-', '_').toUpperCase());
+        } catch (IllegalArgumentException e) {
+            throw new IllegalArgumentException("unknown overflow policy " + value + ", expected drop-oldest or fail");
+        }
+    }
+}
@@ -0,0 +1,102 @@
+package com.amazonaws.lex.twilio.sample.streaming;
+
+import com.amazonaws.lex.twilio.sample.lifecycle.Configuration;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.Properties;
+
+/*
+ * Copyright Amazon.com, Inc. or its affiliates. All Rights Reserved.
+ * SPDX-License-Identifier: MIT-0
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this
+ * software and associated documentation files (the "Software"), to deal in the Software
+ * without restriction, including without limitation the rights to use, copy, modify,
+ * merge, publish, distribute, sublicense, and/or sell copies of the Software, and to
+ * permit persons to whom the Software is furnished to do so.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED,
+ * INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A
+ * PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT
+ * HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION
+ * OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE
+ * SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+/**
+ * Bounds and overflow policy of one kind of queue, read from queue-configuration.properties as
+ * {@code <name>.capacity}, {@code <name>.max-age-ms} and {@code <name>.overflow-policy}.
+ */
+final class QueueSettings {
+
+    private static final long DEFAULT_CAPACITY = 1000;
+    private static final long DEFAULT_MAX_AGE_MS = 2000;
+    private static final String DEFAULT_POLICY = "drop-oldest";
+    // the queues of the streaming layer, checked when the settings are loaded.
+    private static final List<String> QUEUES = Arrays.asList("lex-events", "playback", "reconnect-audio");
+
+    private static volatile Properties properties;
+
+    private final long capacity;
+    private final long maxAgeMillis;
+    private final OverflowPolicy policy;
+
+    QueueSettings(long capacity, long maxAgeMillis, OverflowPolicy policy) {
+        if (capacity <= 0 || maxAgeMillis <= 0) {
+            throw new IllegalArgumentException("queue capacity and maximum age must be positive");
+        }
+        this.capacity = capacity;
+        this.maxAgeMillis = maxAgeMillis;
+        this.policy = policy;
+    }
+
+    static QueueSettings forQueue(String name) {
+        return forQueue(getProperties(), name);
+    }
+
+    private static QueueSettings forQueue(Properties prop, String name) {
+        return new QueueSettings(
+                Long.parseLong(prop.getProperty(name + ".capacity", String.valueOf(DEFAULT_CAPACITY)).trim()),
+                Long.parseLong(prop.getProperty(name + ".max-age-ms", String.valueOf(DEFAULT_MAX_AGE_MS)).trim()),
+                OverflowPolicy.parse(prop.getProperty(name + ".overflow-policy", DEFAULT_POLICY)));
+    }
+
+    long getCapacity() {
+        return capacity;
+    }
+
+    long getMaxAgeMillis() {
+        return maxAgeMillis;
+    }
+
+    OverflowPolicy getPolicy() {
+        return policy;
+    }
+
+    private static Properties getProperties() {
+        if (properties == null) {
+            synchronized (QueueSettings.class) {
+                if (properties == null) {
+                    Properties loaded = Configuration.load(Configuration.QUEUES);
+                    check(loaded);
+                    properties = loaded;
+                }
+            }
+        }
+        return properties;
+    }
+
+    /**
+     * @throws IllegalArgumentException if the settings of a queue are invalid, e.g. its overflow policy is unknown
+     */
+    static void check(Properties prop) {
+        for (String name : QUEUES) {
+            try {
+                forQueue(prop, name);
+            } catch (IllegalArgumentException e) {
+                throw new IllegalArgumentException(name + ": " + e.getMessage(), e);
+            }
+        }
+    }
+}
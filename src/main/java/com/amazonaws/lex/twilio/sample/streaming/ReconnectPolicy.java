@@ -0,0 +1,68 @@
+package com.amazonaws.lex.twilio.sample.streaming;
+
+import java.util.Properties;
+import java.util.concurrent.ThreadLocalRandom;
+
+/*
+ * Copyright Amazon.com, Inc. or its affiliates. All Rights Reserved.
+ * SPDX-License-Identifier: MIT-0
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this
+ * software and associated documentation files (the "Software"), to deal in the Software
+ * without restriction, including without limitation the rights to use, copy, modify,
+ * merge, publish, distribute, sublicense, and/or sell copies of the Software, and to
+ * permit persons to whom the Software is furnished to do so.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED,
+ * INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A
+ * PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT
+ * HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION
+ * OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE
+ * SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+/**
+ * How a conversation whose Lex stream fails mid-call is reopened, configured in bot-configuration.properties:
+ * <ul>
+ *     <li>{@code reconnectMaxAttempts}: attempts to reopen the stream after a failure before the call is hung up,
+ *     0 (default) hangs up on the first failure</li>
+ *     <li>{@code reconnectBackoffMs}: wait before the first attempt, doubled for every further one, default 100</li>
+ *     <li>{@code reconnectMaxBackoffMs}: longest wait between attempts, default 2000</li>
+ * </ul>
+ */
+public final class ReconnectPolicy {
+
+    private final int maxAttempts;
+    private final long backoffMillis;
+    private final long maxBackoffMillis;
+
+    private ReconnectPolicy(int maxAttempts, long backoffMillis, long maxBackoffMillis) {
+        this.maxAttempts = maxAttempts;
+        this.backoffMillis = backoffMillis;
+        this.maxBackoffMillis = maxBackoffMillis;
+    }
+
+    static ReconnectPolicy fromProperties(Properties properties) {
+        return new ReconnectPolicy(
+                Integer.parseInt(properties.getProperty("reconnectMaxAttempts", "0").trim()),
+                Long.parseLong(properties.getProperty("reconnectBackoffMs", "100").trim()),
+                Long.parseLong(properties.getProperty("reconnectMaxBackoffMs", "2000").trim()));
+    }
+
+    public boolean isEnabled() {
+        return maxAttempts > 0;
+    }
+
+    public int getMaxAttempts() {
+        return maxAttempts;
+    }
+
+    /**
+     * Wait before the given attempt (starting at 1): exponential, capped, with up to half of it as random jitter so
+     * that calls which failed together do not reconnect together.
+     */
+    public long backoffMillis(int attempt) {
+        long backoff = Math.min(maxBackoffMillis, backoffMillis << Math.min(attempt - 1, 20));
+        return backoff / 2 + ThreadLocalRandom.current().nextLong(backoff / 2 + 1);
+    }
+}
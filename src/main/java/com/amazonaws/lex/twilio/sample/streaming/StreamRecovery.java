@@ -0,0 +1,111 @@
+package com.amazonaws.lex.twilio.sample.streaming;
+
+import software.amazon.awssdk.services.lexruntimev2.model.ThrottlingException;
+
+/*
+ * Copyright Amazon.com, Inc. or its affiliates. All Rights Reserved.
+ * SPDX-License-Identifier: MIT-0
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this
+ * software and associated documentation files (the "Software"), to deal in the Software
+ * without restriction, including without limitation the rights to use, copy, modify,
+ * merge, publish, distribute, sublicense, and/or sell copies of the Software, and to
+ * permit persons to whom the Software is furnished to do so.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED,
+ * INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A
+ * PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT
+ * HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION
+ * OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE
+ * SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+/**
+ * Decides what happens to a conversation whose Lex stream has failed: a throttled start is queued again behind the
+ * lowered quota up to {@value #MAX_THROTTLED_RETRIES} times, any other failure reopens the stream up to the reconnect
+ * policy's number of attempts, and then the call is given up on. The counts start over once a stream is established.
+ * <p>
+ * Not thread safe: confined to the call's actor.
+ */
+final class StreamRecovery {
+
+    // throttled starts of a call that are queued again before the call is hung up.
+    static final int MAX_THROTTLED_RETRIES = 3;
+
+    enum Action {
+        /**
+         * Queue the start again at the quota manager, which paces it.
+         */
+        REQUEUE,
+        /**
+         * Reopen the stream after {@link #backoffMillis()}.
+         */
+        RECONNECT,
+        /**
+         * Hang up.
+         */
+        GIVE_UP
+    }
+
+    private final ReconnectPolicy reconnectPolicy;
+    // failed attempts since the last established stream.
+    private int failedAttempts;
+    // throttled attempts since the last established stream.
+    private int throttledAttempts;
+
+    StreamRecovery(ReconnectPolicy reconnectPolicy) {
+        this.reconnectPolicy = reconnectPolicy;
+    }
+
+    /**
+     * Counts the failure against the attempts left.
+     *
+     * @param conversationStopped whether the conversation ended meanwhile, in which case it is never reopened
+     */
+    Action streamFailed(Throwable exception, boolean conversationStopped) {
+        if (conversationStopped) {
+            return Action.GIVE_UP;
+        }
+        if (isThrottling(exception) && throttledAttempts < MAX_THROTTLED_RETRIES) {
+            throttledAttempts++;
+            return Action.REQUEUE;
+        }
+        if (failedAttempts >= reconnectPolicy.getMaxAttempts()) {
+            return Action.GIVE_UP;
+        }
+        failedAttempts++;
+        return Action.RECONNECT;
+    }
+
+    /**
+     * A stream is established: later failures have all their attempts again.
+     */
+    void established() {
+        failedAttempts = 0;
+        throttledAttempts = 0;
+    }
+
+    /**
+     * Wait before the reconnect attempt just counted.
+     */
+    long backoffMillis() {
+        return reconnectPolicy.backoffMillis(failedAttempts);
+    }
+
+    int getFailedAttempts() {
+        return failedAttempts;
+    }
+
+    int getThrottledAttempts() {
+        return throttledAttempts;
+    }
+
+    static boolean isThrottling(Throwable exception) {
+        for (Throwable cause = exception; cause != null; cause = cause.getCause()) {
+            if (cause instanceof ThrottlingException) {
+                return true;
+            }
+        }
+        return false;
+    }
+}
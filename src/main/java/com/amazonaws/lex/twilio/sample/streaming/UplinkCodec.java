@@ -0,0 +1,148 @@
+package com.amazonaws.lex.twilio.sample.streaming;
+
+import java.util.Properties;
+
+/*
+ * Copyright Amazon.com, Inc. or its affiliates. All Rights Reserved.
+ * SPDX-License-Identifier: MIT-0
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this
+ * software and associated documentation files (the "Software"), to deal in the Software
+ * without restriction, including without limitation the rights to use, copy, modify,
+ * merge, publish, distribute, sublicense, and/or sell copies of the Software, and to
+ * permit persons to whom the Software is furnished to do so.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED,
+ * INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A
+ * PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT
+ * HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION
+ * OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE
+ * SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+/**
+ * Format of the caller's audio sent to Lex. {@link #PCM} sends the 16 bit PCM transcoded from Twilio's u-law as it is,
+ * 128 kbit/s per call. Opus sends constant bit rate Opus frames of a fixed duration, which Lex accepts as
+ * {@code audio/x-cbr-opus-with-preamble}: with a constant bit rate every frame has the same size, so the frames are
+ * simply concatenated, without a preamble.
+ * <p>
+ * Configured per bot in bot-configuration.properties:
+ * <ul>
+ *     <li>{@code uplinkCodec}: {@code pcm} (default) or {@code opus}</li>
+ *     <li>{@code opusBitRate}: bits per second, default 16000</li>
+ *     <li>{@code opusFrameMs}: frame duration, one of 10, 20, 40 or 60, default 20 (one Twilio media frame)</li>
+ *     <li>{@code opusComplexity}: encoder complexity from 0 (cheapest) to 10, default 5</li>
+ * </ul>
+ */
+public final class UplinkCodec {
+
+    public static final UplinkCodec PCM = new UplinkCodec(Format.PCM, 0, 0, 0);
+
+    static final int SAMPLE_RATE = 8000;
+
+    private final Format format;
+    private final int bitRate;
+    private final int frameMillis;
+    private final int complexity;
+    // one Opus frame of silence, encoded on first use.
+    private volatile byte[] silentFrame;
+
+    private UplinkCodec(Format format, int bitRate, int frameMillis, int complexity) {
+        this.format = format;
+        this.bitRate = bitRate;
+        this.frameMillis = frameMillis;
+        this.complexity = complexity;
+    }
+
+    /**
+     * @throws IllegalArgumentException if the bit rate does not give whole bytes per frame, or the frame duration or
+     *                                  complexity is not supported by Opus
+     */
+    public static UplinkCodec opus(int bitRate, int frameMillis, int complexity) {
+        if (frameMillis != 10 && frameMillis != 20 && frameMillis != 40 && frameMillis != 60) {
+            throw new IllegalArgumentException("unsupported Opus frame duration " + frameMillis + " ms");
+        }
+        if (bitRate < 6000 || bitRate > 510000 || bitRate * frameMillis % 8000 != 0) {
+            throw new IllegalArgumentException("Opus bit rate " + bitRate + " does not give a whole number of bytes per "
+                    + frameMillis + " ms frame");
+        }
+        if (complexity < 0 || complexity > 10) {
+            throw new IllegalArgumentException("Opus complexity must be between 0 and 10, was " + complexity);
+        }
+        return new UplinkCodec(Format.OPUS, bitRate, frameMillis, complexity);
+    }
+
+    static UplinkCodec fromProperties(Properties properties) {
+        String codec = properties.getProperty("uplinkCodec", "pcm").trim();
+        switch (codec.toLowerCase()) {
+            case "pcm":
+                return PCM;
+            case "opus":
+                return opus(Integer.parseInt(properties.getProperty("opusBitRate", "16000")),
+                        Integer.parseInt(properties.getProperty("opusFrameMs", "20")),
+                        Integer.parseInt(properties.getProperty("opusComplexity", "5")));
+            default:
+                throw new IllegalArgumentException("unknown uplink codec " + codec);
+        }
+    }
+
+    /**
+     * Content type of the audio input events.
+     */
+    public String getContentType() {
+        if (format == Format.PCM) {
+            return "audio/lpcm; sample-rate=8000; sample-size-bits=16; channel-count=1; is-big-endian=false";
+        }
+        return "audio/x-cbr-opus-with-preamble; preamble-size=0; bit-rate=" + bitRate
+                + "; frame-size-milliseconds=" + frameMillis;
+    }
+
+    /**
+     * Creates the encoder of one conversation. Opus encoders keep state between frames, so they are never shared.
+     */
+    public UplinkEncoder newEncoder() {
+        if (format == Format.PCM) {
+            return pcm -> pcm;
+        }
+        return new OpusUplinkEncoder(bitRate, frameMillis, complexity);
+    }
+
+    /**
+     * Encoded silence of at most the given length, in whole frames. Both formats have a constant bit rate, so the
+     * length in bytes is a duration: this fills the place of audio dropped from the stream.
+     */
+    public byte[] silence(int length) {
+        if (format == Format.PCM) {
+            return new byte[length];
+        }
+        byte[] frame = silentFrame;
+        if (frame == null) {
+            // a frame of a fresh encoder decodes as silence in any conversation's stream.
+            frame = new OpusUplinkEncoder(bitRate, frameMillis, complexity)
+                    .encode(new byte[SAMPLE_RATE * frameMillis / 1000 * 2]);
+            silentFrame = frame;
+        }
+        byte[] silence = new byte[length - length % frame.length];
+        for (int offset = 0; offset < silence.length; offset += frame.length) {
+            System.arraycopy(frame, 0, silence, offset, frame.length);
+        }
+        return silence;
+    }
+
+    /**
+     * Bits per second of the encoded audio.
+     */
+    public int getBitRate() {
+        return format == Format.PCM ? SAMPLE_RATE * 16 : bitRate;
+    }
+
+    @Override
+    public String toString() {
+        return format == Format.PCM ? "pcm" : "opus " + bitRate + " bit/s, " + frameMillis + " ms frames, complexity " + complexity;
+    }
+
+    private enum Format {
+        PCM,
+        OPUS
+    }
+}
@@ -0,0 +1,34 @@
+package com.amazonaws.lex.twilio.sample.streaming;
+
+/*
+ * Copyright Amazon.com, Inc. or its affiliates. All Rights Reserved.
+ * SPDX-License-Identifier: MIT-0
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this
+ * software and associated documentation files (the "Software"), to deal in the Software
+ * without restriction, including without limitation the rights to use, copy, modify,
+ * merge, publish, distribute, sublicense, and/or sell copies of the Software, and to
+ * permit persons to whom the Software is furnished to do so.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED,
+ * INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A
+ * PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT
+ * HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION
+ * OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE
+ * SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+/**
+ * Encodes the caller's audio of one conversation for Lex, see {@link UplinkCodec}.
+ */
+public interface UplinkEncoder {
+
+    /**
+     * Encodes the next piece of the caller's audio. Encoders working in frames keep audio that does not fill a frame
+     * until the next call.
+     *
+     * @param pcm 16 bit little endian PCM at 8kHz; it may be returned as it is, so it must not be modified afterwards
+     * @return the encoded audio, or null when no complete frame is available yet
+     */
+    byte[] encode(byte[] pcm);
+}
@@ -0,0 +1,355 @@
+package com.amazonaws.lex.twilio.sample.timeline;
+
+import com.amazonaws.lex.twilio.sample.metrics.LatencyHistogram;
+import com.amazonaws.lex.twilio.sample.metrics.Metrics;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Supplier;
+
+/*
+ * Copyright Amazon.com, Inc. or its affiliates. All Rights Reserved.
+ * SPDX-License-Identifier: MIT-0
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this
+ * software and associated documentation files (the "Software"), to deal in the Software
+ * without restriction, including without limitation the rights to use, copy, modify,
+ * merge, publish, distribute, sublicense, and/or sell copies of the Software, and to
+ * permit persons to whom the Software is furnished to do so.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED,
+ * INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A
+ * PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT
+ * HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION
+ * OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE
+ * SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+/**
+ * Where the time of one call goes: call set up (webhook, WebSocket open, start message, Lex stream established) and,
+ * for every conversation turn, the last voiced user audio, the first transcript, the intent result, the first bot
+ * audio, the first media frame sent to Twilio and the returned mark.
+ * <p>
+ * Milestones are {@link System#nanoTime()} values in a fixed size array, so recording allocates nothing. Intervals
+ * between milestones are added to the {@code timeline.*} latency histograms as soon as both ends are known.
+ * <p>
+ * Turns are delimited by the bot's responses: a transcript after the previous turn's intent result, bot audio or mark,
+ * a second intent result, or bot audio after the previous playback was marked as finished, starts a new turn.
+ * <p>
+ * Stages of the call can add statistics of their own with {@link #addStats(String, Supplier)}, rendered with the
+ * milestones.
+ */
+public final class CallTimeline {
+
+    // call set up milestones
+    static final int WEBHOOK = 0;
+    static final int WEBSOCKET_OPEN = 1;
+    static final int START = 2;
+    static final int LEX_STREAM = 3;
+    private static final int SETUP_SLOTS = 4;
+    private static final String[] SETUP_NAMES = {"webhook", "websocket_open", "start", "lex_stream"};
+
+    // milestones of every turn, relative to the turn's first slot
+    static final int LAST_USER_AUDIO = 0;
+    static final int TRANSCRIPT = 1;
+    static final int INTENT_RESULT = 2;
+    static final int AUDIO_RESPONSE = 3;
+    static final int MEDIA_SENT = 4;
+    static final int MARK = 5;
+    private static final int TURN_SLOTS = 6;
+    private static final String[] TURN_NAMES = {"last_user_audio", "transcript", "intent_result", "audio_response",
+            "media_sent", "mark"};
+
+    static final int MAX_TURNS = 32;
+
+    // peak of a 16 bit sample above which a frame counts as the caller speaking, roughly -30 dBFS.
+    private static final int VOICED_PEAK = 1000;
+
+    private static final Interval[] SETUP_INTERVALS = {
+            new Interval("setup.webhook_to_websocket", WEBHOOK, WEBSOCKET_OPEN),
+            new Interval("setup.websocket_to_start", WEBSOCKET_OPEN, START),
+            new Interval("setup.start_to_lex_stream", START, LEX_STREAM),
+            new Interval("setup.webhook_to_lex_stream", WEBHOOK, LEX_STREAM)
+    };
+    private static final Interval[] TURN_INTERVALS = {
+            new Interval("turn.user_audio_to_transcript", LAST_USER_AUDIO, TRANSCRIPT),
+            new Interval("turn.transcript_to_intent_result", TRANSCRIPT, INTENT_RESULT),
+            new Interval("turn.intent_result_to_audio_response", INTENT_RESULT, AUDIO_RESPONSE),
+            new Interval("turn.audio_response_to_media_sent", AUDIO_RESPONSE, MEDIA_SENT),
+            new Interval("turn.media_sent_to_mark", MEDIA_SENT, MARK),
+            // what the caller hears as the bot's reaction time
+            new Interval("turn.user_audio_to_media_sent", LAST_USER_AUDIO, MEDIA_SENT)
+    };
+
+    private final String callSid;
+    private final long createdEpochMillis;
+    private final long createdNanos;
+    // guarded by this; 0 means the milestone has not been reached.
+    private final long[] timestamps;
+    private int turn;
+    private boolean turnsTruncated;
+    private boolean ended;
+    // guarded by this
+    private final Map<String, Supplier<?>> stats;
+    // written for every voiced frame by the WebSocket thread, taken over into a turn with its transcript.
+    private volatile long lastVoicedNanos;
+
+    CallTimeline(String callSid) {
+        this.callSid = callSid;
+        this.createdEpochMillis = System.currentTimeMillis();
+        this.createdNanos = System.nanoTime();
+        this.timestamps = new long[SETUP_SLOTS + MAX_TURNS * TURN_SLOTS];
+        this.stats = new LinkedHashMap<>();
+    }
+
+    public String getCallSid() {
+        return callSid;
+    }
+
+    public void webhookReceived(long nanos) {
+        recordSetup(WEBHOOK, nanos);
+    }
+
+    public void webSocketOpened(long nanos) {
+        recordSetup(WEBSOCKET_OPEN, nanos);
+    }
+
+    public void started(long nanos) {
+        recordSetup(START, nanos);
+    }
+
+    public void lexStreamEstablished() {
+        recordSetup(LEX_STREAM, System.nanoTime());
+    }
+
+    /**
+     * Called for every inbound frame; remembers the frame's time if the caller is speaking.
+     *
+     * @param pcm 16 bit little endian PCM
+     */
+    public void userAudio(byte[] pcm) {
+        for (int i = 0; i + 1 < pcm.length; i += 2) {
+            int sample = (short) ((pcm[i] & 0xFF) | (pcm[i + 1] << 8));
+            if (sample > VOICED_PEAK || sample < -VOICED_PEAK) {
+                lastVoicedNanos = System.nanoTime();
+                return;
+            }
+        }
+    }
+
+    public synchronized void transcript() {
+        long now = System.nanoTime();
+        if (isSet(INTENT_RESULT) || isSet(AUDIO_RESPONSE) || isSet(MARK)) {
+            if (!nextTurn()) {
+                return;
+            }
+        }
+        if (!isSet(TRANSCRIPT)) {
+            long lastVoiced = lastVoicedNanos;
+            if (lastVoiced != 0 && lastVoiced < now) {
+                recordTurn(LAST_USER_AUDIO, lastVoiced);
+            }
+            // speech of this turn must not be attributed to the next one.
+            lastVoicedNanos = 0;
+            recordTurn(TRANSCRIPT, now);
+        }
+    }
+
+    public synchronized void intentResult() {
+        long now = System.nanoTime();
+        if (isSet(INTENT_RESULT) && !nextTurn()) {
+            return;
+        }
+        recordTurn(INTENT_RESULT, now);
+    }
+
+    public synchronized void audioResponse() {
+        long now = System.nanoTime();
+        if (isSet(MARK) && !nextTurn()) {
+            return;
+        }
+        if (!isSet(AUDIO_RESPONSE)) {
+            recordTurn(AUDIO_RESPONSE, now);
+        }
+    }
+
+    public synchronized void mediaSent() {
+        if (!isSet(MEDIA_SENT)) {
+            recordTurn(MEDIA_SENT, System.nanoTime());
+        }
+    }
+
+    public synchronized void markReturned() {
+        if (!isSet(MARK)) {
+            recordTurn(MARK, System.nanoTime());
+        }
+    }
+
+    /**
+     * Renders the statistics the supplier returns, serialized with Gson, under the given name with the milestones.
+     */
+    public synchronized void addStats(String name, Supplier<?> supplier) {
+        stats.put(name, supplier);
+    }
+
+    synchronized void end() {
+        ended = true;
+    }
+
+    public synchronized boolean isEnded() {
+        return ended;
+    }
+
+    synchronized boolean isStarted() {
+        return timestamps[START] != 0;
+    }
+
+    /**
+     * Time since the timeline was created.
+     */
+    long ageMillis() {
+        return TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - createdNanos);
+    }
+
+    /**
+     * Copy of the timeline for rendering, with milestones in milliseconds since the first milestone of the call.
+     */
+    public synchronized Snapshot snapshot() {
+        long origin = 0;
+        for (int slot = 0; slot < SETUP_SLOTS; slot++) {
+            if (timestamps[slot] != 0 && (origin == 0 || timestamps[slot] < origin)) {
+                origin = timestamps[slot];
+            }
+        }
+        if (origin == 0) {
+            origin = createdNanos;
+        }
+
+        Map<String, Double> setup = new LinkedHashMap<>();
+        for (int slot = 0; slot < SETUP_SLOTS; slot++) {
+            putOffset(setup, SETUP_NAMES[slot], timestamps[slot], origin);
+        }
+        List<Map<String, Double>> turns = new ArrayList<>();
+        for (int index = 0; index <= turn; index++) {
+            Map<String, Double> milestones = new LinkedHashMap<>();
+            for (int slot = 0; slot < TURN_SLOTS; slot++) {
+                putOffset(milestones, TURN_NAMES[slot], timestamps[SETUP_SLOTS + index * TURN_SLOTS + slot], origin);
+            }
+            if (!milestones.isEmpty()) {
+                turns.add(milestones);
+            }
+        }
+        Map<String, Object> renderedStats = new LinkedHashMap<>();
+        stats.forEach((name, supplier) -> renderedStats.put(name, supplier.get()));
+        long startedAt = createdEpochMillis + TimeUnit.NANOSECONDS.toMillis(origin - createdNanos);
+        return new Snapshot(callSid, startedAt, ended, turnsTruncated, setup, turns, renderedStats);
+    }
+
+    /**
+     * Names of the intervals added to the {@code timeline.*} latency histograms.
+     */
+    static List<String> intervalNames() {
+        List<String> names = new ArrayList<>();
+        for (Interval interval : SETUP_INTERVALS) {
+            names.add(interval.name);
+        }
+        for (Interval interval : TURN_INTERVALS) {
+            names.add(interval.name);
+        }
+        return names;
+    }
+
+    private synchronized void recordSetup(int slot, long nanos) {
+        if (timestamps[slot] != 0) {
+            return;
+        }
+        timestamps[slot] = nanos;
+        for (Interval interval : SETUP_INTERVALS) {
+            if (interval.to == slot || interval.from == slot) {
+                interval.record(timestamps, 0);
+            }
+        }
+    }
+
+    private void recordTurn(int slot, long nanos) {
+        int base = SETUP_SLOTS + turn * TURN_SLOTS;
+        timestamps[base + slot] = nanos;
+        for (Interval interval : TURN_INTERVALS) {
+            if (interval.to == slot) {
+                interval.record(timestamps, base);
+            }
+        }
+    }
+
+    private boolean isSet(int slot) {
+        return timestamps[SETUP_SLOTS + turn * TURN_SLOTS + slot] != 0;
+    }
+
+    private boolean nextTurn() {
+        if (turn + 1 >= MAX_TURNS) {
+            turnsTruncated = true;
+            return false;
+        }
+        turn++;
+        return true;
+    }
+
+    private static void putOffset(Map<String, Double> milestones, String name, long nanos, long origin) {
+        if (nanos != 0) {
+            // milliseconds with a tenth of a millisecond resolution
+            milestones.put(name, Math.round((nanos - origin) / 100_000.0) / 10.0);
+        }
+    }
+
+    private static final class Interval {
+        private final String name;
+        private final int from;
+        private final int to;
+        private final LatencyHistogram histogram;
+
+        private Interval(String name, int from, int to) {
+            this.name = name;
+            this.from = from;
+            this.to = to;
+            this.histogram = Metrics.latency("timeline." + name);
+        }
+
+        /**
+         * Records the interval if both of its milestones are set.
+         */
+        private void record(long[] timestamps, int base) {
+            long start = timestamps[base + from];
+            long end = timestamps[base + to];
+            if (start != 0 && end != 0) {
+                histogram.recordNanos(end - start);
+            }
+        }
+    }
+
+    /**
+     * Rendered form of a timeline, serialized with Gson.
+     */
+    public static final class Snapshot {
+        private final String callSid;
+        private final long startedAt;
+        private final boolean ended;
+        private final boolean turnsTruncated;
+        private final Map<String, Double> setup;
+        private final List<Map<String, Double>> turns;
+        private final Map<String, Object> stats;
+
+        private Snapshot(String callSid, long startedAt, boolean ended, boolean turnsTruncated,
+                         Map<String, Double> setup, List<Map<String, Double>> turns, Map<String, Object> stats) {
+            this.callSid = callSid;
+            this.startedAt = startedAt;
+            this.ended = ended;
+            this.turnsTruncated = turnsTruncated;
+            this.setup = setup;
+            this.turns = turns;
+            this.stats = stats;
+        }
+    }
+}
@@ -0,0 +1,122 @@
+package com.amazonaws.lex.twilio.sample.timeline;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+
+/*
+ * Copyright Amazon.com, Inc. or its affiliates. All Rights Reserved.
+ * SPDX-License-Identifier: MIT-0
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this
+ * software and associated documentation files (the "Software"), to deal in the Software
+ * without restriction, including without limitation the rights to use, copy, modify,
+ * merge, publish, distribute, sublicense, and/or sell copies of the Software, and to
+ * permit persons to whom the Software is furnished to do so.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED,
+ * INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A
+ * PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT
+ * HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION
+ * OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE
+ * SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+/**
+ * Timelines of the calls in progress on this node, by call SID, and of the most recently ended calls.
+ */
+public final class CallTimelines {
+
+    static final int RECENT_CALLS = 100;
+    // a webhook whose media stream never reaches this node (e.g. routed to a peer) is forgotten after this long.
+    private static final long UNSTARTED_TTL_MILLIS = TimeUnit.MINUTES.toMillis(5);
+
+    private static final ConcurrentMap<String, CallTimeline> ACTIVE = new ConcurrentHashMap<>();
+    // guarded by itself, newest first.
+    private static final Deque<CallTimeline> RECENT = new ArrayDeque<>();
+
+    private CallTimelines() {
+    }
+
+    /**
+     * Starts the timeline of a call when Twilio calls the webhook.
+     */
+    public static void webhookReceived(String callSid) {
+        long now = System.nanoTime();
+        forgetUnstarted();
+        ACTIVE.computeIfAbsent(callSid, CallTimeline::new).webhookReceived(now);
+    }
+
+    /**
+     * Continues the timeline started by the webhook, or starts one when the webhook was served by another node.
+     *
+     * @param webSocketOpenedNanos {@link System#nanoTime()} when the media stream's WebSocket was opened
+     */
+    public static CallTimeline callStarted(String callSid, long webSocketOpenedNanos) {
+        long now = System.nanoTime();
+        CallTimeline timeline = ACTIVE.computeIfAbsent(callSid, CallTimeline::new);
+        timeline.webSocketOpened(webSocketOpenedNanos);
+        timeline.started(now);
+        return timeline;
+    }
+
+    public static void callEnded(CallTimeline timeline) {
+        timeline.end();
+        ACTIVE.remove(timeline.getCallSid(), timeline);
+        synchronized (RECENT) {
+            RECENT.addFirst(timeline);
+            if (RECENT.size() > RECENT_CALLS) {
+                RECENT.removeLast();
+            }
+        }
+    }
+
+    public static CallTimeline find(String callSid) {
+        CallTimeline timeline = ACTIVE.get(callSid);
+        if (timeline != null) {
+            return timeline;
+        }
+        synchronized (RECENT) {
+            for (CallTimeline recent : RECENT) {
+                if (recent.getCallSid().equals(callSid)) {
+                    return recent;
+                }
+            }
+        }
+        return null;
+    }
+
+    public static List<CallTimeline> active() {
+        return new ArrayList<>(ACTIVE.values());
+    }
+
+    /**
+     * Timelines of ended calls, newest first.
+     */
+    public static List<CallTimeline> recent(int limit) {
+        List<CallTimeline> timelines = new ArrayList<>();
+        synchronized (RECENT) {
+            Iterator<CallTimeline> iterator = RECENT.iterator();
+            while (iterator.hasNext() && timelines.size() < limit) {
+                timelines.add(iterator.next());
+            }
+        }
+        return timelines;
+    }
+
+    /**
+     * Names of the intervals whose distribution is kept in the {@code timeline.<name>} latency histograms.
+     */
+    public static List<String> intervalNames() {
+        return CallTimeline.intervalNames();
+    }
+
+    private static void forgetUnstarted() {
+        ACTIVE.values().removeIf(timeline -> !timeline.isStarted() && timeline.ageMillis() > UNSTARTED_TTL_MILLIS);
+    }
+}
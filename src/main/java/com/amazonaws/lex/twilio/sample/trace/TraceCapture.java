@@ -0,0 +1,94 @@
+package com.amazonaws.lex.twilio.sample.trace;
+
+import com.amazonaws.lex.twilio.sample.lifecycle.Configuration;
+import org.apache.log4j.Logger;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Properties;
+
+/*
+ * Copyright Amazon.com, Inc. or its affiliates. All Rights Reserved.
+ * SPDX-License-Identifier: MIT-0
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this
+ * software and associated documentation files (the "Software"), to deal in the Software
+ * without restriction, including without limitation the rights to use, copy, modify,
+ * merge, publish, distribute, sublicense, and/or sell copies of the Software, and to
+ * permit persons to whom the Software is furnished to do so.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED,
+ * INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A
+ * PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT
+ * HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION
+ * OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE
+ * SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+/**
+ * Decides whether media streams are captured to trace files and opens a {@link TraceWriter} per stream. Configured
+ * with {@code trace-capture-enabled} and {@code trace-directory} in server-configuration.properties, each of which can
+ * be overridden with a system property of the same name.
+ */
+public final class TraceCapture {
+
+    private static final Logger LOG = Logger.getLogger(TraceCapture.class);
+
+    private static volatile TraceCapture instance;
+
+    private final boolean enabled;
+    private final Path directory;
+
+    private TraceCapture(boolean enabled, Path directory) {
+        this.enabled = enabled;
+        this.directory = directory;
+    }
+
+    public static TraceCapture getInstance() {
+        if (instance == null) {
+            synchronized (TraceCapture.class) {
+                if (instance == null) {
+                    Properties properties = Configuration.load(Configuration.SERVER);
+                    boolean enabled = Boolean.parseBoolean(property(properties, "trace-capture-enabled", "false"));
+                    String directory = property(properties, "trace-directory", "");
+                    instance = new TraceCapture(enabled,
+                            directory.isEmpty() ? Paths.get(System.getProperty("java.io.tmpdir"), "lex-twilio-traces")
+                                    : Paths.get(directory));
+                    if (enabled) {
+                        LOG.info("capturing media streams to " + instance.directory.toAbsolutePath());
+                    }
+                }
+            }
+        }
+        return instance;
+    }
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    /**
+     * Opens a trace for a new media stream.
+     *
+     * @return the writer, or null when capturing is disabled or the file cannot be created. Capturing must never
+     * break a call, so failures are only logged.
+     */
+    public TraceWriter open(String sessionId) {
+        if (!enabled) {
+            return null;
+        }
+        try {
+            Files.createDirectories(directory);
+            return new TraceWriter(directory.resolve("trace-" + System.currentTimeMillis() + "-" + sessionId + ".ltrc"));
+        } catch (IOException e) {
+            LOG.error("could not open a media stream trace in " + directory, e);
+            return null;
+        }
+    }
+
+    private static String property(Properties properties, String key, String defaultValue) {
+        return System.getProperty(key, properties.getProperty(key, defaultValue)).trim();
+    }
+}
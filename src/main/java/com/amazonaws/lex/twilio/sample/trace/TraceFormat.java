@@ -0,0 +1,107 @@
+package com.amazonaws.lex.twilio.sample.trace;
+
+import com.amazonaws.lex.twilio.sample.server.messages.MessageType;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+
+/*
+ * Copyright Amazon.com, Inc. or its affiliates. All Rights Reserved.
+ * SPDX-License-Identifier: MIT-0
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this
+ * software and associated documentation files (the "Software"), to deal in the Software
+ * without restriction, including without limitation the rights to use, copy, modify,
+ * merge, publish, distribute, sublicense, and/or sell copies of the Software, and to
+ * permit persons to whom the Software is furnished to do so.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED,
+ * INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A
+ * PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT
+ * HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION
+ * OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE
+ * SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+/**
+ * Binary layout of a media stream trace. A trace starts with a header
+ * <pre>
+ *     magic "LTRC" (4 bytes), version (1 byte), wall clock time of the first message in epoch millis (8 bytes)
+ * </pre>
+ * followed by one record per inbound WebSocket message
+ * <pre>
+ *     type (1 byte), microseconds since the previous record (varint), data length (varint), data
+ * </pre>
+ * The data of a media record is the raw u-law payload; every other record holds the UTF-8 JSON text of the message.
+ * Record times come from {@link System#nanoTime()}, so they are monotonic even when the wall clock is adjusted.
+ */
+final class TraceFormat {
+
+    static final int MAGIC = 0x4C545243;
+    static final int VERSION = 1;
+
+    // stable codes, independent of the declaration order of MessageType.
+    private static final int CONNECTED = 1;
+    private static final int START = 2;
+    private static final int MEDIA = 3;
+    private static final int STOP = 4;
+    private static final int MARK = 5;
+
+    private TraceFormat() {
+    }
+
+    static int codeOf(MessageType messageType) {
+        switch (messageType) {
+            case CONNECTED:
+                return CONNECTED;
+            case START:
+                return START;
+            case MEDIA:
+                return MEDIA;
+            case STOP:
+                return STOP;
+            case MARK:
+                return MARK;
+            default:
+                throw new IllegalArgumentException("unknown message type " + messageType);
+        }
+    }
+
+    static MessageType typeOf(int code) throws IOException {
+        switch (code) {
+            case CONNECTED:
+                return MessageType.CONNECTED;
+            case START:
+                return MessageType.START;
+            case MEDIA:
+                return MessageType.MEDIA;
+            case STOP:
+                return MessageType.STOP;
+            case MARK:
+                return MessageType.MARK;
+            default:
+                throw new IOException("unknown record type " + code);
+        }
+    }
+
+    static void writeVarLong(DataOutput output, long value) throws IOException {
+        while ((value & ~0x7FL) != 0) {
+            output.writeByte((int) ((value & 0x7F) | 0x80));
+            value >>>= 7;
+        }
+        output.writeByte((int) value);
+    }
+
+    static long readVarLong(DataInput input) throws IOException {
+        long value = 0;
+        for (int shift = 0; shift < 64; shift += 7) {
+            int b = input.readUnsignedByte();
+            value |= (long) (b & 0x7F) << shift;
+            if ((b & 0x80) == 0) {
+                return value;
+            }
+        }
+        throw new IOException("malformed varint");
+    }
+}
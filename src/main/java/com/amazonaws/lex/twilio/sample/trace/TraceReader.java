@@ -0,0 +1,129 @@
+package com.amazonaws.lex.twilio.sample.trace;
+
+import com.amazonaws.lex.twilio.sample.server.messages.MessageType;
+
+import java.io.BufferedInputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+/*
+ * Copyright Amazon.com, Inc. or its affiliates. All Rights Reserved.
+ * SPDX-License-Identifier: MIT-0
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this
+ * software and associated documentation files (the "Software"), to deal in the Software
+ * without restriction, including without limitation the rights to use, copy, modify,
+ * merge, publish, distribute, sublicense, and/or sell copies of the Software, and to
+ * permit persons to whom the Software is furnished to do so.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED,
+ * INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A
+ * PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT
+ * HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION
+ * OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE
+ * SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+/**
+ * Reads the records of a trace written by {@link TraceWriter} one at a time. The data array is reused between
+ * records, so callers must copy what they keep.
+ */
+public class TraceReader implements Closeable {
+
+    private final DataInputStream input;
+    private final long startEpochMillis;
+
+    private byte[] data;
+    private int length;
+    private MessageType messageType;
+    private long offsetMicros;
+
+    public TraceReader(Path file) throws IOException {
+        this.input = new DataInputStream(new BufferedInputStream(Files.newInputStream(file)));
+        this.data = new byte[1024];
+        try {
+            if (input.readInt() != TraceFormat.MAGIC) {
+                throw new IOException(file + " is not a media stream trace");
+            }
+            int version = input.readUnsignedByte();
+            if (version != TraceFormat.VERSION) {
+                throw new IOException("unsupported trace version " + version + " in " + file);
+            }
+            this.startEpochMillis = input.readLong();
+        } catch (IOException e) {
+            input.close();
+            throw e;
+        }
+    }
+
+    /**
+     * Moves to the next record.
+     *
+     * @return false at the end of the trace. A record cut short, e.g. because the process died while capturing, also
+     * ends the trace.
+     */
+    public boolean next() throws IOException {
+        int code = input.read();
+        if (code < 0) {
+            return false;
+        }
+        try {
+            MessageType type = TraceFormat.typeOf(code);
+            long delta = TraceFormat.readVarLong(input);
+            int size = (int) TraceFormat.readVarLong(input);
+            if (data.length < size) {
+                data = new byte[Math.max(size, data.length * 2)];
+            }
+            input.readFully(data, 0, size);
+            this.messageType = type;
+            this.offsetMicros += delta;
+            this.length = size;
+            return true;
+        } catch (EOFException e) {
+            return false;
+        }
+    }
+
+    /**
+     * Wall clock time at which the first message of the trace was received.
+     */
+    public long getStartEpochMillis() {
+        return startEpochMillis;
+    }
+
+    public MessageType getMessageType() {
+        return messageType;
+    }
+
+    /**
+     * Time of the current record since the first record of the trace.
+     */
+    public long getOffsetMicros() {
+        return offsetMicros;
+    }
+
+    public byte[] getData() {
+        return data;
+    }
+
+    public int getLength() {
+        return length;
+    }
+
+    /**
+     * The data of the current record as text, for records other than media.
+     */
+    public String getText() {
+        return new String(data, 0, length, StandardCharsets.UTF_8);
+    }
+
+    @Override
+    public void close() throws IOException {
+        input.close();
+    }
+}
@@ -0,0 +1,90 @@
+package com.amazonaws.lex.twilio.sample.trace;
+
+import com.amazonaws.lex.twilio.sample.server.messages.MessageType;
+
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+/*
+ * Copyright Amazon.com, Inc. or its affiliates. All Rights Reserved.
+ * SPDX-License-Identifier: MIT-0
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this
+ * software and associated documentation files (the "Software"), to deal in the Software
+ * without restriction, including without limitation the rights to use, copy, modify,
+ * merge, publish, distribute, sublicense, and/or sell copies of the Software, and to
+ * permit persons to whom the Software is furnished to do so.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED,
+ * INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A
+ * PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT
+ * HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION
+ * OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE
+ * SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+/**
+ * Appends the inbound messages of one media stream to a trace file, see {@link TraceFormat} for the layout. Used from
+ * the WebSocket thread of its stream only, so it is not thread safe.
+ */
+public class TraceWriter implements Closeable {
+
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    private final Path file;
+    private final DataOutputStream output;
+    private long lastNanos;
+    private boolean headerWritten;
+
+    public TraceWriter(Path file) throws IOException {
+        this.file = file;
+        this.output = new DataOutputStream(new BufferedOutputStream(
+                Files.newOutputStream(file, StandardOpenOption.CREATE_NEW, StandardOpenOption.WRITE), BUFFER_SIZE));
+    }
+
+    public Path getFile() {
+        return file;
+    }
+
+    /**
+     * Appends a message that is stored as its JSON text.
+     *
+     * @param receivedNanos {@link System#nanoTime()} when the message was received
+     */
+    public void write(MessageType messageType, long receivedNanos, String json) throws IOException {
+        byte[] data = json.getBytes(StandardCharsets.UTF_8);
+        write(messageType, receivedNanos, data, data.length);
+    }
+
+    /**
+     * Appends a message with the given data, the raw u-law payload for media messages.
+     *
+     * @param receivedNanos {@link System#nanoTime()} when the message was received
+     */
+    public void write(MessageType messageType, long receivedNanos, byte[] data, int length) throws IOException {
+        if (!headerWritten) {
+            output.writeInt(TraceFormat.MAGIC);
+            output.writeByte(TraceFormat.VERSION);
+            output.writeLong(System.currentTimeMillis());
+            lastNanos = receivedNanos;
+            headerWritten = true;
+        }
+        output.writeByte(TraceFormat.codeOf(messageType));
+        TraceFormat.writeVarLong(output, Math.max(0, (receivedNanos - lastNanos) / 1000));
+        TraceFormat.writeVarLong(output, length);
+        output.write(data, 0, length);
+        // keep the remainder, so that rounding does not add up over a long call.
+        lastNanos = receivedNanos - (receivedNanos - lastNanos) % 1000;
+    }
+
+    @Override
+    public void close() throws IOException {
+        output.close();
+    }
+}
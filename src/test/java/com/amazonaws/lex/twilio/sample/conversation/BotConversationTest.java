@@ -0,0 +1,207 @@
+package com.amazonaws.lex.twilio.sample.conversation;
+
+import com.amazonaws.lex.twilio.sample.cost.CallCost;
+import com.amazonaws.lex.twilio.sample.metrics.Metrics;
+import com.amazonaws.lex.twilio.sample.streaming.EventsPublisher;
+import com.amazonaws.lex.twilio.sample.streaming.UplinkCodec;
+import org.junit.Before;
+import org.junit.Test;
+import org.reactivestreams.Subscriber;
+import org.reactivestreams.Subscription;
+import software.amazon.awssdk.services.lexruntimev2.model.AudioInputEvent;
+import software.amazon.awssdk.services.lexruntimev2.model.ConfigurationEvent;
+import software.amazon.awssdk.services.lexruntimev2.model.DisconnectionEvent;
+import software.amazon.awssdk.services.lexruntimev2.model.PlaybackCompletionEvent;
+import software.amazon.awssdk.services.lexruntimev2.model.StartConversationRequestEventStream;
+
+import java.io.ByteArrayOutputStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/*
+ * Copyright Amazon.com, Inc. or its affiliates. All Rights Reserved.
+ * SPDX-License-Identifier: MIT-0
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this
+ * software and associated documentation files (the "Software"), to deal in the Software
+ * without restriction, including without limitation the rights to use, copy, modify,
+ * merge, publish, distribute, sublicense, and/or sell copies of the Software, and to
+ * permit persons to whom the Software is furnished to do so.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED,
+ * INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A
+ * PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT
+ * HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION
+ * OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE
+ * SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+public class BotConversationTest {
+
+    private static final String CALL_SID = "CA00000000000000000000000000000002";
+    // 20ms of 8kHz 16 bit PCM, as released by the jitter buffer.
+    private static final int FRAME_SIZE = 320;
+
+    private EventCollector lostStream;
+    private BotConversation conversation;
+
+    @Before
+    public void setUp() {
+        lostStream = new EventCollector();
+        conversation = new BotConversation(publisher(lostStream), CallCost.detached());
+    }
+
+    private static EventsPublisher publisher(EventCollector collector) {
+        EventsPublisher publisher = new EventsPublisher(CALL_SID, UplinkCodec.PCM);
+        publisher.subscribe(collector);
+        return publisher;
+    }
+
+    private static byte[] frame(int number) {
+        byte[] frame = new byte[FRAME_SIZE];
+        frame[0] = (byte) number;
+        return frame;
+    }
+
+    @Test
+    public void holdsTheCallersAudioWhileReconnectingAndReplaysItInOrder() throws Exception {
+        conversation.writeUserInputAudio(frame(0));
+        lostStream.await(2);
+
+        conversation.streamLost();
+        assertTrue(conversation.isReconnecting());
+        for (int i = 1; i <= 24; i++) {
+            conversation.writeUserInputAudio(frame(i));
+        }
+        conversation.informPlaybackFinished();
+
+        EventCollector restoredStream = new EventCollector();
+        conversation.streamRestored(publisher(restoredStream));
+        assertFalse(conversation.isReconnecting());
+        conversation.writeUserInputAudio(frame(25));
+
+        // the configuration event, 24 frames in batches of 10, the held playback completion and the next frame.
+        List<StartConversationRequestEventStream> events = restoredStream.await(6);
+        assertTrue(events.get(0) instanceof ConfigurationEvent);
+        assertEquals(10 * FRAME_SIZE, audio(events.get(1)).length);
+        assertEquals(10 * FRAME_SIZE, audio(events.get(2)).length);
+        assertEquals(4 * FRAME_SIZE, audio(events.get(3)).length);
+        assertTrue(events.get(4) instanceof PlaybackCompletionEvent);
+        assertEquals(25, audio(events.get(5))[0]);
+        assertFrames(1, 24, events.subList(1, 4));
+
+        // nothing held went to the failed stream.
+        assertEquals(2, lostStream.await(2).size());
+    }
+
+    @Test
+    public void trimsHeldAudioBeyondTheQueueBounds() throws Exception {
+        LongAdder trimmed = Metrics.counter("lex.reconnect.trimmed_frames");
+        long trimmedBefore = trimmed.sum();
+        conversation.streamLost();
+        // reconnect-audio.capacity in queue-configuration.properties.
+        for (int i = 0; i < 260; i++) {
+            conversation.writeUserInputAudio(frame(i));
+        }
+
+        EventCollector restoredStream = new EventCollector();
+        conversation.streamRestored(publisher(restoredStream));
+
+        List<StartConversationRequestEventStream> events = restoredStream.await(26);
+        assertFrames(10, 259, events.subList(1, 26));
+        assertEquals(10, trimmed.sum() - trimmedBefore);
+    }
+
+    @Test
+    public void endsTheRestoredStreamOfAConversationStoppedWhileReconnecting() throws Exception {
+        conversation.streamLost();
+        conversation.writeUserInputAudio(frame(1));
+        conversation.stopConversation();
+        assertFalse(conversation.isReconnecting());
+
+        EventCollector restoredStream = new EventCollector();
+        conversation.streamRestored(publisher(restoredStream));
+
+        List<StartConversationRequestEventStream> events = restoredStream.await(2);
+        assertTrue(events.get(0) instanceof ConfigurationEvent);
+        assertTrue(events.get(1) instanceof DisconnectionEvent);
+        assertTrue(restoredStream.isComplete());
+    }
+
+    private static byte[] audio(StartConversationRequestEventStream event) {
+        return ((AudioInputEvent) event).audioChunk().asByteArrayUnsafe();
+    }
+
+    /**
+     * The audio of the events is the frames from {@code first} to {@code last}, in order.
+     */
+    private static void assertFrames(int first, int last, List<StartConversationRequestEventStream> events) {
+        ByteArrayOutputStream audio = new ByteArrayOutputStream();
+        for (StartConversationRequestEventStream event : events) {
+            byte[] chunk = audio(event);
+            audio.write(chunk, 0, chunk.length);
+        }
+        byte[] frames = audio.toByteArray();
+        assertEquals((last - first + 1) * FRAME_SIZE, frames.length);
+        for (int i = first; i <= last; i++) {
+            assertEquals((byte) i, frames[(i - first) * FRAME_SIZE]);
+        }
+    }
+
+    /**
+     * Takes the place of the Lex client: asks for every event and keeps them.
+     */
+    private static final class EventCollector implements Subscriber<StartConversationRequestEventStream> {
+
+        private final List<StartConversationRequestEventStream> events = new ArrayList<>();
+        private volatile boolean complete;
+
+        @Override
+        public void onSubscribe(Subscription subscription) {
+            subscription.request(Long.MAX_VALUE);
+        }
+
+        @Override
+        public synchronized void onNext(StartConversationRequestEventStream event) {
+            events.add(event);
+        }
+
+        @Override
+        public void onError(Throwable throwable) {
+        }
+
+        @Override
+        public void onComplete() {
+            complete = true;
+        }
+
+        boolean isComplete() {
+            return complete;
+        }
+
+        /**
+         * Waits up to a second for the given number of events, then returns the events so far.
+         */
+        List<StartConversationRequestEventStream> await(int count) throws InterruptedException {
+            long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(1);
+            while (size() < count && System.nanoTime() < deadline) {
+                TimeUnit.MILLISECONDS.sleep(5);
+            }
+            // a short while more, for events that should not be there.
+            TimeUnit.MILLISECONDS.sleep(20);
+            synchronized (this) {
+                return new ArrayList<>(events);
+            }
+        }
+
+        private synchronized int size() {
+            return events.size();
+        }
+    }
+}
@@ -0,0 +1,248 @@
+package com.amazonaws.lex.twilio.sample.conversation;
+
+import org.junit.After;
+import org.junit.Test;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Queue;
+import java.util.Set;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.BooleanSupplier;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertThrows;
+import static org.junit.Assert.assertTrue;
+
+/*
+ * Copyright Amazon.com, Inc. or its affiliates. All Rights Reserved.
+ * SPDX-License-Identifier: MIT-0
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this
+ * software and associated documentation files (the "Software"), to deal in the Software
+ * without restriction, including without limitation the rights to use, copy, modify,
+ * merge, publish, distribute, sublicense, and/or sell copies of the Software, and to
+ * permit persons to whom the Software is furnished to do so.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED,
+ * INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A
+ * PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT
+ * HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION
+ * OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE
+ * SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+public class CallActorTest {
+
+    private final List<ExecutorService> executors = new ArrayList<>();
+    private CallShards shards;
+
+    @After
+    public void stop() {
+        executors.forEach(ExecutorService::shutdownNow);
+        if (shards != null) {
+            shards.stop();
+        }
+    }
+
+    private ExecutorService pool(int threads) {
+        ExecutorService executor = Executors.newFixedThreadPool(threads);
+        executors.add(executor);
+        return executor;
+    }
+
+    @Test
+    public void runsMessagesOneAtATimeInTheOrderTheyWereTold() throws InterruptedException {
+        // a shard of several threads, so that only the actor keeps the messages apart.
+        CallActor actor = new CallActor("CA1", pool(4));
+        int senders = 4;
+        int messagesPerSender = 5_000;
+        List<List<Integer>> received = new ArrayList<>();
+        for (int i = 0; i < senders; i++) {
+            received.add(new ArrayList<>());
+        }
+        AtomicInteger running = new AtomicInteger();
+        AtomicInteger overlaps = new AtomicInteger();
+        AtomicInteger processed = new AtomicInteger();
+
+        CountDownLatch start = new CountDownLatch(1);
+        List<Thread> threads = new ArrayList<>();
+        for (int i = 0; i < senders; i++) {
+            int sender = i;
+            Thread thread = new Thread(() -> {
+                awaitQuietly(start);
+                for (int message = 0; message < messagesPerSender; message++) {
+                    int number = message;
+                    actor.tell(() -> {
+                        if (running.incrementAndGet() != 1) {
+                            overlaps.incrementAndGet();
+                        }
+                        // unsynchronized on purpose: the actor's turns happen before one another.
+                        received.get(sender).add(number);
+                        running.decrementAndGet();
+                        processed.incrementAndGet();
+                    });
+                }
+            });
+            thread.start();
+            threads.add(thread);
+        }
+        start.countDown();
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        awaitUntil(() -> processed.get() == senders * messagesPerSender);
+
+        assertEquals(0, overlaps.get());
+        for (List<Integer> numbers : received) {
+            assertEquals(messagesPerSender, numbers.size());
+            for (int i = 0; i < numbers.size(); i++) {
+                assertEquals(i, (int) numbers.get(i));
+            }
+        }
+    }
+
+    @Test
+    public void givesItsShardBackAfterATurn() {
+        Queue<Runnable> shard = new ArrayDeque<>();
+        CallActor actor = new CallActor("CA1", shard::add);
+        List<Integer> processed = new ArrayList<>();
+        int messages = CallActor.MAX_MESSAGES_PER_TURN + 8;
+        for (int i = 0; i < messages; i++) {
+            int number = i;
+            actor.tell(() -> processed.add(number));
+        }
+        // one turn is scheduled, however many messages are waiting.
+        assertEquals(1, shard.size());
+
+        shard.poll().run();
+        assertEquals(CallActor.MAX_MESSAGES_PER_TURN, processed.size());
+        assertEquals("the rest waits for the next turn", 1, shard.size());
+
+        shard.poll().run();
+        assertEquals(messages, processed.size());
+        assertTrue(shard.isEmpty());
+    }
+
+    @Test
+    public void keepsGoingAfterAFailedMessage() {
+        Queue<Runnable> shard = new ArrayDeque<>();
+        CallActor actor = new CallActor("CA1", shard::add);
+        List<String> processed = new ArrayList<>();
+        actor.tell(() -> processed.add("first"));
+        actor.tell(() -> {
+            throw new IllegalStateException("failed on purpose");
+        });
+        actor.tell(() -> processed.add("third"));
+
+        shard.poll().run();
+        assertEquals(List.of("first", "third"), processed);
+    }
+
+    @Test
+    public void keepsEachCallOnOneShardAndSpreadsCalls() throws InterruptedException {
+        shards = new CallShards(4, 1, 0);
+        int calls = 64;
+        List<Set<String>> callThreads = new ArrayList<>();
+        CountDownLatch done = new CountDownLatch(calls * 2);
+        for (int call = 0; call < calls; call++) {
+            String callSid = String.format("CA%032x", call);
+            Set<String> threads = Collections.synchronizedSet(new HashSet<>());
+            callThreads.add(threads);
+            // the shard only depends on the CallSid, not on the actor.
+            for (CallActor actor : List.of(shards.newActor(callSid), shards.newActor(callSid))) {
+                actor.tell(() -> {
+                    threads.add(Thread.currentThread().getName());
+                    done.countDown();
+                });
+            }
+        }
+        assertTrue(done.await(10, TimeUnit.SECONDS));
+
+        Set<String> shardThreads = new HashSet<>();
+        for (Set<String> threads : callThreads) {
+            assertEquals(1, threads.size());
+            shardThreads.addAll(threads);
+        }
+        assertEquals(4, shardThreads.size());
+    }
+
+    @Test
+    public void rejectsPlaybacksBeyondItsThreadsAndQueue() throws InterruptedException {
+        shards = new CallShards(1, 1, 1);
+        CountDownLatch release = new CountDownLatch(1);
+        CountDownLatch started = new CountDownLatch(1);
+        shards.getPlaybackExecutor().execute(() -> {
+            started.countDown();
+            awaitQuietly(release);
+        });
+        assertTrue(started.await(10, TimeUnit.SECONDS));
+        // one waits in the queue, the next is rejected.
+        shards.getPlaybackExecutor().execute(() -> { });
+        assertThrows(RejectedExecutionException.class, () -> shards.getPlaybackExecutor().execute(() -> { }));
+        release.countDown();
+    }
+
+    @Test
+    public void finishesScheduledTurnsOnStopAndDropsLaterMessages() throws InterruptedException {
+        shards = new CallShards(1, 1, 0);
+        CallActor actor = shards.newActor("CA1");
+        CountDownLatch release = new CountDownLatch(1);
+        List<String> processed = Collections.synchronizedList(new ArrayList<>());
+        actor.tell(() -> {
+            awaitQuietly(release);
+            processed.add("running");
+        });
+        // a second call on the same shard, scheduled behind the first one's turn.
+        CallActor other = shards.newActor("CA2");
+        other.tell(() -> processed.add("scheduled"));
+
+        CountDownLatch interrupted = new CountDownLatch(1);
+        CountDownLatch playing = new CountDownLatch(1);
+        shards.getPlaybackExecutor().execute(() -> {
+            playing.countDown();
+            try {
+                new CountDownLatch(1).await();
+            } catch (InterruptedException e) {
+                interrupted.countDown();
+            }
+        });
+        assertTrue(playing.await(10, TimeUnit.SECONDS));
+
+        shards.stop();
+        assertTrue("playback was not interrupted", interrupted.await(10, TimeUnit.SECONDS));
+        release.countDown();
+        awaitUntil(() -> processed.size() == 2);
+        assertEquals(List.of("running", "scheduled"), processed);
+
+        // telling a call after the stop neither throws nor runs the message.
+        actor.tell(() -> processed.add("dropped"));
+        assertEquals(2, processed.size());
+    }
+
+    private static void awaitQuietly(CountDownLatch latch) {
+        try {
+            latch.await();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private static void awaitUntil(BooleanSupplier condition) {
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(10);
+        while (!condition.getAsBoolean()) {
+            if (System.nanoTime() > deadline) {
+                throw new AssertionError("condition not met within 10s");
+            }
+            Thread.onSpinWait();
+        }
+    }
+}
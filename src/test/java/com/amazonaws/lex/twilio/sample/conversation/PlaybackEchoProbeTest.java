@@ -0,0 +1,150 @@
+package com.amazonaws.lex.twilio.sample.conversation;
+
+import com.google.gson.Gson;
+import com.google.gson.JsonObject;
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/*
+ * Copyright Amazon.com, Inc. or its affiliates. All Rights Reserved.
+ * SPDX-License-Identifier: MIT-0
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this
+ * software and associated documentation files (the "Software"), to deal in the Software
+ * without restriction, including without limitation the rights to use, copy, modify,
+ * merge, publish, distribute, sublicense, and/or sell copies of the Software, and to
+ * permit persons to whom the Software is furnished to do so.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED,
+ * INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A
+ * PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT
+ * HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION
+ * OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE
+ * SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+
+public class PlaybackEchoProbeTest {
+
+    private static final Gson GSON = new Gson();
+    private static final long NANOS_PER_SAMPLE = 125_000;
+    private static final long DELAY_NANOS = TimeUnit.MILLISECONDS.toNanos(180);
+
+    // the probe's clock, only moved by the test.
+    private long now = TimeUnit.SECONDS.toNanos(1000);
+    private final PlaybackEchoProbe probe = new PlaybackEchoProbe("CA1", null, () -> now);
+
+    /**
+     * A second of loud noise, standing in for speech.
+     */
+    private static byte[] sound(long seed) {
+        byte[] uLaw = new byte[8000];
+        new Random(seed).nextBytes(uLaw);
+        return uLaw;
+    }
+
+    private void send(byte[] uLaw, int messageBytes) {
+        for (int offset = 0; offset < uLaw.length; offset += messageBytes) {
+            byte[] message = Arrays.copyOfRange(uLaw, offset, Math.min(uLaw.length, offset + messageBytes));
+            probe.sent(message, message.length);
+        }
+    }
+
+    /**
+     * Echoes the audio in frames of the given size, cut differently from what was sent, each received when its last
+     * byte was played: {@code delayNanos} after it was due, given that the audio was due from {@code dueNanos} on.
+     */
+    private void echo(byte[] uLaw, int frameBytes, long dueNanos, long delayNanos) {
+        for (int offset = 0; offset < uLaw.length; offset += frameBytes) {
+            int end = Math.min(uLaw.length, offset + frameBytes);
+            byte[] frame = Arrays.copyOfRange(uLaw, offset, end);
+            probe.echoed(frame, frame.length, dueNanos + (end - 1) * NANOS_PER_SAMPLE + delayNanos);
+        }
+    }
+
+    private JsonObject stats() {
+        return GSON.toJsonTree(probe.getStats()).getAsJsonObject();
+    }
+
+    @Test
+    public void measuresTheDelayOfTheEchoHoweverTheAudioIsCut() {
+        byte[] uLaw = sound(1);
+        long due = now;
+        send(uLaw, 160);
+        echo(uLaw, 97, due, DELAY_NANOS);
+
+        JsonObject stats = stats();
+        // about one window in 64 is a landmark.
+        assertTrue(stats.get("matched").getAsLong() > 50);
+        assertEquals(180, stats.get("meanDelayMs").getAsDouble(), 0.05);
+        assertEquals(180, stats.get("minDelayMs").getAsDouble(), 0.05);
+        assertEquals(180, stats.get("maxDelayMs").getAsDouble(), 0.05);
+        assertEquals(0, stats.get("jitterMs").getAsDouble(), 0.05);
+    }
+
+    @Test
+    public void queuesAudioSentAheadBehindWhatPlaysBeforeIt() {
+        byte[] first = sound(1);
+        byte[] second = sound(2);
+        long due = now;
+        send(first, 160);
+        // sent 100ms later, but played only once the first second has been.
+        now += TimeUnit.MILLISECONDS.toNanos(100);
+        send(second, 160);
+        echo(second, 160, due + TimeUnit.SECONDS.toNanos(1), DELAY_NANOS);
+
+        assertEquals(180, stats().get("meanDelayMs").getAsDouble(), 0.05);
+    }
+
+    @Test
+    public void startsAfreshOnceTwilioClearedItsBuffer() {
+        send(sound(1), 160);
+        probe.cleared();
+        now += TimeUnit.MILLISECONDS.toNanos(100);
+        byte[] answer = sound(2);
+        long due = now;
+        send(answer, 160);
+        echo(answer, 160, due, DELAY_NANOS);
+
+        assertEquals(180, stats().get("meanDelayMs").getAsDouble(), 0.05);
+    }
+
+    @Test
+    public void matchesEachLandmarkOnce() {
+        byte[] uLaw = sound(1);
+        long due = now;
+        send(uLaw, 160);
+        echo(uLaw, 160, due, DELAY_NANOS);
+        long matched = stats().get("matched").getAsLong();
+
+        echo(uLaw, 160, due, DELAY_NANOS * 2);
+
+        assertEquals(matched, stats().get("matched").getAsLong());
+        assertEquals(180, stats().get("maxDelayMs").getAsDouble(), 0.05);
+    }
+
+    @Test
+    public void ignoresSilenceOtherAudioAndImplausibleDelays() {
+        byte[] silence = new byte[8000];
+        // u-law is stored inverted, 0xFF is silence.
+        Arrays.fill(silence, (byte) 0xFF);
+        long due = now;
+        send(silence, 160);
+        echo(silence, 160, due, DELAY_NANOS);
+
+        // played after the silence.
+        byte[] uLaw = sound(1);
+        due += TimeUnit.SECONDS.toNanos(1);
+        send(uLaw, 160);
+        echo(sound(3), 160, due, DELAY_NANOS);
+        echo(uLaw, 160, due, TimeUnit.SECONDS.toNanos(11));
+
+        assertEquals(0, stats().get("matched").getAsLong());
+    }
+}
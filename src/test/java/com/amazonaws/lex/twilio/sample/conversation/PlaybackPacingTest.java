@@ -0,0 +1,89 @@
+package com.amazonaws.lex.twilio.sample.conversation;
+
+import org.junit.Test;
+
+import java.util.Properties;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/*
+ * Copyright Amazon.com, Inc. or its affiliates. All Rights Reserved.
+ * SPDX-License-Identifier: MIT-0
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this
+ * software and associated documentation files (the "Software"), to deal in the Software
+ * without restriction, including without limitation the rights to use, copy, modify,
+ * merge, publish, distribute, sublicense, and/or sell copies of the Software, and to
+ * permit persons to whom the Software is furnished to do so.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED,
+ * INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A
+ * PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT
+ * HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION
+ * OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE
+ * SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+
+public class PlaybackPacingTest {
+
+    private static PlaybackPacing pacing(String mode, int firstFrameMillis, int maxFrameMillis, int leadMillis) {
+        Properties properties = new Properties();
+        properties.setProperty("playback-mode", mode);
+        properties.setProperty("playback-first-frame-ms", String.valueOf(firstFrameMillis));
+        properties.setProperty("playback-max-frame-ms", String.valueOf(maxFrameMillis));
+        properties.setProperty("playback-lead-ms", String.valueOf(leadMillis));
+        return PlaybackPacing.fromProperties(properties);
+    }
+
+    @Test
+    public void startsSmallAndDoublesUpToTheLargestMessage() {
+        PlaybackPacing pacing = pacing("incremental", 20, 1250, 200);
+        assertTrue(pacing.isIncremental());
+
+        int frameBytes = pacing.firstFrameBytes();
+        assertEquals(20 * 16, frameBytes);
+        int[] expected = {640, 1280, 2560, 5120, 10240, 20000, 20000};
+        for (int bytes : expected) {
+            frameBytes = pacing.nextFrameBytes(frameBytes);
+            assertEquals(bytes, frameBytes);
+        }
+        assertEquals(20000, pacing.maxFrameBytes());
+    }
+
+    @Test
+    public void sendsOnlyLargestMessagesWhenBuffered() {
+        PlaybackPacing pacing = pacing("buffered", 20, 1250, 200);
+
+        assertFalse(pacing.isIncremental());
+        assertEquals(20000, pacing.firstFrameBytes());
+    }
+
+    @Test
+    public void capsTheFirstMessageAtTheLargest() {
+        assertEquals(100 * 16, pacing("incremental", 500, 100, 200).firstFrameBytes());
+    }
+
+    @Test
+    public void waitsToFillUpOnlyWhileAheadByMoreThanTheLead() {
+        PlaybackPacing pacing = pacing("incremental", 20, 1250, 200);
+
+        assertEquals(0, pacing.fillNanos(-TimeUnit.SECONDS.toNanos(1)));
+        assertEquals(0, pacing.fillNanos(0));
+        assertEquals(0, pacing.fillNanos(TimeUnit.MILLISECONDS.toNanos(200)));
+        assertEquals(TimeUnit.MILLISECONDS.toNanos(300), pacing.fillNanos(TimeUnit.MILLISECONDS.toNanos(500)));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void refusesUnknownModes() {
+        pacing("eager", 20, 1250, 200);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void refusesEmptyMessages() {
+        pacing("incremental", 0, 1250, 200);
+    }
+}
@@ -0,0 +1,82 @@
+package com.amazonaws.lex.twilio.sample.conversation;
+
+import com.amazonaws.lex.twilio.sample.streaming.AudioResponse;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Properties;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+/*
+ * Copyright Amazon.com, Inc. or its affiliates. All Rights Reserved.
+ * SPDX-License-Identifier: MIT-0
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this
+ * software and associated documentation files (the "Software"), to deal in the Software
+ * without restriction, including without limitation the rights to use, copy, modify,
+ * merge, publish, distribute, sublicense, and/or sell copies of the Software, and to
+ * permit persons to whom the Software is furnished to do so.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED,
+ * INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A
+ * PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT
+ * HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION
+ * OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE
+ * SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+public class TwilioCallOperatorTest {
+
+    private static PlaybackPacing pacing(String mode) {
+        Properties properties = new Properties();
+        properties.setProperty("playback-mode", mode);
+        properties.setProperty("playback-first-frame-ms", "1");
+        properties.setProperty("playback-max-frame-ms", "1");
+        return PlaybackPacing.fromProperties(properties);
+    }
+
+    private static byte[] bytes(int from, int count) {
+        byte[] bytes = new byte[count];
+        for (int i = 0; i < count; i++) {
+            bytes[i] = (byte) (from + i);
+        }
+        return bytes;
+    }
+
+    @Test
+    public void readsWholeSamplesWhenAReadEndsHalfwayThroughOne() throws IOException {
+        // a stream that hands out at most 5 bytes at a time, whatever is queued.
+        AudioResponse response = new AudioResponse() {
+            @Override
+            public int read(byte[] bytes, int offset, int length) throws IOException {
+                return super.read(bytes, offset, Math.min(length, 5));
+            }
+        };
+        response.write(bytes(0, 12));
+        response.close();
+        PlaybackPacing pacing = pacing("buffered");
+        byte[] pcm = new byte[pacing.maxFrameBytes()];
+
+        assertEquals(6, TwilioCallOperator.readFrame(response, pcm, pacing.firstFrameBytes(), pacing, 0));
+        assertArrayEquals(bytes(0, 6), Arrays.copyOf(pcm, 6));
+        // the next frame starts at a sample, rather than a byte into one.
+        assertEquals(6, TwilioCallOperator.readFrame(response, pcm, pacing.firstFrameBytes(), pacing, 0));
+        assertArrayEquals(bytes(6, 6), Arrays.copyOf(pcm, 6));
+        assertEquals(-1, TwilioCallOperator.readFrame(response, pcm, pacing.firstFrameBytes(), pacing, 0));
+    }
+
+    @Test
+    public void returnsALastOddByteAtTheEndOfTheStream() throws IOException {
+        AudioResponse response = new AudioResponse();
+        response.write(bytes(0, 3));
+        response.close();
+        PlaybackPacing pacing = pacing("incremental");
+        byte[] pcm = new byte[pacing.maxFrameBytes()];
+
+        assertEquals(3, TwilioCallOperator.readFrame(response, pcm, pacing.firstFrameBytes(), pacing, 0));
+        assertEquals(-1, TwilioCallOperator.readFrame(response, pcm, pacing.firstFrameBytes(), pacing, 0));
+    }
+}
@@ -0,0 +1,199 @@
+package com.amazonaws.lex.twilio.sample.conversation;
+
+import com.twilio.exception.ApiException;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import javax.crypto.Mac;
+import javax.crypto.spec.SecretKeySpec;
+import java.nio.charset.StandardCharsets;
+import java.util.Base64;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Properties;
+import java.util.TreeMap;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertThrows;
+import static org.junit.Assert.assertTrue;
+
+/*
+ * Copyright Amazon.com, Inc. or its affiliates. All Rights Reserved.
+ * SPDX-License-Identifier: MIT-0
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this
+ * software and associated documentation files (the "Software"), to deal in the Software
+ * without restriction, including without limitation the rights to use, copy, modify,
+ * merge, publish, distribute, sublicense, and/or sell copies of the Software, and to
+ * permit persons to whom the Software is furnished to do so.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED,
+ * INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A
+ * PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT
+ * HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION
+ * OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE
+ * SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+public class TwilioControlPlaneTest {
+
+    private static final String AUTH_TOKEN = "12345";
+    private static final String CALL_SID = "CA00000000000000000000000000000001";
+
+    private StubTwilioHttpClient twilio;
+    private TwilioControlPlane controlPlane;
+
+    @Before
+    public void setUp() {
+        twilio = new StubTwilioHttpClient(0, 0);
+        controlPlane = new TwilioControlPlane(properties(true), twilio);
+    }
+
+    @After
+    public void tearDown() {
+        controlPlane.shutdown();
+    }
+
+    private static Properties properties(boolean validateSignatures) {
+        Properties properties = new Properties();
+        properties.setProperty("account-sid", "AC00000000000000000000000000000000");
+        properties.setProperty("auth-token", AUTH_TOKEN);
+        properties.setProperty("validate-webhook-signatures", String.valueOf(validateSignatures));
+        properties.setProperty("max-attempts", "3");
+        properties.setProperty("initial-backoff-ms", "1");
+        properties.setProperty("max-backoff-ms", "4");
+        return properties;
+    }
+
+    private static void await(CompletableFuture<Void> hangUp) throws Exception {
+        hangUp.get(5, TimeUnit.SECONDS);
+    }
+
+    @Test
+    public void hangsUpTheCall() throws Exception {
+        await(controlPlane.hangUp(CALL_SID));
+
+        assertEquals(1, twilio.getRequests().size());
+        assertTrue(twilio.getRequests().peek().getUrl().endsWith("/Calls/" + CALL_SID + ".json"));
+    }
+
+    @Test
+    public void deduplicatesHangUpsOfTheSameCall() throws Exception {
+        CompletableFuture<Void> first = controlPlane.hangUp(CALL_SID);
+        CompletableFuture<Void> second = controlPlane.hangUp(CALL_SID);
+        await(first);
+
+        assertSame(first, second);
+        assertSame(first, controlPlane.hangUp(CALL_SID));
+        assertEquals(1, twilio.getRequests().size());
+    }
+
+    @Test
+    public void retriesWhenThrottled() throws Exception {
+        twilio.failNext(429);
+
+        await(controlPlane.hangUp(CALL_SID));
+
+        assertEquals(2, twilio.getRequests().size());
+    }
+
+    @Test
+    public void retriesWhenTheConnectionFails() throws Exception {
+        twilio.dropNext();
+
+        await(controlPlane.hangUp(CALL_SID));
+
+        assertEquals(2, twilio.getRequests().size());
+    }
+
+    @Test
+    public void retriesServerErrorsTheSdkGaveUpOn() throws Exception {
+        // the SDK retries a 5xx three times on its own before it throws.
+        for (int i = 0; i < 4; i++) {
+            twilio.failNext(503);
+        }
+
+        await(controlPlane.hangUp(CALL_SID));
+
+        assertEquals(5, twilio.getRequests().size());
+    }
+
+    @Test
+    public void givesUpAfterMaxAttempts() {
+        for (int i = 0; i < 3; i++) {
+            twilio.failNext(429);
+        }
+
+        ExecutionException e = assertThrows(ExecutionException.class, () -> await(controlPlane.hangUp(CALL_SID)));
+
+        assertTrue(e.getCause() instanceof ApiException);
+        assertEquals(3, twilio.getRequests().size());
+    }
+
+    @Test
+    public void doesNotRetryClientErrorsAndLetsALaterHangUpTryAgain() throws Exception {
+        twilio.failNext(404);
+
+        CompletableFuture<Void> failed = controlPlane.hangUp(CALL_SID);
+        assertThrows(ExecutionException.class, () -> await(failed));
+        assertEquals(1, twilio.getRequests().size());
+
+        // the failed future is forgotten once it has completed.
+        TimeUnit.MILLISECONDS.sleep(50);
+        await(controlPlane.hangUp(CALL_SID));
+        assertEquals(2, twilio.getRequests().size());
+    }
+
+    @Test
+    public void acceptsOnlyWebhooksSignedWithTheAuthToken() throws Exception {
+        String url = "https://example.com/call-status";
+        Map<String, String> parameters = new HashMap<>();
+        parameters.put("CallSid", CALL_SID);
+        parameters.put("CallStatus", "completed");
+        String signature = sign(url, parameters);
+
+        assertTrue(controlPlane.isSignedByTwilio(url, parameters, signature));
+        assertFalse(controlPlane.isSignedByTwilio(url, parameters, null));
+        assertFalse(controlPlane.isSignedByTwilio(url + "?x=1", parameters, signature));
+        parameters.put("CallStatus", "in-progress");
+        assertFalse(controlPlane.isSignedByTwilio(url, parameters, signature));
+    }
+
+    @Test
+    public void rejectsEveryWebhookWhenSignaturesCannotBeChecked() throws Exception {
+        Properties withoutAuthToken = properties(true);
+        withoutAuthToken.setProperty("auth-token", "");
+        String url = "https://example.com/call-status";
+        Map<String, String> parameters = new HashMap<>();
+        parameters.put("CallSid", CALL_SID);
+        String signature = sign(url, parameters);
+
+        for (Properties properties : new Properties[]{properties(false), withoutAuthToken}) {
+            TwilioControlPlane unchecked = new TwilioControlPlane(properties, twilio);
+            try {
+                assertFalse(unchecked.isSignedByTwilio(url, parameters, null));
+                assertFalse(unchecked.isSignedByTwilio(url, parameters, signature));
+            } finally {
+                unchecked.shutdown();
+            }
+        }
+    }
+
+    /**
+     * X-Twilio-Signature: the URL followed by every parameter name and value in name order, HMAC-SHA1 with the auth
+     * token, in base 64.
+     */
+    private static String sign(String url, Map<String, String> parameters) throws Exception {
+        StringBuilder data = new StringBuilder(url);
+        new TreeMap<>(parameters).forEach((name, value) -> data.append(name).append(value));
+        Mac mac = Mac.getInstance("HmacSHA1");
+        mac.init(new SecretKeySpec(AUTH_TOKEN.getBytes(StandardCharsets.UTF_8), "HmacSHA1"));
+        return Base64.getEncoder().encodeToString(mac.doFinal(data.toString().getBytes(StandardCharsets.UTF_8)));
+    }
+}
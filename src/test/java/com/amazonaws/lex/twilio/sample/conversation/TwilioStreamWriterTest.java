@@ -0,0 +1,165 @@
+package com.amazonaws.lex.twilio.sample.conversation;
+
+import org.junit.Test;
+
+import javax.websocket.RemoteEndpoint;
+import javax.websocket.SendHandler;
+import javax.websocket.SendResult;
+import javax.websocket.Session;
+import java.io.IOException;
+import java.lang.reflect.Proxy;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Queue;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/*
+ * Copyright Amazon.com, Inc. or its affiliates. All Rights Reserved.
+ * SPDX-License-Identifier: MIT-0
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this
+ * software and associated documentation files (the "Software"), to deal in the Software
+ * without restriction, including without limitation the rights to use, copy, modify,
+ * merge, publish, distribute, sublicense, and/or sell copies of the Software, and to
+ * permit persons to whom the Software is furnished to do so.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED,
+ * INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A
+ * PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT
+ * HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION
+ * OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE
+ * SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+public class TwilioStreamWriterTest {
+
+    private final Queue<Runnable> shard = new ArrayDeque<>();
+    private final CallActor actor = new CallActor("CA1", shard::add);
+    private final Socket socket = new Socket();
+    private final TwilioStreamWriter writer = new TwilioStreamWriter(socket.session, actor);
+
+    /**
+     * Runs what the actor has been told, as its shard would.
+     */
+    private void runShard() {
+        Runnable turn;
+        while ((turn = shard.poll()) != null) {
+            turn.run();
+        }
+    }
+
+    /**
+     * Sends as the actor does, on its thread.
+     */
+    private void send(String json, boolean control) {
+        actor.tell(() -> writer.send(json, control));
+        runShard();
+    }
+
+    @Test
+    public void writesOneMessageAtATimeInOrder() {
+        send("m1", false);
+        send("m2", false);
+        send("mark", true);
+        // the first write has not completed, the socket is slow.
+        assertEquals(List.of("m1"), socket.written);
+        assertEquals(2, writer.queuedMessages());
+
+        socket.complete(true);
+        runShard();
+        assertEquals(List.of("m1", "m2"), socket.written);
+        socket.complete(true);
+        runShard();
+        socket.complete(true);
+        runShard();
+        assertEquals(List.of("m1", "m2", "mark"), socket.written);
+        assertEquals(0, writer.queuedMessages());
+
+        // idle again, the next message is written right away.
+        send("m3", false);
+        assertEquals(List.of("m1", "m2", "mark", "m3"), socket.written);
+    }
+
+    @Test
+    public void dropsMediaButNotControlMessagesWhileTheSocketIsBehind() {
+        send("first", false);
+        for (int i = 0; i < TwilioStreamWriter.MAX_QUEUED + 10; i++) {
+            send("media", false);
+        }
+        assertEquals(TwilioStreamWriter.MAX_QUEUED, writer.queuedMessages());
+        send("mark", true);
+        assertEquals(TwilioStreamWriter.MAX_QUEUED + 1, writer.queuedMessages());
+    }
+
+    @Test
+    public void discardsWhatIsNotWrittenYetOnBargeIn() {
+        send("m1", false);
+        send("m2", false);
+        send("m3", false);
+        actor.tell(() -> {
+            writer.discardQueued();
+            writer.send("clear", true);
+        });
+        runShard();
+        socket.complete(true);
+        runShard();
+        assertEquals(List.of("m1", "clear"), socket.written);
+    }
+
+    @Test
+    public void keepsWritingAfterAFailedWriteAndStopsWhenClosed() {
+        send("m1", false);
+        send("m2", false);
+        socket.complete(false);
+        runShard();
+        assertEquals(List.of("m1", "m2"), socket.written);
+
+        actor.tell(writer::close);
+        runShard();
+        socket.complete(true);
+        runShard();
+        send("m3", false);
+        assertEquals(List.of("m1", "m2"), socket.written);
+        assertTrue(shard.isEmpty());
+    }
+
+    /**
+     * A WebSocket whose writes only complete when the test completes them.
+     */
+    private static final class Socket {
+        final List<String> written = new ArrayList<>();
+        final Session session;
+        private SendHandler pending;
+
+        Socket() {
+            RemoteEndpoint.Async remote = (RemoteEndpoint.Async) Proxy.newProxyInstance(
+                    getClass().getClassLoader(), new Class<?>[]{RemoteEndpoint.Async.class}, (proxy, method, args) -> {
+                        if (method.getName().equals("sendText") && args.length == 2) {
+                            if (pending != null) {
+                                throw new IllegalStateException("a write is already in progress");
+                            }
+                            written.add((String) args[0]);
+                            pending = (SendHandler) args[1];
+                            return null;
+                        }
+                        throw new UnsupportedOperationException(method.getName());
+                    });
+            this.session = (Session) Proxy.newProxyInstance(
+                    getClass().getClassLoader(), new Class<?>[]{Session.class}, (proxy, method, args) -> {
+                        if (method.getName().equals("getAsyncRemote")) {
+                            return remote;
+                        }
+                        throw new UnsupportedOperationException(method.getName());
+                    });
+        }
+
+        void complete(boolean ok) {
+            SendHandler handler = pending;
+            pending = null;
+            handler.onResult(ok ? new SendResult() : new SendResult(new IOException("connection reset")));
+        }
+    }
+}
@@ -0,0 +1,155 @@
+package com.amazonaws.lex.twilio.sample.cost;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+/*
+ * Copyright Amazon.com, Inc. or its affiliates. All Rights Reserved.
+ * SPDX-License-Identifier: MIT-0
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this
+ * software and associated documentation files (the "Software"), to deal in the Software
+ * without restriction, including without limitation the rights to use, copy, modify,
+ * merge, publish, distribute, sublicense, and/or sell copies of the Software, and to
+ * permit persons to whom the Software is furnished to do so.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED,
+ * INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A
+ * PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT
+ * HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION
+ * OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE
+ * SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+public class CallCostTest {
+
+    private static final int ALLOCATION = 4 * 1024 * 1024;
+
+    // keeps the allocations of the tests from being optimized away.
+    private static volatile byte[] sink;
+
+    private static List<String> callSids(List<CallCost.Snapshot> snapshots) {
+        List<String> callSids = new ArrayList<>();
+        for (CallCost.Snapshot snapshot : snapshots) {
+            callSids.add(snapshot.getCallSid());
+        }
+        return callSids;
+    }
+
+    @Test
+    public void metersAddTheWorkSinceTheLastRecord() {
+        CallCost cost = new CallCost("CA1", true);
+        CallCost.Meter meter = cost.newMeter();
+
+        meter.start();
+        sink = new byte[ALLOCATION];
+        long spin = System.nanoTime();
+        while (System.nanoTime() - spin < 20_000_000) {
+            Thread.onSpinWait();
+        }
+        meter.record();
+        long allocated = cost.getAllocatedBytes();
+        assertTrue(allocated >= ALLOCATION);
+        assertTrue(cost.getCpuNanos() > 0);
+
+        // recording again adds only what was done since.
+        meter.record();
+        assertTrue(cost.getAllocatedBytes() - allocated < ALLOCATION);
+        sink = new byte[ALLOCATION];
+        meter.record();
+        assertTrue(cost.getAllocatedBytes() - allocated >= ALLOCATION);
+    }
+
+    @Test
+    public void detachedCostsMeasureNoWork() {
+        CallCost cost = CallCost.detached();
+        CallCost.Meter meter = cost.newMeter();
+
+        meter.start();
+        sink = new byte[ALLOCATION];
+        meter.record();
+
+        assertEquals(0, cost.getAllocatedBytes());
+        assertEquals(0, cost.getCpuNanos());
+        assertNull(cost.getCallSid());
+    }
+
+    @Test
+    public void countsBytesAndTheBuffersHeldNow() {
+        CallCost cost = new CallCost("CA1", false);
+        cost.twilioReceived(100);
+        cost.twilioSent(20);
+        cost.lexReceived(3);
+        cost.lexSent(4000);
+        cost.retain("playback", () -> 640);
+        cost.retain("lex-events", () -> 100);
+        // a reconnect replaces the previous stream's queue.
+        cost.retain("lex-events", () -> 50);
+
+        assertEquals(4123, cost.getNetworkBytes());
+        assertEquals(690, cost.getRetainedBytes());
+        CallCost.Snapshot snapshot = cost.snapshot();
+        assertEquals(4123, snapshot.getNetworkBytes());
+        assertEquals(690, snapshot.getRetainedBytes());
+
+        cost.release("playback");
+        assertEquals(50, cost.getRetainedBytes());
+    }
+
+    @Test
+    public void ranksTheCallsInProgress() {
+        CallCosts costs = new CallCosts(false);
+        costs.open("CA1").twilioReceived(100);
+        costs.open("CA2").twilioReceived(300);
+        CallCost third = costs.open("CA3");
+        third.twilioReceived(200);
+        third.retain("playback", () -> 1000);
+
+        assertEquals(List.of("CA2", "CA3"), callSids(costs.top(2, CallCosts.Measure.NETWORK)));
+        assertEquals(List.of("CA2", "CA3", "CA1"), callSids(costs.top(10, CallCosts.Measure.NETWORK)));
+        assertEquals("CA3", costs.top(1, CallCosts.Measure.RETAINED).get(0).getCallSid());
+        assertSame(third, costs.find("CA3"));
+
+        costs.close(third);
+        assertNull(costs.find("CA3"));
+        assertEquals(List.of("CA2", "CA1"), callSids(costs.top(10, CallCosts.Measure.NETWORK)));
+    }
+
+    @Test
+    public void addsUpEndedAndActiveCallsPerBot() {
+        CallCosts costs = new CallCosts(false);
+        CallCost first = costs.open("CA1");
+        first.setBot("BookTrip");
+        first.lexSent(1000);
+        CallCost second = costs.open("CA2");
+        second.setBot("BookTrip");
+        second.lexSent(500);
+        second.retain("playback", () -> 64);
+        // hung up before its conversation started.
+        costs.open("CA3").twilioReceived(10);
+        costs.close(first);
+        // closing twice, or a cost that is not a call, changes nothing.
+        costs.close(first);
+        costs.close(CallCost.detached());
+
+        Map<String, Map<String, Object>> bots = costs.perBot();
+        assertEquals(List.of("BookTrip", "unknown"), new ArrayList<>(bots.keySet()));
+        Map<String, Object> bookTrip = bots.get("BookTrip");
+        assertEquals(2L, bookTrip.get("calls"));
+        assertEquals(1L, bookTrip.get("activeCalls"));
+        assertEquals(1500L, bookTrip.get("networkBytes"));
+        assertEquals(64L, bookTrip.get("retainedBytes"));
+        Map<String, Object> unknown = bots.get("unknown");
+        assertEquals(1L, unknown.get("calls"));
+        assertEquals(10L, unknown.get("networkBytes"));
+        assertEquals(0L, unknown.get("retainedBytes"));
+    }
+}
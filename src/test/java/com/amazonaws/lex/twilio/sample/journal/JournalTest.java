@@ -0,0 +1,220 @@
+package com.amazonaws.lex.twilio.sample.journal;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/*
+ * Copyright Amazon.com, Inc. or its affiliates. All Rights Reserved.
+ * SPDX-License-Identifier: MIT-0
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this
+ * software and associated documentation files (the "Software"), to deal in the Software
+ * without restriction, including without limitation the rights to use, copy, modify,
+ * merge, publish, distribute, sublicense, and/or sell copies of the Software, and to
+ * permit persons to whom the Software is furnished to do so.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED,
+ * INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A
+ * PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT
+ * HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION
+ * OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE
+ * SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+public class JournalTest {
+
+    private static final long START = 1_700_000_000_000L;
+    private static final String[] CALLS = {
+            "CA00000000000000000000000000000001",
+            "CA00000000000000000000000000000002",
+            "CA00000000000000000000000000000003"
+    };
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    /**
+     * Writes 30 transcripts, taking turns between the calls, into segments of 512 bytes, i.e. a handful of records
+     * each.
+     */
+    private Path writeJournal() throws IOException {
+        Path directory = folder.getRoot().toPath().resolve("journal");
+        ByteBuffer records = ByteBuffer.allocate(64 * 1024);
+        for (int i = 0; i < 30; i++) {
+            assertTrue(JournalFormat.writeRecord(records, JournalEvent.TRANSCRIPT, START + i, CALLS[i % CALLS.length],
+                    new String[]{"event-" + i, "transcript " + i}));
+        }
+        records.flip();
+        try (SegmentWriter writer = new SegmentWriter(directory, 512)) {
+            // in two batches, as the journal's writer thread hands them over.
+            ByteBuffer first = records.duplicate();
+            first.limit(recordEnd(records, 13));
+            writer.write(first);
+            records.position(first.position());
+            writer.write(records);
+        }
+        return directory;
+    }
+
+    /**
+     * Offset of the end of the given number of records from the buffer's position.
+     */
+    private static int recordEnd(ByteBuffer records, int count) {
+        int offset = records.position();
+        for (int i = 0; i < count; i++) {
+            offset += 4 + records.getInt(offset);
+        }
+        return offset;
+    }
+
+    private static List<String[]> readAll(List<Path> segments) throws IOException {
+        List<String[]> records = new ArrayList<>();
+        for (Path segment : segments) {
+            JournalReader reader = new JournalReader(segment);
+            while (reader.next()) {
+                records.add(record(reader));
+            }
+        }
+        return records;
+    }
+
+    private static String[] record(JournalReader reader) {
+        return new String[]{reader.getEvent().name(), String.valueOf(reader.getEpochMillis()), reader.getCallSid(),
+                reader.getFields().get(0), reader.getFields().get(1)};
+    }
+
+    private static String[] expected(int i) {
+        return new String[]{"TRANSCRIPT", String.valueOf(START + i), CALLS[i % CALLS.length], "event-" + i,
+                "transcript " + i};
+    }
+
+    @Test
+    public void readsBackEveryRecordAcrossSegmentRolls() throws IOException {
+        List<Path> segments = JournalReader.segments(writeJournal());
+        assertTrue("the journal did not roll over", segments.size() > 2);
+
+        List<String[]> records = readAll(segments);
+        assertEquals(30, records.size());
+        for (int i = 0; i < records.size(); i++) {
+            assertArrayEquals(expected(i), records.get(i));
+        }
+
+        // oldest segment first, by the time it was created as well as by name.
+        long created = 0;
+        for (Path segment : segments) {
+            long segmentCreated = new JournalReader(segment).getCreatedEpochMillis();
+            assertTrue(segmentCreated >= created);
+            created = segmentCreated;
+        }
+    }
+
+    @Test
+    public void seeksToTheFirstRecordOfACallInEachSegment() throws IOException {
+        for (Path segment : JournalReader.segments(writeJournal())) {
+            JournalReader reader = new JournalReader(segment);
+            Map<String, Integer> index = reader.readIndex();
+            assertFalse(index.isEmpty());
+            for (Map.Entry<String, Integer> entry : index.entrySet()) {
+                reader.seek(entry.getValue());
+                assertTrue(reader.next());
+                assertEquals(entry.getKey(), reader.getCallSid());
+            }
+            // the segment's first record is indexed, so reading from the smallest offset misses nothing.
+            reader.seek(Collections.min(index.values()));
+            JournalReader fromStart = new JournalReader(segment);
+            while (fromStart.next()) {
+                assertTrue(reader.next());
+                assertArrayEquals(record(fromStart), record(reader));
+            }
+            assertFalse(reader.next());
+        }
+    }
+
+    @Test
+    public void exportsOneCallInOrderAndFindsRecordsByTime() throws IOException {
+        Path directory = writeJournal();
+
+        Map<String, List<Map<String, Object>>> calls = JournalExporter.export(directory,
+                new LinkedHashSet<>(Collections.singletonList(CALLS[1])));
+        assertEquals(Collections.singleton(CALLS[1]), calls.keySet());
+        List<Map<String, Object>> events = calls.get(CALLS[1]);
+        assertEquals(10, events.size());
+        for (int i = 0; i < events.size(); i++) {
+            assertEquals("transcript " + (i * 3 + 1), events.get(i).get("transcript"));
+        }
+
+        // records are in time order across segments, so the first one at or after a time is the first one found.
+        long time = START + 17;
+        String[] found = null;
+        for (Path segment : JournalReader.segments(directory)) {
+            JournalReader reader = new JournalReader(segment);
+            while (found == null && reader.next()) {
+                if (reader.getEpochMillis() >= time) {
+                    found = record(reader);
+                }
+            }
+        }
+        assertArrayEquals(expected(17), found);
+    }
+
+    @Test
+    public void stopsAtATruncatedTail() throws IOException {
+        List<Path> segments = JournalReader.segments(writeJournal());
+        Path last = segments.get(segments.size() - 1);
+        JournalReader reader = new JournalReader(last);
+        int records = 0;
+        while (reader.next()) {
+            records++;
+        }
+        ByteBuffer bytes = ByteBuffer.wrap(Files.readAllBytes(last));
+        bytes.position(JournalFormat.HEADER_BYTES);
+        int lastButOneEnd = recordEnd(bytes, records - 1);
+
+        // the process died halfway through copying the last record, and while writing the index.
+        try (FileChannel channel = FileChannel.open(last, StandardOpenOption.WRITE)) {
+            channel.truncate(lastButOneEnd + 10);
+        }
+        Path index = last.resolveSibling(last.getFileName().toString().replace(JournalFormat.SEGMENT_SUFFIX,
+                JournalFormat.INDEX_SUFFIX));
+        byte[] indexBytes = Files.readAllBytes(index);
+        Files.write(index, Arrays.copyOf(indexBytes, indexBytes.length - 3));
+
+        List<String[]> read = readAll(segments);
+        assertEquals(29, read.size());
+        for (int i = 0; i < read.size(); i++) {
+            assertArrayEquals(expected(i), read.get(i));
+        }
+        // the index keeps the entries written in full.
+        assertEquals(indexEntries(indexBytes) - 1, new JournalReader(last).readIndex().size());
+    }
+
+    private static int indexEntries(byte[] index) {
+        ByteBuffer buffer = ByteBuffer.wrap(index);
+        int entries = 0;
+        while (buffer.hasRemaining()) {
+            int callSidBytes = buffer.getShort() & 0xFFFF;
+            buffer.position(buffer.position() + callSidBytes + 4);
+            entries++;
+        }
+        return entries;
+    }
+}
@@ -0,0 +1,78 @@
+package com.amazonaws.lex.twilio.sample.lifecycle;
+
+import org.junit.Test;
+
+import java.util.Properties;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertNull;
+
+/*
+ * Copyright Amazon.com, Inc. or its affiliates. All Rights Reserved.
+ * SPDX-License-Identifier: MIT-0
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this
+ * software and associated documentation files (the "Software"), to deal in the Software
+ * without restriction, including without limitation the rights to use, copy, modify,
+ * merge, publish, distribute, sublicense, and/or sell copies of the Software, and to
+ * permit persons to whom the Software is furnished to do so.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED,
+ * INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A
+ * PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT
+ * HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION
+ * OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE
+ * SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+public class ConfigurationTest {
+
+    @Test
+    public void overridesDeclaredPropertiesByName() {
+        Properties overrides = new Properties();
+        overrides.setProperty("auth-token", "from-command-line");
+        overrides.setProperty("undeclared", "ignored");
+
+        Properties properties = Configuration.withOverrides(Configuration.TWILIO,
+                properties("auth-token", "", "max-attempts", "4"), overrides);
+
+        assertEquals("from-command-line", properties.getProperty("auth-token"));
+        assertEquals("4", properties.getProperty("max-attempts"));
+        assertNull(properties.getProperty("undeclared"));
+    }
+
+    @Test
+    public void prefixedNamesOverrideOneFileOnly() {
+        Properties overrides = new Properties();
+        overrides.setProperty("max-connections", "10");
+        overrides.setProperty("twilio-configuration.max-connections", "200");
+        overrides.setProperty("twilio-configuration.public-base-url", "https://example.com");
+
+        Properties twilio = Configuration.withOverrides(Configuration.TWILIO, properties("max-connections", "50"), overrides);
+        Properties server = Configuration.withOverrides(Configuration.SERVER, properties("max-connections", "1000"), overrides);
+
+        assertEquals("200", twilio.getProperty("max-connections"));
+        assertEquals("https://example.com", twilio.getProperty("public-base-url"));
+        assertEquals("10", server.getProperty("max-connections"));
+        assertNull(server.getProperty("public-base-url"));
+    }
+
+    @Test
+    public void everyLoadIsACopy() {
+        Properties first = Configuration.load(Configuration.SERVER);
+        first.setProperty("port", "1");
+
+        Properties second = Configuration.load(Configuration.SERVER);
+        assertNotSame(first, second);
+        assertEquals(System.getProperty("port", "8080"), second.getProperty("port"));
+    }
+
+    private static Properties properties(String... namesAndValues) {
+        Properties properties = new Properties();
+        for (int i = 0; i < namesAndValues.length; i += 2) {
+            properties.setProperty(namesAndValues[i], namesAndValues[i + 1]);
+        }
+        return properties;
+    }
+}
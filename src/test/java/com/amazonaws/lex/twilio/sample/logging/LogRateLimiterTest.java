@@ -0,0 +1,81 @@
+package com.amazonaws.lex.twilio.sample.logging;
+
+import org.junit.Test;
+
+import java.util.Properties;
+
+import static org.junit.Assert.assertEquals;
+
+/*
+ * Copyright Amazon.com, Inc. or its affiliates. All Rights Reserved.
+ * SPDX-License-Identifier: MIT-0
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this
+ * software and associated documentation files (the "Software"), to deal in the Software
+ * without restriction, including without limitation the rights to use, copy, modify,
+ * merge, publish, distribute, sublicense, and/or sell copies of the Software, and to
+ * permit persons to whom the Software is furnished to do so.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED,
+ * INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A
+ * PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT
+ * HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION
+ * OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE
+ * SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+public class LogRateLimiterTest {
+
+    private long now = 1_700_000_000_000L;
+
+    private LogRateLimiter limiter(String... settings) {
+        Properties properties = new Properties();
+        properties.setProperty("log-rate-limit-per-second", "3");
+        for (int i = 0; i < settings.length; i += 2) {
+            properties.setProperty(settings[i], settings[i + 1]);
+        }
+        return new LogRateLimiter(properties, () -> now);
+    }
+
+    @Test
+    public void capsTheLinesOfEachSecondAndReportsWhatWasSuppressed() {
+        LogRateLimiter limiter = limiter();
+        for (int i = 0; i < 3; i++) {
+            assertEquals(0, limiter.acquire("twilio.mark"));
+        }
+        for (int i = 0; i < 5; i++) {
+            assertEquals(-1, limiter.acquire("twilio.mark"));
+        }
+
+        // later in the same second, still suppressed.
+        now += 999 - now % 1000;
+        assertEquals(-1, limiter.acquire("twilio.mark"));
+
+        // the next second's first line reports the six lines suppressed, the next ones nothing.
+        now++;
+        assertEquals(6, limiter.acquire("twilio.mark"));
+        assertEquals(0, limiter.acquire("twilio.mark"));
+    }
+
+    @Test
+    public void limitsEachCategoryOnItsOwn() {
+        LogRateLimiter limiter = limiter("log-rate-limit.journal.write", "1");
+        assertEquals(0, limiter.acquire("journal.write"));
+        assertEquals(-1, limiter.acquire("journal.write"));
+        // a busy category does not use up the budget of another one.
+        for (int i = 0; i < 3; i++) {
+            assertEquals(0, limiter.acquire("twilio.mark"));
+        }
+        assertEquals(-1, limiter.acquire("twilio.mark"));
+    }
+
+    @Test
+    public void suppressesACategoryLimitedToZero() {
+        LogRateLimiter limiter = limiter("log-rate-limit.twilio.mark", "0");
+        for (int second = 0; second < 3; second++) {
+            assertEquals(-1, limiter.acquire("twilio.mark"));
+            now += 1000;
+        }
+        assertEquals(0, limiter.acquire("playback.rejected"));
+    }
+}
@@ -0,0 +1,66 @@
+package com.amazonaws.lex.twilio.sample.monitor;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/*
+ * Copyright Amazon.com, Inc. or its affiliates. All Rights Reserved.
+ * SPDX-License-Identifier: MIT-0
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this
+ * software and associated documentation files (the "Software"), to deal in the Software
+ * without restriction, including without limitation the rights to use, copy, modify,
+ * merge, publish, distribute, sublicense, and/or sell copies of the Software, and to
+ * permit persons to whom the Software is furnished to do so.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED,
+ * INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A
+ * PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT
+ * HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION
+ * OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE
+ * SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+public class MonitorAccessTest {
+
+    private static final MonitorAccess ACCESS = new MonitorAccess(" s3cret ");
+
+    @Test
+    public void permitsTheTokenAsBearerOrQueryParameter() {
+        assertTrue(ACCESS.permits("Bearer s3cret", null));
+        assertTrue(ACCESS.permits("bearer  s3cret", null));
+        assertTrue(ACCESS.permits(null, "s3cret"));
+    }
+
+    @Test
+    public void refusesMissingOrWrongTokens() {
+        assertFalse(ACCESS.permits(null, null));
+        assertFalse(ACCESS.permits("Bearer s3cre", null));
+        assertFalse(ACCESS.permits(null, "s3cret2"));
+        assertFalse(ACCESS.permits(null, ""));
+        // a wrong bearer token is not made up for by the query parameter.
+        assertFalse(ACCESS.permits("Bearer wrong", "s3cret"));
+        assertFalse(ACCESS.permits("Basic czNjcmV0", null));
+    }
+
+    @Test
+    public void permitsNoMonitorButAllDetailsWithoutAConfiguredToken() {
+        for (String token : new String[]{null, "", "  "}) {
+            MonitorAccess access = new MonitorAccess(token);
+            assertFalse(access.isConfigured());
+            assertFalse(access.permits(null, ""));
+            assertFalse(access.permits("Bearer ", null));
+            assertTrue(access.permitsDetails(null, null));
+        }
+    }
+
+    @Test
+    public void guardsDetailsWithAConfiguredToken() {
+        assertTrue(ACCESS.permitsDetails("Bearer s3cret", null));
+        assertTrue(ACCESS.permitsDetails(null, "s3cret"));
+        assertFalse(ACCESS.permitsDetails(null, null));
+        assertFalse(ACCESS.permitsDetails("Bearer wrong", null));
+    }
+}
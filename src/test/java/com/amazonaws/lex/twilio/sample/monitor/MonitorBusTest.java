@@ -0,0 +1,266 @@
+package com.amazonaws.lex.twilio.sample.monitor;
+
+import com.amazonaws.lex.twilio.sample.journal.JournalEvent;
+import com.amazonaws.lex.twilio.sample.metrics.Metrics;
+import com.google.gson.JsonArray;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParser;
+import org.junit.Test;
+
+import javax.websocket.RemoteEndpoint;
+import javax.websocket.SendHandler;
+import javax.websocket.SendResult;
+import javax.websocket.Session;
+import java.lang.reflect.Proxy;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Properties;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.LongAdder;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+
+/*
+ * Copyright Amazon.com, Inc. or its affiliates. All Rights Reserved.
+ * SPDX-License-Identifier: MIT-0
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this
+ * software and associated documentation files (the "Software"), to deal in the Software
+ * without restriction, including without limitation the rights to use, copy, modify,
+ * merge, publish, distribute, sublicense, and/or sell copies of the Software, and to
+ * permit persons to whom the Software is furnished to do so.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED,
+ * INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A
+ * PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT
+ * HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION
+ * OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE
+ * SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+public class MonitorBusTest {
+
+    private static final LongAdder OVERWRITTEN = Metrics.counter("monitor.events_overwritten");
+
+    private static MonitorBus bus(int ringSize, int historyPerCall, int maxBatch) {
+        Properties properties = new Properties();
+        properties.setProperty("monitor-enabled", "true");
+        properties.setProperty("monitor-ring-size", String.valueOf(ringSize));
+        properties.setProperty("monitor-history-per-call", String.valueOf(historyPerCall));
+        properties.setProperty("monitor-max-batch", String.valueOf(maxBatch));
+        return new MonitorBus(properties, () -> new MonitorAccess("s3cret"));
+    }
+
+    @Test
+    public void refusesToStartWithoutAToken() {
+        Properties properties = new Properties();
+        properties.setProperty("monitor-enabled", "true");
+        try {
+            new MonitorBus(properties, () -> new MonitorAccess(""));
+        } catch (IllegalArgumentException expected) {
+            return;
+        }
+        throw new AssertionError("the monitor started without a token");
+    }
+
+    @Test
+    public void deliversEveryEventOnceInOrderWhilePublishersRace() throws Exception {
+        int publishers = 4;
+        int eventsEach = 20000;
+        MonitorBus bus = bus(1024, eventsEach, Integer.MAX_VALUE);
+        Viewer viewer = new Viewer(true);
+        assertNotNull(bus.subscribe(viewer.session, null));
+        bus.poll();
+        long overwrittenBefore = OVERWRITTEN.sum();
+
+        CountDownLatch start = new CountDownLatch(1);
+        List<Thread> threads = new ArrayList<>();
+        for (int p = 0; p < publishers; p++) {
+            String callSid = "CA" + p;
+            Thread thread = new Thread(() -> {
+                try {
+                    start.await();
+                } catch (InterruptedException e) {
+                    return;
+                }
+                for (int i = 0; i < eventsEach; i++) {
+                    bus.publish(JournalEvent.TRANSCRIPT, callSid, null, String.valueOf(i));
+                }
+            });
+            thread.start();
+            threads.add(thread);
+        }
+        start.countDown();
+        // the test thread is the fan-out thread, polling as fast as it can while the publishers race for slots.
+        while (threads.stream().anyMatch(Thread::isAlive)) {
+            bus.poll();
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        bus.poll();
+        bus.poll();
+
+        long[] lastIndex = new long[publishers];
+        Arrays.fill(lastIndex, -1);
+        long lastSequence = -1;
+        int delivered = 0;
+        for (JsonObject event : viewer.events(false)) {
+            long sequence = event.get("seq").getAsLong();
+            assertTrue("events out of order or repeated", sequence > lastSequence);
+            lastSequence = sequence;
+            int publisher = event.get("callSid").getAsString().charAt(2) - '0';
+            long index = Long.parseLong(event.get("transcript").getAsString());
+            // a slot is never read before its event was written, nor read as another event.
+            assertTrue("events of a call out of order or repeated", index > lastIndex[publisher]);
+            lastIndex[publisher] = index;
+            delivered++;
+        }
+        // what the fan-out could not keep up with is counted, everything else arrives.
+        assertEquals(publishers * eventsEach, delivered + OVERWRITTEN.sum() - overwrittenBefore);
+        assertTrue(delivered > 0);
+    }
+
+    @Test
+    public void catchesUpALappedSubscriberFromTheHistory() {
+        MonitorBus bus = bus(8, 100, 100);
+        Viewer viewer = new Viewer(false);
+        bus.subscribe(viewer.session, "CA1");
+        bus.poll();
+        // the replay is still being written, while the publishers go round the ring twice.
+        for (int i = 0; i < 20; i++) {
+            bus.publish(JournalEvent.TRANSCRIPT, i % 2 == 0 ? "CA1" : "CA2", null, String.valueOf(i));
+            if (i % 4 == 3) {
+                bus.poll();
+            }
+        }
+        viewer.complete();
+        bus.poll();
+
+        List<JsonObject> events = viewer.events(false);
+        assertEquals(10, events.size());
+        for (int i = 0; i < events.size(); i++) {
+            assertEquals("CA1", events.get(i).get("callSid").getAsString());
+            assertEquals(String.valueOf(i * 2), events.get(i).get("transcript").getAsString());
+        }
+    }
+
+    @Test
+    public void conflatesForSubscribersThatFallBehind() {
+        MonitorBus bus = bus(64, 100, 4);
+        Viewer viewer = new Viewer(false);
+        bus.subscribe(viewer.session, null);
+        bus.poll();
+        for (int i = 0; i < 5; i++) {
+            bus.publish(JournalEvent.TRANSCRIPT, "CA1", null, "a" + i);
+            bus.publish(JournalEvent.TRANSCRIPT, "CA2", null, "b" + i);
+        }
+        bus.publish(JournalEvent.CALL_STARTED, "CA3", "MZ3", "AC3");
+        bus.poll();
+        viewer.complete();
+        bus.poll();
+
+        JsonObject message = viewer.messages.get(viewer.messages.size() - 1);
+        assertFalse(message.get("replay").getAsBoolean());
+        assertEquals(8, message.get("skipped").getAsInt());
+        JsonArray events = message.getAsJsonArray("events");
+        assertEquals(3, events.size());
+        assertEquals("a4", events.get(0).getAsJsonObject().get("transcript").getAsString());
+        assertEquals("b4", events.get(1).getAsJsonObject().get("transcript").getAsString());
+        assertEquals("MZ3", events.get(2).getAsJsonObject().get("streamSid").getAsString());
+    }
+
+    @Test
+    public void replaysTheHistoryToNewSubscribers() {
+        MonitorBus bus = bus(64, 3, 100);
+        for (int i = 0; i < 5; i++) {
+            bus.publish(JournalEvent.TRANSCRIPT, "CA1", null, "a" + i);
+        }
+        bus.publish(JournalEvent.CALL_STARTED, "CA2", "MZ2", "AC2");
+        bus.publish(JournalEvent.TRANSCRIPT, "CA2", null, "b0");
+        bus.publish(JournalEvent.TRANSCRIPT, "CA2", null, "b1");
+        bus.poll();
+
+        Viewer oneCall = new Viewer(true);
+        Viewer allCalls = new Viewer(true);
+        bus.subscribe(oneCall.session, "CA1");
+        bus.subscribe(allCalls.session, null);
+        bus.poll();
+
+        List<JsonObject> history = oneCall.events(true);
+        assertEquals(3, history.size());
+        assertEquals("a2", history.get(0).get("transcript").getAsString());
+        assertEquals("a4", history.get(2).get("transcript").getAsString());
+
+        // every call, only the latest event of each kind.
+        List<JsonObject> latest = allCalls.events(true);
+        assertEquals(3, latest.size());
+        assertEquals("a4", latest.get(0).get("transcript").getAsString());
+        assertEquals("MZ2", latest.get(1).get("streamSid").getAsString());
+        assertEquals("b1", latest.get(2).get("transcript").getAsString());
+
+        // what is published afterwards is no replay.
+        bus.publish(JournalEvent.TRANSCRIPT, "CA1", null, "a5");
+        bus.poll();
+        assertEquals("a5", oneCall.events(false).get(0).get("transcript").getAsString());
+        assertFalse(allCalls.messages.get(allCalls.messages.size() - 1).get("replay").getAsBoolean());
+    }
+
+    /**
+     * A WebSocket whose messages are written at once, or only when the test completes them.
+     */
+    private static final class Viewer {
+        final List<JsonObject> messages = new ArrayList<>();
+        final Session session;
+        private final boolean immediate;
+        private SendHandler pending;
+
+        Viewer(boolean immediate) {
+            this.immediate = immediate;
+            RemoteEndpoint.Async remote = (RemoteEndpoint.Async) Proxy.newProxyInstance(
+                    getClass().getClassLoader(), new Class<?>[]{RemoteEndpoint.Async.class}, (proxy, method, args) -> {
+                        if (method.getName().equals("sendText") && args.length == 2) {
+                            send((String) args[0], (SendHandler) args[1]);
+                            return null;
+                        }
+                        throw new UnsupportedOperationException(method.getName());
+                    });
+            this.session = (Session) Proxy.newProxyInstance(
+                    getClass().getClassLoader(), new Class<?>[]{Session.class}, (proxy, method, args) -> {
+                        if (method.getName().equals("getAsyncRemote")) {
+                            return remote;
+                        }
+                        throw new UnsupportedOperationException(method.getName());
+                    });
+        }
+
+        private void send(String message, SendHandler handler) {
+            messages.add(JsonParser.parseString(message).getAsJsonObject());
+            if (immediate) {
+                handler.onResult(new SendResult());
+            } else {
+                pending = handler;
+            }
+        }
+
+        void complete() {
+            SendHandler handler = pending;
+            pending = null;
+            handler.onResult(new SendResult());
+        }
+
+        List<JsonObject> events(boolean replay) {
+            List<JsonObject> events = new ArrayList<>();
+            for (JsonObject message : messages) {
+                if (message.get("replay").getAsBoolean() == replay) {
+                    message.getAsJsonArray("events").forEach(event -> events.add(event.getAsJsonObject()));
+                }
+            }
+            return events;
+        }
+    }
+}
@@ -0,0 +1,204 @@
+package com.amazonaws.lex.twilio.sample.routing;
+
+import com.google.gson.Gson;
+import com.sun.net.httpserver.HttpServer;
+import org.junit.After;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Properties;
+import java.util.concurrent.TimeUnit;
+import java.util.function.BooleanSupplier;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertThrows;
+import static org.junit.Assert.assertTrue;
+
+/*
+ * Copyright Amazon.com, Inc. or its affiliates. All Rights Reserved.
+ * SPDX-License-Identifier: MIT-0
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this
+ * software and associated documentation files (the "Software"), to deal in the Software
+ * without restriction, including without limitation the rights to use, copy, modify,
+ * merge, publish, distribute, sublicense, and/or sell copies of the Software, and to
+ * permit persons to whom the Software is furnished to do so.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED,
+ * INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A
+ * PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT
+ * HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION
+ * OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE
+ * SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+
+public class FleetRouterTest {
+
+    private static final String LOCAL_STREAM = "wss://local.example.com/streams";
+    private static final Gson GSON = new Gson();
+
+    private final List<HttpServer> peers = new ArrayList<>();
+    private FleetRouter router;
+
+    @After
+    public void tearDown() {
+        if (router != null) {
+            router.stop();
+        }
+        peers.forEach(peer -> peer.stop(0));
+    }
+
+    /**
+     * A peer answering /capacity with the given capacity; its node URL is returned.
+     */
+    private String peer(String name, boolean ready, int activeCalls, int maxCalls, long queuedEvents,
+                        String... knownPeers) throws IOException {
+        HttpServer server = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0), 0);
+        String url = "http://127.0.0.1:" + server.getAddress().getPort();
+        NodeCapacity capacity = new NodeCapacity(url, "wss://" + name + ".example.com/streams", ready, activeCalls,
+                maxCalls, 0, queuedEvents, Arrays.asList(knownPeers));
+        server.createContext("/capacity", exchange -> {
+            byte[] body = GSON.toJson(capacity).getBytes(StandardCharsets.UTF_8);
+            exchange.getResponseHeaders().set("Content-Type", "application/json");
+            exchange.sendResponseHeaders(200, body.length);
+            try (OutputStream output = exchange.getResponseBody()) {
+                output.write(body);
+            }
+        });
+        server.start();
+        peers.add(server);
+        return url;
+    }
+
+    /**
+     * A started router of a node that is not ready itself, so that calls only go to peers, polling its peers every
+     * pollIntervalMillis.
+     */
+    private FleetRouter router(long pollIntervalMillis, String... peerUrls) {
+        return router(routing(pollIntervalMillis, peerUrls));
+    }
+
+    private static Properties routing(long pollIntervalMillis, String... peerUrls) {
+        Properties properties = new Properties();
+        properties.setProperty("routing-enabled", "true");
+        properties.setProperty("node-url", "http://127.0.0.1:1");
+        properties.setProperty("peers", String.join(",", peerUrls));
+        properties.setProperty("poll-interval-ms", String.valueOf(pollIntervalMillis));
+        properties.setProperty("stale-after-ms", "600000");
+        return properties;
+    }
+
+    private FleetRouter router(Properties properties) {
+        router = new FleetRouter(properties);
+        router.start();
+        return router;
+    }
+
+    @Test
+    public void routesToTheLeastLoadedPeerCountingCallsRoutedSincePolling() throws IOException {
+        String busy = peer("busy", true, 6, 10, 5);
+        String idle = peer("idle", true, 2, 10, 0);
+        // polled once, so the calls routed below are not reset by a newer snapshot.
+        FleetRouter router = router(600000, busy, idle);
+        awaitUntil(() -> router.healthyPeers() == 2);
+
+        // idle takes calls until it is as loaded as busy, and wins the tie on fewer queued Lex events.
+        for (int i = 0; i < 5; i++) {
+            assertEquals("call " + i, "wss://idle.example.com/streams", router.chooseStreamUrl(LOCAL_STREAM));
+        }
+        assertEquals("wss://busy.example.com/streams", router.chooseStreamUrl(LOCAL_STREAM));
+    }
+
+    @Test
+    public void skipsPeersThatCannotTakeACall() throws IOException {
+        String notReady = peer("starting", false, 0, 10, 0);
+        String full = peer("full", true, 10, 10, 0);
+        String almostFull = peer("almost", true, 9, 10, 0);
+        FleetRouter router = router(600000, notReady, full, almostFull);
+        awaitUntil(() -> router.healthyPeers() == 1);
+
+        assertEquals("wss://almost.example.com/streams", router.chooseStreamUrl(LOCAL_STREAM));
+        // its last slot is taken by the call just routed, and this node is not ready: the call stays here.
+        assertEquals(LOCAL_STREAM, router.chooseStreamUrl(LOCAL_STREAM));
+    }
+
+    @Test
+    public void learnsAboutAllowedPeersFromPeers() throws IOException {
+        String hidden = peer("hidden", true, 0, 10, 0);
+        String stranger = peer("stranger", true, 0, 10, 0);
+        String known = peer("known", true, 8, 10, 0, stranger, hidden);
+        Properties properties = routing(50, known);
+        properties.setProperty("gossip", "true");
+        properties.setProperty("gossip-allowed-urls", "http://192.0.2.1," + hidden);
+        // the learned peer is polled from the next round on.
+        FleetRouter router = router(properties);
+        awaitUntil(() -> router.healthyPeers() == 2);
+
+        assertEquals("wss://hidden.example.com/streams", router.chooseStreamUrl(LOCAL_STREAM));
+        // both were learned from the same answer, the stranger was not allowed in.
+        assertEquals(new HashSet<>(Arrays.asList(known, hidden)),
+                new HashSet<>(router.localCapacity(LOCAL_STREAM).getPeers()));
+    }
+
+    @Test
+    public void refusesGossipWithoutAnAllowList() {
+        Properties properties = routing(50, "http://127.0.0.1:1");
+        properties.setProperty("gossip", "true");
+        assertThrows(IllegalArgumentException.class, () -> new FleetRouter(properties));
+    }
+
+    @Test
+    public void pollsOnlyConfiguredPeersWithoutGossip() throws IOException {
+        String hidden = peer("hidden", true, 0, 10, 0);
+        String known = peer("known", true, 8, 10, 0, hidden);
+        FleetRouter router = router(600000, known);
+        awaitUntil(() -> router.healthyPeers() == 1);
+
+        assertEquals("wss://known.example.com/streams", router.chooseStreamUrl(LOCAL_STREAM));
+        assertEquals(Collections.singletonList(known), router.localCapacity(LOCAL_STREAM).getPeers());
+    }
+
+    @Test
+    public void publishesWhetherTheNodeAcceptsCalls() {
+        assertTrue(GSON.fromJson(GSON.toJson(new NodeCapacity("http://a", "wss://a", true, 9, 10, 0, 0,
+                Collections.emptyList())), NodeCapacity.class).isAcceptingCalls());
+        assertFalse(new NodeCapacity("http://a", "wss://a", true, 10, 10, 0, 0, Collections.emptyList())
+                .isAcceptingCalls());
+        assertFalse(new NodeCapacity("http://a", "wss://a", false, 0, 0, 0, 0, Collections.emptyList())
+                .isAcceptingCalls());
+        assertTrue(new NodeCapacity("http://a", "wss://a", true, 500, 0, 0, 0, Collections.emptyList())
+                .isAcceptingCalls());
+    }
+
+    @Test
+    public void keepsCallsLocalWhenDisabled() {
+        Properties properties = new Properties();
+        properties.setProperty("peers", "http://127.0.0.1:1");
+        router = new FleetRouter(properties);
+        router.start();
+
+        assertEquals(LOCAL_STREAM, router.chooseStreamUrl(LOCAL_STREAM));
+        assertEquals(Collections.singletonList("http://127.0.0.1:1"), router.localCapacity(LOCAL_STREAM).getPeers());
+    }
+
+    private static void awaitUntil(BooleanSupplier condition) {
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(10);
+        while (!condition.getAsBoolean()) {
+            if (System.nanoTime() > deadline) {
+                throw new AssertionError("condition not met within 10s");
+            }
+            Thread.onSpinWait();
+        }
+    }
+}
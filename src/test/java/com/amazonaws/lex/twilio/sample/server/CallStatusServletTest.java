@@ -0,0 +1,225 @@
+package com.amazonaws.lex.twilio.sample.server;
+
+import com.amazonaws.lex.twilio.sample.conversation.TwilioControlPlane;
+import org.junit.After;
+import org.junit.Test;
+
+import javax.crypto.Mac;
+import javax.crypto.spec.SecretKeySpec;
+import javax.servlet.ReadListener;
+import javax.servlet.ServletInputStream;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import java.io.ByteArrayInputStream;
+import java.lang.reflect.Proxy;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Base64;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.TreeMap;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/*
+ * Copyright Amazon.com, Inc. or its affiliates. All Rights Reserved.
+ * SPDX-License-Identifier: MIT-0
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this
+ * software and associated documentation files (the "Software"), to deal in the Software
+ * without restriction, including without limitation the rights to use, copy, modify,
+ * merge, publish, distribute, sublicense, and/or sell copies of the Software, and to
+ * permit persons to whom the Software is furnished to do so.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED,
+ * INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A
+ * PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT
+ * HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION
+ * OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE
+ * SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+public class CallStatusServletTest {
+
+    private static final String AUTH_TOKEN = "12345";
+    private static final String CALL_SID = "CA00000000000000000000000000000001";
+    private static final String BODY = "CallSid=" + CALL_SID + "&CallStatus=completed&From=%2B15550100";
+
+    private final List<String> statuses = new ArrayList<>();
+    private TwilioControlPlane controlPlane;
+
+    @After
+    public void tearDown() {
+        controlPlane.shutdown();
+    }
+
+    private CallStatusServlet servlet(String publicBaseUrl, boolean validateSignatures) {
+        Properties properties = new Properties();
+        properties.setProperty("account-sid", "AC00000000000000000000000000000000");
+        properties.setProperty("auth-token", AUTH_TOKEN);
+        properties.setProperty("validate-webhook-signatures", String.valueOf(validateSignatures));
+        properties.setProperty("public-base-url", publicBaseUrl);
+        properties.setProperty("http-client", "stub");
+        controlPlane = new TwilioControlPlane(properties);
+        return new CallStatusServlet(() -> controlPlane, (callSid, status) -> statuses.add(callSid + " " + status));
+    }
+
+    @Test
+    public void acceptsACallbackSignedForThePublicBaseUrl() throws Exception {
+        CallStatusServlet servlet = servlet("https://abc.ngrok.io/", true);
+        // behind ngrok the container sees its own plain http host and port.
+        Map<String, String> headers = new HashMap<>();
+        headers.put("Host", "localhost:8080");
+        headers.put("X-Twilio-Signature", sign("https://abc.ngrok.io/call-status", bodyParameters()));
+
+        assertEquals(HttpServletResponse.SC_NO_CONTENT, post(servlet, headers, null));
+        assertEquals(List.of(CALL_SID + " completed"), statuses);
+    }
+
+    @Test
+    public void rebuildsTheUrlFromForwardedHeaders() throws Exception {
+        CallStatusServlet servlet = servlet("", true);
+        Map<String, String> headers = new HashMap<>();
+        headers.put("Host", "localhost:8080");
+        headers.put("X-Forwarded-Proto", "https");
+        headers.put("X-Forwarded-Host", "voice.example.com, proxy.internal");
+        headers.put("X-Twilio-Signature", sign("https://voice.example.com/call-status", bodyParameters()));
+
+        assertEquals(HttpServletResponse.SC_NO_CONTENT, post(servlet, headers, null));
+        assertEquals(1, statuses.size());
+    }
+
+    @Test
+    public void signsTheQueryStringAsPartOfTheUrlOnly() throws Exception {
+        CallStatusServlet servlet = servlet("https://abc.ngrok.io", true);
+        Map<String, String> headers = new HashMap<>();
+        headers.put("X-Twilio-Signature", sign("https://abc.ngrok.io/call-status?node=a", bodyParameters()));
+
+        assertEquals(HttpServletResponse.SC_NO_CONTENT, post(servlet, headers, "node=a"));
+    }
+
+    @Test
+    public void rejectsCallbacksWithoutAValidSignature() throws Exception {
+        CallStatusServlet servlet = servlet("https://abc.ngrok.io", true);
+        Map<String, String> headers = new HashMap<>();
+        assertEquals(HttpServletResponse.SC_FORBIDDEN, post(servlet, headers, null));
+
+        // signed for the URL the container sees, not the one Twilio requested.
+        headers.put("X-Twilio-Signature", sign("http://localhost:8080/call-status", bodyParameters()));
+        assertEquals(HttpServletResponse.SC_FORBIDDEN, post(servlet, headers, null));
+        assertTrue(statuses.isEmpty());
+    }
+
+    @Test
+    public void rejectsEveryCallbackWhenSignaturesAreNotChecked() throws Exception {
+        CallStatusServlet servlet = servlet("https://abc.ngrok.io", false);
+        Map<String, String> headers = new HashMap<>();
+        headers.put("X-Twilio-Signature", sign("https://abc.ngrok.io/call-status", bodyParameters()));
+
+        assertEquals(HttpServletResponse.SC_FORBIDDEN, post(servlet, headers, null));
+        assertTrue(statuses.isEmpty());
+    }
+
+    private static Map<String, String> bodyParameters() {
+        Map<String, String> parameters = new HashMap<>();
+        parameters.put("CallSid", CALL_SID);
+        parameters.put("CallStatus", "completed");
+        parameters.put("From", "+15550100");
+        return parameters;
+    }
+
+    /**
+     * POSTs {@link #BODY} to {@code http://localhost:8080/call-status}.
+     *
+     * @return the response status
+     */
+    private static int post(CallStatusServlet servlet, Map<String, String> headers, String queryString) throws Exception {
+        byte[] body = BODY.getBytes(StandardCharsets.UTF_8);
+        HttpServletRequest request = (HttpServletRequest) Proxy.newProxyInstance(
+                CallStatusServletTest.class.getClassLoader(), new Class<?>[]{HttpServletRequest.class},
+                (proxy, method, args) -> {
+                    switch (method.getName()) {
+                        case "getHeader":
+                            return headers.get((String) args[0]);
+                        case "getContentType":
+                            return "application/x-www-form-urlencoded";
+                        case "getCharacterEncoding":
+                            return null;
+                        case "getInputStream":
+                            return new BodyStream(body);
+                        case "getScheme":
+                            return "http";
+                        case "getServerName":
+                            return "localhost";
+                        case "getServerPort":
+                            return 8080;
+                        case "getRequestURI":
+                            return "/call-status";
+                        case "getQueryString":
+                            return queryString;
+                        case "getParameterMap":
+                            throw new AssertionError("query parameters must not be mixed into the signed parameters");
+                        default:
+                            throw new UnsupportedOperationException(method.getName());
+                    }
+                });
+
+        int[] status = {HttpServletResponse.SC_OK};
+        HttpServletResponse response = (HttpServletResponse) Proxy.newProxyInstance(
+                CallStatusServletTest.class.getClassLoader(), new Class<?>[]{HttpServletResponse.class},
+                (proxy, method, args) -> {
+                    if (method.getName().equals("sendError") || method.getName().equals("setStatus")) {
+                        status[0] = (Integer) args[0];
+                        return null;
+                    }
+                    throw new UnsupportedOperationException(method.getName());
+                });
+
+        servlet.doPost(request, response);
+        return status[0];
+    }
+
+    /**
+     * X-Twilio-Signature: the URL followed by every parameter name and value in name order, HMAC-SHA1 with the auth
+     * token, in base 64.
+     */
+    private static String sign(String url, Map<String, String> parameters) throws Exception {
+        StringBuilder data = new StringBuilder(url);
+        new TreeMap<>(parameters).forEach((name, value) -> data.append(name).append(value));
+        Mac mac = Mac.getInstance("HmacSHA1");
+        mac.init(new SecretKeySpec(AUTH_TOKEN.getBytes(StandardCharsets.UTF_8), "HmacSHA1"));
+        return Base64.getEncoder().encodeToString(mac.doFinal(data.toString().getBytes(StandardCharsets.UTF_8)));
+    }
+
+    private static final class BodyStream extends ServletInputStream {
+
+        private final ByteArrayInputStream body;
+
+        BodyStream(byte[] body) {
+            this.body = new ByteArrayInputStream(body);
+        }
+
+        @Override
+        public int read() {
+            return body.read();
+        }
+
+        @Override
+        public boolean isFinished() {
+            return body.available() == 0;
+        }
+
+        @Override
+        public boolean isReady() {
+            return true;
+        }
+
+        @Override
+        public void setReadListener(ReadListener readListener) {
+            throw new UnsupportedOperationException();
+        }
+    }
+}
@@ -0,0 +1,150 @@
+package com.amazonaws.lex.twilio.sample.server.media;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.Collections;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/*
+ * Copyright Amazon.com, Inc. or its affiliates. All Rights Reserved.
+ * SPDX-License-Identifier: MIT-0
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this
+ * software and associated documentation files (the "Software"), to deal in the Software
+ * without restriction, including without limitation the rights to use, copy, modify,
+ * merge, publish, distribute, sublicense, and/or sell copies of the Software, and to
+ * permit persons to whom the Software is furnished to do so.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED,
+ * INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A
+ * PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT
+ * HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION
+ * OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE
+ * SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+public class AudioQualityAnalyzerTest {
+
+    // 20 ms at 8 kHz, as Twilio sends it.
+    private static final int FRAME_SAMPLES = 160;
+
+    /**
+     * A frame of a 1 kHz tone of the given amplitude, as a share of full scale, clamped to 16 bits as a
+     * phone line would clip it.
+     */
+    private static byte[] sine(double amplitude, int dcOffset) {
+        byte[] pcm = new byte[FRAME_SAMPLES * 2];
+        for (int i = 0; i < FRAME_SAMPLES; i++) {
+            double value = amplitude * 32768 * Math.sin(2 * Math.PI * 1000 * i / 8000) + dcOffset;
+            int sample = (int) Math.max(Short.MIN_VALUE, Math.min(Short.MAX_VALUE, Math.round(value)));
+            pcm[2 * i] = (byte) sample;
+            pcm[2 * i + 1] = (byte) (sample >> 8);
+        }
+        return pcm;
+    }
+
+    private static byte[] silence() {
+        return new byte[FRAME_SAMPLES * 2];
+    }
+
+    /**
+     * One second of silence before the caller speaks, as at the start of a call.
+     */
+    private static AudioQualityAnalyzer afterSilence() {
+        AudioQualityAnalyzer analyzer = new AudioQualityAnalyzer();
+        for (int i = 0; i < 50; i++) {
+            analyzer.analyze(silence());
+        }
+        return analyzer;
+    }
+
+    @Test
+    public void measuresTheLevelOfASineAfterSilence() {
+        AudioQualityAnalyzer analyzer = afterSilence();
+        for (int i = 0; i < 100; i++) {
+            analyzer.analyze(sine(0.5, 0));
+        }
+
+        AudioQualityAnalyzer.Stats stats = analyzer.callEnded();
+        assertEquals(150, stats.getFrames());
+        // the RMS of a sine is 3 dB below its peak.
+        assertEquals(-9.0, stats.getSpeechLevelDbfs(), 0.1);
+        assertEquals(-6.0, stats.getPeakDbfs(), 0.1);
+        assertEquals(0, stats.getClippedSamples());
+        assertEquals(0.333, stats.getSilenceRatio(), 0.001);
+        assertTrue(stats.getNoiseFloorDbfs() < -80);
+        assertEquals(0, stats.getDcOffset(), 0.1);
+        assertEquals(Collections.emptyList(), stats.getIssues());
+    }
+
+    @Test
+    public void flagsClippedAudio() {
+        AudioQualityAnalyzer analyzer = afterSilence();
+        for (int i = 0; i < 100; i++) {
+            analyzer.analyze(sine(2, 0));
+        }
+
+        AudioQualityAnalyzer.Stats stats = analyzer.callEnded();
+        assertEquals(0, stats.getPeakDbfs(), 0.1);
+        // every sample but those near the zero crossings.
+        assertEquals(100 * FRAME_SAMPLES * 3 / 4, stats.getClippedSamples());
+        assertEquals(Collections.singletonList(AudioQualityAnalyzer.CLIPPED), stats.getIssues());
+    }
+
+    @Test
+    public void flagsQuietSpeechAndDcOffset() {
+        AudioQualityAnalyzer analyzer = afterSilence();
+        for (int i = 0; i < 100; i++) {
+            analyzer.analyze(sine(0.01, 200));
+        }
+
+        AudioQualityAnalyzer.Stats stats = analyzer.callEnded();
+        assertTrue(stats.getSpeechLevelDbfs() < -35);
+        assertEquals(200 * 100 / 150.0, stats.getDcOffset(), 0.1);
+        assertEquals(Collections.singletonList(AudioQualityAnalyzer.QUIET), stats.getIssues());
+    }
+
+    @Test
+    public void flagsSilentCalls() {
+        AudioQualityAnalyzer analyzer = afterSilence();
+        analyzer.analyze(sine(0.5, 0));
+
+        AudioQualityAnalyzer.Stats stats = analyzer.callEnded();
+        assertEquals(51, stats.getFrames());
+        assertEquals(0.98, stats.getSilenceRatio(), 0.001);
+        assertEquals(Collections.singletonList(AudioQualityAnalyzer.MOSTLY_SILENT), stats.getIssues());
+    }
+
+    @Test
+    public void flagsANoisyLineAsNoiseRatherThanSpeech() {
+        // a steady hum peaking at -20 dBFS: the noise floor follows it, so none of it counts as speech.
+        AudioQualityAnalyzer analyzer = new AudioQualityAnalyzer();
+        for (int i = 0; i < 100; i++) {
+            analyzer.analyze(sine(0.1, 0));
+        }
+
+        AudioQualityAnalyzer.Stats stats = analyzer.callEnded();
+        assertEquals(-23.0, stats.getNoiseFloorDbfs(), 1);
+        assertEquals(1.0, stats.getSilenceRatio(), 0.001);
+        assertEquals(Arrays.asList(AudioQualityAnalyzer.NOISY, AudioQualityAnalyzer.MOSTLY_SILENT),
+                stats.getIssues());
+    }
+
+    @Test
+    public void publishesStatisticsEverySecond() {
+        AudioQualityAnalyzer analyzer = new AudioQualityAnalyzer();
+        for (int i = 0; i < 49; i++) {
+            analyzer.analyze(sine(0.5, 0));
+        }
+        assertEquals(0, analyzer.getStats().getFrames());
+
+        analyzer.analyze(sine(0.5, 0));
+        assertEquals(50, analyzer.getStats().getFrames());
+        // a frame too short to hold a sample is ignored.
+        analyzer.analyze(new byte[1]);
+        assertEquals(50, analyzer.callEnded().getFrames());
+    }
+}
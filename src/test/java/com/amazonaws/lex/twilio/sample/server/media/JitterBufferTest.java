@@ -0,0 +1,213 @@
+package com.amazonaws.lex.twilio.sample.server.media;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+/*
+ * Copyright Amazon.com, Inc. or its affiliates. All Rights Reserved.
+ * SPDX-License-Identifier: MIT-0
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this
+ * software and associated documentation files (the "Software"), to deal in the Software
+ * without restriction, including without limitation the rights to use, copy, modify,
+ * merge, publish, distribute, sublicense, and/or sell copies of the Software, and to
+ * permit persons to whom the Software is furnished to do so.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED,
+ * INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A
+ * PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT
+ * HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION
+ * OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE
+ * SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+public class JitterBufferTest {
+
+    // 20ms of 8kHz 16 bit PCM.
+    private static final int FRAME_SIZE = 320;
+    // long enough that no frame becomes overdue while a test runs, unless it waits for that.
+    private static final int PATIENT_MILLIS = 5000;
+
+    private final List<byte[]> released = new ArrayList<>();
+    private final Map<Long, byte[]> offered = new HashMap<>();
+
+    private JitterBuffer buffer(boolean enabled, int maxLatencyMillis) {
+        return new JitterBuffer(new JitterBufferSettings(enabled, maxLatencyMillis, 400, true), released::add);
+    }
+
+    private JitterBuffer buffer() {
+        return buffer(true, PATIENT_MILLIS);
+    }
+
+    /**
+     * Offers the frame with the given chunk number, at the media timestamp of an unbroken stream.
+     */
+    private void offer(JitterBuffer buffer, long chunk) {
+        offer(buffer, chunk, chunk * JitterBuffer.FRAME_MILLIS);
+    }
+
+    private void offer(JitterBuffer buffer, long chunk, long timestamp) {
+        byte[] pcm = new byte[FRAME_SIZE];
+        for (int i = 0; i < FRAME_SIZE / 2; i++) {
+            pcm[2 * i] = (byte) (chunk * 100);
+            pcm[2 * i + 1] = (byte) ((chunk * 100) >> 8);
+        }
+        offered.put(chunk, pcm);
+        buffer.offer(chunk, timestamp, pcm);
+    }
+
+    /**
+     * The released frames are the offered frames of the given chunks, 0 standing for a concealed frame.
+     */
+    private void assertReleased(long... chunks) {
+        assertEquals(chunks.length, released.size());
+        for (int i = 0; i < chunks.length; i++) {
+            if (chunks[i] == 0) {
+                assertFalse("frame " + i + " is concealed", offered.containsValue(released.get(i)));
+                assertEquals(FRAME_SIZE, released.get(i).length);
+            } else {
+                assertSame("frame " + i + " is chunk " + chunks[i], offered.get(chunks[i]), released.get(i));
+            }
+        }
+    }
+
+    private static int sample(byte[] pcm, int index) {
+        return (short) ((pcm[2 * index] & 0xFF) | (pcm[2 * index + 1] << 8));
+    }
+
+    @Test
+    public void releasesFramesInOrderAtOnce() {
+        JitterBuffer buffer = buffer();
+        offer(buffer, 1);
+        offer(buffer, 2);
+        offer(buffer, 3);
+
+        assertReleased(1, 2, 3);
+        assertEquals(-1, buffer.nanosUntilOverdue());
+        assertEquals(0, buffer.bufferedBytes());
+    }
+
+    @Test
+    public void putsReorderedFramesBackInOrder() {
+        JitterBuffer buffer = buffer();
+        offer(buffer, 1);
+        offer(buffer, 3);
+        assertReleased(1);
+        assertEquals(FRAME_SIZE, buffer.bufferedBytes());
+
+        offer(buffer, 2);
+        assertReleased(1, 2, 3);
+
+        buffer.flush();
+        assertEquals(1, buffer.getStats().getReordered());
+        assertEquals(0, buffer.getStats().getLost());
+    }
+
+    @Test
+    public void concealsAMissingFrameFromItsNeighbours() {
+        JitterBuffer buffer = buffer();
+        offer(buffer, 1);
+        offer(buffer, 3);
+        // held back until as many frames as the jitter calls for, at least 2, wait for the missing one.
+        offer(buffer, 4);
+
+        assertReleased(1, 0, 3, 4);
+        byte[] concealed = released.get(1);
+        // cross-faded from chunk 1 (level 100) to chunk 3 (level 300).
+        assertTrue(sample(concealed, 0) > 100 && sample(concealed, 0) < 110);
+        assertTrue(sample(concealed, FRAME_SIZE / 2 - 1) > 290 && sample(concealed, FRAME_SIZE / 2 - 1) < 300);
+        buffer.flush();
+        assertEquals(1, buffer.getStats().getLost());
+    }
+
+    @Test
+    public void dropsLateFramesAndDuplicates() {
+        JitterBuffer buffer = buffer();
+        offer(buffer, 1);
+        offer(buffer, 3);
+        offer(buffer, 4);
+        // chunk 2 has been concealed by now.
+        offer(buffer, 2);
+        buffer.offer(4, 80, new byte[FRAME_SIZE]);
+
+        assertReleased(1, 0, 3, 4);
+        buffer.flush();
+        assertEquals(1, buffer.getStats().getLate());
+        assertEquals(1, buffer.getStats().getDuplicates());
+        assertEquals(5, buffer.getStats().getReceived());
+    }
+
+    @Test
+    public void fillsGapsInTheMediaTimestampsUpToTheMaximum() {
+        JitterBuffer buffer = buffer();
+        offer(buffer, 1, 20);
+        // 60ms of audio Twilio never sent.
+        offer(buffer, 2, 100);
+        assertReleased(1, 0, 0, 0, 2);
+
+        // far beyond jitter-max-conceal-ms: only 400ms are filled in.
+        offer(buffer, 3, 5000);
+        assertEquals(5 + 20 + 1, released.size());
+        assertSame(offered.get(3L), released.get(25));
+
+        buffer.flush();
+        assertEquals(23, buffer.getStats().getGapFrames());
+        assertEquals(0, buffer.getStats().getLost());
+    }
+
+    @Test
+    public void releasesOverdueFramesWithoutAnotherFrameArriving() throws Exception {
+        JitterBuffer buffer = buffer(true, 40);
+        offer(buffer, 1);
+        offer(buffer, 3);
+        assertReleased(1);
+        long untilOverdue = buffer.nanosUntilOverdue();
+        assertTrue(untilOverdue > 0 && untilOverdue <= TimeUnit.MILLISECONDS.toNanos(40));
+
+        buffer.releaseOverdue();
+        assertReleased(1);
+
+        TimeUnit.MILLISECONDS.sleep(60);
+        assertEquals(0, buffer.nanosUntilOverdue());
+        buffer.releaseOverdue();
+        assertReleased(1, 0, 3);
+        assertEquals(-1, buffer.nanosUntilOverdue());
+    }
+
+    @Test
+    public void flushConcealsWhatIsStillMissing() {
+        JitterBuffer buffer = buffer();
+        offer(buffer, 1);
+        offer(buffer, 4);
+
+        buffer.flush();
+        assertReleased(1, 0, 0, 4);
+        assertEquals(2, buffer.getStats().getLost());
+        assertEquals(0, buffer.bufferedBytes());
+    }
+
+    @Test
+    public void passesFramesOnAsIsWhenDisabledOrWithoutChunkNumbers() {
+        JitterBuffer disabled = buffer(false, PATIENT_MILLIS);
+        offer(disabled, 2);
+        offer(disabled, 1);
+        assertReleased(2, 1);
+
+        released.clear();
+        JitterBuffer buffer = buffer();
+        byte[] pcm = new byte[FRAME_SIZE];
+        buffer.offer(-1, -1, pcm);
+        assertEquals(1, released.size());
+        assertSame(pcm, released.get(0));
+    }
+}
@@ -0,0 +1,73 @@
+package com.amazonaws.lex.twilio.sample.server.messages;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertThrows;
+import static org.junit.Assert.assertTrue;
+
+/*
+ * Copyright Amazon.com, Inc. or its affiliates. All Rights Reserved.
+ * SPDX-License-Identifier: MIT-0
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this
+ * software and associated documentation files (the "Software"), to deal in the Software
+ * without restriction, including without limitation the rights to use, copy, modify,
+ * merge, publish, distribute, sublicense, and/or sell copies of the Software, and to
+ * permit persons to whom the Software is furnished to do so.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED,
+ * INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A
+ * PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT
+ * HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION
+ * OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE
+ * SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+public class JsonScannerTest {
+
+    @Test
+    public void findsStringValuesAcrossWhitespace() {
+        String json = "{\"a\" :\n \"xy\", \"b\":1, \"c\":\"with \\\"quotes\\\"\"}";
+
+        int start = JsonScanner.stringValueStart(json, "\"a\"");
+        assertEquals(json.indexOf("xy"), start);
+        assertEquals(start + 2, JsonScanner.stringValueEnd(json, start));
+        assertTrue(JsonScanner.valueEquals(json, start, "xy"));
+        assertFalse(JsonScanner.valueEquals(json, start, "x"));
+
+        assertEquals(-1, JsonScanner.stringValueStart(json, "\"b\""));
+        assertEquals(-1, JsonScanner.stringValueStart(json, "\"d\""));
+        // an escaped quote does not end the value.
+        int quoted = JsonScanner.stringValueStart(json, "\"c\"");
+        assertEquals(json.length() - 2, JsonScanner.stringValueEnd(json, quoted));
+    }
+
+    @Test
+    public void readsNumbersSentAsStrings() {
+        assertEquals(0, JsonScanner.longValue("{\"n\":\"0\"}", "\"n\""));
+        assertEquals(123456789012345678L, JsonScanner.longValue("{\"n\":\"123456789012345678\"}", "\"n\""));
+        // too long to be a chunk or timestamp, negative, empty, or not a string.
+        assertEquals(-1, JsonScanner.longValue("{\"n\":\"1234567890123456789\"}", "\"n\""));
+        assertEquals(-1, JsonScanner.longValue("{\"n\":\"-1\"}", "\"n\""));
+        assertEquals(-1, JsonScanner.longValue("{\"n\":\"\"}", "\"n\""));
+        assertEquals(-1, JsonScanner.longValue("{\"n\":12}", "\"n\""));
+        assertEquals(-1, JsonScanner.longValue("{\"n\":\"12", "\"n\""));
+    }
+
+    @Test
+    public void decodesBase64UpToTheTargetSize() {
+        String json = "\"AQID\\/w==\"";
+        byte[] target = new byte[4];
+
+        assertEquals(4, JsonScanner.decodeBase64(json, 1, json.length() - 1, target));
+        assertEquals(1, target[0]);
+        assertEquals(3, target[2]);
+        assertEquals((byte) 0xFF, target[3]);
+        assertThrows(IllegalArgumentException.class,
+                () -> JsonScanner.decodeBase64(json, 1, json.length() - 1, new byte[3]));
+        assertThrows(IllegalArgumentException.class,
+                () -> JsonScanner.decodeBase64("\"AQéD\"", 1, 5, new byte[3]));
+    }
+}
@@ -0,0 +1,168 @@
+package com.amazonaws.lex.twilio.sample.server.messages;
+
+import com.amazonaws.lex.twilio.sample.server.CallIdentifier;
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.Base64;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertThrows;
+import static org.junit.Assert.assertTrue;
+
+/*
+ * Copyright Amazon.com, Inc. or its affiliates. All Rights Reserved.
+ * SPDX-License-Identifier: MIT-0
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this
+ * software and associated documentation files (the "Software"), to deal in the Software
+ * without restriction, including without limitation the rights to use, copy, modify,
+ * merge, publish, distribute, sublicense, and/or sell copies of the Software, and to
+ * permit persons to whom the Software is furnished to do so.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED,
+ * INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A
+ * PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT
+ * HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION
+ * OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE
+ * SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+public class MessageTest {
+
+    private static final String ACCOUNT_SID = "AC11111111111111111111111111111111";
+    private static final String CALL_SID = "CA22222222222222222222222222222222";
+    private static final String STREAM_SID = "MZ33333333333333333333333333333333";
+
+    // as Twilio sends them, see https://www.twilio.com/docs/voice/twiml/stream#websocket-messages-from-twilio
+    private static final String CONNECTED = "{\"event\":\"connected\",\"protocol\":\"Call\",\"version\":\"1.0.0\"}";
+    private static final String START = "{\"event\":\"start\",\"sequenceNumber\":\"1\",\"start\":{"
+            + "\"accountSid\":\"" + ACCOUNT_SID + "\",\"streamSid\":\"" + STREAM_SID + "\","
+            + "\"callSid\":\"" + CALL_SID + "\",\"tracks\":[\"inbound\"],"
+            + "\"mediaFormat\":{\"encoding\":\"audio/x-mulaw\",\"sampleRate\":8000,\"channels\":1},"
+            + "\"customParameters\":{\"bot\":\"BookTrip\"}},\"streamSid\":\"" + STREAM_SID + "\"}";
+    private static final String MARK = "{\"event\":\"mark\",\"sequenceNumber\":\"4\",\"streamSid\":\"" + STREAM_SID
+            + "\",\"mark\":{\"name\":\"response-1\"}}";
+    private static final String STOP = "{\"event\":\"stop\",\"sequenceNumber\":\"5\",\"streamSid\":\"" + STREAM_SID
+            + "\",\"stop\":{\"accountSid\":\"" + ACCOUNT_SID + "\",\"callSid\":\"" + CALL_SID + "\"}}";
+
+    /**
+     * 20 ms of mu-law audio, whose base64 has both '+' and '/' in it.
+     */
+    private static byte[] frame() {
+        byte[] frame = new byte[160];
+        for (int i = 0; i < frame.length; i++) {
+            frame[i] = (byte) (0xFF - i * 7);
+        }
+        return frame;
+    }
+
+    private static String media(String track, String chunk, String timestamp, String payload) {
+        return "{\"event\":\"media\",\"sequenceNumber\":\"3\",\"media\":{\"track\":\"" + track + "\",\"chunk\":\""
+                + chunk + "\",\"timestamp\":\"" + timestamp + "\",\"payload\":\"" + payload + "\"},\"streamSid\":\""
+                + STREAM_SID + "\"}";
+    }
+
+    private static byte[] decode(Message message) {
+        byte[] target = new byte[message.maxMediaPayloadLength()];
+        return Arrays.copyOf(target, message.decodeMediaPayload(target));
+    }
+
+    @Test
+    public void readsTheEventOfEveryTwilioMessage() {
+        assertEquals(MessageType.CONNECTED, new Message(CONNECTED).eventType());
+        assertEquals(MessageType.START, new Message(START).eventType());
+        assertEquals(MessageType.MEDIA, new Message(media("inbound", "1", "5", "AAAA")).eventType());
+        assertEquals(MessageType.MARK, new Message(MARK).eventType());
+        assertEquals(MessageType.STOP, new Message(STOP).eventType());
+    }
+
+    @Test
+    public void readsStartStopAndMarkMessages() {
+        CallIdentifier expected = new CallIdentifier(ACCOUNT_SID, CALL_SID, STREAM_SID);
+        StartMessage start = new Message(START).asStartMessage();
+        assertEquals(expected, start.getCallIdentifier());
+        assertEquals("BookTrip", start.getCustomParameter("bot"));
+        assertNull(start.getCustomParameter("missing"));
+
+        assertEquals(expected, new Message(STOP).asStopMessage().getCallIdentifier());
+        assertEquals("response-1", new Message(MARK).asMarkMessage().getMarkName());
+    }
+
+    @Test
+    public void decodesAMediaFrameWithoutParsingIt() {
+        byte[] frame = frame();
+        String payload = Base64.getEncoder().encodeToString(frame);
+        assertTrue(payload.contains("/") && payload.contains("+"));
+        Message message = new Message(media("inbound", "42", "840", payload));
+
+        assertArrayEquals(frame, decode(message));
+        assertEquals(42, message.mediaChunk());
+        assertEquals(840, message.mediaTimestamp());
+        assertTrue(message.isInboundMedia());
+        // the same frame as the parsed JSON has it.
+        assertArrayEquals(frame, message.asMediaMessage().getDecodedPayload());
+    }
+
+    @Test
+    public void decodesPayloadsWithEscapedSlashes() {
+        byte[] frame = frame();
+        String escaped = Base64.getEncoder().encodeToString(frame).replace("/", "\\/");
+        Message message = new Message(media("inbound", "1", "0", escaped));
+
+        assertArrayEquals(frame, decode(message));
+        assertArrayEquals(frame, message.asMediaMessage().getDecodedPayload());
+    }
+
+    @Test
+    public void decodesPaddedPayloads() {
+        for (int length = 1; length <= 6; length++) {
+            byte[] bytes = Arrays.copyOf(frame(), length);
+            String payload = Base64.getEncoder().encodeToString(bytes);
+            Message message = new Message(media("inbound", "1", "0", payload));
+
+            assertTrue(message.maxMediaPayloadLength() >= length);
+            assertArrayEquals(payload, bytes, decode(message));
+        }
+        // padding left out, as some encoders do.
+        assertArrayEquals(new byte[]{1, 2}, decode(new Message(media("inbound", "1", "0", "AQI"))));
+    }
+
+    @Test
+    public void rejectsPayloadsThatDoNotFitOrAreNotBase64() {
+        Message message = new Message(media("inbound", "1", "0", Base64.getEncoder().encodeToString(frame())));
+        assertThrows(IllegalArgumentException.class, () -> message.decodeMediaPayload(new byte[159]));
+
+        Message invalid = new Message(media("inbound", "1", "0", "AQ*C"));
+        assertThrows(IllegalArgumentException.class, () -> invalid.decodeMediaPayload(new byte[16]));
+    }
+
+    @Test
+    public void handlesMissingAndNonStringMediaFields() {
+        // the outbound track, and numbers sent as numbers rather than strings.
+        Message outbound = new Message("{\"event\":\"media\",\"media\":{\"track\":\"outbound\",\"chunk\":7,"
+                + "\"timestamp\":\"12a\",\"payload\":\"AAAA\"}}");
+        assertFalse(outbound.isInboundMedia());
+        assertEquals(-1, outbound.mediaChunk());
+        assertEquals(-1, outbound.mediaTimestamp());
+
+        Message bare = new Message("{\"event\":\"media\",\"media\":{\"payload\":7}}");
+        assertTrue(bare.isInboundMedia());
+        assertEquals(-1, bare.mediaChunk());
+        assertEquals(-1, bare.maxMediaPayloadLength());
+        assertThrows(IllegalStateException.class, () -> bare.decodeMediaPayload(new byte[16]));
+
+        Message unterminated = new Message("{\"event\":\"media\",\"media\":{\"payload\":\"AAAA");
+        assertEquals(-1, unterminated.maxMediaPayloadLength());
+    }
+
+    @Test
+    public void fallsBackToTheParserForAnEventThatIsNotAString() {
+        assertEquals(MessageType.MEDIA, new Message("{ \"event\" : \"media\" }").eventType());
+        assertThrows(IllegalArgumentException.class, () -> new Message("{\"event\":5}").eventType());
+        assertThrows(IllegalArgumentException.class, () -> new Message("{\"event\":\"dtmf\"}").eventType());
+    }
+}
@@ -0,0 +1,128 @@
+package com.amazonaws.lex.twilio.sample.streaming;
+
+import org.junit.Test;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/*
+ * Copyright Amazon.com, Inc. or its affiliates. All Rights Reserved.
+ * SPDX-License-Identifier: MIT-0
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this
+ * software and associated documentation files (the "Software"), to deal in the Software
+ * without restriction, including without limitation the rights to use, copy, modify,
+ * merge, publish, distribute, sublicense, and/or sell copies of the Software, and to
+ * permit persons to whom the Software is furnished to do so.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED,
+ * INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A
+ * PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT
+ * HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION
+ * OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE
+ * SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+
+public class AudioResponseTest {
+
+    private static byte[] bytes(int from, int count) {
+        byte[] bytes = new byte[count];
+        for (int i = 0; i < count; i++) {
+            bytes[i] = (byte) (from + i);
+        }
+        return bytes;
+    }
+
+    private static long inMillis(long millis) {
+        return System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(millis);
+    }
+
+    @Test
+    public void takesWhatHasArrivedWithoutWaitingToFillUp() throws IOException {
+        AudioResponse response = new AudioResponse();
+        response.write(bytes(0, 4));
+        response.write(bytes(4, 6));
+
+        byte[] buffer = new byte[100];
+        long start = System.nanoTime();
+        assertEquals(10, response.readAvailable(buffer, 0, buffer.length, start));
+        assertTrue("waited for more audio", System.nanoTime() - start < TimeUnit.MILLISECONDS.toNanos(500));
+        assertArrayEquals(bytes(0, 10), Arrays.copyOf(buffer, 10));
+    }
+
+    @Test
+    public void waitsForMoreUntilTheDeadline() throws Exception {
+        AudioResponse response = new AudioResponse();
+        response.write(bytes(0, 4));
+        Thread lex = new Thread(() -> response.write(bytes(4, 4)));
+        lex.start();
+
+        byte[] buffer = new byte[8];
+        // the rest of the message arrives well before the deadline.
+        assertEquals(8, response.readAvailable(buffer, 0, buffer.length, inMillis(5000)));
+        assertArrayEquals(bytes(0, 8), buffer);
+        lex.join();
+    }
+
+    @Test
+    public void waitsForTheFirstBytesAndKeepsSamplesWhole() throws Exception {
+        AudioResponse response = new AudioResponse();
+        Thread lex = new Thread(() -> {
+            try {
+                Thread.sleep(50);
+                // half a sample, completed a little later.
+                response.write(bytes(0, 3));
+                Thread.sleep(50);
+                response.write(bytes(3, 1));
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        });
+        lex.start();
+
+        byte[] buffer = new byte[100];
+        // the deadline has passed already: the first bytes, and the second byte of a sample, are waited for anyway.
+        assertEquals(4, response.readAvailable(buffer, 0, buffer.length, System.nanoTime()));
+        assertArrayEquals(bytes(0, 4), Arrays.copyOf(buffer, 4));
+        lex.join();
+    }
+
+    @Test
+    public void endsOnceClosedAndDrained() throws IOException {
+        AudioResponse response = new AudioResponse();
+        response.write(bytes(0, 6));
+        response.close();
+
+        byte[] buffer = new byte[4];
+        assertEquals(4, response.readAvailable(buffer, 0, buffer.length, inMillis(1000)));
+        assertEquals(2, response.readAvailable(buffer, 0, buffer.length, inMillis(1000)));
+        assertEquals(-1, response.readAvailable(buffer, 0, buffer.length, inMillis(1000)));
+        assertEquals(-1, response.read(buffer, 0, buffer.length));
+    }
+
+    @Test
+    public void readWaitsUntilTheBufferIsFull() throws Exception {
+        AudioResponse response = new AudioResponse();
+        response.write(bytes(0, 2));
+        Thread lex = new Thread(() -> {
+            try {
+                Thread.sleep(50);
+            } catch (InterruptedException e) {
+                return;
+            }
+            response.write(bytes(2, 2));
+        });
+        lex.start();
+
+        byte[] buffer = new byte[4];
+        assertEquals(4, response.read(buffer, 0, buffer.length));
+        assertArrayEquals(bytes(0, 4), buffer);
+        lex.join();
+    }
+}
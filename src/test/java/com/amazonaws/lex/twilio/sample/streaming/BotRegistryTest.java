@@ -0,0 +1,120 @@
+package com.amazonaws.lex.twilio.sample.streaming;
+
+import org.junit.Test;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Properties;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+
+/*
+ * Copyright Amazon.com, Inc. or its affiliates. All Rights Reserved.
+ * SPDX-License-Identifier: MIT-0
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this
+ * software and associated documentation files (the "Software"), to deal in the Software
+ * without restriction, including without limitation the rights to use, copy, modify,
+ * merge, publish, distribute, sublicense, and/or sell copies of the Software, and to
+ * permit persons to whom the Software is furnished to do so.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED,
+ * INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A
+ * PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT
+ * HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION
+ * OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE
+ * SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+
+public class BotRegistryTest {
+
+    // the properties each bot was created with, by name.
+    private final Map<String, Properties> created = new LinkedHashMap<>();
+
+    private BotRegistry registry(String... keysAndValues) {
+        Properties properties = new Properties();
+        properties.setProperty("botId", "DEFAULTBOT");
+        for (int i = 0; i < keysAndValues.length; i += 2) {
+            properties.setProperty(keysAndValues[i], keysAndValues[i + 1]);
+        }
+        // routing needs no Lex clients.
+        return new BotRegistry(properties, (name, metricPrefix, botProperties) -> {
+            created.put(name, botProperties);
+            return null;
+        });
+    }
+
+    private BotRegistry salesAndSupport() {
+        return registry(
+                "bots", "sales, support",
+                "bot.sales.botId", "SALESBOT",
+                "bot.sales.callers", "+1 (555) 010-0001",
+                "bot.sales.numbers", "+15550109999",
+                "bot.support.callers", "+15550100002",
+                "bot.support.numbers", "+1 555 010 8888");
+    }
+
+    @Test
+    public void routesByBotParameterThenDialedNumberThenCallerThenDefault() {
+        BotRegistry registry = salesAndSupport();
+
+        // the bot parameter wins over both numbers.
+        assertEquals("support", registry.route("support", "+15550100001", "+15550109999"));
+        // then the dialed number, over the caller.
+        assertEquals("support", registry.route(null, "+15550100001", "+15550108888"));
+        assertEquals("sales", registry.route(null, "+15550100002", "+15550109999"));
+        assertEquals("sales", registry.route(null, null, "+15550109999"));
+        // then the caller.
+        assertEquals("sales", registry.route(null, "+15550100001", "+15550100004"));
+        assertEquals("support", registry.route(null, "+15550100002", null));
+        // then the default bot.
+        assertEquals(BotRegistry.DEFAULT_BOT, registry.route(null, "+15550100003", "+15550100004"));
+        assertEquals(BotRegistry.DEFAULT_BOT, registry.route(null, null, null));
+        assertEquals(BotRegistry.DEFAULT_BOT, registry.route(BotRegistry.DEFAULT_BOT, "+15550100001", null));
+    }
+
+    @Test
+    public void routesUnknownBotParametersByNumber() {
+        BotRegistry registry = salesAndSupport();
+
+        assertEquals("sales", registry.route("billing", "+15550100001", null));
+        assertEquals(BotRegistry.DEFAULT_BOT, registry.route("billing", null, null));
+    }
+
+    @Test
+    public void matchesNumbersWrittenWithSpacesAndPunctuation() {
+        BotRegistry registry = salesAndSupport();
+
+        assertEquals("sales", registry.route(null, "+1 555-010-0001", null));
+        assertEquals("support", registry.route(null, null, "+1 (555) 010-8888"));
+    }
+
+    @Test
+    public void createsEveryBotWithItsOwnKeysOverTheDefaults() {
+        salesAndSupport();
+
+        assertEquals(3, created.size());
+        assertEquals("DEFAULTBOT", created.get(BotRegistry.DEFAULT_BOT).getProperty("botId"));
+        assertEquals("SALESBOT", created.get("sales").getProperty("botId"));
+        assertEquals("DEFAULTBOT", created.get("support").getProperty("botId"));
+    }
+
+    @Test
+    public void refusesANumberRoutedToTwoBots() {
+        try {
+            registry("bots", "sales,support",
+                    "bot.sales.callers", "+15550100001",
+                    "bot.support.callers", "+1 555 010 0001");
+            fail("the number was routed to two bots");
+        } catch (IllegalArgumentException expected) {
+            // the configuration is rejected at start up.
+        }
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void refusesBotNamesThatCannotBeKeys() {
+        registry("bots", "sales.eu");
+    }
+}
@@ -0,0 +1,110 @@
+package com.amazonaws.lex.twilio.sample.streaming;
+
+import org.junit.Test;
+
+import java.util.Properties;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertThrows;
+import static org.junit.Assert.assertTrue;
+
+/*
+ * Copyright Amazon.com, Inc. or its affiliates. All Rights Reserved.
+ * SPDX-License-Identifier: MIT-0
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this
+ * software and associated documentation files (the "Software"), to deal in the Software
+ * without restriction, including without limitation the rights to use, copy, modify,
+ * merge, publish, distribute, sublicense, and/or sell copies of the Software, and to
+ * permit persons to whom the Software is furnished to do so.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED,
+ * INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A
+ * PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT
+ * HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION
+ * OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE
+ * SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+public class BoundedLatencyQueueTest {
+
+    private static BoundedLatencyQueue<byte[]> queue(String name, long capacity, long maxAgeMillis,
+                                                     OverflowPolicy policy) {
+        return new BoundedLatencyQueue<>(name, new QueueSettings(capacity, maxAgeMillis, policy), chunk -> 1,
+                chunk -> chunk.length);
+    }
+
+    @Test
+    public void dropsTheOldestAudioAndMeasuresTheGap() {
+        BoundedLatencyQueue<byte[]> queue = queue("test-drop", 2, 60000, OverflowPolicy.DROP_OLDEST);
+        queue.offerControl(new byte[0]);
+        queue.offer(new byte[100]);
+        queue.offer(new byte[200]);
+        queue.offer(new byte[300]);
+        queue.offer(new byte[400]);
+
+        // control items are neither dropped nor counted against the capacity.
+        assertEquals(0, queue.poll().length);
+        assertEquals(300, queue.poll().length);
+        assertEquals(300, queue.drainGap());
+        assertEquals(0, queue.drainGap());
+        assertEquals(400, queue.poll().length);
+        assertNull(queue.poll());
+        queue.close();
+    }
+
+    @Test
+    public void dropsAudioOlderThanTheMaximumAge() throws Exception {
+        BoundedLatencyQueue<byte[]> queue = queue("test-expire", 100, 50, OverflowPolicy.DROP_OLDEST);
+        queue.offer(new byte[160]);
+        queue.offer(new byte[160]);
+        TimeUnit.MILLISECONDS.sleep(100);
+        queue.offer(new byte[320]);
+
+        assertEquals(320, queue.poll().length);
+        assertEquals(320, queue.drainGap());
+        queue.close();
+    }
+
+    @Test
+    public void failPolicyFailsEveryLaterOffer() {
+        BoundedLatencyQueue<byte[]> queue = queue("test-fail", 1, 60000, OverflowPolicy.FAIL);
+        queue.offer(new byte[1]);
+
+        assertThrows(QueueOverflowException.class, () -> queue.offer(new byte[1]));
+        queue.poll();
+        assertThrows(QueueOverflowException.class, () -> queue.offer(new byte[1]));
+        // control items still go through, e.g. to disconnect.
+        queue.offerControl(new byte[0]);
+        assertEquals(1, queue.size());
+        queue.close();
+    }
+
+    @Test
+    public void rejectsUnknownOverflowPolicies() {
+        Properties properties = new Properties();
+        properties.setProperty("playback.overflow-policy", "fail");
+        properties.setProperty("lex-events.overflow-policy", "drop-oldest");
+        QueueSettings.check(properties);
+
+        // waiting for room would stall every call of the actor's shard, so there is no such policy.
+        properties.setProperty("lex-events.overflow-policy", "block");
+        IllegalArgumentException e = assertThrows(IllegalArgumentException.class,
+                () -> QueueSettings.check(properties));
+        assertTrue(e.getMessage(), e.getMessage().startsWith("lex-events: unknown overflow policy block"));
+    }
+
+    @Test
+    public void closedQueueRejectsAudioButHandsOutWhatItHolds() throws Exception {
+        BoundedLatencyQueue<byte[]> queue = queue("test-close", 10, 60000, OverflowPolicy.DROP_OLDEST);
+        queue.offer(new byte[1]);
+        queue.close();
+        queue.close();
+
+        assertThrows(IllegalStateException.class, () -> queue.offer(new byte[1]));
+        assertEquals(1, queue.poll(10, TimeUnit.MILLISECONDS).length);
+        assertNull(queue.poll(10, TimeUnit.MILLISECONDS));
+    }
+}
@@ -0,0 +1,148 @@
+package com.amazonaws.lex.twilio.sample.streaming;
+
+import com.amazonaws.lex.twilio.sample.metrics.Metrics;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import software.amazon.awssdk.http.async.SdkAsyncHttpClient;
+
+import java.net.ServerSocket;
+import java.net.URI;
+import java.util.Properties;
+import java.util.concurrent.TimeUnit;
+import java.util.function.BooleanSupplier;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/*
+ * Copyright Amazon.com, Inc. or its affiliates. All Rights Reserved.
+ * SPDX-License-Identifier: MIT-0
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this
+ * software and associated documentation files (the "Software"), to deal in the Software
+ * without restriction, including without limitation the rights to use, copy, modify,
+ * merge, publish, distribute, sublicense, and/or sell copies of the Software, and to
+ * permit persons to whom the Software is furnished to do so.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED,
+ * INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A
+ * PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT
+ * HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION
+ * OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE
+ * SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+
+/**
+ * Warms connections through the same Netty HTTP/2 client that conversations use, against a local HTTP/2 server that
+ * counts the connections it accepts.
+ */
+public class LexConnectionWarmerTest {
+
+    private static final long DEBOUNCE_MILLIS = 300;
+
+    private LexEndpointStandIn lex;
+    private SdkAsyncHttpClient httpClient;
+    private LexConnectionWarmer warmer;
+
+    @Before
+    public void setUp() throws Exception {
+        lex = new LexEndpointStandIn();
+    }
+
+    @After
+    public void tearDown() {
+        if (warmer != null) {
+            warmer.stop();
+        }
+        if (httpClient != null) {
+            httpClient.close();
+        }
+        lex.close();
+    }
+
+    private LexConnectionWarmer warmer(String metricPrefix, URI endpoint, long connectionMaxIdleMillis) {
+        Properties properties = new Properties();
+        properties.setProperty("warmConnections", "3");
+        properties.setProperty("warmUpTimeoutMs", "5000");
+        properties.setProperty("rewarmIdleMs", "3600000");
+        properties.setProperty("rewarmDebounceMs", String.valueOf(DEBOUNCE_MILLIS));
+        properties.setProperty("connectionMaxIdleMs", String.valueOf(connectionMaxIdleMillis));
+        properties.setProperty("connectionTimeoutMs", "1000");
+        properties.setProperty("trustAllCertificates", "true");
+        httpClient = LexClientProvider.createHttpClient("test", properties);
+        warmer = new LexConnectionWarmer("test", metricPrefix, httpClient, endpoint, properties);
+        return warmer;
+    }
+
+    @Test
+    public void opensAtMostOneConnectionPerWarmUpRequest() {
+        warmer("test.warm", lex.getEndpoint(), 300000).start();
+
+        assertEquals(3, lex.getRequests());
+        // the new pool may multiplex the first round onto the connection that negotiated HTTP/2.
+        assertTrue(lex.getConnectionsAccepted() >= 1 && lex.getConnectionsAccepted() <= 3);
+        assertEquals(3, warmer.getEstimatedWarmConnections());
+    }
+
+    @Test
+    public void rewarmsOnceForABurstOfFailures() {
+        long firstRoundAt = System.nanoTime();
+        warmer("test.burst", lex.getEndpoint(), 300000).start();
+        int firstRoundConnections = lex.getConnectionsAccepted();
+        lex.dropConnections();
+
+        for (int i = 0; i < 20; i++) {
+            warmer.onConnectionFailure();
+        }
+        assertEquals(0, warmer.getEstimatedWarmConnections());
+        awaitUntil(() -> warmer.getEstimatedWarmConnections() == 3);
+        // one round for the whole burst. A round sent on the dropped connections before the pool noticed fails
+        // without reaching the server and is retried.
+        assertEquals(6, lex.getRequests());
+        // with no connection left, the pool opened one per request.
+        assertEquals(firstRoundConnections + 3, lex.getConnectionsAccepted());
+        // not before the debounce interval had passed since the start up round.
+        assertTrue(lex.getRequestNanos().get(3) - firstRoundAt >= TimeUnit.MILLISECONDS.toNanos(DEBOUNCE_MILLIS));
+
+        for (int i = 0; i < 20; i++) {
+            warmer.onConnectionFailure();
+        }
+        awaitUntil(() -> warmer.getEstimatedWarmConnections() == 3);
+        assertEquals(9, lex.getRequests());
+        // the connections are still open, the round multiplexed onto them instead of opening more.
+        assertEquals(firstRoundConnections + 3, lex.getConnectionsAccepted());
+    }
+
+    @Test
+    public void estimatesNoWarmConnectionsWhenTheEndpointIsUnreachable() throws Exception {
+        URI unreachable;
+        try (ServerSocket socket = new ServerSocket(0)) {
+            unreachable = URI.create("https://localhost:" + socket.getLocalPort());
+        }
+
+        warmer("test.unreachable", unreachable, 300000).start();
+
+        assertEquals(0, warmer.getEstimatedWarmConnections());
+        assertTrue(Metrics.counter("test.unreachable.connections.warmup.errors").sum() > 0);
+    }
+
+    @Test
+    public void estimatesNoWarmConnectionsOnceThePoolMayHaveClosedThem() {
+        warmer("test.idle", lex.getEndpoint(), 500).start();
+        assertEquals(3, warmer.getEstimatedWarmConnections());
+
+        awaitUntil(() -> warmer.getEstimatedWarmConnections() == 0);
+    }
+
+    private static void awaitUntil(BooleanSupplier condition) {
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(10);
+        while (!condition.getAsBoolean()) {
+            if (System.nanoTime() > deadline) {
+                throw new AssertionError("condition not met within 10s");
+            }
+            Thread.onSpinWait();
+        }
+    }
+}
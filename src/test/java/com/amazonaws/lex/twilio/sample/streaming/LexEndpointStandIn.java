@@ -0,0 +1,162 @@
+package com.amazonaws.lex.twilio.sample.streaming;
+
+import io.netty.bootstrap.ServerBootstrap;
+import io.netty.channel.Channel;
+import io.netty.channel.ChannelHandlerContext;
+import io.netty.channel.ChannelInboundHandlerAdapter;
+import io.netty.channel.ChannelInitializer;
+import io.netty.channel.EventLoopGroup;
+import io.netty.channel.group.ChannelGroup;
+import io.netty.channel.group.DefaultChannelGroup;
+import io.netty.channel.nio.NioEventLoopGroup;
+import io.netty.channel.socket.SocketChannel;
+import io.netty.channel.socket.nio.NioServerSocketChannel;
+import io.netty.handler.codec.http2.DefaultHttp2Headers;
+import io.netty.handler.codec.http2.DefaultHttp2HeadersFrame;
+import io.netty.handler.codec.http2.Http2FrameCodecBuilder;
+import io.netty.handler.codec.http2.Http2HeadersFrame;
+import io.netty.handler.codec.http2.Http2MultiplexHandler;
+import io.netty.handler.ssl.SslContext;
+import io.netty.handler.ssl.SslContextBuilder;
+import io.netty.handler.ssl.SslProvider;
+import io.netty.util.ReferenceCountUtil;
+import io.netty.util.concurrent.GlobalEventExecutor;
+
+import javax.net.ssl.KeyManagerFactory;
+import java.io.InputStream;
+import java.net.InetSocketAddress;
+import java.net.URI;
+import java.security.KeyStore;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/*
+ * Copyright Amazon.com, Inc. or its affiliates. All Rights Reserved.
+ * SPDX-License-Identifier: MIT-0
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this
+ * software and associated documentation files (the "Software"), to deal in the Software
+ * without restriction, including without limitation the rights to use, copy, modify,
+ * merge, publish, distribute, sublicense, and/or sell copies of the Software, and to
+ * permit persons to whom the Software is furnished to do so.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED,
+ * INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A
+ * PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT
+ * HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION
+ * OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE
+ * SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+/**
+ * Local stand-in for the Lex runtime endpoint: an HTTP/2 server over TLS, with the self signed certificate of
+ * lex-stand-in.p12, on an ephemeral port of the loopback interface. It counts the TCP connections it accepts and the
+ * HTTP/2 requests (streams) it receives, and answers every request with 403 and an empty body, as Lex answers
+ * unsigned requests.
+ */
+final class LexEndpointStandIn implements AutoCloseable {
+
+    private static final char[] KEY_STORE_PASSWORD = "lex-stand-in".toCharArray();
+
+    private final EventLoopGroup bossGroup;
+    private final EventLoopGroup workerGroup;
+    private final Channel serverChannel;
+    private final ChannelGroup connections;
+    private final AtomicInteger connectionsAccepted;
+    private final List<Long> requestNanos;
+
+    LexEndpointStandIn() throws Exception {
+        SslContext sslContext = SslContextBuilder.forServer(keyManagerFactory())
+                .sslProvider(SslProvider.JDK)
+                .build();
+        this.bossGroup = new NioEventLoopGroup(1);
+        this.workerGroup = new NioEventLoopGroup(2);
+        this.connections = new DefaultChannelGroup(GlobalEventExecutor.INSTANCE);
+        this.connectionsAccepted = new AtomicInteger();
+        this.requestNanos = new CopyOnWriteArrayList<>();
+
+        this.serverChannel = new ServerBootstrap()
+                .group(bossGroup, workerGroup)
+                .channel(NioServerSocketChannel.class)
+                .childHandler(new ChannelInitializer<SocketChannel>() {
+                    @Override
+                    protected void initChannel(SocketChannel channel) {
+                        connectionsAccepted.incrementAndGet();
+                        connections.add(channel);
+                        channel.pipeline().addLast(
+                                sslContext.newHandler(channel.alloc()),
+                                Http2FrameCodecBuilder.forServer().build(),
+                                new Http2MultiplexHandler(new ChannelInitializer<Channel>() {
+                                    @Override
+                                    protected void initChannel(Channel stream) {
+                                        stream.pipeline().addLast(new Forbidden());
+                                    }
+                                }));
+                    }
+                })
+                .bind(new InetSocketAddress("127.0.0.1", 0))
+                .sync()
+                .channel();
+    }
+
+    private static KeyManagerFactory keyManagerFactory() throws Exception {
+        KeyStore keyStore = KeyStore.getInstance("PKCS12");
+        try (InputStream input = LexEndpointStandIn.class.getClassLoader().getResourceAsStream("lex-stand-in.p12")) {
+            keyStore.load(input, KEY_STORE_PASSWORD);
+        }
+        KeyManagerFactory keyManagerFactory = KeyManagerFactory.getInstance(KeyManagerFactory.getDefaultAlgorithm());
+        keyManagerFactory.init(keyStore, KEY_STORE_PASSWORD);
+        return keyManagerFactory;
+    }
+
+    URI getEndpoint() {
+        return URI.create("https://localhost:" + ((InetSocketAddress) serverChannel.localAddress()).getPort());
+    }
+
+    int getConnectionsAccepted() {
+        return connectionsAccepted.get();
+    }
+
+    int getRequests() {
+        return requestNanos.size();
+    }
+
+    /**
+     * @return {@link System#nanoTime()} at which each request was received, in order
+     */
+    List<Long> getRequestNanos() {
+        return requestNanos;
+    }
+
+    /**
+     * Closes every open connection, as a load balancer or NAT in between might.
+     */
+    void dropConnections() {
+        connections.close().syncUninterruptibly();
+    }
+
+    @Override
+    public void close() {
+        serverChannel.close().syncUninterruptibly();
+        connections.close().syncUninterruptibly();
+        workerGroup.shutdownGracefully(0, 1, TimeUnit.SECONDS);
+        bossGroup.shutdownGracefully(0, 1, TimeUnit.SECONDS);
+    }
+
+    private final class Forbidden extends ChannelInboundHandlerAdapter {
+
+        @Override
+        public void channelRead(ChannelHandlerContext context, Object frame) {
+            try {
+                if (frame instanceof Http2HeadersFrame) {
+                    requestNanos.add(System.nanoTime());
+                    context.writeAndFlush(new DefaultHttp2HeadersFrame(new DefaultHttp2Headers().status("403"), true));
+                }
+            } finally {
+                ReferenceCountUtil.release(frame);
+            }
+        }
+    }
+}
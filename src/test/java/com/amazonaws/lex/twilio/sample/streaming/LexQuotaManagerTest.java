@@ -0,0 +1,220 @@
+package com.amazonaws.lex.twilio.sample.streaming;
+
+import org.junit.After;
+import org.junit.Test;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/*
+ * Copyright Amazon.com, Inc. or its affiliates. All Rights Reserved.
+ * SPDX-License-Identifier: MIT-0
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this
+ * software and associated documentation files (the "Software"), to deal in the Software
+ * without restriction, including without limitation the rights to use, copy, modify,
+ * merge, publish, distribute, sublicense, and/or sell copies of the Software, and to
+ * permit persons to whom the Software is furnished to do so.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED,
+ * INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A
+ * PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT
+ * HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION
+ * OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE
+ * SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+public class LexQuotaManagerTest {
+
+    private final ScheduledExecutorService scheduler = Executors.newSingleThreadScheduledExecutor();
+    // the manager's clock, only moved by the test; wake ups on the scheduler then change nothing by themselves.
+    private long nanos = TimeUnit.SECONDS.toNanos(100);
+
+    @After
+    public void tearDown() {
+        scheduler.shutdownNow();
+    }
+
+    private LexQuotaManager quota(int maxConversations, double startsPerSecond, int burst, boolean priority,
+                                  int maxQueued, long maxWaitMillis) {
+        return new LexQuotaManager("test", "test.quota", maxConversations, startsPerSecond, burst, priority,
+                maxQueued, maxWaitMillis, () -> nanos, () -> scheduler);
+    }
+
+    private void advanceMillis(long millis) {
+        nanos += TimeUnit.MILLISECONDS.toNanos(millis);
+    }
+
+    private static LexQuotaManager.Permit granted(CompletableFuture<LexQuotaManager.Permit> start) throws Exception {
+        assertTrue("start was not granted", start.isDone());
+        return start.get();
+    }
+
+    @Test
+    public void capsConcurrentConversations() throws Exception {
+        LexQuotaManager quota = quota(2, 0, 10, true, 10, 15000);
+
+        CompletableFuture<LexQuotaManager.Permit> first = quota.acquire("CA1", false);
+        CompletableFuture<LexQuotaManager.Permit> second = quota.acquire("CA2", false);
+        CompletableFuture<LexQuotaManager.Permit> third = quota.acquire("CA3", false);
+        assertTrue(first.isDone() && second.isDone());
+        assertFalse(third.isDone());
+
+        LexQuotaManager.Permit permit = granted(first);
+        permit.release();
+        granted(third);
+
+        // a permit is released once, however often it is asked to.
+        permit.release();
+        assertFalse(quota.acquire("CA4", false).isDone());
+    }
+
+    @Test
+    public void refillsStartTokensAtTheConfiguredRate() throws Exception {
+        LexQuotaManager quota = quota(0, 2, 2, true, 10, 15000);
+
+        granted(quota.acquire("CA1", false));
+        granted(quota.acquire("CA2", false));
+        CompletableFuture<LexQuotaManager.Permit> third = quota.acquire("CA3", false);
+        CompletableFuture<LexQuotaManager.Permit> fourth = quota.acquire("CA4", false);
+        assertFalse(third.isDone());
+
+        advanceMillis(400);
+        quota.drain();
+        assertFalse(third.isDone());
+
+        advanceMillis(100);
+        quota.drain();
+        granted(third);
+        assertFalse(fourth.isDone());
+
+        // tokens do not pile up beyond the burst while nobody is waiting.
+        advanceMillis(10000);
+        quota.drain();
+        granted(fourth);
+        granted(quota.acquire("CA5", false));
+        assertFalse(quota.acquire("CA6", false).isDone());
+    }
+
+    @Test
+    public void servesRetriesFirstInPriorityOrder() throws Exception {
+        LexQuotaManager quota = quota(1, 0, 10, true, 10, 15000);
+        LexQuotaManager.Permit active = granted(quota.acquire("CA1", false));
+        CompletableFuture<LexQuotaManager.Permit> start = quota.acquire("CA2", false);
+        CompletableFuture<LexQuotaManager.Permit> retry = quota.acquire("CA3", true);
+
+        active.release();
+
+        granted(retry);
+        assertFalse(start.isDone());
+    }
+
+    @Test
+    public void servesStartsInArrivalOrderInFifoOrder() throws Exception {
+        LexQuotaManager quota = quota(1, 0, 10, false, 10, 15000);
+        LexQuotaManager.Permit active = granted(quota.acquire("CA1", false));
+        CompletableFuture<LexQuotaManager.Permit> start = quota.acquire("CA2", false);
+        CompletableFuture<LexQuotaManager.Permit> retry = quota.acquire("CA3", true);
+
+        active.release();
+
+        granted(start);
+        assertFalse(retry.isDone());
+    }
+
+    @Test
+    public void rejectsStartsThatWaitTooLong() throws Exception {
+        LexQuotaManager quota = quota(1, 0, 10, true, 10, 1000);
+        granted(quota.acquire("CA1", false));
+        CompletableFuture<LexQuotaManager.Permit> waiting = quota.acquire("CA2", false);
+
+        advanceMillis(1000);
+        quota.drain();
+        assertFalse(waiting.isDone());
+
+        advanceMillis(1);
+        quota.drain();
+        assertRejected(waiting);
+    }
+
+    @Test
+    public void rejectsStartsBeyondTheQueueLimit() throws Exception {
+        LexQuotaManager quota = quota(1, 0, 10, true, 2, 15000);
+        granted(quota.acquire("CA1", false));
+        assertFalse(quota.acquire("CA2", false).isDone());
+        assertFalse(quota.acquire("CA3", false).isDone());
+
+        assertRejected(quota.acquire("CA4", false));
+    }
+
+    @Test
+    public void releasesPermitsGrantedToCancelledStarts() throws Exception {
+        LexQuotaManager quota = quota(1, 0, 10, true, 10, 15000);
+        LexQuotaManager.Permit active = granted(quota.acquire("CA1", false));
+        CompletableFuture<LexQuotaManager.Permit> cancelled = quota.acquire("CA2", false);
+        cancelled.cancel(false);
+
+        active.release();
+
+        granted(quota.acquire("CA3", false));
+    }
+
+    @Test
+    public void backsOffWhenThrottledAndRecovers() throws Exception {
+        LexQuotaManager quota = quota(8, 10, 10, true, 10, 60000);
+        LexQuotaManager.Permit[] permits = new LexQuotaManager.Permit[4];
+        for (int i = 0; i < permits.length; i++) {
+            permits[i] = granted(quota.acquire("CA" + i, false));
+        }
+
+        quota.throttled();
+        // three quarters of the 4 open streams, half the start rate.
+        assertEquals(3, quota.getConcurrencyLimit(), 1e-9);
+        assertEquals(5, quota.getStartsPerSecond(), 1e-9);
+
+        permits[0].release();
+        CompletableFuture<LexQuotaManager.Permit> waiting = quota.acquire("CA4", false);
+        assertFalse(waiting.isDone());
+
+        // an established stream shows Lex takes the load, one more is allowed.
+        permits[1].established();
+        assertEquals(4, quota.getConcurrencyLimit(), 1e-9);
+        granted(waiting);
+
+        // the rate recovers by a tenth of the configured rate per second, up to the configured rate.
+        advanceMillis(2000);
+        assertEquals(7, quota.getStartsPerSecond(), 1e-9);
+        advanceMillis(10000);
+        assertEquals(10, quota.getStartsPerSecond(), 1e-9);
+
+        // repeated throttling never takes the limits below one stream and a tenth of the rate.
+        for (int i = 0; i < 20; i++) {
+            quota.throttled();
+        }
+        assertEquals(1, quota.getConcurrencyLimit(), 1e-9);
+        assertEquals(1, quota.getStartsPerSecond(), 1e-9);
+
+        for (int i = 0; i < 20; i++) {
+            permits[2].established();
+        }
+        assertEquals(8, quota.getConcurrencyLimit(), 1e-9);
+    }
+
+    private static void assertRejected(CompletableFuture<LexQuotaManager.Permit> start) throws Exception {
+        assertTrue(start.isCompletedExceptionally());
+        try {
+            start.get();
+            fail("start was granted");
+        } catch (ExecutionException e) {
+            assertTrue(e.getCause() instanceof QueueOverflowException);
+        }
+    }
+}
@@ -0,0 +1,137 @@
+package com.amazonaws.lex.twilio.sample.streaming;
+
+import io.github.jaredmdobson.concentus.OpusDecoder;
+import io.github.jaredmdobson.concentus.OpusException;
+import org.junit.Test;
+
+import java.util.Arrays;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/*
+ * Copyright Amazon.com, Inc. or its affiliates. All Rights Reserved.
+ * SPDX-License-Identifier: MIT-0
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this
+ * software and associated documentation files (the "Software"), to deal in the Software
+ * without restriction, including without limitation the rights to use, copy, modify,
+ * merge, publish, distribute, sublicense, and/or sell copies of the Software, and to
+ * permit persons to whom the Software is furnished to do so.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED,
+ * INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A
+ * PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT
+ * HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION
+ * OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE
+ * SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+
+public class OpusUplinkEncoderTest {
+
+    // 20ms frames at 16 kbit/s: 160 samples in, 40 bytes out.
+    private static final int FRAME_SAMPLES = 160;
+    private static final int FRAME_BYTES = 40;
+
+    /**
+     * 16 bit little endian PCM of a sine wave at 8kHz.
+     */
+    private static byte[] tone(double frequency, int amplitude, int samples) {
+        byte[] pcm = new byte[samples * 2];
+        for (int i = 0; i < samples; i++) {
+            short sample = (short) (amplitude * Math.sin(2 * Math.PI * frequency * i / UplinkCodec.SAMPLE_RATE));
+            pcm[2 * i] = (byte) sample;
+            pcm[2 * i + 1] = (byte) (sample >> 8);
+        }
+        return pcm;
+    }
+
+    private static short[] decode(byte[] opus) throws OpusException {
+        OpusDecoder decoder = new OpusDecoder(UplinkCodec.SAMPLE_RATE, 1);
+        int frames = opus.length / FRAME_BYTES;
+        short[] pcm = new short[frames * FRAME_SAMPLES];
+        for (int i = 0; i < frames; i++) {
+            assertEquals(FRAME_SAMPLES, decoder.decode(opus, i * FRAME_BYTES, FRAME_BYTES, pcm, i * FRAME_SAMPLES,
+                    FRAME_SAMPLES, false));
+        }
+        return pcm;
+    }
+
+    /**
+     * Power of the samples at one frequency (Goertzel).
+     */
+    private static double power(short[] samples, int from, double frequency) {
+        double coefficient = 2 * Math.cos(2 * Math.PI * frequency / UplinkCodec.SAMPLE_RATE);
+        double previous = 0;
+        double beforePrevious = 0;
+        for (int i = from; i < samples.length; i++) {
+            double current = samples[i] + coefficient * previous - beforePrevious;
+            beforePrevious = previous;
+            previous = current;
+        }
+        return previous * previous + beforePrevious * beforePrevious - coefficient * previous * beforePrevious;
+    }
+
+    @Test
+    public void encodesWholeFramesOfConstantSizeAndKeepsTheRest() {
+        UplinkEncoder encoder = UplinkCodec.opus(16000, 20, 5).newEncoder();
+        byte[] pcm = tone(440, 8000, 4 * FRAME_SAMPLES);
+
+        // less than a frame is held back.
+        assertNull(encoder.encode(Arrays.copyOfRange(pcm, 0, 300)));
+        // and completed by the next chunk: 320 samples in all.
+        assertEquals(2 * FRAME_BYTES, encoder.encode(Arrays.copyOfRange(pcm, 300, 640)).length);
+        // chunks of any size give one frame of the same size per 20ms.
+        assertEquals(2 * FRAME_BYTES, encoder.encode(Arrays.copyOfRange(pcm, 640, 1280)).length);
+    }
+
+    @Test
+    public void decodesBackToTheTone() throws OpusException {
+        UplinkEncoder encoder = UplinkCodec.opus(16000, 20, 5).newEncoder();
+        byte[] pcm = tone(440, 8000, UplinkCodec.SAMPLE_RATE);
+        byte[] opus = encoder.encode(pcm);
+        assertEquals(50 * FRAME_BYTES, opus.length);
+
+        short[] decoded = decode(opus);
+        // past the codec's start up, the tone dominates what comes out.
+        int from = 5 * FRAME_SAMPLES;
+        double tone = power(decoded, from, 440);
+        assertTrue("the tone was lost", tone > 100 * power(decoded, from, 1000));
+        assertTrue("the tone was lost", tone > 100 * power(decoded, from, 2000));
+        long energy = 0;
+        for (int i = from; i < decoded.length; i++) {
+            energy += (long) decoded[i] * decoded[i];
+        }
+        double rms = Math.sqrt((double) energy / (decoded.length - from));
+        // a sine of amplitude 8000 has an rms of about 5657.
+        assertEquals(5657, rms, 5657 * 0.3);
+    }
+
+    @Test
+    public void fillsGapsWithWholeFramesOfSilence() throws OpusException {
+        UplinkCodec codec = UplinkCodec.opus(16000, 20, 5);
+
+        assertEquals(0, codec.silence(FRAME_BYTES - 1).length);
+        byte[] silence = codec.silence(2 * FRAME_BYTES + 10);
+        assertEquals(2 * FRAME_BYTES, silence.length);
+        for (short sample : decode(silence)) {
+            assertTrue(Math.abs(sample) < 50);
+        }
+    }
+
+    @Test
+    public void refusesSettingsThatDoNotGiveWholeBytesPerFrame() {
+        int[][] invalid = {{16000, 25, 5}, {12100, 20, 5}, {4000, 20, 5}, {16000, 20, 11}};
+        for (int[] settings : invalid) {
+            try {
+                UplinkCodec.opus(settings[0], settings[1], settings[2]);
+                fail("accepted " + Arrays.toString(settings));
+            } catch (IllegalArgumentException expected) {
+                // refused at start up.
+            }
+        }
+    }
+}
@@ -0,0 +1,111 @@
+package com.amazonaws.lex.twilio.sample.streaming;
+
+import org.junit.Test;
+import software.amazon.awssdk.services.lexruntimev2.model.ThrottlingException;
+
+import java.util.Properties;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletionException;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/*
+ * Copyright Amazon.com, Inc. or its affiliates. All Rights Reserved.
+ * SPDX-License-Identifier: MIT-0
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this
+ * software and associated documentation files (the "Software"), to deal in the Software
+ * without restriction, including without limitation the rights to use, copy, modify,
+ * merge, publish, distribute, sublicense, and/or sell copies of the Software, and to
+ * permit persons to whom the Software is furnished to do so.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED,
+ * INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A
+ * PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT
+ * HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION
+ * OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE
+ * SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+public class StreamRecoveryTest {
+
+    private static final Throwable THROTTLED = new CompletionException(
+            ThrottlingException.builder().message("Rate exceeded").build());
+    // what a reset connection completes the stream with.
+    private static final Throwable RESET = new CancellationException();
+
+    private static StreamRecovery recovery(int maxAttempts) {
+        Properties properties = new Properties();
+        properties.setProperty("reconnectMaxAttempts", String.valueOf(maxAttempts));
+        properties.setProperty("reconnectBackoffMs", "100");
+        properties.setProperty("reconnectMaxBackoffMs", "300");
+        return new StreamRecovery(ReconnectPolicy.fromProperties(properties));
+    }
+
+    @Test
+    public void requeuesThrottledStartsUpToTheLimit() {
+        StreamRecovery recovery = recovery(0);
+
+        for (int i = 1; i <= StreamRecovery.MAX_THROTTLED_RETRIES; i++) {
+            assertEquals(StreamRecovery.Action.REQUEUE, recovery.streamFailed(THROTTLED, false));
+            assertEquals(i, recovery.getThrottledAttempts());
+        }
+        assertEquals(StreamRecovery.Action.GIVE_UP, recovery.streamFailed(THROTTLED, false));
+    }
+
+    @Test
+    public void reconnectsAThrottledStreamOnceTheRequeuesAreUsedUp() {
+        StreamRecovery recovery = recovery(1);
+        for (int i = 0; i < StreamRecovery.MAX_THROTTLED_RETRIES; i++) {
+            recovery.streamFailed(THROTTLED, false);
+        }
+
+        assertEquals(StreamRecovery.Action.RECONNECT, recovery.streamFailed(THROTTLED, false));
+        assertEquals(StreamRecovery.Action.GIVE_UP, recovery.streamFailed(THROTTLED, false));
+    }
+
+    @Test
+    public void reconnectsUpToTheMaximumAttemptsWithGrowingBackoff() {
+        StreamRecovery recovery = recovery(3);
+
+        long[] maxBackoff = {100, 200, 300};
+        for (int i = 0; i < maxBackoff.length; i++) {
+            assertEquals(StreamRecovery.Action.RECONNECT, recovery.streamFailed(RESET, false));
+            assertEquals(i + 1, recovery.getFailedAttempts());
+            long backoff = recovery.backoffMillis();
+            assertTrue(backoff >= maxBackoff[i] / 2 && backoff <= maxBackoff[i]);
+        }
+        assertEquals(StreamRecovery.Action.GIVE_UP, recovery.streamFailed(RESET, false));
+        assertEquals(0, recovery.getThrottledAttempts());
+    }
+
+    @Test
+    public void hangsUpOnTheFirstFailureWhenReconnectingIsOff() {
+        assertEquals(StreamRecovery.Action.GIVE_UP, recovery(0).streamFailed(RESET, false));
+    }
+
+    @Test
+    public void anEstablishedStreamHasAllItsAttemptsAgain() {
+        StreamRecovery recovery = recovery(1);
+        for (int i = 0; i < StreamRecovery.MAX_THROTTLED_RETRIES; i++) {
+            recovery.streamFailed(THROTTLED, false);
+        }
+        recovery.streamFailed(RESET, false);
+
+        recovery.established();
+
+        assertEquals(StreamRecovery.Action.REQUEUE, recovery.streamFailed(THROTTLED, false));
+        assertEquals(StreamRecovery.Action.RECONNECT, recovery.streamFailed(RESET, false));
+    }
+
+    @Test
+    public void neverReopensAStoppedConversation() {
+        StreamRecovery recovery = recovery(3);
+
+        assertEquals(StreamRecovery.Action.GIVE_UP, recovery.streamFailed(THROTTLED, true));
+        assertEquals(StreamRecovery.Action.GIVE_UP, recovery.streamFailed(RESET, true));
+        assertEquals(0, recovery.getFailedAttempts());
+        assertEquals(0, recovery.getThrottledAttempts());
+    }
+}
@@ -0,0 +1,133 @@
+package com.amazonaws.lex.twilio.sample.trace;
+
+import com.amazonaws.lex.twilio.sample.server.messages.MessageType;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/*
+ * Copyright Amazon.com, Inc. or its affiliates. All Rights Reserved.
+ * SPDX-License-Identifier: MIT-0
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this
+ * software and associated documentation files (the "Software"), to deal in the Software
+ * without restriction, including without limitation the rights to use, copy, modify,
+ * merge, publish, distribute, sublicense, and/or sell copies of the Software, and to
+ * permit persons to whom the Software is furnished to do so.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED,
+ * INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A
+ * PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT
+ * HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION
+ * OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE
+ * SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+
+public class TraceTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private static byte[] payload(int length, int seed) {
+        byte[] payload = new byte[length];
+        for (int i = 0; i < length; i++) {
+            payload[i] = (byte) (seed + i);
+        }
+        return payload;
+    }
+
+    @Test
+    public void replaysWhatWasWritten() throws IOException {
+        Path file = folder.getRoot().toPath().resolve("call.ltrc");
+        long start = 5_000_000_000L;
+        long before = System.currentTimeMillis();
+        try (TraceWriter writer = new TraceWriter(file)) {
+            writer.write(MessageType.CONNECTED, start, "{\"event\":\"connected\"}");
+            writer.write(MessageType.START, start + 1_500, "{\"event\":\"start\",\"name\":\"caf\u00e9\"}");
+            // media every 20ms and 333ns: the remainders below a microsecond must not be lost along the way.
+            for (int i = 0; i < 500; i++) {
+                byte[] media = payload(160, i);
+                writer.write(MessageType.MEDIA, start + 1_500 + (i + 1) * 20_000_333L, media, media.length);
+            }
+            // larger than the reader's initial buffer, after an hour's silence.
+            byte[] large = payload(5000, 7);
+            writer.write(MessageType.MARK, start + 3_600_000_000_000L, large, large.length);
+            writer.write(MessageType.STOP, start + 3_600_000_000_000L, "{\"event\":\"stop\"}");
+        }
+
+        try (TraceReader reader = new TraceReader(file)) {
+            assertTrue(reader.getStartEpochMillis() >= before);
+            assertTrue(reader.getStartEpochMillis() <= System.currentTimeMillis());
+
+            assertTrue(reader.next());
+            assertEquals(MessageType.CONNECTED, reader.getMessageType());
+            assertEquals(0, reader.getOffsetMicros());
+            assertEquals("{\"event\":\"connected\"}", reader.getText());
+
+            assertTrue(reader.next());
+            assertEquals(MessageType.START, reader.getMessageType());
+            assertEquals(1, reader.getOffsetMicros());
+            assertEquals("{\"event\":\"start\",\"name\":\"caf\u00e9\"}", reader.getText());
+
+            for (int i = 0; i < 500; i++) {
+                assertTrue(reader.next());
+                assertEquals(MessageType.MEDIA, reader.getMessageType());
+                assertEquals((1_500 + (i + 1) * 20_000_333L) / 1000, reader.getOffsetMicros());
+                assertArrayEquals(payload(160, i), Arrays.copyOf(reader.getData(), reader.getLength()));
+            }
+
+            assertTrue(reader.next());
+            assertEquals(MessageType.MARK, reader.getMessageType());
+            assertEquals(3_600_000_000L, reader.getOffsetMicros());
+            assertArrayEquals(payload(5000, 7), Arrays.copyOf(reader.getData(), reader.getLength()));
+
+            assertTrue(reader.next());
+            assertEquals(MessageType.STOP, reader.getMessageType());
+            assertEquals("{\"event\":\"stop\"}", reader.getText());
+
+            assertFalse(reader.next());
+        }
+    }
+
+    @Test
+    public void endsAtARecordCutShort() throws IOException {
+        Path file = folder.getRoot().toPath().resolve("cut.ltrc");
+        try (TraceWriter writer = new TraceWriter(file)) {
+            for (int i = 0; i < 3; i++) {
+                byte[] media = payload(160, i);
+                writer.write(MessageType.MEDIA, i * 20_000_000L, media, media.length);
+            }
+        }
+        // the process died while the last record was being written.
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.WRITE)) {
+            channel.truncate(Files.size(file) - 100);
+        }
+
+        try (TraceReader reader = new TraceReader(file)) {
+            assertTrue(reader.next());
+            assertTrue(reader.next());
+            assertArrayEquals(payload(160, 1), Arrays.copyOf(reader.getData(), reader.getLength()));
+            assertFalse(reader.next());
+        }
+    }
+
+    @Test(expected = IOException.class)
+    public void refusesFilesThatAreNoTrace() throws IOException {
+        Path file = folder.getRoot().toPath().resolve("journal.ljrn");
+        Files.write(file, new byte[]{'L', 'J', 'R', 'N', 1, 0, 0, 0, 0, 0, 0, 0, 0});
+        new TraceReader(file).close();
+    }
+}